@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the sequences within k mismatches (Hamming distance) or k
+ * edits (Levenshtein distance) of a query by walking down the tree
+ * with an error budget, dropping a subtree as soon as every sequence
+ * in it must be over budget.
+ *
+ * For edit distance there is one dynamic programming row per level of
+ * the current path: row d holds the distance from the first d bases
+ * of the path to each prefix of the query.  Siblings share every row
+ * above them, so each node costs one row.  Only the diagonal band of
+ * width 2k + 1 can be within k, so a row holds just that band, from
+ * query prefix d - k on, and memory grows with k rather than with
+ * the query's length.
+ *
+ * A compressed chain counts as one node, or, for a tree that counts
+ * chain levels, as the five slots of each level it stands for, the
+ * way the plain tree would visit them.
+ *
+ * One instance serves one query, so searches on different threads
+ * never share state.
+ */
+class ApproximateSearch {
+    private final int[] query;
+    private final int k;
+    private final boolean edit;
+    private final boolean chainLevels;
+    private final int infinity;
+    private int[][] rows;
+    private int rowMin;
+    private int visited;
+    private final List<LeafNode> matches = new ArrayList<LeafNode>();
+
+    /**
+     * @param query - the bases to match; anything but A/C/G/T always
+     *        counts as a mismatch
+     * @param k - the most mismatches or edits allowed
+     * @param edit - true for edit distance, false for Hamming distance
+     * @param chainLevels - count every level of a compressed chain
+     */
+    ApproximateSearch(String query, int k, boolean edit, boolean chainLevels) {
+        this.query = new int[query.length()];
+        for (int i = 0; i < this.query.length; i++) {
+            this.query[i] = PackedSequence.code(query.charAt(i));
+        }
+        this.k = k;
+        this.edit = edit;
+        this.chainLevels = chainLevels;
+        infinity = k + 1;
+        if (edit) {
+            rows = new int[64][];
+            rows[0] = newRow();
+            for (int j = 0; j <= Math.min(this.query.length, k); j++) {
+                rows[0][j + k] = j;
+            }
+        }
+    }
+
+    /**
+     * Runs the search and writes the results in the same format as a
+     * search: the number of nodes visited, then the matches in the
+     * order they sit in the tree.  Every node looked at counts once,
+     * flyweights included; a node whose subtree is pruned is still
+     * counted, its children are not.
+     *
+     * @param out - where the results are written
+     * @param root - the root of the tree to search
+     * @throws IOException if out fails
+     */
+    void run(Appendable out, Node root) throws IOException {
+        if (root instanceof FlyweightNode) {
+            out.append("no sequence found\n");
+            return;
+        }
+        visited = 1;
+        if (root instanceof LeafNode) {
+            checkLeaf((LeafNode) root, 0, 0);
+        }
+        else {
+            walk((InternalNode) root);
+        }
+        out.append("# of nodes visited: ").append(Integer.toString(visited));
+        if (matches.isEmpty()) {
+            out.append("\nno sequence found");
+        }
+        for (LeafNode leaf : matches) {
+            out.append("\nsequence: ").append(leaf.getSequence());
+        }
+        out.append('\n');
+    }
+
+    private void walk(InternalNode root) {
+        InternalNode[] nodes = new InternalNode[64];
+        int[] next = new int[64];
+        int[] branch = new int[64];
+        int[] mismatches = new int[64];
+        int top = -1;
+        InternalNode enter = root;
+        int enterMismatches = 0;
+        while (true) {
+            if (enter != null) {
+                int level = enter.getLevel();
+                int end = enter instanceof CompressedNode
+                    ? ((CompressedNode) enter).getBranchLevel() : level;
+                int m = enterMismatches;
+                if (end > level) {
+                    PackedSequence label = ((CompressedNode) enter).anyLeaf().getPacked();
+                    for (int pos = level; pos < end && m <= k; pos++) {
+                        if (chainLevels) {
+                            visited += InternalNode.SLOTS;
+                        }
+                        m = step(pos, label.codeAt(pos), m);
+                    }
+                }
+                if (m <= k) {
+                    top++;
+                    if (top == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, top * 2);
+                        next = Arrays.copyOf(next, top * 2);
+                        branch = Arrays.copyOf(branch, top * 2);
+                        mismatches = Arrays.copyOf(mismatches, top * 2);
+                    }
+                    nodes[top] = enter;
+                    next[top] = 0;
+                    branch[top] = end;
+                    mismatches[top] = m;
+                }
+                enter = null;
+            }
+            if (top < 0) {
+                return;
+            }
+            int i = next[top]++;
+            if (i == InternalNode.SLOTS) {
+                nodes[top--] = null;
+                continue;
+            }
+            Node child = nodes[top].getChild(i);
+            visited++;
+            int pos = branch[top];
+            if (child instanceof FlyweightNode) {
+                continue;
+            }
+            if (i == InternalNode.END) {
+                if (distance(pos, mismatches[top]) <= k) {
+                    matches.add((LeafNode) child);
+                }
+                continue;
+            }
+            int m = step(pos, i, mismatches[top]);
+            if (m > k) {
+                continue;
+            }
+            if (child instanceof InternalNode) {
+                enter = (InternalNode) child;
+                enterMismatches = m;
+            }
+            else {
+                checkLeaf((LeafNode) child, pos + 1, m);
+            }
+        }
+    }
+
+    /**
+     * Finishes checking a leaf from the first base its path did not
+     * already cover.
+     */
+    private void checkLeaf(LeafNode leaf, int from, int m) {
+        PackedSequence sequence = leaf.getPacked();
+        for (int pos = from; pos < sequence.length() && m <= k; pos++) {
+            m = step(pos, sequence.codeAt(pos), m);
+        }
+        if (m <= k && distance(sequence.length(), m) <= k) {
+            matches.add(leaf);
+        }
+    }
+
+    /**
+     * Extends the path by one base.
+     *
+     * @param pos - the position of the base in the sequence
+     * @param base - the base's 2-bit code
+     * @param m - the Hamming mismatches so far
+     * @return the new mismatch count for Hamming distance, or for edit
+     *         distance the smallest value in the new row; either way,
+     *         more than k means nothing below can match
+     */
+    private int step(int pos, int base, int m) {
+        if (!edit) {
+            if (pos >= query.length) {
+                return infinity;
+            }
+            return query[pos] == base ? m : m + 1;
+        }
+        int d = pos + 1;
+        if (d == rows.length) {
+            rows = Arrays.copyOf(rows, d * 2);
+        }
+        if (rows[d] == null) {
+            rows[d] = newRow();
+        }
+        int[] prev = rows[d - 1];
+        int[] row = rows[d];
+        int lo = Math.max(0, d - k);
+        int hi = Math.min(query.length, d + k);
+        int min = infinity;
+        for (int j = lo; j <= hi; j++) {
+            int best = cell(prev, d - 1, j) + 1;
+            if (j > 0) {
+                best = Math.min(best, cell(row, d, j - 1) + 1);
+                best = Math.min(best, cell(prev, d - 1, j - 1)
+                    + (query[j - 1] == base ? 0 : 1));
+            }
+            row[j - d + k] = Math.min(best, infinity);
+            min = Math.min(min, row[j - d + k]);
+        }
+        return min;
+    }
+
+    /**
+     * @param length - the length of a sequence whose path ends here
+     * @param m - the Hamming mismatches along it
+     * @return its distance from the whole query, capped at k + 1
+     */
+    private int distance(int length, int m) {
+        if (!edit) {
+            return length == query.length ? m : infinity;
+        }
+        if (Math.abs(length - query.length) > k) {
+            return infinity;
+        }
+        return cell(rows[length], length, query.length);
+    }
+
+    /**
+     * @param row - the banded row for depth d
+     * @param d - the depth of the row
+     * @param j - the length of the query prefix
+     * @return the distance, or k + 1 if j is outside the band
+     */
+    private int cell(int[] row, int d, int j) {
+        int i = j - d + k;
+        return i < 0 || i >= row.length ? infinity : row[i];
+    }
+
+    private int[] newRow() {
+        int[] row = new int[2 * k + 1];
+        Arrays.fill(row, infinity);
+        return row;
+    }
+}
@@ -0,0 +1,114 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ApproximateSearchTest {
+
+    private static int hamming(String a, String b) {
+        if (a.length() != b.length()) {
+            return Integer.MAX_VALUE;
+        }
+        int d = 0;
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                d++;
+            }
+        }
+        return d;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            row[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int sub = prev[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                row[j] = Math.min(sub, Math.min(prev[j], row[j - 1]) + 1);
+            }
+            int[] tmp = prev;
+            prev = row;
+            row = tmp;
+        }
+        return prev[b.length()];
+    }
+
+    private static String expected(List<String> all, String query, int k, boolean edit) {
+        List<String> found = new ArrayList<String>();
+        for (String s : all) {
+            if ((edit ? levenshtein(s, query) : hamming(s, query)) <= k) {
+                found.add(s);
+            }
+        }
+        Collections.sort(found, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return LeafIterator.compare(PackedSequence.of(a), PackedSequence.of(b));
+            }
+        });
+        StringBuilder text = new StringBuilder();
+        for (String s : found) {
+            text.append("\nsequence: ").append(s);
+        }
+        return found.isEmpty() ? "\nno sequence found\n" : text.append('\n').toString();
+    }
+
+    private static String matches(String result) {
+        return result.substring(result.indexOf('\n'));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(13);
+        Tree tree = new Tree();
+        CompressedTree compressed = new CompressedTree();
+        List<String> all = new ArrayList<String>();
+        for (int n = 0; n < 600; n++) {
+            String prefix = random.nextBoolean() ? "ACGTTGCA" : "";
+            String seq = TreeTesting.randomSequence(random, prefix, 8);
+            if (tree.insert(seq) >= 0) {
+                compressed.insert(seq);
+                all.add(seq);
+            }
+        }
+        for (int q = 0; q < 60; q++) {
+            String query = all.get(random.nextInt(all.size()));
+            if (random.nextBoolean() && query.length() > 2) {
+                query = query.substring(1) + "G";
+            }
+            for (int k = 0; k <= 3; k++) {
+                assertEquals(query + " " + k, expected(all, query, k, false),
+                    matches(tree.searchHamming(query, k)));
+                assertEquals(query + " " + k, expected(all, query, k, true),
+                    matches(tree.searchEdit(query, k)));
+                assertEquals(matches(tree.searchHamming(query, k)),
+                    matches(compressed.searchHamming(query, k)));
+                assertEquals(matches(tree.searchEdit(query, k)), matches(compressed.searchEdit(query, k)));
+            }
+        }
+    }
+
+    @Test
+    public void testPrunesAndCounts() {
+        Tree tree = new Tree();
+        assertEquals("no sequence found\n", tree.searchHamming("ACGT", 1));
+        tree.insert("ACGT");
+        assertEquals("# of nodes visited: 1\nsequence: ACGT\n", tree.searchEdit("AGT", 1));
+        tree.insert("TTTT");
+        tree.insert("ACGA");
+        // root, its five slots, then the five slots of the A, C and G
+        // nodes; the TTTT leaf is over budget once its first base is seen
+        assertEquals("# of nodes visited: 21\nsequence: ACGA\nsequence: ACGT\n",
+            tree.searchHamming("ACGG", 1));
+        assertEquals("# of nodes visited: 16\nno sequence found\n",
+            tree.searchHamming("AGTT", 1));
+    }
+}
@@ -0,0 +1,808 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A Tree whose nodes live off the Java heap, so tens of millions of
+ * nodes add nothing for the garbage collector to trace.
+ *
+ * Internal nodes are fixed-width records of five child slots and a
+ * level.  A slot holds a node reference: 0 is the flyweight (record 0
+ * is reserved so no internal node ever gets that index), a positive
+ * value is an internal record and a negative value ~i is leaf record
+ * i.  Leaf records point into a region of 2-bit packed bases.
+ *
+ * Insert, remove, search and print give exactly the output of the
+ * object-graph Tree.  The other Tree methods walk node objects, so
+ * they are handed a read-only view of the arena that wraps each
+ * record as the walk reaches it; see getRoot.
+ */
+public class ArenaTree extends Tree {
+    private static final int FLY = 0;
+    private static final int LEVEL = InternalNode.SLOTS;
+    private static final int LEAF_OFFSET = 0;
+    private static final int LEAF_LENGTH = 2;
+    private static final int LEAF_LEVEL = 3;
+
+    private final Records internals = new Records(6);
+    private final Records leaves = new Records(4);
+    private final Bases bases = new Bases();
+    private int root = FLY;
+    private int[] pathNodes = new int[64];
+    private int[] pathSlots = new int[64];
+
+    /**
+     * Creates an empty off-heap tree.
+     */
+    public ArenaTree() {
+        internals.allocate();
+    }
+
+    /**
+     * Records are allocated one insert at a time, so a bulk load here
+     * is the same as inserting each sequence in turn, and the pool is
+     * not used.  Likewise print and search always run on the caller.
+     */
+    @Override
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        return insertEach(sequences);
+    }
+
+    /**
+     * Gives the walks Tree does over node objects, such as pattern and
+     * approximate searches, composition, listings, saving and
+     * freezing, a read-only view of the arena.  Each internal record is
+     * wrapped when a walk reaches it and each leaf's packed bases are
+     * copied into a LeafNode, so only the part of the tree a walk goes
+     * through is ever on the heap, and only while the walk holds it.
+     * A view is good until the next insert or remove.
+     *
+     * @return a view of the root record
+     */
+    @Override
+    Node getRoot() {
+        return view(root);
+    }
+
+    @Override
+    boolean countsSplits() {
+        return false;
+    }
+
+    @Override
+    public int insert(PackedSequence sequence) {
+        if (root == FLY) {
+            root = newLeaf(sequence, 0);
+            return 0;
+        }
+        if (root < 0) {
+            if (leafEquals(root, sequence)) {
+                return -1;
+            }
+            int cur = newInternal(0);
+            setChild(cur, leafSlot(root, 0), root);
+            setLeafLevel(root, 1);
+            root = cur;
+        }
+        int node = root;
+        while (true) {
+            int level = level(node);
+            int pos = slot(sequence, level);
+            int cur = child(node, pos);
+            if (cur == FLY) {
+                setChild(node, pos, newLeaf(sequence, level + 1));
+                return level + 1;
+            }
+            if (cur < 0) {
+                if (leafEquals(cur, sequence)) {
+                    return -1;
+                }
+                int curLevel = leafLevel(cur);
+                int tmp = newInternal(curLevel);
+                setChild(tmp, leafSlot(cur, curLevel), cur);
+                setLeafLevel(cur, curLevel + 1);
+                setChild(node, pos, tmp);
+                cur = tmp;
+            }
+            node = cur;
+        }
+    }
+
+    @Override
+    public boolean remove(PackedSequence sequence) {
+        if (root == FLY) {
+            return false;
+        }
+        if (root < 0) {
+            if (leafEquals(root, sequence)) {
+                freeLeaf(root);
+                root = FLY;
+                return true;
+            }
+            return false;
+        }
+        int depth = 0;
+        int node = root;
+        while (true) {
+            int c = slot(sequence, level(node));
+            if (depth == pathNodes.length) {
+                pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+                pathSlots = Arrays.copyOf(pathSlots, depth * 2);
+            }
+            pathNodes[depth] = node;
+            pathSlots[depth] = c;
+            depth++;
+            int next = child(node, c);
+            if (next == FLY) {
+                return false;
+            }
+            if (next < 0) {
+                if (!leafEquals(next, sequence)) {
+                    return false;
+                }
+                setChild(node, c, FLY);
+                freeLeaf(next);
+                break;
+            }
+            node = next;
+        }
+        for (int j = depth - 1; j > 0; j--) {
+            int next = pathNodes[j];
+            if (flyCount(next) != 4) {
+                continue;
+            }
+            for (int i = 0; i < InternalNode.SLOTS; i++) {
+                int child = child(next, i);
+                if (child < 0) {
+                    setLeafLevel(child, leafLevel(child) - 1);
+                    setChild(pathNodes[j - 1], pathSlots[j - 1], child);
+                    internals.free(next);
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void print(Appendable out, boolean lengths, boolean stats, ForkJoinPool pool)
+        throws IOException {
+        if (root == FLY) {
+            out.append("E");
+            return;
+        }
+        printNode(out, lengths, stats, root, 0);
+        if (root < 0) {
+            return;
+        }
+        int top = 0;
+        pathNodes[0] = root;
+        pathSlots[0] = 0;
+        while (top >= 0) {
+            int node = pathNodes[top];
+            int i = pathSlots[top];
+            if (i == InternalNode.SLOTS) {
+                top--;
+                continue;
+            }
+            pathSlots[top]++;
+            int child = child(node, i);
+            printNode(out, lengths, stats, child, child < 0 ? leafLevel(child) : level(node) + 1);
+            if (child > 0) {
+                top++;
+                if (top == pathNodes.length) {
+                    pathNodes = Arrays.copyOf(pathNodes, top * 2);
+                    pathSlots = Arrays.copyOf(pathSlots, top * 2);
+                }
+                pathNodes[top] = child;
+                pathSlots[top] = 0;
+            }
+        }
+    }
+
+    /**
+     * Searches one query at a time, as the arena has no node objects
+     * for a batch walk.
+     */
+    @Override
+    public String[] searchBatch(List<String> queries, int[] visited) {
+        return searchEach(queries, visited);
+    }
+
+    @Override
+    public void search(Appendable out, String searchWord, ForkJoinPool pool) throws IOException {
+        if (root == FLY) {
+            out.append("no sequence found\n");
+            return;
+        }
+        if (PatternSearch.isPattern(searchWord)) {
+            PatternSearch.search(out, getRoot(), searchWord, countsChainLevels());
+            return;
+        }
+        int visited = 1;
+        boolean isWord = searchWord.charAt(searchWord.length() - 1) == '$';
+        if (isWord) {
+            searchWord = searchWord.substring(0, searchWord.length() - 1);
+        }
+
+        if (root < 0) {
+            out.append("# of nodes visited: 1");
+            if ((isWord && leafEquals(root, searchWord))
+                || (!isWord && leafStartsWith(root, searchWord))) {
+                out.append("\nsequence: ").append(searchWord);
+            }
+            else {
+                out.append("\nno sequence found");
+            }
+            out.append('\n');
+            return;
+        }
+
+        int count = 0;
+        int next = root;
+        while (count < searchWord.length()) {
+            int child = childAt(next, searchWord.charAt(count));
+            if (child > 0) {
+                next = child;
+            }
+            else {
+                break;
+            }
+            count++;
+            visited++;
+        }
+
+        char pos = count == searchWord.length() ? 'E' : searchWord.charAt(count);
+        int i = InternalNode.index(pos);
+        boolean leaf = i >= 0 && child(next, i) < 0;
+        int nextNode = leaf ? child(next, i) : FLY;
+        String found = null;
+        if (isWord) {
+            if (leaf && leafEquals(nextNode, searchWord)) {
+                found = searchWord;
+            }
+            visited++;
+        }
+        else if (pos != 'E' && leaf && leafStartsWith(nextNode, searchWord)) {
+            found = decode(nextNode);
+            visited++;
+        }
+        else if (pos == 'E') {
+            visited += countAll(next) - 1;
+            out.append("# of nodes visited: ").append(Integer.toString(visited));
+            printAll(out, next);
+            out.append('\n');
+            return;
+        }
+        else {
+            visited++;
+        }
+        out.append("# of nodes visited: ").append(Integer.toString(visited));
+        if (found != null) {
+            out.append("\nsequence: ").append(found);
+        }
+        else {
+            out.append("\nno sequence found");
+        }
+        out.append('\n');
+    }
+
+    /**
+     * @return the number of internal and leaf nodes currently live
+     */
+    public long nodeCount() {
+        return internals.live() - 1 + leaves.live();
+    }
+
+    /**
+     * @return the bytes of direct memory reserved by this tree
+     */
+    public long reservedBytes() {
+        return internals.reserved() + leaves.reserved() + bases.reserved();
+    }
+
+    /**
+     * @return bytes of packed bases freed by removed leaves and not yet
+     *         reused by a new leaf
+     */
+    public long releasedBytes() {
+        return bases.released;
+    }
+
+    private void printNode(Appendable out, boolean lengths, boolean stats, int cur, int level)
+        throws IOException {
+        out.append('\n');
+        indent(out, level);
+        if (cur == FLY) {
+            out.append('E');
+        }
+        else if (cur < 0) {
+            out.append(decode(cur));
+            if (lengths) {
+                out.append(' ').append(Integer.toString(leafLength(cur)));
+            }
+            else if (stats) {
+                long[] count = new long[4];
+                for (int i = 0; i < leafLength(cur); i++) {
+                    count[leafCode(cur, i)]++;
+                }
+                printStats(out, count[0], count[1], count[2], count[3]);
+            }
+        }
+        else {
+            out.append('I');
+        }
+    }
+
+    private int countAll(int node) {
+        int sum = 0;
+        int top = 0;
+        pathNodes[0] = node;
+        while (top >= 0) {
+            int cur = pathNodes[top--];
+            sum += 2;
+            for (int i = 0; i < InternalNode.END; i++) {
+                int child = child(cur, i);
+                if (child > 0) {
+                    top++;
+                    if (top == pathNodes.length) {
+                        pathNodes = Arrays.copyOf(pathNodes, top * 2);
+                        pathSlots = Arrays.copyOf(pathSlots, top * 2);
+                    }
+                    pathNodes[top] = child;
+                }
+                else {
+                    sum++;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private void printAll(Appendable out, int node) throws IOException {
+        int top = 0;
+        pathNodes[0] = node;
+        pathSlots[0] = 0;
+        while (top >= 0) {
+            int cur = pathNodes[top];
+            int i = pathSlots[top];
+            if (i < InternalNode.END) {
+                pathSlots[top]++;
+                int child = child(cur, i);
+                if (child > 0) {
+                    top++;
+                    if (top == pathNodes.length) {
+                        pathNodes = Arrays.copyOf(pathNodes, top * 2);
+                        pathSlots = Arrays.copyOf(pathSlots, top * 2);
+                    }
+                    pathNodes[top] = child;
+                    pathSlots[top] = 0;
+                }
+                else if (child < 0) {
+                    out.append("\nsequence: ").append(decode(child));
+                }
+            }
+            else {
+                int end = child(cur, InternalNode.END);
+                if (end < 0) {
+                    out.append("\nsequence: ").append(decode(end));
+                }
+                top--;
+            }
+        }
+    }
+
+    private Node view(int ref) {
+        if (ref == FLY) {
+            return getFlyweight();
+        }
+        if (ref < 0) {
+            return new LeafNode(packed(ref), leafLevel(ref));
+        }
+        return new View(ref);
+    }
+
+    private int childAt(int node, char c) {
+        int i = InternalNode.index(c);
+        return i < 0 ? FLY : child(node, i);
+    }
+
+    private int child(int node, int slot) {
+        return internals.getInt(node, slot);
+    }
+
+    private void setChild(int node, int slot, int child) {
+        internals.putInt(node, slot, child);
+    }
+
+    private int level(int node) {
+        return internals.getInt(node, LEVEL);
+    }
+
+    private int flyCount(int node) {
+        int sum = 0;
+        for (int i = 0; i < InternalNode.SLOTS; i++) {
+            if (child(node, i) == FLY) {
+                sum++;
+            }
+        }
+        return sum;
+    }
+
+    private int newInternal(int level) {
+        int node = internals.allocate();
+        for (int i = 0; i < InternalNode.SLOTS; i++) {
+            setChild(node, i, FLY);
+        }
+        internals.putInt(node, LEVEL, level);
+        return node;
+    }
+
+    private int newLeaf(PackedSequence sequence, int level) {
+        int leaf = leaves.allocate();
+        leaves.putLong(leaf, LEAF_OFFSET, bases.append(sequence));
+        leaves.putInt(leaf, LEAF_LENGTH, sequence.length());
+        leaves.putInt(leaf, LEAF_LEVEL, level);
+        return ~leaf;
+    }
+
+    private void freeLeaf(int ref) {
+        bases.release(leaves.getLong(~ref, LEAF_OFFSET), leafLength(ref));
+        leaves.free(~ref);
+    }
+
+    private int leafLevel(int ref) {
+        return leaves.getInt(~ref, LEAF_LEVEL);
+    }
+
+    private void setLeafLevel(int ref, int level) {
+        leaves.putInt(~ref, LEAF_LEVEL, level);
+    }
+
+    private int leafLength(int ref) {
+        return leaves.getInt(~ref, LEAF_LENGTH);
+    }
+
+    private int leafCode(int ref, int i) {
+        return bases.code(leaves.getLong(~ref, LEAF_OFFSET), i);
+    }
+
+    private int leafSlot(int ref, int level) {
+        return level < leafLength(ref) ? leafCode(ref, level) : InternalNode.END;
+    }
+
+    private boolean leafEquals(int ref, PackedSequence sequence) {
+        int length = leafLength(ref);
+        if (length != sequence.length()) {
+            return false;
+        }
+        long offset = leaves.getLong(~ref, LEAF_OFFSET);
+        for (int i = 0; i < length; i++) {
+            if (bases.code(offset, i) != sequence.codeAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean leafEquals(int ref, String word) {
+        return leafLength(ref) == word.length() && leafStartsWith(ref, word);
+    }
+
+    private boolean leafStartsWith(int ref, String word) {
+        if (word.length() > leafLength(ref)) {
+            return false;
+        }
+        long offset = leaves.getLong(~ref, LEAF_OFFSET);
+        for (int i = 0; i < word.length(); i++) {
+            if (bases.code(offset, i) != PackedSequence.code(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int ref) {
+        long offset = leaves.getLong(~ref, LEAF_OFFSET);
+        char[] chars = new char[leafLength(ref)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = PackedSequence.base(bases.code(offset, i));
+        }
+        return new String(chars);
+    }
+
+    private PackedSequence packed(int ref) {
+        return bases.read(leaves.getLong(~ref, LEAF_OFFSET), leafLength(ref));
+    }
+
+    /**
+     * An internal record seen as an InternalNode.  Children are read
+     * from the arena on each call, and the base totals, which records
+     * do not keep, are added up over the leaves below the first time
+     * they are asked for.
+     */
+    private final class View extends InternalNode {
+        private final int record;
+        private long[] counts;
+
+        View(int record) {
+            super(getFlyweight(), level(record));
+            this.record = record;
+        }
+
+        @Override
+        public Node getChild(int i) {
+            return view(child(record, i));
+        }
+
+        @Override
+        public int getOccupied() {
+            int occupied = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                if (child(record, i) != FLY) {
+                    occupied |= 1 << i;
+                }
+            }
+            return occupied;
+        }
+
+        @Override
+        public int getTotalFlyNode() {
+            return flyCount(record);
+        }
+
+        @Override
+        public long getBaseCount(int code) {
+            if (counts == null) {
+                counts = new long[4];
+                addCounts(record);
+            }
+            return counts[code];
+        }
+
+        @Override
+        public void setChild(int i, Node node) {
+            throw new UnsupportedOperationException("an arena view is read-only");
+        }
+
+        private void addCounts(int node) {
+            int[] stack = new int[64];
+            int top = 0;
+            stack[0] = node;
+            while (top >= 0) {
+                int cur = stack[top--];
+                for (int i = 0; i < SLOTS; i++) {
+                    int child = child(cur, i);
+                    if (child > 0) {
+                        top++;
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top] = child;
+                    }
+                    else if (child < 0) {
+                        for (int j = 0; j < leafLength(child); j++) {
+                            counts[leafCode(child, j)]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fixed-width records in chunks of direct memory.  The last chunk
+     * grows by doubling so small trees stay small; freed records are
+     * chained through their first int and reused.
+     */
+    private static final class Records {
+        private static final int CHUNK_SHIFT = 20;
+        private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+        private static final int INITIAL_RECORDS = 1024;
+        private static final int NONE = -1;
+
+        private final int recordBytes;
+        private ByteBuffer[] chunks = new ByteBuffer[4];
+        private int size;
+        private int freeHead = NONE;
+        private int freeCount;
+
+        Records(int recordInts) {
+            recordBytes = recordInts * 4;
+        }
+
+        int allocate() {
+            if (freeHead != NONE) {
+                int record = freeHead;
+                freeHead = getInt(record, 0);
+                freeCount--;
+                return record;
+            }
+            int record = size;
+            int chunk = record >>> CHUNK_SHIFT;
+            int end = ((record & (CHUNK_RECORDS - 1)) + 1) * recordBytes;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunk * 2);
+            }
+            ByteBuffer buf = chunks[chunk];
+            if (buf == null || end > buf.capacity()) {
+                int full = CHUNK_RECORDS * recordBytes;
+                int capacity = buf == null
+                    ? (chunk == 0 ? INITIAL_RECORDS * recordBytes : full)
+                    : Math.min(buf.capacity() * 2, full);
+                chunks[chunk] = grow(buf, capacity);
+            }
+            size++;
+            return record;
+        }
+
+        void free(int record) {
+            putInt(record, 0, freeHead);
+            freeHead = record;
+            freeCount++;
+        }
+
+        long live() {
+            return size - freeCount;
+        }
+
+        long reserved() {
+            long sum = 0;
+            for (ByteBuffer buf : chunks) {
+                sum += buf == null ? 0 : buf.capacity();
+            }
+            return sum;
+        }
+
+        int getInt(int record, int field) {
+            return chunks[record >>> CHUNK_SHIFT].getInt(offset(record) + field * 4);
+        }
+
+        void putInt(int record, int field, int value) {
+            chunks[record >>> CHUNK_SHIFT].putInt(offset(record) + field * 4, value);
+        }
+
+        long getLong(int record, int field) {
+            return chunks[record >>> CHUNK_SHIFT].getLong(offset(record) + field * 4);
+        }
+
+        void putLong(int record, int field, long value) {
+            chunks[record >>> CHUNK_SHIFT].putLong(offset(record) + field * 4, value);
+        }
+
+        private int offset(int record) {
+            return (record & (CHUNK_RECORDS - 1)) * recordBytes;
+        }
+    }
+
+    /**
+     * Region of 2-bit packed bases, 4 to a byte.  A sequence never
+     * straddles two chunks, so its offset is a chunk number in the high
+     * bits and a byte position in the low bits.  The space of a removed
+     * leaf goes on a free list for its byte length and is handed to the
+     * next sequence of that length before the region grows.
+     */
+    private static final class Bases {
+        private static final int CHUNK_SHIFT = 26;
+        private static final int CHUNK_BYTES = 1 << CHUNK_SHIFT;
+        private static final int INITIAL_BYTES = 64 << 10;
+
+        private ByteBuffer[] chunks = new ByteBuffer[4];
+        private int chunk;
+        private int used;
+        private long released;
+        private final Map<Integer, FreeList> free = new HashMap<Integer, FreeList>();
+
+        long append(PackedSequence sequence) {
+            int bytes = (sequence.length() + 3) / 4;
+            if (bytes > CHUNK_BYTES) {
+                throw new IllegalArgumentException("sequence longer than "
+                    + CHUNK_BYTES * 4L + " bases");
+            }
+            FreeList list = free.get(bytes);
+            if (list != null && list.size > 0) {
+                long offset = list.pop();
+                released -= bytes;
+                write(chunks[(int) (offset >>> CHUNK_SHIFT)],
+                    (int) (offset & (CHUNK_BYTES - 1)), sequence, bytes);
+                return offset;
+            }
+            if (used + bytes > CHUNK_BYTES) {
+                chunk++;
+                used = 0;
+            }
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunk * 2);
+            }
+            ByteBuffer buf = chunks[chunk];
+            if (buf == null || used + bytes > buf.capacity()) {
+                int capacity = buf == null ? INITIAL_BYTES : buf.capacity();
+                while (capacity < used + bytes) {
+                    capacity *= 2;
+                }
+                chunks[chunk] = grow(buf, Math.min(capacity, CHUNK_BYTES));
+                buf = chunks[chunk];
+            }
+            write(buf, used, sequence, bytes);
+            long offset = ((long) chunk << CHUNK_SHIFT) | used;
+            used += bytes;
+            return offset;
+        }
+
+        private static void write(ByteBuffer buf, int at, PackedSequence sequence, int bytes) {
+            for (int b = 0; b < bytes; b++) {
+                int packed = 0;
+                for (int k = 0; k < 4; k++) {
+                    int i = b * 4 + k;
+                    int code = i < sequence.length() ? sequence.codeAt(i) : 0;
+                    packed |= code << (6 - 2 * k);
+                }
+                buf.put(at + b, (byte) packed);
+            }
+        }
+
+        PackedSequence read(long offset, int length) {
+            return PackedSequence.readFrom(chunks[(int) (offset >>> CHUNK_SHIFT)],
+                (int) (offset & (CHUNK_BYTES - 1)), length);
+        }
+
+        int code(long offset, int i) {
+            ByteBuffer buf = chunks[(int) (offset >>> CHUNK_SHIFT)];
+            int b = buf.get((int) (offset & (CHUNK_BYTES - 1)) + (i >> 2));
+            return (b >>> (6 - 2 * (i & 3))) & 3;
+        }
+
+        void release(long offset, int length) {
+            int bytes = (length + 3) / 4;
+            FreeList list = free.get(bytes);
+            if (list == null) {
+                list = new FreeList();
+                free.put(bytes, list);
+            }
+            list.push(offset);
+            released += bytes;
+        }
+
+        long reserved() {
+            long sum = 0;
+            for (ByteBuffer buf : chunks) {
+                sum += buf == null ? 0 : buf.capacity();
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Offsets of freed base runs of one byte length.
+     */
+    private static final class FreeList {
+        private long[] offsets = new long[16];
+        private int size;
+
+        void push(long offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+
+        long pop() {
+            return offsets[--size];
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer old, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        if (old != null) {
+            old.clear();
+            bigger.put(old);
+            bigger.clear();
+        }
+        return bigger;
+    }
+}
@@ -0,0 +1,170 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ArenaTreeTest {
+
+    @Test
+    public void testMatchesObjectTree() {
+        TreeTesting.assertSameAnswers(new Random(5), new Tree(), new ArenaTree(),
+            new String[] {"", "A", "AC", "ACGTACGTAC", "T"}, 8, 4000, 100);
+    }
+
+    @Test
+    public void testEmptyAndRootLeaf() {
+        ArenaTree tree = new ArenaTree();
+        assertEquals("E", tree.print(false, false));
+        assertEquals("no sequence found\n", tree.search("A"));
+        assertEquals(0, tree.insert("ACGT"));
+        assertEquals(-1, tree.insert("ACGT"));
+        assertEquals("# of nodes visited: 1\nsequence: ACGT\n", tree.search("ACGT$"));
+        assertFalse(tree.remove("ACG"));
+        assertTrue(tree.remove("ACGT"));
+        assertEquals(0, tree.nodeCount());
+        assertEquals("E", tree.print(false, false));
+    }
+
+    @Test
+    public void testRecordsAreReused() {
+        ArenaTree tree = new ArenaTree();
+        long reserved = 0;
+        for (int round = 0; round < 3; round++) {
+            tree.insert("AAAA");
+            tree.insert("AAAC");
+            tree.insert("C");
+            assertEquals(7, tree.nodeCount());
+            assertEquals(0, tree.releasedBytes());
+            if (round == 0) {
+                reserved = tree.reservedBytes();
+            }
+            assertEquals(reserved, tree.reservedBytes());
+            tree.remove("AAAA");
+            tree.remove("AAAC");
+            tree.remove("C");
+        }
+        assertEquals(1, tree.nodeCount());
+        assertEquals(3, tree.releasedBytes());
+    }
+
+    @Test
+    public void testBasesStayBoundedUnderChurn() {
+        // Without reuse, 300 rounds of 1000 reads of about 200 bases
+        // append some 15 MB of bases.
+        ArenaTree tree = new ArenaTree();
+        Random random = new Random(11);
+        long firstRound = 0;
+        for (int round = 0; round < 300; round++) {
+            List<String> reads = new ArrayList<String>();
+            for (int i = 0; i < 1000; i++) {
+                String read = TreeTesting.randomSequence(random, "", 8);
+                while (read.length() < 190) {
+                    read += TreeTesting.randomSequence(random, "ACGT", 8);
+                }
+                reads.add(read);
+                tree.insert(read);
+            }
+            if (round == 0) {
+                firstRound = tree.reservedBytes();
+            }
+            assertTrue("round " + round + ": " + tree.reservedBytes(),
+                tree.reservedBytes() <= 2 * firstRound);
+            for (String read : reads) {
+                tree.remove(read);
+            }
+        }
+    }
+
+    private static void assertSameAnswers(Tree expected, ArenaTree actual, Random random) {
+        List<String> queries = new ArrayList<String>(Arrays.asList("ANGT", "A", "NN",
+            "ACGN$", "RY", "T*", "$", "ACGTACGTAC"));
+        for (int i = 0; i < 30; i++) {
+            String prefix = "ACGTN".substring(random.nextInt(5));
+            queries.add(TreeTesting.randomSequence(random, prefix, 8));
+        }
+        for (String query : queries) {
+            if (!query.isEmpty()) {
+                assertEquals(query, expected.search(query), actual.search(query));
+            }
+            String bases = query.replaceAll("[^ACGT]", "");
+            assertEquals(bases, expected.searchHamming(bases, 1), actual.searchHamming(bases, 1));
+            assertEquals(bases, expected.searchEdit(bases, 2), actual.searchEdit(bases, 2));
+            assertArrayEquals(bases, expected.composition(bases), actual.composition(bases));
+            assertEquals(bases, expected.page(bases, null, 1, 5), actual.page(bases, null, 1, 5));
+            List<String> listed = new ArrayList<String>();
+            LeafIterator leaves = actual.iterator(bases);
+            while (leaves.hasNext()) {
+                listed.add(leaves.next().getSequence());
+            }
+            assertEquals(bases, expected.page(bases, null, 0, Integer.MAX_VALUE), listed);
+        }
+        assertArrayEquals(expected.searchBatch(queries.subList(0, 8)),
+            actual.searchBatch(queries.subList(0, 8)));
+    }
+
+    @Test
+    public void testObjectTreeWalksMatch() throws IOException {
+        Tree expected = new Tree();
+        ArenaTree actual = new ArenaTree();
+        Random random = new Random(9);
+        assertSameAnswers(expected, actual, random);
+        for (String seq : new String[] {"ACGT", "AAAA", "AA", "ACTG", "TTT"}) {
+            assertEquals(expected.insert(seq), actual.insert(seq));
+        }
+        assertEquals(expected.search("ANGT"), actual.search("ANGT"));
+        assertTrue(actual.search("ANGT").contains("sequence: ACGT"));
+        assertArrayEquals(new long[] {8, 2, 2, 2}, actual.composition("A"));
+        assertSameAnswers(expected, actual, random);
+        String[] prefixes = {"", "A", "AC", "GGT"};
+        for (int op = 0; op < 2000; op++) {
+            String prefix = prefixes[random.nextInt(prefixes.length)];
+            String seq = TreeTesting.randomSequence(random, prefix, 8);
+            if (random.nextInt(3) == 0) {
+                assertEquals(seq, expected.remove(seq), actual.remove(seq));
+            }
+            else {
+                assertEquals(seq, expected.insert(seq), actual.insert(seq));
+            }
+        }
+        assertSameAnswers(expected, actual, random);
+        assertEquals(expected.print(false, true), actual.freeze().print(false, true));
+        File file = File.createTempFile("arena", ".snapshot");
+        try {
+            actual.save(file.toPath());
+            assertEquals(expected.print(true, false),
+                MappedTree.open(file.toPath()).print(true, false));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSearchCache() {
+        Tree expected = new Tree();
+        ArenaTree actual = new ArenaTree();
+        actual.setSearchCache(new SearchCache(100, 1 << 20));
+        Random random = new Random(10);
+        for (int op = 0; op < 3000; op++) {
+            String seq = TreeTesting.randomSequence(random, "AC".substring(random.nextInt(3)), 8);
+            switch (random.nextInt(4)) {
+                case 0:
+                    assertEquals(seq, expected.remove(seq), actual.remove(seq));
+                    break;
+                case 1:
+                    String word = seq.isEmpty() ? "C" : seq.substring(0, 1 + seq.length() / 2);
+                    assertEquals(word, expected.search(word), actual.search(word));
+                    break;
+                default:
+                    assertEquals(seq, expected.insert(seq), actual.insert(seq));
+                    break;
+            }
+        }
+        assertTrue(actual.getSearchCache().hits() > 0);
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Runs many searches in one walk of a Tree.  The queries are sorted,
+ * so those sharing a prefix sit next to each other, and the walk goes
+ * down each shared prefix once, splitting the group only where the
+ * queries go to different child slots.  A query stops where its own
+ * search would stop and is finished by Tree.finish, so its output and
+ * visit count are exactly those of Tree.search.
+ *
+ * Equal queries are answered once.  Queries with ambiguity codes, and
+ * the empty query, are left to Tree.search one at a time.
+ */
+class BatchSearch {
+    private final String[] words;
+    private final boolean[] exact;
+    private final String[] results;
+    private final int[] visited;
+    /**
+     * The query finished last, which an equal query can copy.
+     */
+    private int last = -1;
+
+    private BatchSearch(List<String> queries) {
+        int n = queries.size();
+        words = new String[n];
+        exact = new boolean[n];
+        results = new String[n];
+        visited = new int[n];
+        for (int i = 0; i < n; i++) {
+            String query = queries.get(i);
+            if (query.isEmpty()) {
+                throw new IllegalArgumentException("empty search word");
+            }
+            exact[i] = query.endsWith("$");
+            words[i] = exact[i] ? query.substring(0, query.length() - 1) : query;
+        }
+    }
+
+    /**
+     * Searches a tree for every query.
+     *
+     * @param tree - the tree to search
+     * @param queries - the queries, as given to Tree.search
+     * @param visits - filled with each query's visit count, or null;
+     *        at least as long as queries
+     * @return each query's result in query order, the same as
+     *         Tree.search gives for it
+     * @throws IllegalArgumentException if any query is empty
+     */
+    static String[] search(Tree tree, List<String> queries, int[] visits) {
+        BatchSearch batch = new BatchSearch(queries);
+        Node top = tree.getRoot();
+        Integer[] order = new Integer[queries.size()];
+        int n = 0;
+        for (int i = 0; i < order.length; i++) {
+            String query = queries.get(i);
+            if (!(top instanceof InternalNode) || PatternSearch.isPattern(query)) {
+                batch.results[i] = tree.search(query);
+                batch.visited[i] = visits(batch.results[i]);
+            }
+            else {
+                order[n++] = i;
+            }
+        }
+        final String[] words = batch.words;
+        final boolean[] exact = batch.exact;
+        Arrays.sort(order, 0, n, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int order = words[a].compareTo(words[b]);
+                return order != 0 ? order : Boolean.compare(exact[a], exact[b]);
+            }
+        });
+        try {
+            batch.walk((InternalNode) (n == 0 ? null : top), order, n);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (visits != null) {
+            System.arraycopy(batch.visited, 0, visits, 0, batch.visited.length);
+        }
+        return batch.results;
+    }
+
+    /**
+     * One step of the walk: the queries order[lo] to order[hi - 1]
+     * have all come down to node after depth bases.
+     */
+    private static final class Frame {
+        final InternalNode node;
+        final int depth;
+        final int lo;
+        final int hi;
+
+        Frame(InternalNode node, int depth, int lo, int hi) {
+            this.node = node;
+            this.depth = depth;
+            this.lo = lo;
+            this.hi = hi;
+        }
+    }
+
+    private void walk(InternalNode root, Integer[] order, int n) throws IOException {
+        if (n == 0) {
+            return;
+        }
+        Deque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(root, 0, 0, n));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.pop();
+            int i = frame.lo;
+            while (i < frame.hi) {
+                String word = words[order[i]];
+                if (word.length() == frame.depth) {
+                    // Sorted first, as a prefix of the rest of the group.
+                    finish(frame, order[i]);
+                    i++;
+                    continue;
+                }
+                char c = word.charAt(frame.depth);
+                int end = i + 1;
+                while (end < frame.hi && words[order[end]].charAt(frame.depth) == c) {
+                    end++;
+                }
+                Node child = frame.node.getNode(c);
+                if (child instanceof InternalNode) {
+                    stack.push(new Frame((InternalNode) child, frame.depth + 1, i, end));
+                }
+                else {
+                    for (int j = i; j < end; j++) {
+                        finish(frame, order[j]);
+                    }
+                }
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Finishes one query at the node its search stops on.  A query
+     * equal to the one before it copies that result instead.
+     */
+    private void finish(Frame frame, int query) throws IOException {
+        if (last >= 0 && exact[last] == exact[query] && words[last].equals(words[query])) {
+            results[query] = results[last];
+            visited[query] = visited[last];
+            return;
+        }
+        last = query;
+        StringBuilder out = new StringBuilder();
+        visited[query] = Tree.finish(out, frame.node, words[query], frame.depth, exact[query],
+            1 + frame.depth, null);
+        out.append('\n');
+        results[query] = out.toString();
+    }
+
+    /**
+     * @return the count in a result's "# of nodes visited" line, or 0
+     *         if there is none
+     */
+    static int visits(String result) {
+        String header = "# of nodes visited: ";
+        if (!result.startsWith(header)) {
+            return 0;
+        }
+        int end = header.length();
+        while (end < result.length() && Character.isDigit(result.charAt(end))) {
+            end++;
+        }
+        return Integer.parseInt(result.substring(header.length(), end));
+    }
+}
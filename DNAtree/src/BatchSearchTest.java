@@ -0,0 +1,145 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BatchSearchTest {
+
+    private static String random(Random random, String bases, int max) {
+        StringBuilder seq = new StringBuilder();
+        int length = 1 + random.nextInt(max);
+        for (int i = 0; i < length; i++) {
+            seq.append(bases.charAt(random.nextInt(bases.length())));
+        }
+        return seq.toString();
+    }
+
+    private static List<String> fill(Random random, Tree tree, int n) {
+        List<String> inserted = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            String seq = random(random, "ACGT", 10);
+            tree.insert(seq);
+            inserted.add(seq);
+        }
+        return inserted;
+    }
+
+    private static List<String> queries(Random random, List<String> inserted, int n) {
+        List<String> queries = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            String query;
+            if (random.nextBoolean()) {
+                String seq = inserted.get(random.nextInt(inserted.size()));
+                query = seq.substring(0, 1 + random.nextInt(seq.length()));
+            }
+            else {
+                query = random(random, "ACGT", 8);
+            }
+            queries.add(random.nextInt(3) == 0 ? query + "$" : query);
+        }
+        return queries;
+    }
+
+    private static void assertMatches(Tree tree, List<String> queries) {
+        int[] visited = new int[queries.size()];
+        String[] results = tree.searchBatch(queries, visited);
+        assertEquals(queries.size(), results.length);
+        for (int i = 0; i < results.length; i++) {
+            String expected = tree.search(queries.get(i));
+            assertEquals(queries.get(i), expected, results[i]);
+            if (expected.startsWith("# of nodes visited: ")) {
+                assertTrue(expected.startsWith("# of nodes visited: " + visited[i] + "\n"));
+            }
+            else {
+                assertEquals(0, visited[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSearch() {
+        Random random = new Random(19);
+        for (int round = 0; round < 30; round++) {
+            Tree tree = new Tree();
+            List<String> inserted = fill(random, tree, 1 + random.nextInt(60));
+            assertMatches(tree, queries(random, inserted, 200));
+        }
+    }
+
+    @Test
+    public void testSharedPrefixes() {
+        Tree tree = new Tree();
+        tree.insert("AAAA");
+        tree.insert("AAAC");
+        tree.insert("AAACG");
+        tree.insert("AAG");
+        tree.insert("CT");
+        assertArrayEquals(new String[] {
+            tree.search("AAAC$"), tree.search("AAA"), tree.search("AAAC$"),
+            tree.search("$"), tree.search("A"), tree.search("AAAC"), tree.search("GT")},
+            tree.searchBatch(Arrays.asList("AAAC$", "AAA", "AAAC$", "$", "A", "AAAC", "GT")));
+        assertMatches(tree, Arrays.asList("AAA", "AAAC", "AAACG$", "AAACGT", "AAX", "X", "XA$"));
+    }
+
+    @Test
+    public void testSmallTrees() {
+        Tree tree = new Tree();
+        List<String> queries = Arrays.asList("A", "ACGT$", "N");
+        assertMatches(tree, queries);
+        tree.insert("ACGT");
+        assertMatches(tree, queries);
+        assertEquals("# of nodes visited: 1\nsequence: ACGT\n", tree.searchBatch(queries)[1]);
+    }
+
+    @Test
+    public void testEmptyQuery() {
+        Tree tree = new Tree();
+        tree.insert("ACGT");
+        tree.insert("AAAA");
+        try {
+            tree.search("");
+            fail("empty search word accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("empty search word", e.getMessage());
+        }
+        try {
+            tree.searchBatch(Arrays.asList("A", "", "ACGT$"));
+            fail("empty search word accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("empty search word", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPatterns() {
+        Random random = new Random(91);
+        Tree tree = new Tree();
+        List<String> queries = queries(random, fill(random, tree, 80), 100);
+        for (int i = 0; i < 50; i++) {
+            queries.add(random(random, "ACGTRYN", 5));
+        }
+        assertMatches(tree, queries);
+    }
+
+    @Test
+    public void testOtherTrees() {
+        Random random = new Random(5);
+        Tree concurrent = new ConcurrentTree();
+        CompressedTree compressed = new CompressedTree();
+        ArenaTree arena = new ArenaTree();
+        List<String> inserted = fill(random, concurrent, 100);
+        for (String seq : inserted) {
+            compressed.insert(seq);
+            arena.insert(seq);
+        }
+        List<String> queries = queries(random, inserted, 200);
+        assertMatches(concurrent, queries);
+        assertMatches(compressed, queries);
+        assertMatches(arena, queries);
+        assertArrayEquals(concurrent.searchBatch(queries), compressed.searchBatch(queries));
+    }
+}
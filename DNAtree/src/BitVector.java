@@ -0,0 +1,158 @@
+import java.util.Arrays;
+
+/**
+ * An immutable bit vector that counts the ones before any position
+ * (rank) and finds the position of the k-th one (select), for
+ * FrozenTree.
+ *
+ * Ranks are kept for every 512-bit block, so rank reads one stored
+ * count and at most eight words.  Select starts from a stored block
+ * for every 512th one and walks forward from there.  Together that
+ * is about a tenth more than the bits themselves.  There may be up
+ * to 2^31 - 1 ones.
+ */
+class BitVector {
+    private static final int BLOCK_WORDS = 8;
+    private static final int SAMPLE = 512;
+
+    private final long[] words;
+    private final long size;
+    /**
+     * The ones before each block, with the total at the end.
+     */
+    private final int[] ranks;
+    /**
+     * The block holding the (i * SAMPLE)-th one, for each i.
+     */
+    private final int[] samples;
+
+    private BitVector(long[] words, long size) {
+        this.words = words;
+        this.size = size;
+        int blocks = (words.length + BLOCK_WORDS - 1) / BLOCK_WORDS;
+        ranks = new int[blocks + 1];
+        long ones = 0;
+        for (int b = 0; b < blocks; b++) {
+            ranks[b] = (int) ones;
+            int end = Math.min(words.length, (b + 1) * BLOCK_WORDS);
+            for (int w = b * BLOCK_WORDS; w < end; w++) {
+                ones += Long.bitCount(words[w]);
+            }
+            if (ones > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("too many ones for a bit vector");
+            }
+        }
+        ranks[blocks] = (int) ones;
+        samples = new int[(int) ((ones + SAMPLE - 1) / SAMPLE)];
+        int b = 0;
+        for (int s = 0; s < samples.length; s++) {
+            while (ranks[b + 1] <= (long) s * SAMPLE) {
+                b++;
+            }
+            samples[s] = b;
+        }
+    }
+
+    /**
+     * @return the number of bits
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of ones
+     */
+    int ones() {
+        return ranks[ranks.length - 1];
+    }
+
+    /**
+     * @param i - a position
+     * @return if the bit there is set
+     */
+    boolean get(long i) {
+        return (words[(int) (i >>> 6)] & (1L << i)) != 0;
+    }
+
+    /**
+     * @param i - a position, up to size()
+     * @return the ones before position i
+     */
+    int rank(long i) {
+        int w = (int) (i >>> 6);
+        int count = ranks[w / BLOCK_WORDS];
+        for (int j = w - w % BLOCK_WORDS; j < w; j++) {
+            count += Long.bitCount(words[j]);
+        }
+        if ((i & 63) != 0) {
+            count += Long.bitCount(words[w] & (-1L >>> (64 - (i & 63))));
+        }
+        return count;
+    }
+
+    /**
+     * @param k - which one, counting from 0
+     * @return the position of the k-th one
+     */
+    long select(int k) {
+        int b = samples[k / SAMPLE];
+        while (ranks[b + 1] <= k) {
+            b++;
+        }
+        int left = k - ranks[b];
+        int w = b * BLOCK_WORDS;
+        int count = Long.bitCount(words[w]);
+        while (count <= left) {
+            left -= count;
+            w++;
+            count = Long.bitCount(words[w]);
+        }
+        long word = words[w];
+        for (; left > 0; left--) {
+            word &= word - 1;
+        }
+        return ((long) w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return the memory taken, in bytes, not counting object headers
+     */
+    long bytes() {
+        return 8L * words.length + 4L * ranks.length + 4L * samples.length;
+    }
+
+    /**
+     * Appends bits one or a run at a time.
+     */
+    static final class Builder {
+        private long[] words = new long[16];
+        private long size;
+
+        void add(boolean bit) {
+            int w = (int) (size >>> 6);
+            if (w == words.length) {
+                words = Arrays.copyOf(words, w * 2);
+            }
+            if (bit) {
+                words[w] |= 1L << size;
+            }
+            size++;
+        }
+
+        /**
+         * @param n - how many zeros to add
+         */
+        void skip(long n) {
+            size += n;
+            int need = (int) ((size + 63) >>> 6);
+            if (need > words.length) {
+                words = Arrays.copyOf(words, Math.max(need, words.length * 2));
+            }
+        }
+
+        BitVector build() {
+            return new BitVector(Arrays.copyOf(words, (int) ((size + 63) >>> 6)), size);
+        }
+    }
+}
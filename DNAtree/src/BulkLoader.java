@@ -0,0 +1,402 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a whole subtree from a set of sequences in one pass, instead
+ * of inserting them one at a time.  Sequences are sorted (unless they
+ * already are), duplicates are dropped, and then each internal node is
+ * created once, with every leaf placed straight at its final level.
+ *
+ * For a given set of sequences repeated inserts into an empty tree
+ * always end in the same shape, and this builds exactly that shape.
+ *
+ * Given a ForkJoinPool, packing, sorting and building are all split
+ * into tasks.  Building forks at every node with more than one run of
+ * sequences below it, and each task writes only its own nodes and the
+ * levels of its own sequences.
+ */
+class BulkLoader {
+    /**
+     * Ranges smaller than this are handled on the current thread.
+     */
+    private static final int GRAIN = 1 << 12;
+
+    private final FlyweightNode fw;
+    private final PackedSequence[] keys;
+    private final int[] levels;
+    /**
+     * Indexes into keys of the distinct sequences, in sorted order.
+     */
+    private int[] order;
+
+    /**
+     * @param fw - the tree's flyweight
+     * @param sequences - the sequences to load, in input order
+     * @param pool - the pool to pack and sort on, or null for this thread
+     */
+    BulkLoader(FlyweightNode fw, Iterable<String> sequences, ForkJoinPool pool) {
+        this.fw = fw;
+        if (pool == null) {
+            List<PackedSequence> packed = new ArrayList<PackedSequence>();
+            for (String sequence : sequences) {
+                packed.add(PackedSequence.of(sequence));
+            }
+            keys = packed.toArray(new PackedSequence[packed.size()]);
+        }
+        else {
+            List<String> strings = new ArrayList<String>();
+            for (String sequence : sequences) {
+                strings.add(sequence);
+            }
+            keys = new PackedSequence[strings.size()];
+            pool.invoke(new Pack(strings, 0, keys.length));
+        }
+        boolean sorted = true;
+        for (int i = 1; i < keys.length && sorted; i++) {
+            sorted = keys[i - 1].compareTo(keys[i]) <= 0;
+        }
+        levels = new int[keys.length];
+        order = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (!sorted && pool == null) {
+            sort(order, new int[order.length], 0, order.length);
+        }
+        else if (!sorted) {
+            pool.invoke(new Sort(order, new int[order.length], 0, order.length));
+        }
+        dropDuplicates();
+    }
+
+    /**
+     * Builds the tree holding every distinct sequence.
+     *
+     * @param pool - the pool to build on, or null for this thread
+     * @return the new root, a FlyweightNode if there were no sequences
+     */
+    Node build(ForkJoinPool pool) {
+        if (pool == null) {
+            return build(0, order.length, 0);
+        }
+        return pool.invoke(new Build(0, order.length, 0));
+    }
+
+    /**
+     * @return the level each sequence ended up at, in input order,
+     *         with -1 for every repeat of an earlier sequence
+     */
+    int[] levels() {
+        return levels;
+    }
+
+    /**
+     * @param i - a position in sorted order
+     * @return the distinct sequence at that position
+     */
+    PackedSequence key(int i) {
+        return keys[order[i]];
+    }
+
+    /**
+     * Builds the subtree holding the sorted sequences from lo up to
+     * hi, all of which share their first level bases.  The walk keeps
+     * its own stack, so long shared prefixes cannot overflow the call
+     * stack.
+     *
+     * @param lo - the first position in sorted order
+     * @param hi - one past the last position
+     * @param level - the level of the returned node
+     * @return the root of the new subtree, a FlyweightNode if empty
+     */
+    Node build(int lo, int hi, int level) {
+        if (hi == lo) {
+            return fw;
+        }
+        if (hi - lo == 1) {
+            return leaf(lo, level);
+        }
+        InternalNode top = new InternalNode(fw, level);
+        InternalNode[] nodes = new InternalNode[64];
+        int[] cursor = new int[64];
+        int[] end = new int[64];
+        int depth = 0;
+        nodes[0] = top;
+        cursor[0] = lo;
+        end[0] = hi;
+        while (depth >= 0) {
+            InternalNode node = nodes[depth];
+            int start = cursor[depth];
+            if (start == end[depth]) {
+                nodes[depth] = null;
+                depth--;
+                if (depth >= 0) {
+                    nodes[depth].addBaseCounts(node);
+                }
+                continue;
+            }
+            int nodeLevel = node.getLevel();
+            int slot = Tree.slot(key(start), nodeLevel);
+            int stop = groupEnd(start, end[depth], nodeLevel, slot);
+            cursor[depth] = stop;
+            if (stop - start == 1) {
+                LeafNode leaf = leaf(start, nodeLevel + 1);
+                node.setChild(slot, leaf);
+                node.addBaseCounts(leaf, 1);
+                continue;
+            }
+            InternalNode child = new InternalNode(fw, nodeLevel + 1);
+            node.setChild(slot, child);
+            depth++;
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                cursor = Arrays.copyOf(cursor, depth * 2);
+                end = Arrays.copyOf(end, depth * 2);
+            }
+            nodes[depth] = child;
+            cursor[depth] = start;
+            end[depth] = stop;
+        }
+        return top;
+    }
+
+    private LeafNode leaf(int i, int level) {
+        levels[order[i]] = level;
+        return new LeafNode(key(i), level);
+    }
+
+    /**
+     * Finds where the run of sequences taking the same slot at a
+     * level ends.  Sorted order puts a sequence ending at the level
+     * first, then the A, C, G and T runs, so this can binary search.
+     */
+    private int groupEnd(int start, int hi, int level, int slot) {
+        int rank = rank(slot);
+        int lo = start + 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rank(Tree.slot(key(mid), level)) <= rank) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int rank(int slot) {
+        return slot == InternalNode.END ? -1 : slot;
+    }
+
+    /**
+     * Keeps the first of each run of equal sequences.  The sort is
+     * stable, so that is the one that came first in the input, which
+     * is the one repeated inserts would have kept.
+     */
+    private void dropDuplicates() {
+        int kept = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (kept > 0 && keys[order[kept - 1]].equals(keys[order[i]])) {
+                levels[order[i]] = -1;
+            }
+            else {
+                order[kept++] = order[i];
+            }
+        }
+        order = Arrays.copyOf(order, kept);
+    }
+
+    /**
+     * Stable merge sort of indexes by the sequence they point at.
+     */
+    private void sort(int[] a, int[] tmp, int lo, int hi) {
+        if (hi - lo < 2) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        sort(a, tmp, lo, mid);
+        sort(a, tmp, mid, hi);
+        merge(a, tmp, lo, mid, hi);
+    }
+
+    private void merge(int[] a, int[] tmp, int lo, int mid, int hi) {
+        if (keys[a[mid - 1]].compareTo(keys[a[mid]]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, lo, tmp, lo, hi - lo);
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (j >= hi || (i < mid && keys[tmp[i]].compareTo(keys[tmp[j]]) <= 0)) {
+                a[k] = tmp[i++];
+            }
+            else {
+                a[k] = tmp[j++];
+            }
+        }
+    }
+
+    /**
+     * Packs one range of the input strings.
+     */
+    private final class Pack extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<String> strings;
+        private final int lo;
+        private final int hi;
+
+        Pack(List<String> strings, int lo, int hi) {
+            this.strings = strings;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < GRAIN) {
+                for (int i = lo; i < hi; i++) {
+                    keys[i] = PackedSequence.of(strings.get(i));
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Pack(strings, lo, mid), new Pack(strings, mid, hi));
+        }
+    }
+
+    /**
+     * Sorts the two halves of a range in parallel, then merges them.
+     */
+    private final class Sort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] a;
+        private final int[] tmp;
+        private final int lo;
+        private final int hi;
+
+        Sort(int[] a, int[] tmp, int lo, int hi) {
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < GRAIN) {
+                sort(a, tmp, lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Sort(a, tmp, lo, mid), new Sort(a, tmp, mid, hi));
+            merge(a, tmp, lo, mid, hi);
+        }
+    }
+
+    /**
+     * Builds the subtree for one sorted range.  At each node the
+     * largest run of sequences is followed on this thread and the
+     * others are forked, so tasks only nest as deep as the number of
+     * times a range can be halved, however long the shared prefixes.
+     */
+    private final class Build extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+        private final int lo;
+        private final int hi;
+        private final int level;
+        /**
+         * Where a forked task's result goes once it is joined.
+         */
+        private InternalNode parent;
+        private int slot;
+
+        Build(int lo, int hi, int level) {
+            this.lo = lo;
+            this.hi = hi;
+            this.level = level;
+        }
+
+        @Override
+        protected Node compute() {
+            if (hi - lo < GRAIN) {
+                return build(lo, hi, level);
+            }
+            List<InternalNode> chain = new ArrayList<InternalNode>();
+            List<Build> forked = new ArrayList<Build>();
+            InternalNode node = new InternalNode(fw, level);
+            int start = lo;
+            int end = hi;
+            while (node != null) {
+                chain.add(node);
+                int nodeLevel = node.getLevel();
+                int bestStart = start;
+                int bestEnd = start;
+                int bestSlot = 0;
+                for (int s = start; s < end;) {
+                    int slot = Tree.slot(key(s), nodeLevel);
+                    int stop = groupEnd(s, end, nodeLevel, slot);
+                    if (stop - s > bestEnd - bestStart) {
+                        place(node, bestSlot, bestStart, bestEnd, forked);
+                        bestStart = s;
+                        bestEnd = stop;
+                        bestSlot = slot;
+                    }
+                    else {
+                        place(node, slot, s, stop, forked);
+                    }
+                    s = stop;
+                }
+                if (bestEnd - bestStart < GRAIN) {
+                    place(node, bestSlot, bestStart, bestEnd, forked);
+                    node = null;
+                }
+                else {
+                    InternalNode child = new InternalNode(fw, nodeLevel + 1);
+                    node.setChild(bestSlot, child);
+                    node = child;
+                    start = bestStart;
+                    end = bestEnd;
+                }
+            }
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                Build task = forked.get(i);
+                task.parent.setChild(task.slot, task.join());
+            }
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                InternalNode n = chain.get(i);
+                for (int slot = 0; slot < InternalNode.SLOTS; slot++) {
+                    Node child = n.getChild(slot);
+                    if (child instanceof LeafNode) {
+                        n.addBaseCounts((LeafNode) child, 1);
+                    }
+                    else if (child instanceof InternalNode) {
+                        n.addBaseCounts((InternalNode) child);
+                    }
+                }
+            }
+            return chain.get(0);
+        }
+
+        /**
+         * Puts one run of sequences under a node: a lone sequence
+         * becomes a leaf straight away, anything more is forked.
+         */
+        private void place(InternalNode node, int slot, int s, int stop, List<Build> forked) {
+            if (stop - s == 1) {
+                node.setChild(slot, leaf(s, node.getLevel() + 1));
+            }
+            else if (stop - s > 1) {
+                Build task = new Build(s, stop, node.getLevel() + 1);
+                task.parent = node;
+                task.slot = slot;
+                task.fork();
+                forked.add(task);
+            }
+        }
+    }
+}
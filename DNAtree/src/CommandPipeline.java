@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a command file in three stages on their own threads, so the
+ * tree is never kept waiting on reading the file or on writing the
+ * results.
+ *
+ * The parse stage tokenizes lines and packs each insert's and
+ * remove's sequence, checking its bases, ahead of time.  The tree
+ * stage, on the calling thread, runs the commands one at a time in
+ * file order; it is the only one to touch the tree.  The render
+ * stage turns insert and remove results into their lines and
+ * writes everything out.  Searches, prints and metrics are written
+ * by the tree stage into 64k-char chunks, and each full chunk is
+ * passed on straight away, so a big print or search result is
+ * being written while the rest of it is still being walked.
+ *
+ * On a ShardedTree with no metrics or cache, the tree stage only
+ * queues each insert and remove on its shard, and the render stage
+ * waits for its result, so the shards all work at once.  Before
+ * anything else runs, the changes queued so far are waited for.
+ *
+ * The stages pass batches through bounded array queues, so neither
+ * end runs more than a few batches ahead.  The output is exactly
+ * what Parser writes running the same commands in sequence: an
+ * insert of a sequence with a bad base is reported and skipped,
+ * and a remove of one does not find it.  A failed read, or anything
+ * else that goes wrong in the parse stage, stops the run at the
+ * command it hit, with the results of every command before it
+ * written, and is thrown from execute.
+ */
+public class CommandPipeline {
+    private static final int BATCH = 256;
+    private static final int CHUNK = 1 << 16;
+    private static final int DEPTH = 16;
+    private static final Command[] END = new Command[0];
+    private static final List<Object> DONE = new ArrayList<Object>();
+
+    private final Tree tree;
+    private final Parser parser;
+
+    /**
+     * @param tree - the tree the commands operate on
+     */
+    public CommandPipeline(Tree tree) {
+        this.tree = tree;
+        this.parser = new Parser(null, tree);
+    }
+
+    /**
+     * Runs commands from a reader until it is exhausted.
+     *
+     * @param reader - the source of commands
+     * @param out - where command results are written; only the render
+     *        stage writes to it until this returns
+     * @throws IOException if reading the commands fails
+     */
+    public void execute(final CommandReader reader, final PrintWriter out) throws IOException {
+        final BlockingQueue<Command[]> parsed = new ArrayBlockingQueue<Command[]>(DEPTH);
+        final BlockingQueue<List<Object>> rendered = new ArrayBlockingQueue<List<Object>>(DEPTH);
+        final RuntimeException[] renderFailure = new RuntimeException[1];
+        Thread parse = new Thread(new Runnable() {
+            public void run() {
+                parse(reader, parsed);
+            }
+        }, "command-parser");
+        Thread render = new Thread(new Runnable() {
+            public void run() {
+                renderFailure[0] = render(rendered, out);
+            }
+        }, "command-renderer");
+        parse.setDaemon(true);
+        render.setDaemon(true);
+        parse.start();
+        render.start();
+        Output output = new Output(rendered);
+        boolean finished = false;
+        try {
+            run(parsed, output);
+            finished = true;
+        } finally {
+            if (!finished) {
+                parse.interrupt();
+            }
+            try {
+                output.finish();
+                render.join();
+                parse.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting on the pipeline");
+            }
+        }
+        if (renderFailure[0] != null) {
+            throw renderFailure[0];
+        }
+    }
+
+    /**
+     * The parse stage: reads commands into batches until the reader is
+     * exhausted or anything goes wrong.  Unless the tree stage gave up,
+     * END is always passed on, so it is never left waiting.
+     */
+    private static void parse(CommandReader reader, BlockingQueue<Command[]> parsed) {
+        Command[] batch = new Command[BATCH];
+        int n = 0;
+        boolean gaveUp = false;
+        try {
+            int verb;
+            while ((verb = reader.next()) != CommandReader.EOF) {
+                if (verb == CommandReader.UNKNOWN) {
+                    continue;
+                }
+                batch[n++] = new Command(verb, reader.argument());
+                if (n == BATCH) {
+                    parsed.put(batch);
+                    batch = new Command[BATCH];
+                    n = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            // The tree stage gave up; nothing is waiting for the rest.
+            gaveUp = true;
+        } catch (Throwable e) {
+            // Handed on in order, so everything read before it runs.
+            batch[n++] = new Command(e);
+        } finally {
+            if (!gaveUp) {
+                try {
+                    if (n > 0) {
+                        parsed.put(Arrays.copyOf(batch, n));
+                    }
+                    parsed.put(END);
+                } catch (InterruptedException e) {
+                    // As above.
+                }
+            }
+        }
+    }
+
+    /**
+     * The tree stage: runs each batch's commands in order.
+     */
+    private void run(BlockingQueue<Command[]> parsed, Output output) throws IOException {
+        ShardedTree sharded = tree instanceof ShardedTree ? (ShardedTree) tree : null;
+        boolean queued = false;
+        while (true) {
+            Command[] batch;
+            try {
+                batch = parsed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting on the parser");
+            }
+            if (batch == END) {
+                return;
+            }
+            for (Command command : batch) {
+                boolean async = sharded != null && command.packed != null
+                    && tree.getMetrics() == null && tree.getSearchCache() == null;
+                switch (command.verb) {
+                    case CommandReader.INSERT:
+                        if (async) {
+                            command.pending = sharded.submitInsert(command.packed);
+                            queued = true;
+                        }
+                        else if (command.packed != null) {
+                            command.result = tree.insert(command.argument, command.packed);
+                        }
+                        output.add(command);
+                        break;
+                    case CommandReader.REMOVE:
+                        if (async) {
+                            command.pending = sharded.submitRemove(command.packed);
+                            queued = true;
+                        }
+                        else if (command.packed != null) {
+                            command.result = tree.remove(command.argument, command.packed) ? 1 : 0;
+                        }
+                        output.add(command);
+                        break;
+                    case CommandReader.EOF:
+                        command.rethrow();
+                        break;
+                    default:
+                        if (queued) {
+                            sharded.flush();
+                            queued = false;
+                        }
+                        parser.execute(command.verb, command.argument, output.writer);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The render stage: writes out each batch of results as it comes.
+     * After a failure it keeps taking batches, so the tree stage is not
+     * left blocked, but writes nothing more.
+     *
+     * @return the failure, or null
+     */
+    private static RuntimeException render(BlockingQueue<List<Object>> rendered, PrintWriter out) {
+        RuntimeException failure = null;
+        while (true) {
+            List<Object> items;
+            try {
+                items = rendered.take();
+            } catch (InterruptedException e) {
+                // Only the tree stage stops this, by sending DONE.
+                continue;
+            }
+            if (items == DONE) {
+                return failure;
+            }
+            if (failure != null) {
+                continue;
+            }
+            try {
+                for (Object item : items) {
+                    if (item instanceof Command) {
+                        Command command = (Command) item;
+                        if (command.argument.isEmpty()) {
+                            Parser.printMissing(out,
+                                command.verb == CommandReader.INSERT ? "insert" : "remove");
+                        }
+                        else if (command.verb == CommandReader.INSERT && command.packed == null) {
+                            Parser.printInvalid(out, command.argument);
+                        }
+                        else if (command.verb == CommandReader.INSERT) {
+                            Parser.printInserted(out, command.argument, result(command));
+                        }
+                        else {
+                            Parser.printRemoved(out, command.argument, result(command) != 0);
+                        }
+                    }
+                    else {
+                        out.append((StringBuilder) item);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * @return a command's result, waiting for it if it was queued on a
+     *         shard
+     */
+    private static int result(Command command) {
+        if (command.pending == null) {
+            return command.result;
+        }
+        Object result;
+        try {
+            result = command.pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for a shard", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        if (result instanceof Boolean) {
+            return (Boolean) result ? 1 : 0;
+        }
+        return (Integer) result;
+    }
+
+    /**
+     * One parsed command, and once it has run, an insert's level or
+     * whether a remove found the sequence.  An insert or remove whose
+     * sequence is missing or has a bad base has no packed form and is
+     * not run.  One queued on a shard has its result in pending
+     * instead.
+     */
+    private static final class Command {
+        final int verb;
+        final String argument;
+        PackedSequence packed;
+        Throwable failure;
+        int result;
+        Future<?> pending;
+
+        Command(int verb, String argument) {
+            this.verb = verb;
+            this.argument = argument;
+            if ((verb == CommandReader.INSERT || verb == CommandReader.REMOVE)
+                && !argument.isEmpty() && PackedSequence.isValid(argument)) {
+                packed = PackedSequence.of(argument);
+            }
+        }
+
+        Command(Throwable failure) {
+            this.verb = CommandReader.EOF;
+            this.argument = null;
+            this.failure = failure;
+        }
+
+        /**
+         * Throws what stopped the parse stage, at the point in the run
+         * where the tree stage reaches it.
+         */
+        void rethrow() throws IOException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    /**
+     * Collects results for the render stage: executed inserts and
+     * removes, and the text searches, prints and metrics write, in
+     * chunks of at most about CHUNK chars.
+     */
+    private static final class Output extends Writer {
+        private final BlockingQueue<List<Object>> rendered;
+        final PrintWriter writer = new PrintWriter(this);
+        private List<Object> items = new ArrayList<Object>();
+        private StringBuilder text = new StringBuilder();
+
+        Output(BlockingQueue<List<Object>> rendered) {
+            this.rendered = rendered;
+        }
+
+        void add(Command command) throws IOException {
+            endText();
+            items.add(command);
+            if (items.size() >= BATCH) {
+                send();
+            }
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            text.append(chars, offset, length);
+            if (text.length() >= CHUNK) {
+                endText();
+                send();
+            }
+        }
+
+        @Override
+        public void write(String s, int offset, int length) throws IOException {
+            text.append(s, offset, offset + length);
+            if (text.length() >= CHUNK) {
+                endText();
+                send();
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Chunks go once full, or at the end.
+        }
+
+        @Override
+        public void close() {
+            // The real output belongs to the caller.
+        }
+
+        /**
+         * Passes on what is left, then tells the render stage to stop.
+         */
+        void finish() throws InterruptedException {
+            endText();
+            if (!items.isEmpty()) {
+                rendered.put(items);
+            }
+            rendered.put(DONE);
+        }
+
+        private void endText() {
+            if (text.length() > 0) {
+                items.add(text);
+                text = new StringBuilder();
+            }
+        }
+
+        private void send() throws IOException {
+            try {
+                rendered.put(items);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting on the renderer");
+            }
+            items = new ArrayList<Object>();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CommandPipelineTest {
+
+    private static String commands(Random random, int n, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            String seq = TreeTesting.random(random, maxLength);
+            switch (random.nextInt(10)) {
+                case 0:
+                    text.append("remove   ").append(seq);
+                    break;
+                case 1:
+                    text.append("search ").append(seq).append('$');
+                    break;
+                case 2:
+                    text.append("search ").append(seq, 0, Math.min(2, seq.length()));
+                    break;
+                case 3:
+                    text.append(i % 500 == 0 ? "print lengths" : "bogus line\n");
+                    break;
+                default:
+                    text.append("  insert ").append(seq);
+                    break;
+            }
+            text.append('\n');
+        }
+        return text.append("print stats\nsearch A").toString();
+    }
+
+    private static CommandReader reader(String commands) {
+        return new CommandReader(Channels.newChannel(
+            new ByteArrayInputStream(commands.getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    private static String sequential(String commands) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        new Parser(null, new Tree()).execute(reader(commands), out);
+        out.flush();
+        return text.toString();
+    }
+
+    private static String pipelined(Tree tree, String commands) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        new CommandPipeline(tree).execute(reader(commands), out);
+        out.flush();
+        return text.toString();
+    }
+
+    @Test
+    public void testMatchesParser() throws IOException {
+        Random random = new Random(23);
+        for (int n : new int[] {0, 1, 255, 256, 257, 3000}) {
+            String commands = commands(random, n, 8);
+            assertEquals(sequential(commands), pipelined(new Tree(), commands));
+        }
+    }
+
+    @Test
+    public void testShardedMatchesParser() throws IOException {
+        Random random = new Random(29);
+        for (int n : new int[] {0, 257, 3000}) {
+            String commands = commands(random, n, 8);
+            ShardedTree sharded = new ShardedTree(2);
+            assertEquals(sequential(commands), pipelined(sharded, commands));
+            sharded.close();
+        }
+    }
+
+    @Test
+    public void testLargeResults() throws IOException {
+        // Prints and prefix searches far bigger than one chunk.
+        String commands = commands(new Random(7), 40000, 30);
+        String expected = sequential(commands);
+        assertTrue(expected.length() > 1 << 20);
+        assertEquals(expected, pipelined(new Tree(), commands));
+        assertEquals(expected, pipelined(new CompressedTree(), commands));
+    }
+
+    @Test
+    public void testSampleInput() throws IOException {
+        String commands = new String(Files.readAllBytes(
+            Paths.get("inputData/SampleInput.txt")), StandardCharsets.ISO_8859_1);
+        assertEquals(sequential(commands), pipelined(new Tree(), commands));
+    }
+
+    @Test
+    public void testSkipsBadSequence() throws IOException {
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            commands.append("insert ").append(i % 2 == 0 ? "ACGT" : "AC").append("A\n");
+        }
+        String good = commands.toString();
+        commands.append("insert ACXT\nremove ACNT\ninsert GG\n");
+        String expected = sequential(good);
+        expected += "sequence ACXT is invalid\nsequence ACNT does not exist\n"
+            + "sequence GG inserted at level 1\n";
+        // Parser goes on past the bad lines in the same way.
+        assertEquals(expected, sequential(commands.toString()));
+        Tree tree = new Tree();
+        assertEquals(expected, pipelined(tree, commands.toString()));
+        assertEquals(-1, tree.insert("ACGTA"));
+        assertTrue(tree.remove("GG"));
+    }
+
+    @Test
+    public void testEmptyTreeSearchEndsItsLine() throws IOException {
+        String commands = "search AAAA\ninsert AAAA\nsearch NC\nsearch AAAA\n";
+        String expected = "no sequence found\nsequence AAAA inserted at level 0\n"
+            + "# of nodes visited: 1\nno sequence found\n"
+            + "# of nodes visited: 1\nsequence: AAAA\n";
+        assertEquals(expected, sequential(commands));
+        assertEquals(expected, pipelined(new Tree(), commands));
+    }
+
+    @Test
+    public void testMissingSequence() throws IOException {
+        String commands = "search\ninsert\nremove  \ninsert GG\nsearch\nsearch GG\n";
+        String expected = "search needs a sequence\ninsert needs a sequence\n"
+            + "remove needs a sequence\nsequence GG inserted at level 0\n"
+            + "search needs a sequence\n# of nodes visited: 1\nsequence: GG\n";
+        assertEquals(expected, sequential(commands));
+        assertEquals(expected, pipelined(new Tree(), commands));
+    }
+
+    @Test
+    public void testParseFailureEndsTheRun() throws IOException {
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            commands.append("insert ").append(i % 2 == 0 ? "ACGT" : "AC").append("A\n");
+        }
+        String good = commands.toString();
+        commands.append("insert GG\n");
+        final int[] read = new int[1];
+        CommandReader failing = new CommandReader(Channels.newChannel(
+            new ByteArrayInputStream(commands.toString().getBytes(StandardCharsets.ISO_8859_1)))) {
+            @Override
+            public int next() throws IOException {
+                if (++read[0] > 600) {
+                    throw new IllegalStateException("reader broke");
+                }
+                return super.next();
+            }
+        };
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        try {
+            new CommandPipeline(new Tree()).execute(failing, out);
+            fail("the parse failure was lost");
+        } catch (IllegalStateException e) {
+            assertEquals("reader broke", e.getMessage());
+        }
+        out.flush();
+        assertEquals(sequential(good), text.toString());
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+public class CommandReader implements Closeable {
+    /**
+     * Verb codes returned by next().  The verb is matched straight
+     * from the input bytes, so no String is built for it.
+     */
+    public static final int EOF = -1;
+    public static final int INSERT = 0;
+    public static final int REMOVE = 1;
+    public static final int PRINT = 2;
+    public static final int SEARCH = 3;
+    public static final int METRICS = 4;
+    public static final int UNKNOWN = 5;
+
+    private static final byte[][] VERBS = {
+        bytes("insert"), bytes("remove"), bytes("print"), bytes("search"), bytes("metrics")
+    };
+    private static final long WINDOW = 64L << 20;
+    private static final int CHUNK = 64 << 10;
+
+    private final ReadableByteChannel channel;
+    private final FileChannel file;
+    private long fileSize;
+    private long windowStart;
+    private long window;
+    /**
+     * Always kept in read mode: position is the start of the line
+     * being tokenized and limit is the end of the available bytes.
+     */
+    private ByteBuffer buf;
+    private int argStart;
+    private int argEnd;
+    private int lineNumber;
+
+    /**
+     * Reads commands from a file by memory mapping it in windows,
+     * so the file is never copied onto the heap.
+     *
+     * @param file - the command file
+     * @throws IOException if the file cannot be mapped
+     */
+    public CommandReader(FileChannel file) throws IOException {
+        this.channel = file;
+        this.file = file;
+        this.fileSize = file.size();
+        this.window = WINDOW;
+        this.windowStart = 0;
+        this.buf = map(0);
+    }
+
+    /**
+     * Reads commands from any byte stream, such as a socket.
+     * Bytes are read in chunks into a reusable direct buffer.
+     *
+     * @param channel - the source of command bytes
+     */
+    public CommandReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.file = null;
+        this.buf = ByteBuffer.allocateDirect(CHUNK);
+        this.buf.limit(0);
+    }
+
+    /**
+     * Advances to the next non-blank line and tokenizes it.
+     * Leading whitespace and padding between the verb and its
+     * argument are skipped.
+     *
+     * @return the verb code of the line, or EOF at end of input
+     * @throws IOException if the underlying channel fails
+     */
+    public int next() throws IOException {
+        while (true) {
+            int end = lineEnd();
+            int start = buf.position();
+            if (start == end && end == buf.limit()) {
+                return EOF;
+            }
+            lineNumber++;
+            int verbStart = skipBlanks(start, end);
+            int verbEnd = skipToken(verbStart, end);
+            argStart = skipBlanks(verbEnd, end);
+            argEnd = skipToken(argStart, end);
+            buf.position(end < buf.limit() ? end + 1 : end);
+            if (verbStart == verbEnd) {
+                continue;
+            }
+            return verb(verbStart, verbEnd);
+        }
+    }
+
+    /**
+     * @return if a whole line is already buffered, so next() can
+     *         return without waiting on the channel
+     */
+    public boolean hasLine() {
+        for (int i = buf.position(); i < buf.limit(); i++) {
+            if (buf.get(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the line number of the last command returned by next()
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the length of the current argument, 0 if there is none
+     */
+    public int argumentLength() {
+        return argEnd - argStart;
+    }
+
+    /**
+     * @param i - index into the current argument
+     * @return the byte at that index
+     */
+    public byte argumentAt(int i) {
+        return buf.get(argStart + i);
+    }
+
+    /**
+     * Compares the current argument against a keyword without
+     * building a String for it.
+     *
+     * @param word - the keyword to compare against
+     * @return if the argument is exactly the keyword
+     */
+    public boolean argumentIs(String word) {
+        if (word.length() != argumentLength()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (argumentAt(i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the current argument decoded as a String
+     */
+    public String argument() {
+        char[] chars = new char[argumentLength()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (argumentAt(i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Finds the end of the current line, pulling in more input
+     * when the line runs past the end of the buffer.
+     *
+     * @return the index of the '\n' ending the line, or the
+     *         buffer limit if the input ends first
+     */
+    private int lineEnd() throws IOException {
+        int scan = buf.position();
+        while (true) {
+            int limit = buf.limit();
+            for (; scan < limit; scan++) {
+                if (buf.get(scan) == '\n') {
+                    return scan;
+                }
+            }
+            int shift = buf.position();
+            if (!fill()) {
+                return buf.limit();
+            }
+            scan -= shift;
+        }
+    }
+
+    /**
+     * Moves the current line to the front of the buffer and adds
+     * more bytes after it.
+     *
+     * @return false if there was no more input
+     */
+    private boolean fill() throws IOException {
+        int pending = buf.remaining();
+        if (file != null) {
+            long start = windowStart + buf.position();
+            if (start + pending >= fileSize) {
+                return false;
+            }
+            if (pending * 2L > window) {
+                window = pending * 2L;
+            }
+            windowStart = start;
+            buf = map(start);
+            return true;
+        }
+        buf.compact();
+        if (!buf.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(buf.capacity() * 2);
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+        int read = channel.read(buf);
+        buf.flip();
+        return read > 0;
+    }
+
+    private ByteBuffer map(long start) throws IOException {
+        long length = Math.min(window, fileSize - start);
+        return file.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+    private int skipBlanks(int i, int end) {
+        while (i < end && isBlank(buf.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private int skipToken(int i, int end) {
+        while (i < end && !isBlank(buf.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private int verb(int start, int end) {
+        for (int v = 0; v < VERBS.length; v++) {
+            byte[] word = VERBS[v];
+            if (word.length != end - start) {
+                continue;
+            }
+            int i = 0;
+            while (i < word.length && buf.get(start + i) == word[i]) {
+                i++;
+            }
+            if (i == word.length) {
+                return v;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+}
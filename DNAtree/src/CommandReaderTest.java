@@ -0,0 +1,83 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+public class CommandReaderTest {
+    private static final String INPUT =
+        "insert ACGT\n"
+        + "   insert            AAAA\r\n"
+        + "\n"
+        + "   \t \n"
+        + "print\n"
+        + "print stats\n"
+        + "bogus AC\n"
+        + "search      ACGT$";
+
+    private void checkCommands(CommandReader reader) throws IOException {
+        assertEquals(CommandReader.INSERT, reader.next());
+        assertEquals("ACGT", reader.argument());
+        assertEquals(CommandReader.INSERT, reader.next());
+        assertEquals("AAAA", reader.argument());
+        assertEquals(CommandReader.PRINT, reader.next());
+        assertEquals(0, reader.argumentLength());
+        assertEquals(CommandReader.PRINT, reader.next());
+        assertTrue(reader.argumentIs("stats"));
+        assertFalse(reader.argumentIs("lengths"));
+        assertEquals(CommandReader.UNKNOWN, reader.next());
+        assertEquals(CommandReader.SEARCH, reader.next());
+        assertEquals("ACGT$", reader.argument());
+        assertEquals(8, reader.getLineNumber());
+        assertEquals(CommandReader.EOF, reader.next());
+        assertEquals(CommandReader.EOF, reader.next());
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        File tmp = File.createTempFile("commands", ".txt");
+        tmp.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(INPUT.getBytes("US-ASCII"));
+        }
+        try (CommandReader reader = new CommandReader(
+                new FileInputStream(tmp).getChannel())) {
+            checkCommands(reader);
+        }
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        CommandReader reader = new CommandReader(Channels.newChannel(
+            new ByteArrayInputStream(INPUT.getBytes("US-ASCII"))));
+        checkCommands(reader);
+    }
+
+    @Test
+    public void testLineLongerThanBuffer() throws IOException {
+        StringBuilder seq = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            seq.append("ACGT".charAt(i % 4));
+        }
+        String input = "insert " + seq + "\nremove A\n";
+        CommandReader reader = new CommandReader(Channels.newChannel(
+            new ByteArrayInputStream(input.getBytes("US-ASCII"))));
+        assertEquals(CommandReader.INSERT, reader.next());
+        assertEquals(seq.toString(), reader.argument());
+        assertEquals(CommandReader.REMOVE, reader.next());
+        assertEquals("A", reader.argument());
+        assertEquals(CommandReader.EOF, reader.next());
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        CommandReader reader = new CommandReader(Channels.newChannel(
+            new ByteArrayInputStream(new byte[0])));
+        assertEquals(CommandReader.EOF, reader.next());
+    }
+}
@@ -0,0 +1,507 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the command file protocol over a local socket, so one
+ * long-running tree answers many clients.  A client writes
+ * commands one per line, exactly as in a command file, and reads
+ * back exactly the output DNAtree would print for them, in order.
+ *
+ * Each connection is read on its own thread: a virtual thread
+ * where the JVM has them, otherwise a platform one.  Inserts and
+ * removes are not run there but queued to a single writer thread,
+ * which drains whatever has queued up from every connection and
+ * runs it as one batch, so the tree only ever has one writer and
+ * its lock is not fought over.  Searches, prints and metrics run
+ * on the connection's thread when the tree can be read while it
+ * is changed (a ConcurrentTree or ShardedTree), and go through the
+ * writer like the changes otherwise.
+ *
+ * A connection does not wait for a queued command before reading
+ * the next one, so a client may send many commands without reading
+ * anything back.  Results are written in command order once the
+ * connection runs out of buffered input, has too many commands
+ * waiting, or reaches a command it runs itself.  A command that
+ * fails gets a line saying so in place of its result, and the
+ * connection goes on.  If the writer thread stops, every command
+ * still waiting on it, and every change sent after, is answered
+ * that way, so no connection is left waiting for it.
+ *
+ * Unix-domain sockets and virtual threads are reached through
+ * reflection, since the tree is built for Java 11.
+ */
+public class CommandServer implements Closeable {
+    private static final int MAX_PENDING = 1024;
+    private static final int MAX_BATCH = 4096;
+    private static final Request STOP = new Request(CommandReader.EOF, "");
+    private static final String[] VERBS = {"insert", "remove", "print", "search", "metrics"};
+
+    private final Tree tree;
+    private final Parser parser;
+    private final boolean concurrentReads;
+    private final ServerSocketChannel server;
+    private final ThreadFactory connections = connectionThreads();
+    private final Set<SocketChannel> open =
+        ConcurrentHashMap.<SocketChannel>newKeySet();
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+    private final Thread writer;
+    private final Thread acceptor;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicInteger clients = new AtomicInteger();
+    private volatile boolean closed;
+    /**
+     * Set, under the queue's lock, once the writer thread has stopped
+     * taking commands.
+     */
+    private boolean writerStopped;
+    private long batches;
+    private long batched;
+
+    private CommandServer(Tree tree, ServerSocketChannel server) {
+        this.tree = tree;
+        this.parser = new Parser(null, tree);
+        this.concurrentReads = tree instanceof ConcurrentTree || tree instanceof ShardedTree;
+        this.server = server;
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "tree-writer");
+        this.acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "command-server");
+        writer.setDaemon(true);
+        writer.start();
+        acceptor.start();
+    }
+
+    /**
+     * Starts serving a tree.
+     *
+     * @param tree - the tree the commands operate on
+     * @param address - a TCP address, or a Unix-domain one from
+     *        unixAddress()
+     * @return the running server
+     * @throws IOException if the address cannot be bound
+     */
+    public static CommandServer open(Tree tree, SocketAddress address) throws IOException {
+        ServerSocketChannel server;
+        if (address instanceof InetSocketAddress) {
+            server = ServerSocketChannel.open();
+        }
+        else {
+            server = openUnix();
+        }
+        try {
+            server.bind(address);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return new CommandServer(tree, server);
+    }
+
+    /**
+     * @param port - the port, or 0 for any free one
+     * @return that port on the loopback interface
+     */
+    public static SocketAddress loopback(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param path - where the socket file goes; it must not exist yet
+     * @return the Unix-domain socket address at path
+     * @throws UnsupportedOperationException before Java 16
+     */
+    public static SocketAddress unixAddress(String path) {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class).invoke(null, path);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unix-domain sockets need Java 16", e);
+        }
+    }
+
+    /**
+     * @param address - a TCP or Unix-domain address
+     * @return a channel connected to a server at that address
+     * @throws IOException if no server answers
+     */
+    public static SocketChannel connect(SocketAddress address) throws IOException {
+        if (address instanceof InetSocketAddress) {
+            return SocketChannel.open(address);
+        }
+        try {
+            SocketChannel channel = (SocketChannel) SocketChannel.class
+                .getMethod("open", ProtocolFamily.class).invoke(null, unix());
+            channel.connect(address);
+            return channel;
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unix-domain sockets need Java 16", e);
+        }
+    }
+
+    private static ServerSocketChannel openUnix() throws IOException {
+        try {
+            return (ServerSocketChannel) ServerSocketChannel.class
+                .getMethod("open", ProtocolFamily.class).invoke(null, unix());
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unix-domain sockets need Java 16", e);
+        }
+    }
+
+    private static ProtocolFamily unix() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException("Unix-domain sockets need Java 16", e);
+        }
+    }
+
+    /**
+     * Makes virtual threads if Thread.ofVirtual() is there, and daemon
+     * platform threads if not.
+     */
+    private static ThreadFactory connectionThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type = Class.forName("java.lang.Thread$Builder");
+            builder = type.getMethod("name", String.class, long.class)
+                .invoke(builder, "connection-", 0L);
+            return (ThreadFactory) type.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "connection-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+    }
+
+    /**
+     * @return the address the server is bound to, with the port filled
+     *         in if 0 was asked for
+     * @throws IOException if the server is closed
+     */
+    public SocketAddress address() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * @return the clients connected now
+     */
+    public int clients() {
+        return clients.get();
+    }
+
+    /**
+     * @return the average number of commands the writer ran at once
+     */
+    public synchronized double averageBatch() {
+        return batches == 0 ? 0 : (double) batched / batches;
+    }
+
+    /**
+     * Waits until the server is closed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops accepting, drops every connection and lets the writer
+     * finish what was queued before.  The tree itself is left open.
+     *
+     * @throws IOException if the listening socket fails to close
+     */
+    public void close() throws IOException {
+        synchronized (queue) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            server.close();
+            for (SocketChannel channel : open) {
+                channel.close();
+            }
+        } finally {
+            queue.add(STOP);
+            try {
+                acceptor.join();
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stopped.countDown();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            final SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            open.add(channel);
+            if (closed) {
+                closeQuietly(channel);
+                return;
+            }
+            connections.newThread(new Runnable() {
+                public void run() {
+                    clients.incrementAndGet();
+                    try {
+                        serve(channel);
+                    } catch (IOException e) {
+                        // The client went away; nothing is owed to it.
+                    } finally {
+                        clients.decrementAndGet();
+                        open.remove(channel);
+                        closeQuietly(channel);
+                    }
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * Reads one connection's commands until it closes its end.
+     */
+    private void serve(SocketChannel channel) throws IOException {
+        CommandReader reader = new CommandReader(channel);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+            Channels.newOutputStream(channel), StandardCharsets.ISO_8859_1), 1 << 16));
+        ArrayDeque<Request> pending = new ArrayDeque<Request>();
+        StringWriter text = new StringWriter();
+        PrintWriter result = new PrintWriter(text);
+        while (true) {
+            if (!reader.hasLine()) {
+                // next() may block on the client, who may be waiting on us.
+                drain(pending, out);
+                out.flush();
+            }
+            int verb = reader.next();
+            if (verb == CommandReader.EOF) {
+                break;
+            }
+            if (verb == CommandReader.UNKNOWN) {
+                continue;
+            }
+            String argument = reader.argument();
+            boolean change = verb == CommandReader.INSERT || verb == CommandReader.REMOVE;
+            if (change || !concurrentReads) {
+                Request request = new Request(verb, argument);
+                synchronized (queue) {
+                    // Nothing may follow STOP, or it would never be run.
+                    if (closed) {
+                        throw new ClosedChannelException();
+                    }
+                    if (writerStopped) {
+                        request.fail("the tree writer has stopped");
+                    }
+                    else {
+                        queue.add(request);
+                    }
+                }
+                pending.add(request);
+                if (pending.size() >= MAX_PENDING) {
+                    drain(pending, out);
+                }
+            }
+            else {
+                drain(pending, out);
+                // Held back until it is whole, so a failure is not left
+                // after half a result.
+                text.getBuffer().setLength(0);
+                try {
+                    parser.execute(verb, argument, result);
+                    result.flush();
+                    out.write(text.toString());
+                } catch (RuntimeException e) {
+                    out.write(failed(verb, argument, reason(e)));
+                }
+            }
+        }
+        drain(pending, out);
+        out.flush();
+        channel.shutdownOutput();
+    }
+
+    /**
+     * Writes out the queued commands' results, oldest first, waiting
+     * for the writer where it has not got to them yet.
+     */
+    private static void drain(ArrayDeque<Request> pending, PrintWriter out) throws IOException {
+        Request request;
+        while ((request = pending.poll()) != null) {
+            out.write(request.await());
+        }
+        if (out.checkError()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * The writer thread: runs queued commands in batches until stopped,
+     * then fails whatever it did not get to.
+     */
+    private void write() {
+        List<Request> batch = new ArrayList<Request>();
+        try {
+            write(batch);
+        } finally {
+            synchronized (queue) {
+                writerStopped = true;
+                queue.drainTo(batch);
+            }
+            for (Request request : batch) {
+                request.fail("the tree writer has stopped");
+            }
+        }
+    }
+
+    private void write(List<Request> batch) {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            synchronized (this) {
+                batches++;
+                batched += batch.size();
+            }
+            // One lock for the whole batch rather than one per change.
+            synchronized (tree) {
+                for (Request request : batch) {
+                    if (request == STOP) {
+                        return;
+                    }
+                    text.getBuffer().setLength(0);
+                    try {
+                        parser.execute(request.verb, request.argument, out);
+                        out.flush();
+                        request.complete(text.toString());
+                    } catch (IOException | RuntimeException e) {
+                        request.fail(reason(e));
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return the line that answers a command which failed
+     */
+    private static String failed(int verb, String argument, String reason) {
+        String command = verb >= 0 && verb < VERBS.length ? VERBS[verb] + " " : "";
+        return command + argument + " failed: " + reason + "\n";
+    }
+
+    private static String reason(Exception e) {
+        return e.getMessage() == null ? e.toString() : e.getMessage();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already gone.
+        }
+    }
+
+    /**
+     * A command waiting for the writer, and then its result: the lines
+     * the command printed, or one saying why it failed.
+     */
+    private static final class Request {
+        final int verb;
+        final String argument;
+        private String result;
+        private boolean done;
+
+        Request(int verb, String argument) {
+            this.verb = verb;
+            this.argument = argument;
+        }
+
+        synchronized void complete(String result) {
+            if (done) {
+                return;
+            }
+            this.result = result;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Answers the command with a line saying it failed, unless it
+         * has been answered already.
+         *
+         * @param reason - why it failed
+         */
+        void fail(String reason) {
+            complete(failed(verb, argument, reason));
+        }
+
+        synchronized String await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return result;
+        }
+    }
+}
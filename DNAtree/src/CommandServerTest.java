@@ -0,0 +1,246 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CommandServerTest {
+
+    private static String commands(Random random, int n) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            String seq = TreeTesting.random(random, 6);
+            switch (random.nextInt(8)) {
+                case 0:
+                    text.append("remove ").append(seq);
+                    break;
+                case 1:
+                    text.append("search ").append(seq).append('$');
+                    break;
+                case 2:
+                    text.append("search ").append(seq, 0, 1);
+                    break;
+                case 3:
+                    text.append(i % 50 == 0 ? "print stats" : "bogus line");
+                    break;
+                default:
+                    text.append("insert ").append(seq);
+                    break;
+            }
+            text.append('\n');
+        }
+        return text.append("print lengths\n").toString();
+    }
+
+    private static String expected(String commands) throws IOException {
+        return expected(new Tree(), commands);
+    }
+
+    private static String expected(Tree tree, String commands) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        CommandReader reader = new CommandReader(Channels.newChannel(
+            new ByteArrayInputStream(commands.getBytes(StandardCharsets.ISO_8859_1))));
+        new Parser(null, tree).execute(reader, out);
+        out.flush();
+        return text.toString();
+    }
+
+    /**
+     * Sends every command before reading anything back.  The channel
+     * is used directly, since its streams would lock out each other.
+     */
+    private static String send(SocketAddress address, final String commands) throws Exception {
+        final SocketChannel channel = CommandServer.connect(address);
+        Thread client = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ByteBuffer bytes = ByteBuffer.wrap(commands.getBytes(StandardCharsets.ISO_8859_1));
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    channel.shutdownOutput();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        client.start();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        while (channel.read(buf) > 0) {
+            received.write(buf.array(), 0, buf.position());
+            buf.clear();
+        }
+        client.join();
+        channel.close();
+        return new String(received.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void testMatchesParser() throws Exception {
+        String commands = commands(new Random(22), 20000);
+        for (Tree tree : new Tree[] {new Tree(), new ConcurrentTree()}) {
+            try (CommandServer server = CommandServer.open(tree, CommandServer.loopback(0))) {
+                assertEquals(expected(commands), send(server.address(), commands));
+                assertTrue(server.averageBatch() >= 1);
+            }
+        }
+    }
+
+    @Test
+    public void testSampleInput() throws Exception {
+        String commands = new String(Files.readAllBytes(
+            Paths.get("inputData/SampleInput.txt")), StandardCharsets.ISO_8859_1);
+        try (CommandServer server = CommandServer.open(new Tree(), CommandServer.loopback(0))) {
+            assertEquals(expected(commands), send(server.address(), commands));
+        }
+    }
+
+    @Test
+    public void testManyClients() throws Exception {
+        final ConcurrentTree tree = new ConcurrentTree();
+        final Tree expected = new Tree();
+        final StringBuilder[] parts = new StringBuilder[8];
+        Random random = new Random(8);
+        for (int c = 0; c < parts.length; c++) {
+            parts[c] = new StringBuilder();
+        }
+        for (int i = 0; i < 4000; i++) {
+            StringBuilder seq = new StringBuilder();
+            for (int j = 0; j < 8; j++) {
+                seq.append("ACGT".charAt(random.nextInt(4)));
+            }
+            expected.insert(seq.toString());
+            parts[i % parts.length].append("insert ").append(seq).append('\n');
+        }
+        try (final CommandServer server = CommandServer.open(tree, CommandServer.loopback(0))) {
+            Thread[] clients = new Thread[parts.length];
+            final String[] replies = new String[parts.length];
+            for (int c = 0; c < clients.length; c++) {
+                final int client = c;
+                clients[c] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            replies[client] = send(server.address(), parts[client].toString());
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                clients[c].start();
+            }
+            for (int c = 0; c < clients.length; c++) {
+                clients[c].join();
+                String[] lines = replies[c].split("\n");
+                assertEquals(4000 / parts.length, lines.length);
+                for (String line : lines) {
+                    assertTrue(line, line.startsWith("sequence ")
+                        && (line.contains(" inserted at level ") || line.endsWith(" already exists")));
+                }
+            }
+            assertEquals(expected.print(true, false), tree.print(true, false));
+            String queries = "search A\nsearch CGT\nsearch TTAC\nprint stats\n";
+            assertEquals(expected(expected, queries), send(server.address(), queries));
+        }
+    }
+
+    @Test
+    public void testUnixSocket() throws Exception {
+        SocketAddress address;
+        try {
+            address = CommandServer.unixAddress(
+                Files.createTempDirectory("dnatree").resolve("server.sock").toString());
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        String commands = commands(new Random(3), 500);
+        try (CommandServer server = CommandServer.open(new ConcurrentTree(), address)) {
+            assertEquals(expected(commands), send(server.address(), commands));
+        } finally {
+            Files.deleteIfExists(Paths.get(address.toString()));
+        }
+    }
+
+    /**
+     * A tree whose inserts of GGGG throw what it is given.
+     */
+    private static ConcurrentTree failingAt(final Throwable failure) {
+        return new ConcurrentTree() {
+            @Override
+            public int insert(PackedSequence sequence) {
+                if (sequence.contentEquals("GGGG")) {
+                    if (failure instanceof Error) {
+                        throw (Error) failure;
+                    }
+                    throw (RuntimeException) failure;
+                }
+                return super.insert(sequence);
+            }
+        };
+    }
+
+    @Test
+    public void testFailedCommand() throws Exception {
+        String commands = "insert A\ninsert GGGG\ninsert C\nsearch C$\n";
+        String expected = expected("insert A\ninsert C\nsearch C$\n");
+        int first = expected.indexOf('\n') + 1;
+        expected = expected.substring(0, first) + "insert GGGG failed: no room for GGGG\n"
+            + expected.substring(first);
+        Tree tree = failingAt(new IllegalStateException("no room for GGGG"));
+        try (CommandServer server = CommandServer.open(tree, CommandServer.loopback(0))) {
+            // The rest of the connection is still answered.
+            assertEquals(expected, send(server.address(), commands));
+            assertEquals("sequence T inserted at level 1\n",
+                send(server.address(), "insert T\n"));
+        }
+    }
+
+    @Test
+    public void testFailedRead() throws Exception {
+        ConcurrentTree tree = new ConcurrentTree() {
+            @Override
+            public void search(Appendable out, String searchWord) throws IOException {
+                if (searchWord.equals("GG")) {
+                    out.append("# of nodes visited: 1");
+                    throw new IllegalStateException("lost GG");
+                }
+                super.search(out, searchWord);
+            }
+        };
+        String expected = expected("insert AAAA\ninsert CCCC\nsearch CC\n");
+        int first = expected.indexOf('\n') + 1;
+        expected = expected.substring(0, first) + "search GG failed: lost GG\n"
+            + expected.substring(first);
+        try (CommandServer server = CommandServer.open(tree, CommandServer.loopback(0))) {
+            // Searches run on the connection's thread, and it goes on.
+            assertEquals(expected, send(server.address(),
+                "insert AAAA\nsearch GG\ninsert CCCC\nsearch CC\n"));
+        }
+    }
+
+    @Test
+    public void testWriterStops() throws Exception {
+        Tree tree = failingAt(new AssertionError("the writer dies here"));
+        try (CommandServer server = CommandServer.open(tree, CommandServer.loopback(0))) {
+            assertEquals("sequence A inserted at level 0\n"
+                + "insert GGGG failed: the tree writer has stopped\n"
+                + "insert C failed: the tree writer has stopped\n",
+                send(server.address(), "insert A\ninsert GGGG\ninsert C\n"));
+            assertEquals("remove A failed: the tree writer has stopped\n",
+                send(server.address(), "remove A\n"));
+        }
+    }
+}
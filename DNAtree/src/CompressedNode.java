@@ -0,0 +1,49 @@
+
+/**
+ * Stands for a run of internal nodes that each have a single
+ * internal child: this node's level is the top of the run, and
+ * skip is how many levels below it the children actually branch.
+ * The skipped bases are not stored; every sequence below shares
+ * them, so they are read from any leaf in the subtree.
+ */
+public class CompressedNode extends InternalNode {
+    private int skip;
+
+    public CompressedNode(FlyweightNode fw, int level, int skip) {
+        super(fw, level);
+        this.skip = skip;
+    }
+
+    /**
+     * @return how many single-child levels this node stands in for
+     */
+    public int getSkip() {
+        return skip;
+    }
+
+    public void setSkip(int skip) {
+        this.skip = skip;
+    }
+
+    /**
+     * @return the level whose base picks this node's child slot
+     */
+    public int getBranchLevel() {
+        return getLevel() + skip;
+    }
+
+    /**
+     * @return some leaf below this node, or null if it has no children
+     */
+    public LeafNode anyLeaf() {
+        InternalNode node = this;
+        while (node.getOccupied() != 0) {
+            Node child = node.getChild(Integer.numberOfTrailingZeros(node.getOccupied()));
+            if (child instanceof LeafNode) {
+                return (LeafNode) child;
+            }
+            node = (InternalNode) child;
+        }
+        return null;
+    }
+}
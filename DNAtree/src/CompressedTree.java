@@ -0,0 +1,577 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A Tree that keeps each chain of single-child internal nodes as
+ * one CompressedNode, so sequences sharing a long prefix cost one
+ * node instead of one per shared base.
+ *
+ * Levels are still those of the plain tree, and print expands every
+ * chain back into its I and E lines, so output matches Tree exactly.
+ * Search visit counts also count every node of a chain, unless the
+ * tree was made to report compressed visits, in which case each
+ * CompressedNode counts once however many levels it stands for.
+ *
+ * Every internal node is a CompressedNode.  Apart from the root, each
+ * has at least two children; the root may have fewer, but never just
+ * one internal child.
+ */
+public class CompressedTree extends Tree {
+    static final int CHAIN_VISITS = 5;
+    private Node root;
+    private final FlyweightNode fw;
+    private final boolean compressedVisits;
+    private CompressedNode[] path = new CompressedNode[64];
+    private int[] pathSlots = new int[64];
+
+    public CompressedTree() {
+        this(false);
+    }
+
+    /**
+     * @param compressedVisits - count each compressed node once in
+     *        "# of nodes visited" instead of once per level
+     */
+    public CompressedTree(boolean compressedVisits) {
+        fw = getFlyweight();
+        root = fw;
+        this.compressedVisits = compressedVisits;
+    }
+
+    @Override
+    Node getRoot() {
+        return root;
+    }
+
+    @Override
+    boolean countsSplits() {
+        return false;
+    }
+
+    @Override
+    boolean countsChainLevels() {
+        return !compressedVisits;
+    }
+
+    @Override
+    public int insert(PackedSequence sequence) {
+        if (root instanceof FlyweightNode) {
+            root = new LeafNode(sequence, 0);
+            return 0;
+        }
+        if (root instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) root;
+            if (leaf.getPacked().equals(sequence)) {
+                return -1;
+            }
+            CompressedNode top = new CompressedNode(fw, 0, 0);
+            top.setChild(slot(leaf.getPacked(), 0), leaf);
+            top.addBaseCounts(leaf, 1);
+            leaf.setLevel(1);
+            root = top;
+        }
+        CompressedNode node = (CompressedNode) root;
+        int depth = 0;
+        while (true) {
+            if (depth + 1 >= path.length) {
+                path = Arrays.copyOf(path, path.length * 2);
+                pathSlots = Arrays.copyOf(pathSlots, path.length);
+            }
+            path[depth] = node;
+            int level = node.getLevel();
+            if (node.getSkip() > 0) {
+                PackedSequence label = node.anyLeaf().getPacked();
+                for (int i = 0; i < node.getSkip(); i++) {
+                    int c = slot(sequence, level + i);
+                    if (c != label.codeAt(level + i)) {
+                        return splitChain(sequence, node, i, c, label.codeAt(level + i), depth);
+                    }
+                }
+            }
+            int branch = node.getBranchLevel();
+            int pos = slot(sequence, branch);
+            pathSlots[depth++] = pos;
+            Node cur = node.getChild(pos);
+
+            if (cur instanceof FlyweightNode) {
+                LeafNode leaf = new LeafNode(sequence, branch + 1);
+                node.setChild(pos, leaf);
+                addBaseCounts(leaf, depth, 1);
+                Arrays.fill(path, 0, depth, null);
+                return leaf.getLevel();
+            }
+
+            if (cur instanceof LeafNode) {
+                LeafNode old = (LeafNode) cur;
+                PackedSequence other = old.getPacked();
+                if (other.equals(sequence)) {
+                    Arrays.fill(path, 0, depth, null);
+                    return -1;
+                }
+                int split = branch + 1;
+                while (slot(sequence, split) == slot(other, split)) {
+                    split++;
+                }
+                LeafNode leaf = new LeafNode(sequence, split + 1);
+                old.setLevel(split + 1);
+                if (Integer.bitCount(node.getOccupied()) == 1) {
+                    // Only the root can hold a single leaf; rather than
+                    // give it a single internal child, lengthen its chain.
+                    node.setChild(pos, fw);
+                    node.setSkip(split - node.getLevel());
+                    node.setChild(slot(other, split), old);
+                    node.setChild(slot(sequence, split), leaf);
+                    addBaseCounts(leaf, depth, 1);
+                    Arrays.fill(path, 0, depth, null);
+                    return leaf.getLevel();
+                }
+                CompressedNode fork = new CompressedNode(fw, branch + 1, split - branch - 1);
+                fork.setChild(slot(other, split), old);
+                fork.addBaseCounts(old, 1);
+                fork.setChild(slot(sequence, split), leaf);
+                node.setChild(pos, fork);
+                path[depth++] = fork;
+                addBaseCounts(leaf, depth, 1);
+                Arrays.fill(path, 0, depth, null);
+                return leaf.getLevel();
+            }
+
+            node = (CompressedNode) cur;
+        }
+    }
+
+    /**
+     * Handles a sequence that leaves a node's chain partway down: the
+     * chain is cut where it differs, the top part becoming a new node
+     * that branches to the rest of the chain and to the new leaf.
+     *
+     * @param sequence - the sequence being inserted
+     * @param node - the node whose chain it leaves
+     * @param i - how far down the chain it differs
+     * @param slot - the new sequence's slot at that level
+     * @param labelSlot - the chain's slot at that level
+     * @param depth - where node sits on the path
+     * @return the level of the new leaf
+     */
+    private int splitChain(PackedSequence sequence, CompressedNode node, int i, int slot,
+        int labelSlot, int depth) {
+        int level = node.getLevel();
+        CompressedNode upper = new CompressedNode(fw, level, i);
+        upper.addBaseCounts(node);
+        node.setSkip(node.getSkip() - i - 1);
+        node.setLevel(level + i + 1);
+        upper.setChild(labelSlot, node);
+        LeafNode leaf = new LeafNode(sequence, level + i + 1);
+        upper.setChild(slot, leaf);
+        if (depth == 0) {
+            root = upper;
+        }
+        else {
+            path[depth - 1].setChild(pathSlots[depth - 1], upper);
+        }
+        path[depth] = upper;
+        addBaseCounts(leaf, depth + 1, 1);
+        Arrays.fill(path, 0, depth + 1, null);
+        return leaf.getLevel();
+    }
+
+    @Override
+    public boolean remove(PackedSequence sequence) {
+        if (root instanceof FlyweightNode) {
+            return false;
+        }
+        if (root instanceof LeafNode) {
+            if (((LeafNode) root).getPacked().equals(sequence)) {
+                root = fw;
+                return true;
+            }
+            return false;
+        }
+        CompressedNode node = (CompressedNode) root;
+        LeafNode removed;
+        int depth = 0;
+        while (true) {
+            int c = slot(sequence, node.getBranchLevel());
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                pathSlots = Arrays.copyOf(pathSlots, depth * 2);
+            }
+            path[depth] = node;
+            pathSlots[depth] = c;
+            depth++;
+            Node next = node.getChild(c);
+            if (next instanceof LeafNode && ((LeafNode) next).getPacked().equals(sequence)) {
+                removed = (LeafNode) next;
+                break;
+            }
+            if (!(next instanceof CompressedNode)) {
+                Arrays.fill(path, 0, depth, null);
+                return false;
+            }
+            node = (CompressedNode) next;
+        }
+        path[depth - 1].setChild(pathSlots[depth - 1], fw);
+        addBaseCounts(removed, depth, -1);
+        // Walking back up, a node left with one leaf is replaced by it
+        // (the whole chain collapses, as in Tree.remove), and a node
+        // left with one internal child takes that child's chain on.
+        for (int j = depth - 1; j >= 0; j--) {
+            CompressedNode next = path[j];
+            path[j] = null;
+            if (Integer.bitCount(next.getOccupied()) != 1) {
+                continue;
+            }
+            int only = Integer.numberOfTrailingZeros(next.getOccupied());
+            Node child = next.getChild(only);
+            if (child instanceof CompressedNode) {
+                merge(next, (CompressedNode) child);
+            }
+            else if (j > 0) {
+                child.setLevel(next.getLevel());
+                path[j - 1].setChild(pathSlots[j - 1], child);
+            }
+            else if (next.getSkip() > 0) {
+                next.setChild(only, fw);
+                next.setSkip(0);
+                next.setChild(slot(((LeafNode) child).getPacked(), 0), child);
+                child.setLevel(1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Nodes here may stand for several levels, which the plain
+     * Tree helper does not know about.
+     *
+     * @throws UnsupportedOperationException always; use remove(PackedSequence)
+     */
+    @Override
+    public boolean remove(PackedSequence sequence, InternalNode node) {
+        throw new UnsupportedOperationException("remove from the root instead");
+    }
+
+    /**
+     * Inserts one sequence at a time, so no full-length chains are
+     * ever built only to be compressed.  The pool is not used; print
+     * and search always run on the caller, too.
+     */
+    @Override
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        return insertEach(sequences);
+    }
+
+    /**
+     * The cache finds what a change touched by walking one level per
+     * base, which chains do not allow.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setSearchCache(SearchCache cache) {
+        throw new UnsupportedOperationException("compressed trees cannot be cached");
+    }
+
+    /**
+     * The snapshot format stores no chain lengths, since it takes
+     * every node to be one level below its parent.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void save(Path file) {
+        throw new UnsupportedOperationException("compressed trees cannot be saved");
+    }
+
+    /**
+     * The frozen encoding, like the snapshot format, takes every node
+     * to be one level below its parent.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public FrozenTree freeze() {
+        throw new UnsupportedOperationException("compressed trees cannot be frozen");
+    }
+
+    /**
+     * Descends by the branch levels only, then checks the whole prefix
+     * against a sequence from the subtree reached.
+     */
+    @Override
+    Node findPrefix(String prefix) {
+        Node cur = root;
+        while (cur instanceof CompressedNode) {
+            int branch = ((CompressedNode) cur).getBranchLevel();
+            if (branch >= prefix.length()) {
+                break;
+            }
+            cur = ((CompressedNode) cur).getNode(prefix.charAt(branch));
+        }
+        if (cur instanceof CompressedNode) {
+            LeafNode leaf = ((CompressedNode) cur).anyLeaf();
+            if (leaf != null && !leaf.getPacked().startsWith(prefix)) {
+                return fw;
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * @return the number of internal and leaf nodes in the tree
+     */
+    public long nodeCount() {
+        if (!(root instanceof CompressedNode)) {
+            return root instanceof LeafNode ? 1 : 0;
+        }
+        long count = 0;
+        CompressedNode[] stack = new CompressedNode[64];
+        int top = 0;
+        stack[0] = (CompressedNode) root;
+        while (top >= 0) {
+            CompressedNode node = stack[top];
+            stack[top--] = null;
+            count++;
+            for (int i = 0; i < InternalNode.SLOTS; i++) {
+                Node child = node.getChild(i);
+                if (child instanceof CompressedNode) {
+                    top++;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top] = (CompressedNode) child;
+                }
+                else if (child instanceof LeafNode) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Prints the tree as the plain Tree would, writing the I line and
+     * four E lines for every level a chain stands for.
+     */
+    @Override
+    public void print(Appendable out, boolean lengths, boolean stats, ForkJoinPool pool)
+        throws IOException {
+        if (!(root instanceof CompressedNode)) {
+            super.print(out, lengths, stats, null);
+            return;
+        }
+        printNode(out, lengths, stats, root, 0);
+        CompressedNode[] nodes = new CompressedNode[64];
+        PackedSequence[] labels = new PackedSequence[64];
+        int[] chain = new int[64];
+        int[] next = new int[64];
+        int top = 0;
+        nodes[0] = (CompressedNode) root;
+        labels[0] = label(nodes[0]);
+        while (top >= 0) {
+            CompressedNode node = nodes[top];
+            int i = next[top];
+            if (i == InternalNode.SLOTS) {
+                nodes[top] = null;
+                labels[top] = null;
+                chain[top] = 0;
+                next[top--] = 0;
+                continue;
+            }
+            next[top]++;
+            int level = node.getLevel() + chain[top];
+            CompressedNode push = null;
+            int pushChain = 0;
+            if (chain[top] < node.getSkip()) {
+                if (i == labels[top].codeAt(level)) {
+                    printNode(out, lengths, stats, node, level + 1);
+                    push = node;
+                    pushChain = chain[top] + 1;
+                }
+                else {
+                    printNode(out, lengths, stats, fw, level + 1);
+                }
+            }
+            else {
+                Node child = node.getChild(i);
+                int childLevel = child instanceof FlyweightNode ? level + 1 : child.getLevel();
+                printNode(out, lengths, stats, child, childLevel);
+                if (child instanceof CompressedNode) {
+                    push = (CompressedNode) child;
+                }
+            }
+            if (push != null) {
+                top++;
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    labels = Arrays.copyOf(labels, top * 2);
+                    chain = Arrays.copyOf(chain, top * 2);
+                    next = Arrays.copyOf(next, top * 2);
+                }
+                nodes[top] = push;
+                labels[top] = pushChain > 0 ? labels[top - 1] : label(push);
+                chain[top] = pushChain;
+            }
+        }
+    }
+
+    /**
+     * Searches one query at a time, since each search has to step
+     * through the chains.
+     */
+    @Override
+    public String[] searchBatch(List<String> queries, int[] visited) {
+        if (!(root instanceof CompressedNode)) {
+            return super.searchBatch(queries, visited);
+        }
+        return searchEach(queries, visited);
+    }
+
+    /**
+     * Searches like Tree.search, stepping through each chain a base at
+     * a time so the visit count and the point where a search stops are
+     * the same as in the plain tree.  Pattern searches with ambiguity
+     * codes go through Tree.search, which counts chains the same way.
+     */
+    @Override
+    public void search(Appendable out, String searchWord, ForkJoinPool pool) throws IOException {
+        if (!(root instanceof CompressedNode) || PatternSearch.isPattern(searchWord)) {
+            super.search(out, searchWord, null);
+            return;
+        }
+        boolean isWord = searchWord.charAt(searchWord.length() - 1) == '$';
+        if (isWord) {
+            searchWord = searchWord.substring(0, searchWord.length() - 1);
+        }
+        int visited = 1;
+        int count = 0;
+        int chain = 0;
+        CompressedNode next = (CompressedNode) root;
+        descend:
+        while (true) {
+            if (next.getSkip() > 0) {
+                PackedSequence label = next.anyLeaf().getPacked();
+                for (chain = 0; chain < next.getSkip(); chain++) {
+                    if (count == searchWord.length()
+                        || PackedSequence.code(searchWord.charAt(count)) != label.codeAt(count)) {
+                        break descend;
+                    }
+                    count++;
+                    if (!compressedVisits) {
+                        visited++;
+                    }
+                }
+            }
+            chain = next.getSkip();
+            if (count == searchWord.length()) {
+                break;
+            }
+            Node child = next.getNode(searchWord.charAt(count));
+            if (!(child instanceof CompressedNode)) {
+                break;
+            }
+            next = (CompressedNode) child;
+            count++;
+            visited++;
+        }
+
+        char pos = count == searchWord.length() ? 'E' : searchWord.charAt(count);
+        Node nextNode = chain < next.getSkip() ? fw : next.getNode(pos);
+        if (isWord) {
+            visited++;
+            printVisited(out, visited);
+            if (nextNode instanceof LeafNode && ((LeafNode) nextNode).getPacked().contentEquals(searchWord)) {
+                out.append("\nsequence: ").append(searchWord);
+            }
+            else {
+                out.append("\nno sequence found");
+            }
+        }
+        else if (pos != 'E' && nextNode instanceof LeafNode
+            && ((LeafNode) nextNode).getPacked().startsWith(searchWord)) {
+            visited++;
+            printVisited(out, visited);
+            out.append("\nsequence: ").append(((LeafNode) nextNode).getSequence());
+        }
+        else if (pos == 'E') {
+            visited += countAll(next, !compressedVisits) - 1;
+            if (!compressedVisits) {
+                visited -= CHAIN_VISITS * chain;
+            }
+            printVisited(out, visited);
+            printAll(out, next);
+        }
+        else {
+            visited++;
+            printVisited(out, visited);
+            out.append("\nno sequence found");
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Counts the nodes a prefix search visits below a node.  Each level
+     * of a chain is an I with three E siblings among A to T, so it adds
+     * five, unless visits are being counted per compressed node.
+     *
+     * @param node - the root of the subtree
+     * @param chainLevels - count every level of each chain
+     * @return the number of nodes visited
+     */
+    static int countAll(CompressedNode node, boolean chainLevels) {
+        int sum = 0;
+        CompressedNode[] stack = new CompressedNode[64];
+        int top = 0;
+        stack[0] = node;
+        while (top >= 0) {
+            CompressedNode cur = stack[top];
+            stack[top--] = null;
+            sum += 2;
+            if (chainLevels) {
+                sum += CHAIN_VISITS * cur.getSkip();
+            }
+            for (int i = 0; i < InternalNode.END; i++) {
+                Node child = cur.getChild(i);
+                if (child instanceof CompressedNode) {
+                    top++;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top] = (CompressedNode) child;
+                }
+                else {
+                    sum++;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static void printVisited(Appendable out, int visited) throws IOException {
+        out.append("# of nodes visited: ").append(Integer.toString(visited));
+    }
+
+    private static PackedSequence label(CompressedNode node) {
+        return node.getSkip() > 0 ? node.anyLeaf().getPacked() : null;
+    }
+
+    /**
+     * Folds a node's only child into it, so the node's chain now runs
+     * through the child's level and the child's chain.
+     */
+    private static void merge(CompressedNode node, CompressedNode child) {
+        node.setSkip(node.getSkip() + 1 + child.getSkip());
+        for (int i = 0; i < InternalNode.SLOTS; i++) {
+            node.setChild(i, child.getChild(i));
+        }
+    }
+
+    private void addBaseCounts(LeafNode leaf, int depth, int sign) {
+        for (int i = 0; i < depth; i++) {
+            path[i].addBaseCounts(leaf, sign);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedTreeTest {
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        java.util.Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void testMatchesTree() {
+        TreeTesting.assertSameAnswers(new Random(21), new Tree(), new CompressedTree(),
+            new String[] {"", "A", "ACGTACGTAC", "ACGTACGTTT", "GGGGGGGGGGGG", "T"}, 6, 6000, 50);
+    }
+
+    @Test
+    public void testSearchVisitsMatchTree() {
+        Random random = new Random(22);
+        String[] prefixes = {"", "ACGTACGTAC", "ACGTACGTTT", "GGGGGGGGGGGG"};
+        Tree plain = new Tree();
+        CompressedTree tree = new CompressedTree();
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < 10; i++) {
+                String seq = prefixes[random.nextInt(prefixes.length)] + TreeTesting.random(random, 6);
+                if (random.nextInt(3) == 0) {
+                    assertEquals(seq, plain.remove(seq), tree.remove(seq));
+                }
+                else {
+                    assertEquals(seq, plain.insert(seq), tree.insert(seq));
+                }
+            }
+            for (int i = 0; i < 5; i++) {
+                String query = prefixes[random.nextInt(prefixes.length)] + TreeTesting.random(random, 6);
+                query = query.substring(0, 1 + random.nextInt(query.length()));
+                int k = random.nextInt(3);
+                assertEquals(query, plain.searchHamming(query, k), tree.searchHamming(query, k));
+                assertEquals(query, plain.searchEdit(query, k), tree.searchEdit(query, k));
+                char[] codes = query.toCharArray();
+                codes[random.nextInt(codes.length)] = "NRYB".charAt(random.nextInt(4));
+                String pattern = new String(codes);
+                assertEquals(pattern, plain.search(pattern), tree.search(pattern));
+                assertEquals(pattern, plain.search(pattern + "$"), tree.search(pattern + "$"));
+            }
+            assertEquals(plain.search("N"), tree.search("N"));
+        }
+    }
+
+    @Test
+    public void testLongSharedPrefix() {
+        String shared = repeat('A', 500);
+        CompressedTree tree = new CompressedTree();
+        Tree plain = new Tree();
+        for (String seq : new String[] {shared + "C", shared + "G", shared}) {
+            assertEquals(plain.insert(seq), tree.insert(seq));
+        }
+        assertEquals(4, tree.nodeCount());
+        assertEquals(plain.search(shared + "G$"), tree.search(shared + "G$"));
+        assertEquals(plain.search("AA"), tree.search("AA"));
+        assertEquals(plain.print(false, false), tree.print(false, false));
+
+        CompressedTree counted = new CompressedTree(true);
+        counted.insert(shared + "C");
+        counted.insert(shared + "G");
+        assertEquals("# of nodes visited: 2\nsequence: " + shared + "G\n",
+            counted.search(shared + "G$"));
+        assertEquals("# of nodes visited: 6\nsequence: " + shared + "C\nsequence: "
+            + shared + "G\n", counted.search("AA"));
+
+        assertTrue(tree.remove(shared + "C"));
+        assertTrue(tree.remove(shared));
+        assertTrue(plain.remove(shared + "C"));
+        assertTrue(plain.remove(shared));
+        assertEquals(plain.print(false, false), tree.print(false, false));
+        assertEquals(2, tree.nodeCount());
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A Tree that any number of threads can search, print and total
+ * while writers change it, without readers ever taking a lock.
+ *
+ * Nodes are never changed once they are reachable from the root.
+ * A writer copies the internal nodes on the path it changes (and
+ * any leaf whose level moves), links the copies together, and then
+ * publishes the new root with one volatile write.  A reader reads
+ * the root once and sees a complete, unchanging tree from there
+ * down; everything it does not pass through is shared with the
+ * trees before and after.  Writers take turns on this object's
+ * monitor, so each one copies from the latest root.
+ */
+public class ConcurrentTree extends Tree {
+    private volatile Node root;
+    private final FlyweightNode fw;
+    private InternalNode[] path = new InternalNode[64];
+    private int[] pathSlots = new int[64];
+
+    public ConcurrentTree() {
+        fw = getFlyweight();
+        root = fw;
+    }
+
+    @Override
+    Node getRoot() {
+        return root;
+    }
+
+    @Override
+    void setRoot(Node root) {
+        this.root = root;
+        if (getSearchCache() != null) {
+            getSearchCache().clear();
+        }
+    }
+
+    @Override
+    boolean countsSplits() {
+        return false;
+    }
+
+    @Override
+    public synchronized int insert(PackedSequence sequence) {
+        Node top = root;
+        if (top instanceof FlyweightNode) {
+            root = new LeafNode(sequence, 0);
+            return 0;
+        }
+        InternalNode copy;
+        if (top instanceof LeafNode) {
+            if (((LeafNode) top).getPacked().equals(sequence)) {
+                return -1;
+            }
+            copy = split((LeafNode) top);
+        }
+        else {
+            copy = new InternalNode((InternalNode) top);
+        }
+        InternalNode newRoot = copy;
+        int depth = 0;
+        while (true) {
+            pathAt(depth);
+            path[depth++] = copy;
+            int pos = slot(sequence, copy.getLevel());
+            Node cur = copy.getChild(pos);
+
+            if (cur instanceof FlyweightNode) {
+                LeafNode leaf = new LeafNode(sequence, copy.getLevel() + 1);
+                copy.setChild(pos, leaf);
+                for (int i = 0; i < depth; i++) {
+                    path[i].addBaseCounts(leaf, 1);
+                }
+                Arrays.fill(path, 0, depth, null);
+                root = newRoot;
+                return leaf.getLevel();
+            }
+
+            InternalNode next;
+            if (cur instanceof LeafNode) {
+                if (((LeafNode) cur).getPacked().equals(sequence)) {
+                    Arrays.fill(path, 0, depth, null);
+                    return -1;
+                }
+                next = split((LeafNode) cur);
+            }
+            else {
+                next = new InternalNode((InternalNode) cur);
+            }
+            copy.setChild(pos, next);
+            copy = next;
+        }
+    }
+
+    /**
+     * Grows the path stack, nodes and slots together, so it has room
+     * for the node at depth.
+     */
+    private void pathAt(int depth) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth * 2);
+            pathSlots = Arrays.copyOf(pathSlots, depth * 2);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(PackedSequence sequence) {
+        Node top = root;
+        if (top instanceof FlyweightNode) {
+            return false;
+        }
+        if (top instanceof LeafNode) {
+            if (((LeafNode) top).getPacked().equals(sequence)) {
+                root = fw;
+                return true;
+            }
+            return false;
+        }
+        InternalNode node = (InternalNode) top;
+        LeafNode removed;
+        int depth = 0;
+        while (true) {
+            int c = slot(sequence, node.getLevel());
+            pathAt(depth);
+            path[depth] = node;
+            pathSlots[depth] = c;
+            depth++;
+            Node next = node.getChild(c);
+            if (next instanceof LeafNode && ((LeafNode) next).getPacked().equals(sequence)) {
+                removed = (LeafNode) next;
+                break;
+            }
+            if (!(next instanceof InternalNode)) {
+                Arrays.fill(path, 0, depth, null);
+                return false;
+            }
+            node = (InternalNode) next;
+        }
+        // Rebuild the path bottom-up.  A copy left holding a single
+        // leaf is replaced by that leaf one level up, as in Tree.remove,
+        // except that the leaf is copied too.
+        Node replacement = fw;
+        for (int j = depth - 1; j >= 0; j--) {
+            InternalNode copy = new InternalNode(path[j]);
+            copy.setChild(pathSlots[j], replacement);
+            copy.addBaseCounts(removed, -1);
+            replacement = copy;
+            if (j > 0 && copy.getTotalFlyNode() == 4) {
+                Node only = copy.getChild(Integer.numberOfTrailingZeros(copy.getOccupied()));
+                if (only instanceof LeafNode) {
+                    replacement = new LeafNode(((LeafNode) only).getPacked(), only.getLevel() - 1);
+                }
+            }
+            path[j] = null;
+        }
+        root = replacement;
+        return true;
+    }
+
+    /**
+     * Nodes of a ConcurrentTree may be in use by readers, so they are
+     * never changed in place.
+     *
+     * @throws UnsupportedOperationException always; use remove(PackedSequence)
+     */
+    @Override
+    public boolean remove(PackedSequence sequence, InternalNode node) {
+        throw new UnsupportedOperationException("remove from the root instead");
+    }
+
+    /**
+     * Builds a whole new tree off to the side when this one is empty,
+     * and publishes it in one step.
+     */
+    @Override
+    public synchronized int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        if (!(root instanceof FlyweightNode)) {
+            return insertEach(sequences);
+        }
+        BulkLoader loader = new BulkLoader(fw, sequences, pool);
+        setRoot(loader.build(pool));
+        return loader.levels();
+    }
+
+    /**
+     * Replaces a leaf that is in the way with a new internal node at
+     * its level, holding a copy of the leaf one level further down.
+     */
+    private InternalNode split(LeafNode leaf) {
+        InternalNode node = new InternalNode(fw, leaf.getLevel());
+        LeafNode moved = new LeafNode(leaf.getPacked(), leaf.getLevel() + 1);
+        node.setChild(slot(moved.getPacked(), leaf.getLevel()), moved);
+        node.addBaseCounts(moved, 1);
+        return node;
+    }
+}
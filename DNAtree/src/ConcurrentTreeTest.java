@@ -0,0 +1,102 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentTreeTest {
+
+    @Test
+    public void testMatchesTree() {
+        TreeTesting.assertSameAnswers(new Random(3), new Tree(), new ConcurrentTree(),
+            new String[] {"", "A", "AC", "ACGTACGTAC", "T"}, 8, 4000, 100);
+    }
+
+    @Test
+    public void testReadersDuringWrites() throws InterruptedException {
+        final ConcurrentTree tree = new ConcurrentTree();
+        final List<String> stable = new ArrayList<String>();
+        Random random = new Random(8);
+        for (int i = 0; i < 200; i++) {
+            String seq = TreeTesting.randomSequence(random, "GG", 8);
+            if (tree.insert(seq) >= 0) {
+                stable.add(seq);
+            }
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            final int seed = r;
+            readers[r] = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        while (!done.get()) {
+                            String seq = stable.get(random.nextInt(stable.size()));
+                            String result = tree.search(seq + "$");
+                            assertTrue(result, result.endsWith("\nsequence: " + seq + "\n"));
+                            String all = tree.search("GG");
+                            int found = all.split("\nsequence: GG", -1).length - 1;
+                            assertTrue(all, found >= stable.size());
+                            assertTrue(tree.composition("GG")[2] >= 2 * stable.size());
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        Tree expected = new Tree();
+        for (String seq : stable) {
+            expected.insert(seq);
+        }
+        String[] prefixes = {"", "A", "GG", "GGA", "T"};
+        for (int op = 0; op < 20000; op++) {
+            String prefix = prefixes[random.nextInt(prefixes.length)];
+            String seq = TreeTesting.randomSequence(random, prefix, 8);
+            if (stable.contains(seq)) {
+                continue;
+            }
+            if (random.nextBoolean()) {
+                assertEquals(expected.insert(seq), tree.insert(seq));
+            }
+            else {
+                assertEquals(expected.remove(seq), tree.remove(seq));
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(expected.print(true, false), tree.print(true, false));
+    }
+
+    @Test
+    public void testLongSharedPrefix() {
+        // Deeper than the path stack starts out.
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            run.append('A');
+        }
+        String[] seqs = {run.toString(), run + "C", run + "G"};
+        Tree expected = new Tree();
+        ConcurrentTree tree = new ConcurrentTree();
+        for (String seq : seqs) {
+            assertEquals(expected.insert(seq), tree.insert(seq));
+        }
+        assertEquals(expected.remove(seqs[1]), tree.remove(seqs[1]));
+        assertEquals(expected.print(true, false), tree.print(true, false));
+        assertEquals(expected.remove(seqs[0]), tree.remove(seqs[0]));
+        assertEquals(expected.search(seqs[2] + "$"), tree.search(seqs[2] + "$"));
+        assertEquals(expected.print(true, false), tree.print(true, false));
+    }
+}
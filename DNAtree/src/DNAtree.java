@@ -1,16 +1,251 @@
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 public class DNAtree {
     static Tree mytree;
+    /**
+     * Flags that pick the kind of tree; at most one may be given.
+     */
+    private static final List<String> KINDS = Arrays.asList("-offheap",
+        "-compressed", "-compressed-visits", "-load", "-log", "-sharded", "-delta");
+    private static final List<String> FLAGS = Arrays.asList("-offheap",
+        "-compressed", "-compressed-visits", "-metrics");
+    private static final List<String> VALUED = Arrays.asList("-load", "-log",
+        "-sharded", "-delta", "-cache", "-save");
+    private static final String USAGE = "usage: DNAtree <command file> [options]"
+        + " | DNAtree -serve <port or socket path>";
+    /**
+     * Runs a command file.  Flags after the file name pick the kind of
+     * tree, at most one of them: "-offheap" keeps the tree's nodes in
+     * direct memory instead of on the heap, "-compressed" stores
+     * chains of single-child nodes as one node ("-compressed-visits"
+     * also counts them once when searching), "-load" followed by a
+     * snapshot file starts from the tree saved there instead of an
+     * empty one, "-log" followed by a directory recovers the tree kept
+     * there and logs every change to it, so nothing is lost if the run
+     * dies, checkpointing every million changes or ten minutes,
+     * "-sharded" followed by a prefix length k from 1 to 8 splits the
+     * tree into 4^k shards, changed at once on a pool of threads, and
+     * "-delta" followed by a number puts changes in a delta tree of
+     * that many, merged into the rest in the background, with metrics
+     * on so the metrics command reports what merging has cost.
+     *
+     * Any of these may be added to that: "-metrics" times every
+     * command, for the metrics command to report, "-cache" followed by
+     * a number keeps that many search results, up to 64 MB of them,
+     * for repeated searches, and "-save" followed by a file writes the
+     * tree there once the commands have run.  A kind of tree that
+     * cannot do one of them is turned down before any command runs,
+     * with the reason printed to standard error.
+     *
+     * "-serve" followed by a port, or by a path for a Unix-domain
+     * socket, takes commands from clients of a CommandServer instead
+     * of from a file, until the process is stopped.
+     *
+     * Missing arguments or a turned-down option end the run with exit
+     * status 1 before any command runs.
+     *
+     * @param args - the command file, then optional flags
+     * @throws FileNotFoundException if the command file does not exist
+     */
     public static void main(String[] args) throws FileNotFoundException {
+        if (args.length == 0 || args[0].equals("-serve") && args.length != 2) {
+            fail(USAGE);
+            return;
+        }
+        if (args[0].equals("-serve")) {
+            serve(args[1]);
+            return;
+        }
         String filename = args[0];
-        mytree = new Tree();
+        Map<String, String> options;
+        try {
+            options = options(args);
+            mytree = open(options);
+        } catch (IllegalArgumentException e) {
+            fail(e.getMessage());
+            return;
+        }
         Parser parse = new Parser(new File(filename), mytree);
         parse.execute();
+        close(mytree);
+        if (options.containsKey("-save")) {
+            try {
+                mytree.save(Paths.get(options.get("-save")));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the flags after the command file name.
+     *
+     * @param args - the command file, then the flags
+     * @return each flag given, in order, mapped to the value after it,
+     *         or to "" for a flag that takes none
+     * @throws IllegalArgumentException for an unknown or repeated
+     *         flag, a missing value, or more than one kind of tree
+     */
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        String kind = null;
+        for (int i = 1; i < args.length; i++) {
+            String flag = args[i];
+            if (!FLAGS.contains(flag) && !VALUED.contains(flag)) {
+                throw new IllegalArgumentException("unknown option " + flag);
+            }
+            if (options.containsKey(flag)) {
+                throw new IllegalArgumentException(flag + " is given more than once");
+            }
+            if (KINDS.contains(flag)) {
+                if (kind != null) {
+                    throw new IllegalArgumentException(kind + " and " + flag
+                        + " cannot be used together: each picks the kind of tree");
+                }
+                kind = flag;
+            }
+            String value = "";
+            if (VALUED.contains(flag)) {
+                if (++i == args.length) {
+                    throw new IllegalArgumentException(flag + " needs a value after it");
+                }
+                value = args[i];
+            }
+            options.put(flag, value);
+        }
+        return options;
+    }
+
+    /**
+     * Makes the tree the flags ask for.
+     *
+     * @param options - the flags, as options returns them
+     * @return the tree, with metrics and a search cache if asked for
+     * @throws IllegalArgumentException for a flag the kind of tree
+     *         asked for cannot do, or a bad number
+     */
+    static Tree open(Map<String, String> options) {
+        String kind = "";
+        for (String flag : options.keySet()) {
+            if (KINDS.contains(flag)) {
+                kind = flag;
+            }
+        }
+        Tree tree;
+        try {
+            if (kind.equals("-offheap")) {
+                tree = new ArenaTree();
+            }
+            else if (kind.equals("-compressed")) {
+                tree = new CompressedTree();
+            }
+            else if (kind.equals("-compressed-visits")) {
+                tree = new CompressedTree(true);
+            }
+            else if (kind.equals("-log")) {
+                tree = DurableTree.open(Paths.get(options.get(kind)), 100, 1000000,
+                    10 * 60 * 1000);
+            }
+            else if (kind.equals("-sharded")) {
+                tree = new ShardedTree(number(options, kind));
+            }
+            else if (kind.equals("-delta")) {
+                tree = new DeltaTree(number(options, kind), 2, 8, false);
+            }
+            else if (kind.equals("-load")) {
+                tree = MappedTree.open(Paths.get(options.get(kind)));
+            }
+            else {
+                tree = new Tree();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (options.containsKey("-save") && tree instanceof CompressedTree) {
+            throw new IllegalArgumentException("-save cannot be used with " + kind
+                + ": compressed trees cannot be saved");
+        }
+        if (options.containsKey("-metrics") || kind.equals("-delta")) {
+            tree.setMetrics(new TreeMetrics());
+        }
+        if (options.containsKey("-cache")) {
+            try {
+                tree.setSearchCache(new SearchCache(number(options, "-cache"), 64L << 20));
+            } catch (UnsupportedOperationException e) {
+                close(tree);
+                throw new IllegalArgumentException("-cache cannot be used with " + kind
+                    + ": " + e.getMessage());
+            }
+        }
+        return tree;
+    }
+
+    private static int number(Map<String, String> options, String flag) {
+        try {
+            return Integer.parseInt(options.get(flag));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(flag + " needs a number, not "
+                + options.get(flag));
+        }
+    }
+
+    /**
+     * Prints why the run cannot go ahead and ends it with status 1.
+     *
+     * @param message - the reason, for standard error
+     */
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
     }
-}
 
+    /**
+     * Stops the threads or files behind a tree once it is done with or
+     * turned down.
+     */
+    private static void close(Tree tree) {
+        if (tree instanceof DurableTree) {
+            try {
+                ((DurableTree) tree).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (tree instanceof ShardedTree) {
+            ((ShardedTree) tree).close();
+        }
+        if (tree instanceof DeltaTree) {
+            ((DeltaTree) tree).close();
+        }
+    }
 
+    /**
+     * Serves a ConcurrentTree until the process is stopped.
+     *
+     * @param where - a port number, or else a socket file path
+     */
+    private static void serve(String where) {
+        SocketAddress address = where.matches("[0-9]+")
+            ? CommandServer.loopback(Integer.parseInt(where))
+            : CommandServer.unixAddress(where);
+        mytree = new ConcurrentTree();
+        try (CommandServer server = CommandServer.open(mytree, address)) {
+            System.out.println("serving on " + server.address());
+            server.await();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
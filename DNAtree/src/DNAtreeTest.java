@@ -20,6 +20,7 @@
 import static org.junit.Assert.*;
 import org.junit.Test;
 import java.io.FileNotFoundException;
+import java.util.Map;
 
 public class DNAtreeTest {
     @Test
@@ -28,4 +29,46 @@ public class DNAtreeTest {
         assertNotNull(testInput);
         DNAtree.main(testInput);
     }
-}
\ No newline at end of file
+
+    private static String rejection(String... args) {
+        try {
+            DNAtree.open(DNAtree.options(args));
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        fail("expected " + String.join(" ", args) + " to be turned down");
+        return null;
+    }
+
+    @Test
+    public void testCombinedOptions() {
+        Map<String, String> options = DNAtree.options(new String[] {"in.txt",
+            "-sharded", "1", "-metrics", "-cache", "10", "-save", "out.bin"});
+        assertEquals("[-sharded, -metrics, -cache, -save]", options.keySet().toString());
+        assertEquals("1", options.get("-sharded"));
+        Tree tree = DNAtree.open(options);
+        assertNotNull(tree.getMetrics());
+        assertNotNull(tree.getSearchCache());
+        ((ShardedTree) tree).close();
+        tree = DNAtree.open(DNAtree.options(new String[] {"in.txt", "-offheap", "-metrics",
+            "-cache", "5"}));
+        assertTrue(tree instanceof ArenaTree);
+        assertNotNull(tree.getMetrics());
+        assertNotNull(tree.getSearchCache());
+    }
+
+    @Test
+    public void testRejectedOptions() {
+        assertEquals("-cache cannot be used with -compressed: compressed trees cannot be cached",
+            rejection("in.txt", "-compressed", "-cache", "10"));
+        assertEquals("-save cannot be used with -compressed-visits: compressed trees cannot"
+            + " be saved", rejection("in.txt", "-metrics", "-compressed-visits", "-save", "x"));
+        assertEquals("-offheap and -sharded cannot be used together: each picks the kind"
+            + " of tree", rejection("in.txt", "-offheap", "-sharded", "2"));
+        assertEquals("unknown option -fast", rejection("in.txt", "-fast"));
+        assertEquals("-cache needs a value after it", rejection("in.txt", "-cache"));
+        assertEquals("-cache needs a number, not lots", rejection("in.txt", "-cache", "lots"));
+        assertEquals("-metrics is given more than once",
+            rejection("in.txt", "-metrics", "-metrics"));
+    }
+}
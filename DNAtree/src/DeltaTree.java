@@ -0,0 +1,989 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A Tree for bursts of changes, kept as layers the way a
+ * log-structured merge tree is.  Inserts go into a small delta
+ * Tree and removes of older sequences are kept beside it as
+ * tombstones, so a change never restructures the large base.  Once
+ * the delta holds maxDelta changes it is sealed and a new one
+ * started.  A background thread merges the sealed deltas into one
+ * run above the base, tombstones and all, each time bulk loading a
+ * new Tree in one pass and swapping it in.  Only once the run comes
+ * to a ratio-th of the base are the two merged into a new base,
+ * frozen if asked for, so each change is rewritten about ratio
+ * times rather than once per delta.  If maxSealed deltas are
+ * waiting for the merge thread, changes stall until it catches up.
+ *
+ * A sequence is in the tree if the newest layer mentioning it,
+ * either in its tree or as a tombstone, holds it.  Searches and
+ * prints read every layer at once and merge the sequences in
+ * listing order, and from that order work out the levels, visit
+ * counts and prints a plain Tree holding the same sequences would
+ * give, down to its root staying internal once it has been.  Each
+ * layer a query looks in counts as one lookup, and lookups per
+ * search or per change is the read amplification that the run and
+ * the sealed deltas waiting to be merged cost.
+ *
+ * A merge that throws is recorded, and from then on changes and
+ * merge throw IllegalStateException with it as the cause, as they
+ * do once the tree is closed; searches still read the layers.
+ *
+ * Pattern and approximate searches, composition, the iterators
+ * and the metrics' shape walk a plain Tree of the whole contents.
+ * It is built the first time one of them asks after a change and
+ * kept until the next change; merges leave it as it is, since they
+ * never change what the tree holds.  See getRoot.
+ */
+public class DeltaTree extends Tree implements Closeable {
+    private final int maxDelta;
+    private final int maxSealed;
+    private final int ratio;
+    private final boolean freeze;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Condition merged = lock.writeLock().newCondition();
+    private final ExecutorService merger;
+    /**
+     * Newest first: the delta taking changes, the sealed deltas, then
+     * the base.  Replaced, never changed, once a layer is sealed.
+     */
+    private List<Layer> layers;
+    private int size;
+    private boolean rootInternal;
+    /**
+     * The root of a plain Tree holding what the layers hold, or null
+     * if there has been a change since one was last built.  Set
+     * holding the read lock and cleared holding the write lock, so a
+     * view is never stored over a newer change.
+     */
+    private volatile Node view;
+    private boolean merging;
+    private boolean closed;
+    /**
+     * What the last merge threw, or null.
+     */
+    private Throwable failure;
+    /**
+     * Set by merge until everything is in the base.
+     */
+    private boolean flush;
+    private long merges;
+    private long baseMerges;
+    private long mergedSequences;
+    private long mergeNanos;
+    private long lastMergeNanos;
+    private long stalls;
+    private long changes;
+    private long changeLookups;
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final Runnable mergeTask = new Runnable() {
+        public void run() {
+            try {
+                while (mergeOnce()) {
+                    // until no sealed delta is left
+                }
+            } catch (RuntimeException e) {
+                failed(e);
+            } catch (Error e) {
+                failed(e);
+                throw e;
+            }
+        }
+    };
+
+    /**
+     * Seals the delta at 4096 changes, lets two sealed deltas wait for
+     * a merge, rewrites the base once an eighth of it has changed and
+     * keeps the base as a plain Tree.
+     */
+    public DeltaTree() {
+        this(4096, 2, 8, false);
+    }
+
+    /**
+     * @param maxDelta - the changes the delta takes before it is sealed
+     * @param maxSealed - how many sealed deltas may wait for a merge
+     *        before changes stall; each one costs searches a lookup
+     * @param ratio - how many times the changes above it the base must
+     *        hold to be left out of a merge; higher rewrites the base
+     *        more often and keeps the run above it smaller
+     * @param freeze - if each merged base is frozen; see FrozenTree
+     */
+    public DeltaTree(int maxDelta, int maxSealed, int ratio, boolean freeze) {
+        if (maxDelta < 1 || maxSealed < 1 || ratio < 1) {
+            throw new IllegalArgumentException("maxDelta, maxSealed and ratio must be positive");
+        }
+        this.maxDelta = maxDelta;
+        this.maxSealed = maxSealed;
+        this.ratio = ratio;
+        this.freeze = freeze;
+        layers = new ArrayList<Layer>();
+        layers.add(new Layer(new Tree()));
+        layers.add(new Layer(freeze ? new Tree().freeze() : new Tree()));
+        merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "delta-merge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * One layer: a tree and, for a delta or the run, the sequences it
+     * removed from the layers below.
+     */
+    private static final class Layer {
+        final Tree tree;
+        final Set<PackedSequence> tombstones = new HashSet<PackedSequence>();
+        int sequences;
+        /**
+         * If this is the run that sealed deltas are merged into between
+         * merges into the base.
+         */
+        boolean run;
+
+        Layer(Tree tree) {
+            this.tree = tree;
+        }
+
+        int changes() {
+            return sequences + tombstones.size();
+        }
+    }
+
+    @Override
+    boolean countsSplits() {
+        return false;
+    }
+
+    @Override
+    public int insert(PackedSequence sequence) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            long before = lookups.get();
+            int level = add(sequence);
+            counted(before);
+            if (level >= 0) {
+                changed();
+            }
+            return level;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(PackedSequence sequence) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            long before = lookups.get();
+            boolean removed = delete(sequence);
+            counted(before);
+            if (removed) {
+                changed();
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts into the delta, holding the write lock.
+     */
+    private int add(PackedSequence sequence) {
+        if (live(layers, 0, sequence)) {
+            return -1;
+        }
+        int level = 0;
+        if (size > 0 || rootInternal) {
+            level = Math.min(longestShared(layers, sequence), sequence.length()) + 1;
+        }
+        Layer delta = layers.get(0);
+        if (!delta.tombstones.remove(sequence)) {
+            delta.tree.insert(sequence);
+            delta.sequences++;
+        }
+        size++;
+        rootInternal |= size >= 2;
+        view = null;
+        return level;
+    }
+
+    /**
+     * Removes from the delta, leaving a tombstone if an older layer
+     * still holds the sequence, holding the write lock.
+     */
+    private boolean delete(PackedSequence sequence) {
+        if (!live(layers, 0, sequence)) {
+            return false;
+        }
+        Layer delta = layers.get(0);
+        if (!delta.tree.remove(sequence)) {
+            delta.tombstones.add(sequence);
+        }
+        else {
+            delta.sequences--;
+            if (live(layers, 1, sequence)) {
+                delta.tombstones.add(sequence);
+            }
+        }
+        size--;
+        view = null;
+        return true;
+    }
+
+    /**
+     * Puts the lookups since before down to changes.  No search runs
+     * while the write lock is held, so they are all the change's own.
+     */
+    private void counted(long before) {
+        changes++;
+        changeLookups += lookups.get() - before;
+    }
+
+    /**
+     * Layers are changed through remove(PackedSequence) only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(PackedSequence sequence, InternalNode node) {
+        throw new UnsupportedOperationException("remove from the root instead");
+    }
+
+    /**
+     * Inserts one by one, each going through the delta.
+     */
+    @Override
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        return insertEach(sequences);
+    }
+
+    /**
+     * @throws UnsupportedOperationException always; a cached result
+     *         would hide the layers it was read from
+     */
+    @Override
+    public void setSearchCache(SearchCache cache) {
+        throw new UnsupportedOperationException("delta trees do not cache searches");
+    }
+
+    /**
+     * Seals the delta once it is full, first waiting for the merge if
+     * too many sealed deltas are already waiting.  Called holding the
+     * write lock.
+     */
+    private void changed() {
+        while (true) {
+            if (layers.get(0).changes() < maxDelta) {
+                return;
+            }
+            if (sealed() < maxSealed) {
+                break;
+            }
+            stalls++;
+            merged.awaitUninterruptibly();
+            checkOpen();
+        }
+        seal();
+    }
+
+    /**
+     * Called holding the write lock.
+     *
+     * @throws IllegalStateException if the tree is closed or a merge
+     *         has failed
+     */
+    private void checkOpen() {
+        if (failure != null) {
+            throw new IllegalStateException("a merge failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("delta tree is closed");
+        }
+    }
+
+    /**
+     * Records what a merge threw and wakes everyone waiting for one.
+     */
+    private void failed(Throwable thrown) {
+        lock.writeLock().lock();
+        try {
+            failure = thrown;
+            merging = false;
+            flush = false;
+            merged.signalAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return how many sealed deltas are waiting for a merge
+     */
+    private int sealed() {
+        int n = layers.size() - 2;
+        if (n > 0 && layers.get(layers.size() - 2).run) {
+            n--;
+        }
+        return n;
+    }
+
+    /**
+     * Starts a new delta above the current one and hands the current
+     * one to the merge thread.  Called holding the write lock.
+     */
+    private void seal() {
+        List<Layer> next = new ArrayList<Layer>(layers.size() + 1);
+        next.add(new Layer(new Tree()));
+        next.addAll(layers);
+        layers = next;
+        startMerging();
+    }
+
+    private void startMerging() {
+        if (!merging) {
+            merging = true;
+            merger.execute(mergeTask);
+        }
+    }
+
+    /**
+     * Merges every sealed delta waiting into the run above the base,
+     * or, once the run and the deltas come to a ratio-th of the base,
+     * all of them and the base into a new base.  The layers merged
+     * never change again, so the new layer is built without the lock,
+     * which is only taken to swap it in.
+     *
+     * @return if there may be more to merge
+     */
+    private boolean mergeOnce() {
+        List<Layer> part;
+        Layer base;
+        boolean full;
+        lock.writeLock().lock();
+        try {
+            if (closed || sealed() == 0 && !(flush && layers.size() > 2)) {
+                merging = false;
+                flush = false;
+                merged.signalAll();
+                return false;
+            }
+            part = new ArrayList<Layer>(layers.subList(1, layers.size()));
+            base = part.remove(part.size() - 1);
+            long above = 0;
+            for (Layer layer : part) {
+                above += layer.changes();
+            }
+            full = flush || above * ratio >= base.sequences;
+            if (full) {
+                part.add(base);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long start = System.nanoTime();
+        List<String> sequences = new ArrayList<String>();
+        Live live = new Live(part, "", false);
+        while (live.hasNext()) {
+            sequences.add(live.next().toString());
+        }
+        Tree tree = load(sequences);
+        Layer layer;
+        if (full) {
+            layer = new Layer(freeze ? tree.freeze() : tree);
+        }
+        else {
+            layer = new Layer(tree);
+            layer.run = true;
+            for (int i = 0; i < part.size(); i++) {
+                for (PackedSequence sequence : part.get(i).tombstones) {
+                    if (base.tree.contains(sequence) && !mentioned(part, i, sequence)) {
+                        layer.tombstones.add(sequence);
+                    }
+                }
+            }
+        }
+        layer.sequences = sequences.size();
+        long nanos = System.nanoTime() - start;
+        lock.writeLock().lock();
+        try {
+            int from = layers.size() - part.size() - (full ? 0 : 1);
+            List<Layer> next = new ArrayList<Layer>(layers.subList(0, from));
+            next.add(layer);
+            if (!full) {
+                next.add(base);
+            }
+            layers = next;
+            merges++;
+            if (full) {
+                baseMerges++;
+            }
+            mergedSequences += sequences.size();
+            mergeNanos += nanos;
+            lastMergeNanos = nanos;
+            merged.signalAll();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the tree for a merged layer, on the merge thread.
+     *
+     * @param sequences - what the layer holds, in listing order
+     * @return a plain Tree holding them
+     */
+    Tree load(List<String> sequences) {
+        Tree tree = new Tree();
+        tree.bulkLoad(sequences);
+        return tree;
+    }
+
+    /**
+     * @return if a layer newer than the i-th holds or hides sequence
+     */
+    private static boolean mentioned(List<Layer> part, int i, PackedSequence sequence) {
+        for (int j = 0; j < i; j++) {
+            if (part.get(j).tombstones.contains(sequence) || part.get(j).tree.contains(sequence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Seals the delta and waits until it and everything else above the
+     * base have been merged into the base.
+     *
+     * @throws IllegalStateException if the tree is closed or a merge
+     *         fails
+     */
+    public void merge() {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (layers.get(0).changes() > 0) {
+                seal();
+            }
+            flush = true;
+            startMerging();
+            while (layers.size() > 2) {
+                merged.awaitUninterruptibly();
+                checkOpen();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops the merge thread once it has finished the merge it is on.
+     * Sealed deltas not yet merged stay as layers and can still be
+     * searched; changes from here on throw IllegalStateException.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            merged.signalAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        merger.shutdown();
+    }
+
+    /**
+     * The root of a plain Tree holding everything in the layers, bulk
+     * loaded from the merged listing when there has been a change
+     * since the last one was built.  Nothing changes the tree it
+     * returns, so a paged scan or a run of pattern searches with no
+     * changes in between all read the same one.
+     */
+    @Override
+    Node getRoot() {
+        Node root = view;
+        if (root != null) {
+            return root;
+        }
+        lock.readLock().lock();
+        try {
+            root = view;
+            if (root == null) {
+                root = build();
+                view = root;
+            }
+            return root;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds a plain Tree's root from the layers, holding the read
+     * lock.  With fewer than two sequences the root is made internal
+     * directly where a plain Tree's would have stayed so.
+     */
+    private Node build() {
+        List<String> sequences = new ArrayList<String>();
+        Live live = new Live(layers, "", false);
+        while (live.hasNext()) {
+            sequences.add(live.next().toString());
+        }
+        if (rootInternal && sequences.size() < 2) {
+            InternalNode root = new InternalNode(getFlyweight(), 0);
+            if (!sequences.isEmpty()) {
+                LeafNode leaf = new LeafNode(sequences.get(0), 1);
+                root.setChild(slot(leaf.getPacked(), 0), leaf);
+                root.addBaseCounts(leaf, 1);
+            }
+            return root;
+        }
+        Tree tree = new Tree();
+        tree.bulkLoad(sequences);
+        return tree.getRoot();
+    }
+
+    /**
+     * Searches the layers for words of plain bases, with or without
+     * a closing $.  Patterns, and words with anything else in them,
+     * such as the E that stands for the $ slot, go to the merged view
+     * instead.  The deepest internal node a plain Tree would reach is
+     * the longest prefix of the query with two sequences under it.
+     *
+     * @throws IllegalArgumentException if searchWord is empty
+     */
+    @Override
+    public void search(Appendable out, String searchWord, ForkJoinPool pool) throws IOException {
+        if (searchWord.isEmpty()) {
+            throw new IllegalArgumentException("empty search word");
+        }
+        int end = searchWord.length() - (searchWord.endsWith("$") ? 1 : 0);
+        if (PatternSearch.isPattern(searchWord)
+            || !PackedSequence.isValid(searchWord.subSequence(0, end))) {
+            super.search(out, searchWord, pool);
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            searches.incrementAndGet();
+            search(out, searchWord, layers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void search(Appendable out, String searchWord, List<Layer> current)
+        throws IOException {
+        if (size == 0 && !rootInternal) {
+            out.append("no sequence found\n");
+            return;
+        }
+        boolean isWord = searchWord.charAt(searchWord.length() - 1) == '$';
+        String word = isWord ? searchWord.substring(0, searchWord.length() - 1) : searchWord;
+        if (size == 1 && !rootInternal) {
+            PackedSequence only = new Live(current, "").next();
+            printVisited(out, 1);
+            if ((isWord && only.contentEquals(word)) || (!isWord && only.startsWith(word))) {
+                out.append("\nsequence: ").append(word);
+            }
+            else {
+                out.append("\nno sequence found");
+            }
+            out.append('\n');
+            return;
+        }
+        int depth = deepest(current, word);
+        int visited = 1 + depth;
+        String found = null;
+        if (isWord) {
+            visited++;
+            if (live(current, 0, PackedSequence.of(word))) {
+                found = word;
+            }
+        }
+        else if (depth == word.length()) {
+            visited += 5 * internalsBelow(current, word);
+            printVisited(out, visited);
+            Live live = new Live(current, word);
+            while (live.hasNext()) {
+                out.append("\nsequence: ").append(live.next().toString());
+            }
+            out.append('\n');
+            return;
+        }
+        else {
+            visited++;
+            Live live = new Live(current, word.substring(0, depth + 1));
+            if (live.hasNext()) {
+                PackedSequence sequence = live.next();
+                if (sequence.startsWith(word)) {
+                    found = sequence.toString();
+                }
+            }
+        }
+        printVisited(out, visited);
+        if (found != null) {
+            out.append("\nsequence: ").append(found);
+        }
+        else {
+            out.append("\nno sequence found");
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Searches one query at a time; there are no nodes to share.
+     */
+    @Override
+    public String[] searchBatch(List<String> queries, int[] visited) {
+        return searchEach(queries, visited);
+    }
+
+    /**
+     * Prints from the merged sequences on the calling thread; the pool
+     * is not used.  A leaf hangs below the node for the longest prefix
+     * it shares with either neighbour, one base further, which is the
+     * slot it takes there.
+     */
+    @Override
+    public void print(Appendable out, boolean lengths, boolean stats, ForkJoinPool pool)
+        throws IOException {
+        lock.readLock().lock();
+        try {
+            Live live = new Live(layers, "", false);
+            if (size == 0 && !rootInternal) {
+                out.append("E");
+                return;
+            }
+            if (size == 1 && !rootInternal) {
+                printNode(out, lengths, stats, new LeafNode(live.next(), 0), 0);
+                return;
+            }
+            Node inner = new InternalNode(getFlyweight(), 0);
+            printNode(out, lengths, stats, inner, 0);
+            int[] next = new int[64];
+            int top = 0;
+            PackedSequence previous = null;
+            PackedSequence cur = live.hasNext() ? live.next() : null;
+            while (cur != null) {
+                PackedSequence after = live.hasNext() ? live.next() : null;
+                int shared = previous == null ? 0 : previous.sharedPrefix(cur);
+                int parent = Math.max(shared, after == null ? 0 : cur.sharedPrefix(after));
+                while (top > shared) {
+                    printEmpty(out, next[top], InternalNode.SLOTS, top);
+                    top--;
+                }
+                while (top < parent) {
+                    int slot = cur.codeAt(top);
+                    printEmpty(out, next[top], slot, top);
+                    next[top] = slot + 1;
+                    top++;
+                    if (top == next.length) {
+                        next = Arrays.copyOf(next, top * 2);
+                    }
+                    next[top] = 0;
+                    printNode(out, lengths, stats, inner, top);
+                }
+                int slot = slot(cur, parent);
+                printEmpty(out, next[top], slot, top);
+                next[top] = slot + 1;
+                printNode(out, lengths, stats, new LeafNode(cur, parent + 1), parent + 1);
+                previous = cur;
+                cur = after;
+            }
+            for (; top >= 0; top--) {
+                printEmpty(out, next[top], InternalNode.SLOTS, top);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Prints the flyweights in slots from up to, not including, to of
+     * the node at depth.
+     */
+    private void printEmpty(Appendable out, int from, int to, int depth) throws IOException {
+        for (int i = from; i < to; i++) {
+            printNode(out, false, false, getFlyweight(), depth + 1);
+        }
+    }
+
+    /**
+     * Writes how the layers stand and what merging has cost.
+     *
+     * @param out - where the report is written
+     * @throws IOException if out fails
+     */
+    public void report(Appendable out) throws IOException {
+        lock.readLock().lock();
+        try {
+            Layer delta = layers.get(0);
+            long n = searches.get();
+            out.append("delta: sequences ").append(Integer.toString(delta.sequences))
+                .append(" tombstones ").append(Integer.toString(delta.tombstones.size()))
+                .append(" of ").append(Integer.toString(maxDelta))
+                .append(" sealed ").append(Integer.toString(sealed()))
+                .append(" of ").append(Integer.toString(maxSealed))
+                .append(" stalls ").append(Long.toString(stalls)).append('\n');
+            Layer base = layers.get(layers.size() - 1);
+            Layer run = layers.get(layers.size() - 2);
+            out.append("layers: run ").append(Integer.toString(run.run ? run.sequences : 0))
+                .append(" tombstones ").append(Integer.toString(run.run ? run.tombstones.size() : 0))
+                .append(" base ").append(Integer.toString(base.sequences))
+                .append(" ratio ").append(Integer.toString(ratio))
+                .append(freeze ? " frozen" : "").append('\n');
+            out.append("merges: count ").append(Long.toString(merges))
+                .append(" into base ").append(Long.toString(baseMerges))
+                .append(" sequences ").append(Long.toString(mergedSequences))
+                .append(" total ").append(Long.toString(mergeNanos / 1000000))
+                .append(" ms last ").append(Long.toString(lastMergeNanos / 1000000))
+                .append(" ms\n");
+            out.append("lookups: per search ")
+                .append(String.format("%.2f", (lookups.get() - changeLookups) / (double) Math.max(1, n)))
+                .append(" per change ")
+                .append(String.format("%.2f", changeLookups / (double) Math.max(1, changes)))
+                .append('\n');
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return how many merges have finished
+     */
+    public long merges() {
+        lock.readLock().lock();
+        try {
+            return merges;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return how many layers a search looks in, the delta and base
+     *         included
+     */
+    public int layers() {
+        lock.readLock().lock();
+        try {
+            return layers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param current - the layers, newest first
+     * @param from - the newest layer to look in
+     * @param sequence - the sequence to look for
+     * @return if the newest layer from there mentioning sequence holds it
+     */
+    private boolean live(List<Layer> current, int from, PackedSequence sequence) {
+        for (int i = from; i < current.size(); i++) {
+            Layer layer = current.get(i);
+            lookups.incrementAndGet();
+            if (layer.tombstones.contains(sequence)) {
+                return false;
+            }
+            if (layer.tree.contains(sequence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return if at least n sequences start with prefix
+     */
+    private boolean atLeast(List<Layer> current, String prefix, int n) {
+        Live live = new Live(current, prefix);
+        for (int i = 0; i < n; i++) {
+            if (!live.hasNext()) {
+                return false;
+            }
+            live.next();
+        }
+        return true;
+    }
+
+    /**
+     * @return the longest prefix of sequence that another sequence
+     *         starts with, there being at least one.  The most any
+     *         layer's tree shares with it is usually the answer, unless
+     *         what shares it has been removed.
+     */
+    private int longestShared(List<Layer> current, PackedSequence sequence) {
+        int most = 0;
+        for (Layer layer : current) {
+            lookups.incrementAndGet();
+            most = Math.max(most, layer.tree.reach(sequence));
+        }
+        String bases = sequence.toString();
+        if (atLeast(current, bases.substring(0, most), 1)) {
+            return most;
+        }
+        int low = 0;
+        int high = most - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (atLeast(current, bases.substring(0, mid), 1)) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return how many internal nodes a plain Tree has below its root
+     *         on the way down word: the longest prefix of word that two
+     *         sequences start with
+     */
+    private int deepest(List<Layer> current, String word) {
+        int low = 0;
+        int high = word.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (atLeast(current, word.substring(0, mid), 2)) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Counts the internal nodes below and including the one for
+     * prefix, which two or more sequences start with.  In listing
+     * order, each sequence after the first adds the nodes for the
+     * prefixes it shares with the one before it that no earlier
+     * sequence reached.
+     */
+    private int internalsBelow(List<Layer> current, String prefix) {
+        Live live = new Live(current, prefix);
+        PackedSequence previous = live.next();
+        PackedSequence cur = live.next();
+        int last = previous.sharedPrefix(cur);
+        int count = last - prefix.length() + 1;
+        while (live.hasNext()) {
+            previous = cur;
+            cur = live.next();
+            int common = previous.sharedPrefix(cur);
+            count += common - Math.min(last, common);
+            last = common;
+        }
+        return count;
+    }
+
+    private static void printVisited(Appendable out, int visited) throws IOException {
+        out.append("# of nodes visited: ").append(Integer.toString(visited));
+    }
+
+    /**
+     * Merges the sequences starting with a prefix from every layer in
+     * listing order.  Of a sequence in several layers the newest
+     * decides, and it is dropped if a tombstone in a newer layer still
+     * hides it.
+     */
+    private final class Live implements Iterator<PackedSequence> {
+        private final List<Layer> current;
+        private final List<Iterator<PackedSequence>> sources;
+        private final PackedSequence[] heads;
+        private PackedSequence pending;
+
+        Live(List<Layer> current, String prefix) {
+            this(current, prefix, true);
+        }
+
+        /**
+         * @param counted - if opening each layer counts as a lookup
+         */
+        Live(List<Layer> current, String prefix, boolean counted) {
+            this.current = current;
+            sources = new ArrayList<Iterator<PackedSequence>>(current.size());
+            heads = new PackedSequence[current.size()];
+            for (int i = 0; i < heads.length; i++) {
+                Iterator<PackedSequence> source = current.get(i).tree.sequences(prefix);
+                sources.add(source);
+                heads[i] = source.hasNext() ? source.next() : null;
+            }
+            if (counted) {
+                lookups.addAndGet(heads.length);
+            }
+            advance();
+        }
+
+        public boolean hasNext() {
+            return pending != null;
+        }
+
+        public PackedSequence next() {
+            if (pending == null) {
+                throw new NoSuchElementException();
+            }
+            PackedSequence sequence = pending;
+            advance();
+            return sequence;
+        }
+
+        private void advance() {
+            while (true) {
+                int newest = -1;
+                for (int i = 0; i < heads.length; i++) {
+                    if (heads[i] != null && (newest < 0
+                        || LeafIterator.compare(heads[i], heads[newest]) < 0)) {
+                        newest = i;
+                    }
+                }
+                if (newest < 0) {
+                    pending = null;
+                    return;
+                }
+                PackedSequence sequence = heads[newest];
+                for (int i = newest; i < heads.length; i++) {
+                    if (heads[i] != null && heads[i].equals(sequence)) {
+                        Iterator<PackedSequence> source = sources.get(i);
+                        heads[i] = source.hasNext() ? source.next() : null;
+                    }
+                }
+                boolean hidden = false;
+                for (int i = 0; i < newest && !hidden; i++) {
+                    hidden = current.get(i).tombstones.contains(sequence);
+                }
+                if (!hidden) {
+                    pending = sequence;
+                    return;
+                }
+            }
+        }
+    }
+}
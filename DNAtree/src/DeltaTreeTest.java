@@ -0,0 +1,304 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DeltaTreeTest {
+
+    private static void assertMatches(Tree tree, DeltaTree delta, Random random) {
+        TreeTesting.assertPrintsMatch(tree, delta);
+        List<String> queries = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            String query = TreeTesting.random(random, 8);
+            queries.add(random.nextBoolean() ? query + "$" : query);
+        }
+        queries.add("A");
+        queries.add("$");
+        queries.add("ACX$");
+        // E stands for the $ slot of a node.
+        queries.add("E");
+        queries.add("AE");
+        queries.add("CE$");
+        for (String query : queries) {
+            assertEquals(query, tree.search(query), delta.search(query));
+        }
+        assertArrayEquals(tree.searchBatch(queries), delta.searchBatch(queries));
+        for (String prefix : Arrays.asList("", "A", "CG", "TTA")) {
+            assertArrayEquals(prefix, tree.composition(prefix), delta.composition(prefix));
+            assertEquals(prefix, tree.page(prefix, null, 2, 7), delta.page(prefix, null, 2, 7));
+            assertEquals(prefix, tree.searchHamming(prefix + "AC", 1),
+                delta.searchHamming(prefix + "AC", 1));
+            assertEquals(prefix, tree.search(prefix + "NG"), delta.search(prefix + "NG"));
+        }
+    }
+
+    private void checkAgainstTree(int maxDelta, int maxSealed, int ratio, boolean freeze,
+        long seed) {
+        Random random = new Random(seed);
+        Tree tree = new Tree();
+        DeltaTree delta = new DeltaTree(maxDelta, maxSealed, ratio, freeze);
+        try {
+            for (int round = 0; round < 10; round++) {
+                int n = random.nextInt(300);
+                for (int i = 0; i < n; i++) {
+                    String seq = TreeTesting.random(random, 8);
+                    if (random.nextInt(3) == 0) {
+                        assertEquals(seq, tree.remove(seq), delta.remove(seq));
+                    }
+                    else {
+                        assertEquals(seq, tree.insert(seq), delta.insert(seq));
+                    }
+                }
+                assertMatches(tree, delta, random);
+            }
+            delta.merge();
+            assertEquals(2, delta.layers());
+            assertMatches(tree, delta, random);
+            assertTrue(delta.merges() > 0);
+        } finally {
+            delta.close();
+        }
+    }
+
+    @Test
+    public void testMatchesTree() {
+        checkAgainstTree(16, 1, 4, false, 3);
+        checkAgainstTree(50, 3, 8, false, 4);
+    }
+
+    @Test
+    public void testFrozenBase() {
+        checkAgainstTree(16, 2, 2, true, 5);
+    }
+
+    @Test
+    public void testMergesIntoRun() {
+        // Sealed deltas go into the run, tombstones included, and only
+        // rarely into the base.
+        checkAgainstTree(8, 2, 1, false, 6);
+        checkAgainstTree(8, 1, 1, true, 7);
+    }
+
+    @Test
+    public void testSmallTrees() throws IOException {
+        Tree tree = new Tree();
+        DeltaTree delta = new DeltaTree(1, 1, 2, true);
+        Random random = new Random(8);
+        assertMatches(tree, delta, random);
+        for (String seq : Arrays.asList("ACGT", "A", "ACGT", "A", "ACGT", "T")) {
+            if (tree.remove(seq)) {
+                assertTrue(delta.remove(seq));
+            }
+            else {
+                assertEquals(tree.insert(seq), delta.insert(seq));
+            }
+            // The root stays internal once two sequences have been in.
+            assertMatches(tree, delta, random);
+        }
+        assertEquals(tree.search("A*"), delta.search("A*"));
+        assertEquals(tree.iterator("A").next().getSequence(),
+            delta.iterator("A").next().getSequence());
+        delta.close();
+    }
+
+    @Test
+    public void testReadersDuringMerges() throws InterruptedException {
+        final DeltaTree delta = new DeltaTree(64, 2, 4, false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (String seq : Arrays.asList("AAAA", "CCCC", "GGGG", "TTTT")) {
+            delta.insert(seq);
+        }
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        // These four are never removed, whatever the
+                        // layers they have been merged into.
+                        String found = delta.search("GGGG$");
+                        assertTrue(found, found.endsWith("sequence: GGGG\n"));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        reader.start();
+        Random random = new Random(12);
+        for (int i = 0; i < 5000; i++) {
+            String seq = TreeTesting.random(random, 7) + "A";
+            if (random.nextBoolean()) {
+                delta.insert(seq);
+            }
+            else {
+                delta.remove(seq);
+            }
+        }
+        reader.join();
+        delta.close();
+        assertNull(failure.get());
+        assertTrue(delta.merges() > 0);
+    }
+
+    @Test
+    public void testViewKeptUntilChange() {
+        DeltaTree delta = new DeltaTree(4, 1, 2, false);
+        Tree tree = new Tree();
+        for (String seq : Arrays.asList("A", "C", "G", "T", "AC", "AG", "ACG")) {
+            assertEquals(tree.insert(seq), delta.insert(seq));
+        }
+        Node root = delta.getRoot();
+        assertSame(root, delta.getRoot());
+        assertEquals(tree.page("A", null, 0, 2), delta.page("A", null, 0, 2));
+        assertEquals(tree.page("A", "AC", 0, 2), delta.page("A", "AC", 0, 2));
+        assertSame(root, delta.getRoot());
+        // Merging moves sequences between layers but not in or out.
+        delta.merge();
+        assertSame(root, delta.getRoot());
+        assertFalse(delta.remove("TT"));
+        assertSame(root, delta.getRoot());
+        assertEquals(tree.remove("AG"), delta.remove("AG"));
+        assertNotSame(root, delta.getRoot());
+        assertEquals(tree.page("A", null, 0, 5), delta.page("A", null, 0, 5));
+        delta.close();
+    }
+
+    @Test
+    public void testReport() throws IOException {
+        DeltaTree delta = new DeltaTree(4, 1, 8, false);
+        delta.setMetrics(new TreeMetrics());
+        for (String seq : Arrays.asList("A", "C", "G", "T", "AC", "AG")) {
+            delta.insert(seq);
+        }
+        delta.remove("C");
+        delta.search("AC$");
+        StringWriter out = new StringWriter();
+        delta.getMetrics().report(out, delta);
+        String report = out.toString();
+        assertTrue(report, report.contains("delta: sequences "));
+        assertTrue(report, report.contains(" tombstones 1 "));
+        assertTrue(report, report.contains("merges: count "));
+        assertTrue(report, report.contains("layers: run "));
+        assertTrue(report, report.contains("lookups: per search "));
+        assertTrue(report, report.contains("nodes: internal 2 leaf 5"));
+        try {
+            delta.setSearchCache(new SearchCache(10, 1 << 20));
+            fail("delta trees do not cache searches");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        delta.close();
+    }
+
+    @Test
+    public void testFailedMerge() {
+        DeltaTree delta = new DeltaTree(2, 1, 8, false) {
+            @Override
+            Tree load(List<String> sequences) {
+                throw new IllegalArgumentException("no room for " + sequences.size());
+            }
+        };
+        delta.insert("A");
+        delta.insert("C");
+        try {
+            // The first seal starts a merge; the next stall sees it fail.
+            for (String seq : Arrays.asList("G", "T", "AC", "AG")) {
+                delta.insert(seq);
+            }
+            fail("expected the failed merge to be reported");
+        } catch (IllegalStateException e) {
+            assertEquals("no room for 2", e.getCause().getMessage());
+        }
+        try {
+            delta.merge();
+            fail("expected the failed merge to be reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue(delta.search("A$").contains("sequence: A"));
+        delta.close();
+    }
+
+    @Test
+    public void testChangesAfterClose() {
+        DeltaTree delta = new DeltaTree(2, 1, 8, false);
+        delta.insert("A");
+        delta.insert("C");
+        delta.insert("G");
+        delta.close();
+        for (int i = 0; i < 3; i++) {
+            try {
+                if (i == 0) {
+                    delta.insert("T");
+                }
+                else if (i == 1) {
+                    delta.remove("A");
+                }
+                else {
+                    delta.merge();
+                }
+                fail("closed delta trees cannot be changed");
+            } catch (IllegalStateException e) {
+                assertEquals("delta tree is closed", e.getMessage());
+            }
+        }
+        assertTrue(delta.search("G$").contains("sequence: G"));
+    }
+
+    private static String run(Tree tree, String commands) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        new Parser(null, tree).execute(new CommandReader(Channels.newChannel(
+            new ByteArrayInputStream(commands.getBytes(StandardCharsets.ISO_8859_1)))), out);
+        out.flush();
+        return text.toString();
+    }
+
+    private static String run(Tree tree) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        try (CommandReader reader = new CommandReader(
+                new FileInputStream("inputData/SampleInput.txt").getChannel())) {
+            new Parser(null, tree).execute(reader, out);
+        }
+        out.flush();
+        return text.toString();
+    }
+
+    @Test
+    public void testEmptyTreeAndMissingSequence() throws IOException {
+        DeltaTree delta = new DeltaTree(2, 1, 4, false);
+        assertEquals("no sequence found\n", delta.search("A"));
+        try {
+            delta.search(new StringBuilder(), "", null);
+            fail("empty search word accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("empty search word", e.getMessage());
+        }
+        String commands = "search AAAA\ninsert AAAA\nsearch\ninsert\nsearch AAAA$\n";
+        String expected = "no sequence found\nsequence AAAA inserted at level 0\n"
+            + "search needs a sequence\ninsert needs a sequence\n"
+            + "# of nodes visited: 1\nsequence: AAAA\n";
+        assertEquals(expected, run(new Tree(), commands));
+        assertEquals(expected, run(delta, commands));
+        delta.close();
+    }
+
+    @Test
+    public void testSampleInput() throws IOException {
+        DeltaTree delta = new DeltaTree(2, 1, 4, false);
+        assertEquals(run(new Tree()), run(delta));
+        delta.close();
+    }
+}
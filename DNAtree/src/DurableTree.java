@@ -0,0 +1,294 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A Tree whose inserts and removes survive a crash.  Every change
+ * is appended to an OperationLog in its directory, and checkpoint
+ * writes a snapshot and starts a new log file, after which the
+ * older files are deleted.  Opening the directory again loads the
+ * newest snapshot and replays the log entries made after it.  A
+ * checkpoint is also taken by the change that reaches the entry
+ * count or age given to open, so the log to replay stays short.
+ *
+ * The log is group committed, so a change is on disk within the
+ * sync interval of being made rather than when insert returns; call
+ * sync to wait for it.  Only changes that did something are logged,
+ * and like Tree this is for one thread at a time.
+ *
+ * Files are named by LSN in hex: snapshot-N holds the tree as of
+ * entry N, and log-N holds the entries from N on.  A write torn by a
+ * crash is cut off the end of the newest log file, but if entries
+ * are missing or damaged before that, open refuses to recover and
+ * leaves every file as it is.
+ */
+public class DurableTree extends Tree implements Closeable {
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String LOG = "log-";
+
+    private final Path dir;
+    private final long checkpointEntries;
+    private final long checkpointMillis;
+    private OperationLog log;
+    private long checkpointLsn;
+    private long checkpointTime;
+
+    private DurableTree(Path dir, long checkpointEntries, long checkpointMillis) {
+        this.dir = dir;
+        this.checkpointEntries = checkpointEntries;
+        this.checkpointMillis = checkpointMillis;
+    }
+
+    /**
+     * Opens or creates a durable tree, recovering whatever the
+     * directory holds.  Checkpoints are only taken when checkpoint is
+     * called.
+     *
+     * @param dir - the directory for the snapshot and log files
+     * @param syncMillis - how often logged changes are fsynced; must
+     *            be positive
+     * @return the recovered tree
+     * @throws IOException if the files cannot be read or written
+     * @throws IllegalArgumentException if syncMillis is not positive
+     */
+    public static DurableTree open(Path dir, long syncMillis) throws IOException {
+        return open(dir, syncMillis, 0, 0);
+    }
+
+    /**
+     * Opens or creates a durable tree, recovering whatever the
+     * directory holds, that checkpoints itself once enough has been
+     * logged since the last checkpoint.  The check is made on each
+     * logged change, so an idle tree takes none.
+     *
+     * @param dir - the directory for the snapshot and log files
+     * @param syncMillis - how often logged changes are fsynced; must
+     *            be positive
+     * @param checkpointEntries - the log entries after which a change
+     *            takes a checkpoint, or 0 for no limit
+     * @param checkpointMillis - the time since the last checkpoint, or
+     *            since opening, after which a change takes a
+     *            checkpoint, or 0 for no limit
+     * @return the recovered tree
+     * @throws IOException if the files cannot be read or written, or
+     *         the log is missing entries or has a damaged one before
+     *         its torn tail, if any; the files are then left as they
+     *         are
+     * @throws IllegalArgumentException if syncMillis is not positive
+     */
+    public static DurableTree open(Path dir, long syncMillis, long checkpointEntries,
+        long checkpointMillis) throws IOException {
+        if (syncMillis <= 0) {
+            throw new IllegalArgumentException("syncMillis must be positive");
+        }
+        Files.createDirectories(dir);
+        final DurableTree tree = new DurableTree(dir, checkpointEntries, checkpointMillis);
+        long lsn = 0;
+        List<Path> snapshots = list(dir, SNAPSHOT);
+        if (!snapshots.isEmpty()) {
+            Path snapshot = snapshots.get(snapshots.size() - 1);
+            lsn = number(snapshot, SNAPSHOT);
+            tree.setRoot(MappedTree.open(snapshot).build(tree.getFlyweight()));
+        }
+        final long[] applied = {lsn};
+        List<Path> segments = list(dir, LOG);
+        for (int i = 0; i < segments.size(); i++) {
+            final Path segment = segments.get(i);
+            if (number(segment, LOG) > applied[0] + 1) {
+                throw gap(segment, applied[0]);
+            }
+            // Only the newest file can have been torn by a crash.
+            OperationLog.read(segment, i == segments.size() - 1, new OperationLog.Visitor() {
+                public void visit(long entry, byte operation, PackedSequence sequence)
+                    throws IOException {
+                    if (entry <= applied[0]) {
+                        return;
+                    }
+                    if (entry > applied[0] + 1) {
+                        throw gap(segment, applied[0]);
+                    }
+                    if (operation == OperationLog.INSERT) {
+                        tree.insert(sequence);
+                    }
+                    else {
+                        tree.remove(sequence);
+                    }
+                    applied[0] = entry;
+                }
+            });
+        }
+        tree.log = new OperationLog(dir.resolve(name(LOG, applied[0] + 1)), applied[0], syncMillis);
+        tree.checkpointLsn = lsn;
+        tree.checkpointTime = System.currentTimeMillis();
+        return tree;
+    }
+
+    @Override
+    public int insert(PackedSequence sequence) {
+        int level = super.insert(sequence);
+        if (level >= 0 && log != null) {
+            log.append(OperationLog.INSERT, sequence);
+            checkpointIfDue();
+        }
+        return level;
+    }
+
+    @Override
+    public boolean remove(PackedSequence sequence) {
+        // Below an internal root, the remove is logged by the helper.
+        boolean logged = getRoot() instanceof InternalNode;
+        boolean removed = super.remove(sequence);
+        if (removed && !logged) {
+            logRemove(sequence);
+        }
+        return removed;
+    }
+
+    /**
+     * Logs the remove, however the walk to the sequence was begun.
+     */
+    @Override
+    public boolean remove(PackedSequence sequence, InternalNode node) {
+        boolean removed = super.remove(sequence, node);
+        if (removed) {
+            logRemove(sequence);
+        }
+        return removed;
+    }
+
+    private void logRemove(PackedSequence sequence) {
+        if (log != null) {
+            log.append(OperationLog.REMOVE, sequence);
+            checkpointIfDue();
+        }
+    }
+
+    private void checkpointIfDue() {
+        if (checkpointEntries > 0 && log.lastLsn() - checkpointLsn >= checkpointEntries
+            || checkpointMillis > 0
+            && System.currentTimeMillis() - checkpointTime >= checkpointMillis) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Inserts one at a time so each sequence is logged.
+     */
+    @Override
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        return insertEach(sequences);
+    }
+
+    /**
+     * @return the LSN of the last change made
+     */
+    public long lastLsn() {
+        return log.lastLsn();
+    }
+
+    /**
+     * @return the LSN of the last change known to be on disk
+     */
+    public long durableLsn() {
+        return log.durableLsn();
+    }
+
+    /**
+     * Waits until every change made so far is on disk.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public void sync() throws IOException {
+        log.sync();
+    }
+
+    /**
+     * Writes a snapshot of the tree and starts a new log file, then
+     * deletes the snapshots and log files it replaces, so recovery
+     * only has to replay what comes after.  The directory is synced
+     * before anything is deleted, so a crash cannot leave it holding
+     * neither the new snapshot nor the files it replaces.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    public void checkpoint() throws IOException {
+        long lsn = log.lastLsn();
+        log.rotate(dir.resolve(name(LOG, lsn + 1)));
+        Path tmp = dir.resolve(SNAPSHOT + "tmp");
+        save(tmp);
+        Files.move(tmp, dir.resolve(name(SNAPSHOT, lsn)), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        checkpointLsn = lsn;
+        checkpointTime = System.currentTimeMillis();
+        for (Path snapshot : list(dir, SNAPSHOT)) {
+            if (number(snapshot, SNAPSHOT) < lsn) {
+                Files.delete(snapshot);
+            }
+        }
+        for (Path segment : list(dir, LOG)) {
+            if (number(segment, LOG) <= lsn) {
+                Files.delete(segment);
+            }
+        }
+    }
+
+    /**
+     * Syncs the log and stops its background thread.
+     *
+     * @throws IOException if the last sync fails
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Entries past a lost one cannot be applied in order, and dropping
+     * them would lose what an operator may still be able to recover.
+     */
+    private static IOException gap(Path segment, long applied) {
+        return new IOException("log entry " + (applied + 1) + " is missing at " + segment
+            + "; refusing to recover past it");
+    }
+
+    private static String name(String prefix, long lsn) {
+        return String.format("%s%016x", prefix, lsn);
+    }
+
+    private static long number(Path file, String prefix) {
+        return Long.parseUnsignedLong(file.getFileName().toString().substring(prefix.length()), 16);
+    }
+
+    /**
+     * @return the files named prefix followed by an LSN, oldest first
+     */
+    private static List<Path> list(Path dir, String prefix) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().length() == prefix.length() + 16) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
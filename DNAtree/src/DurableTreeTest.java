@@ -0,0 +1,239 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DurableTreeTest {
+
+    private static void mutate(Random random, Tree expected, Tree actual, int ops) {
+        for (int op = 0; op < ops; op++) {
+            String seq = TreeTesting.random(random, 6);
+            if (random.nextInt(3) > 0) {
+                assertEquals(expected.insert(seq), actual.insert(seq));
+            }
+            else {
+                assertEquals(expected.remove(seq), actual.remove(seq));
+            }
+        }
+    }
+
+    private static List<String> files(Path dir) throws IOException {
+        List<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testRecoversFromLog() throws IOException {
+        Path dir = Files.createTempDirectory("tree");
+        Random random = new Random(16);
+        Tree expected = new Tree();
+        DurableTree tree = DurableTree.open(dir, 10);
+        mutate(random, expected, tree, 2000);
+        long lsn = tree.lastLsn();
+        tree.close();
+
+        tree = DurableTree.open(dir, 10);
+        assertEquals(lsn, tree.lastLsn());
+        assertEquals(expected.print(false, true), tree.print(false, true));
+        mutate(random, expected, tree, 500);
+        tree.sync();
+        assertEquals(tree.lastLsn(), tree.durableLsn());
+
+        // Open it again without closing, as if the process had died.
+        DurableTree recovered = DurableTree.open(dir, 10);
+        assertEquals(expected.print(false, false), recovered.print(false, false));
+        recovered.close();
+        tree.close();
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        Path dir = Files.createTempDirectory("tree");
+        Random random = new Random(61);
+        Tree expected = new Tree();
+        DurableTree tree = DurableTree.open(dir, 10);
+        mutate(random, expected, tree, 1000);
+        tree.checkpoint();
+        mutate(random, expected, tree, 1000);
+        tree.checkpoint();
+        assertEquals(2, files(dir).size());
+        mutate(random, expected, tree, 300);
+        tree.close();
+
+        tree = DurableTree.open(dir, 10);
+        assertEquals(expected.print(true, false), tree.print(true, false));
+        assertArrayEquals(expected.composition("AC"), tree.composition("AC"));
+        tree.close();
+    }
+
+    @Test
+    public void testCheckpointPolicy() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("tree");
+        Random random = new Random(62);
+        Tree expected = new Tree();
+        DurableTree tree = DurableTree.open(dir, 10, 300, 0);
+        mutate(random, expected, tree, 2000);
+        long lsn = tree.lastLsn();
+        tree.close();
+        // Only the newest snapshot is kept, with the log written after it.
+        List<String> names = files(dir);
+        assertEquals(names.toString(), 2, names.size());
+        long snapshot = -1;
+        for (String name : names) {
+            if (name.startsWith("snapshot-")) {
+                snapshot = Long.parseLong(name.substring(9), 16);
+            }
+        }
+        assertEquals(lsn - lsn % 300, snapshot);
+        assertTrue(names.contains(String.format("log-%016x", snapshot + 1)));
+
+        tree = DurableTree.open(dir, 10);
+        assertEquals(lsn, tree.lastLsn());
+        assertEquals(expected.print(true, false), tree.print(true, false));
+        tree.close();
+
+        // Past the age limit, the first change takes a checkpoint.
+        tree = DurableTree.open(dir, 10, 0, 20);
+        Thread.sleep(40);
+        mutate(random, expected, tree, 50);
+        tree.close();
+        for (String name : files(dir)) {
+            if (name.startsWith("snapshot-")) {
+                assertTrue(name, Long.parseLong(name.substring(9), 16) > lsn);
+            }
+        }
+        tree = DurableTree.open(dir, 10);
+        assertEquals(expected.print(true, false), tree.print(true, false));
+        tree.close();
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        Path dir = Files.createTempDirectory("tree");
+        Random random = new Random(7);
+        Tree expected = new Tree();
+        DurableTree tree = DurableTree.open(dir, 10);
+        mutate(random, expected, tree, 200);
+        long lsn = tree.lastLsn();
+        tree.close();
+        Path log = null;
+        for (String name : files(dir)) {
+            log = dir.resolve(name);
+        }
+        long size = Files.size(log);
+        try (FileChannel file = FileChannel.open(log, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // Half an entry, then a byte flipped in the last whole one.
+            file.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}), size);
+            ByteBuffer last = ByteBuffer.allocate(1);
+            file.read(last, size - 1);
+            last.put(0, (byte) (last.get(0) ^ 1));
+            last.rewind();
+            file.write(last, size - 1);
+        }
+
+        tree = DurableTree.open(dir, 10);
+        assertEquals(lsn - 1, tree.lastLsn());
+        tree.insert("GATTACA");
+        tree.close();
+        tree = DurableTree.open(dir, 10);
+        assertTrue(tree.search("GATTACA$").contains("sequence: GATTACA"));
+        tree.close();
+    }
+
+    @Test
+    public void testRemoveBelowRootIsLogged() throws IOException {
+        Path dir = Files.createTempDirectory("tree");
+        DurableTree tree = DurableTree.open(dir, 10);
+        tree.insert("AAAA");
+        tree.insert("ACGT");
+        tree.insert("TTT");
+        assertTrue(tree.remove(PackedSequence.of("ACGT"), (InternalNode) tree.getRoot()));
+        assertEquals(4, tree.lastLsn());
+        tree.close();
+
+        tree = DurableTree.open(dir, 10);
+        assertTrue(tree.search("ACGT$").contains("no sequence found"));
+        assertTrue(tree.search("AAAA$").contains("sequence: AAAA"));
+        tree.close();
+    }
+
+    @Test
+    public void testSyncIntervalMustBePositive() throws IOException {
+        Path dir = Files.createTempDirectory("tree");
+        for (long syncMillis : new long[] {0, -1}) {
+            try {
+                DurableTree.open(dir, syncMillis);
+                fail("opened with a sync interval of " + syncMillis);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("syncMillis"));
+            }
+        }
+        assertTrue(files(dir).isEmpty());
+    }
+
+    @Test
+    public void testDamagedEntryIsReported() throws IOException {
+        Path dir = Files.createTempDirectory("tree");
+        DurableTree tree = DurableTree.open(dir, 10);
+        mutate(new Random(8), new Tree(), tree, 200);
+        tree.close();
+        Path log = dir.resolve(files(dir).get(0));
+        long size = Files.size(log);
+        try (FileChannel file = FileChannel.open(log, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer middle = ByteBuffer.allocate(1);
+            file.read(middle, size / 2);
+            middle.put(0, (byte) (middle.get(0) ^ 1));
+            middle.rewind();
+            file.write(middle, size / 2);
+        }
+        try {
+            DurableTree.open(dir, 10);
+            fail("a damaged entry was dropped");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("damaged"));
+        }
+        assertEquals(size, Files.size(log));
+    }
+
+    @Test
+    public void testMissingEntriesAreReported() throws IOException {
+        Path dir = Files.createTempDirectory("tree");
+        DurableTree tree = DurableTree.open(dir, 10);
+        Random random = new Random(9);
+        Tree expected = new Tree();
+        mutate(random, expected, tree, 200);
+        tree.checkpoint();
+        mutate(random, expected, tree, 200);
+        tree.close();
+        for (String name : files(dir)) {
+            if (name.startsWith("snapshot-")) {
+                Files.delete(dir.resolve(name));
+            }
+        }
+        List<String> left = files(dir);
+        try {
+            DurableTree.open(dir, 10);
+            fail("entries after a gap were dropped");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("missing"));
+        }
+        assertEquals(left, files(dir));
+    }
+}
@@ -0,0 +1,715 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A read-only copy of a tree, made by Tree.freeze, with no node
+ * objects and no pointers.  Exact and prefix searches and prints
+ * run straight off the encoding and give exactly the output and
+ * visit counts of the tree it was frozen from.
+ *
+ * Internal nodes are numbered in level order, the root 0.  Each
+ * one has five bits, one per slot in A, C, G, T, $ order, in two
+ * bit vectors: one set where the slot is not a flyweight, one set
+ * where it holds an internal node.  Since children are numbered in
+ * the order their slots come in, the internal node in a slot is
+ * one more than the internal slots before it (a rank), and the
+ * leaf in a slot is the number of leaf slots before it.  The
+ * leaves' bases are packed 2 bits each into one pool in that same
+ * order, and where each leaf ends is found from a third bit
+ * vector, holding each leaf's length in unary: a zero per base,
+ * then a one (a select).
+ *
+ * That comes to about 10 bits per internal node and 2 bits per
+ * base plus 1 per sequence, against the five references, counts
+ * and object headers each node takes on the heap.
+ *
+ * Inserts and removes throw.  save and the metrics report's shape
+ * work from the encoding too, save through an object tree it drops
+ * once written.  Everything else, such as pattern and approximate
+ * searches or the iterators, builds the object tree the first time
+ * it is needed and keeps it.
+ */
+public class FrozenTree extends Tree {
+    private static final int FLY = -1;
+
+    /**
+     * The root: FLY if the tree is empty, leaf 0 if the root is a
+     * leaf, otherwise internal node 0.
+     */
+    private final int top;
+    private final BitVector present;
+    private final BitVector internal;
+    private final BitVector ends;
+    private final long[] bases;
+    private volatile boolean built;
+
+    private FrozenTree(int top, BitVector present, BitVector internal, BitVector ends,
+        long[] bases) {
+        this.top = top;
+        this.present = present;
+        this.internal = internal;
+        this.ends = ends;
+        this.bases = bases;
+    }
+
+    /**
+     * Encodes a tree, visiting its internal nodes in level order.
+     *
+     * @param root - the root of the tree
+     * @return the frozen copy
+     */
+    static FrozenTree freeze(Node root) {
+        BitVector.Builder present = new BitVector.Builder();
+        BitVector.Builder internal = new BitVector.Builder();
+        BitVector.Builder ends = new BitVector.Builder();
+        Pool pool = new Pool();
+        int top;
+        if (root instanceof FlyweightNode) {
+            top = FLY;
+        }
+        else if (root instanceof LeafNode) {
+            top = leaf(0);
+            pool.add(((LeafNode) root).getPacked(), ends);
+        }
+        else {
+            top = 0;
+            ArrayDeque<InternalNode> queue = new ArrayDeque<InternalNode>();
+            queue.add((InternalNode) root);
+            while (!queue.isEmpty()) {
+                InternalNode node = queue.poll();
+                for (int i = 0; i < InternalNode.SLOTS; i++) {
+                    Node child = node.getChild(i);
+                    present.add(!(child instanceof FlyweightNode));
+                    internal.add(child instanceof InternalNode);
+                    if (child instanceof InternalNode) {
+                        queue.add((InternalNode) child);
+                    }
+                    else if (child instanceof LeafNode) {
+                        pool.add(((LeafNode) child).getPacked(), ends);
+                    }
+                }
+            }
+        }
+        return new FrozenTree(top, present.build(), internal.build(), ends.build(),
+            Arrays.copyOf(pool.words, (int) ((pool.size + 31) >>> 5)));
+    }
+
+    @Override
+    public FrozenTree freeze() {
+        return this;
+    }
+
+    /**
+     * @return the memory the encoding takes, in bytes, not counting
+     *         object headers
+     */
+    public long bytes() {
+        return present.bytes() + internal.bytes() + ends.bytes() + 8L * bases.length;
+    }
+
+    /**
+     * @return if queries are still answered from the encoding, rather
+     *         than from an object tree built for some other query
+     */
+    public boolean isFrozen() {
+        return !built;
+    }
+
+    /**
+     * Builds the object tree, once, for the queries the encoding does
+     * not answer.
+     */
+    @Override
+    Node getRoot() {
+        if (!built) {
+            synchronized (this) {
+                if (!built) {
+                    setRoot(build(getFlyweight()));
+                    built = true;
+                }
+            }
+        }
+        return super.getRoot();
+    }
+
+    @Override
+    boolean countsSplits() {
+        return false;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public int insert(PackedSequence sequence) {
+        throw new UnsupportedOperationException("frozen trees cannot be changed");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(PackedSequence sequence) {
+        throw new UnsupportedOperationException("frozen trees cannot be changed");
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        throw new UnsupportedOperationException("frozen trees cannot be changed");
+    }
+
+    /**
+     * Writes a snapshot through an object tree built just for it, so
+     * this tree stays frozen.
+     */
+    @Override
+    public void save(Path file) throws IOException {
+        MappedTree.save(built ? getRoot() : build(getFlyweight()), file);
+    }
+
+    /**
+     * Counts the nodes and leaf depths straight off the encoding.
+     */
+    @Override
+    TreeMetrics.Shape shape() {
+        if (built) {
+            return super.shape();
+        }
+        TreeMetrics.Shape shape = new TreeMetrics.Shape();
+        if (top == FLY) {
+            return shape;
+        }
+        if (isLeaf(top)) {
+            shape.leaves = 1;
+            return shape;
+        }
+        shape.internals = 1;
+        int[] nodes = new int[64];
+        int[] next = new int[64];
+        int depth = 0;
+        while (depth >= 0) {
+            int i = next[depth];
+            if (i == InternalNode.SLOTS) {
+                depth--;
+                continue;
+            }
+            next[depth]++;
+            int child = child(nodes[depth], i);
+            if (child == FLY) {
+                shape.flyweights++;
+            }
+            else if (isLeaf(child)) {
+                shape.leaves++;
+                shape.depthSum += depth + 1;
+                shape.maxDepth = Math.max(shape.maxDepth, depth + 1);
+            }
+            else {
+                shape.internals++;
+                depth++;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 0;
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * Prints from the encoding on the calling thread; the pool is not
+     * used.
+     */
+    @Override
+    public void print(Appendable out, boolean lengths, boolean stats, ForkJoinPool pool)
+        throws IOException {
+        if (built || top == FLY) {
+            super.print(out, lengths, stats, pool);
+            return;
+        }
+        printNode(out, lengths, stats, top, 0);
+        if (isLeaf(top)) {
+            return;
+        }
+        int[] nodes = new int[64];
+        int[] next = new int[64];
+        int depth = 0;
+        while (depth >= 0) {
+            int i = next[depth];
+            if (i == InternalNode.SLOTS) {
+                depth--;
+                continue;
+            }
+            next[depth]++;
+            int child = child(nodes[depth], i);
+            printNode(out, lengths, stats, child, depth + 1);
+            if (child >= 0) {
+                depth++;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 0;
+            }
+        }
+    }
+
+    @Override
+    boolean contains(PackedSequence sequence) {
+        if (built) {
+            return super.contains(sequence);
+        }
+        int ref = top;
+        for (int level = 0; ref >= 0; level++) {
+            ref = child(ref, slot(sequence, level));
+        }
+        if (ref == FLY || end(ref) - start(ref) != sequence.length()) {
+            return false;
+        }
+        long start = start(ref);
+        for (int i = 0; i < sequence.length(); i++) {
+            if (code(start + i) != sequence.codeAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    int reach(PackedSequence sequence) {
+        if (built) {
+            return super.reach(sequence);
+        }
+        int ref = top;
+        int level = 0;
+        while (ref >= 0) {
+            int child = child(ref, slot(sequence, level));
+            if (child == FLY) {
+                return level;
+            }
+            ref = child;
+            level++;
+        }
+        if (ref == FLY) {
+            return 0;
+        }
+        long start = start(ref);
+        int n = (int) Math.min(end(ref) - start, sequence.length());
+        int i = 0;
+        while (i < n && code(start + i) == sequence.codeAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Lists from the encoding, in the order printAll writes them.
+     */
+    @Override
+    Iterator<PackedSequence> sequences(String prefix) {
+        if (built) {
+            return super.sequences(prefix);
+        }
+        int ref = top;
+        for (int level = 0; ref >= 0 && level < prefix.length(); level++) {
+            ref = child(ref, InternalNode.index(prefix.charAt(level)));
+        }
+        if (isLeaf(ref) && !leafStartsWith(ref, prefix)) {
+            ref = FLY;
+        }
+        return new Sequences(ref);
+    }
+
+    /**
+     * Searches the encoding one query at a time rather than building
+     * the object tree for the batch.
+     */
+    @Override
+    public String[] searchBatch(List<String> queries, int[] visited) {
+        if (built) {
+            return super.searchBatch(queries, visited);
+        }
+        return searchEach(queries, visited);
+    }
+
+    /**
+     * Searches the encoding on the calling thread; the pool is not
+     * used.  Pattern queries build the object tree first.
+     */
+    @Override
+    public void search(Appendable out, String searchWord, ForkJoinPool pool) throws IOException {
+        if (built || top == FLY || PatternSearch.isPattern(searchWord)) {
+            super.search(out, searchWord, pool);
+            return;
+        }
+        int visited = 1;
+        boolean isWord = searchWord.charAt(searchWord.length() - 1) == '$';
+        if (isWord) {
+            searchWord = searchWord.substring(0, searchWord.length() - 1);
+        }
+
+        if (isLeaf(top)) {
+            out.append("# of nodes visited: 1");
+            if ((isWord && leafEquals(top, searchWord))
+                || (!isWord && leafStartsWith(top, searchWord))) {
+                out.append("\nsequence: ").append(searchWord);
+            }
+            else {
+                out.append("\nno sequence found");
+            }
+            out.append('\n');
+            return;
+        }
+
+        int count = 0;
+        int next = top;
+        while (count < searchWord.length()) {
+            int child = child(next, InternalNode.index(searchWord.charAt(count)));
+            if (child < 0) {
+                break;
+            }
+            next = child;
+            count++;
+            visited++;
+        }
+
+        char pos = count == searchWord.length() ? 'E' : searchWord.charAt(count);
+        int nextNode = child(next, InternalNode.index(pos));
+        boolean leaf = isLeaf(nextNode);
+        String found = null;
+        if (isWord) {
+            if (leaf && leafEquals(nextNode, searchWord)) {
+                found = searchWord;
+            }
+            visited++;
+        }
+        else if (pos != 'E' && leaf && leafStartsWith(nextNode, searchWord)) {
+            found = decode(nextNode);
+            visited++;
+        }
+        else if (pos == 'E') {
+            visited += countAll(next) - 1;
+            out.append("# of nodes visited: ").append(Integer.toString(visited));
+            printAll(out, next);
+            out.append('\n');
+            return;
+        }
+        else {
+            visited++;
+        }
+        out.append("# of nodes visited: ").append(Integer.toString(visited));
+        if (found != null) {
+            out.append("\nsequence: ").append(found);
+        }
+        else {
+            out.append("\nno sequence found");
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Builds the object tree in one preorder pass, totalling base
+     * counts as each subtree is finished.
+     */
+    private Node build(FlyweightNode fw) {
+        if (top == FLY) {
+            return fw;
+        }
+        if (isLeaf(top)) {
+            return new LeafNode(decode(top), 0);
+        }
+        InternalNode root = new InternalNode(fw, 0);
+        InternalNode[] nodes = new InternalNode[64];
+        int[] ids = new int[64];
+        int[] next = new int[64];
+        int depth = 0;
+        nodes[0] = root;
+        while (depth >= 0) {
+            InternalNode node = nodes[depth];
+            int i = next[depth]++;
+            if (i == InternalNode.SLOTS) {
+                if (depth > 0) {
+                    nodes[depth - 1].addBaseCounts(node);
+                }
+                nodes[depth--] = null;
+                continue;
+            }
+            int child = child(ids[depth], i);
+            if (child == FLY) {
+                continue;
+            }
+            if (isLeaf(child)) {
+                LeafNode leaf = new LeafNode(decode(child), depth + 1);
+                node.setChild(i, leaf);
+                node.addBaseCounts(leaf, 1);
+                continue;
+            }
+            InternalNode inner = new InternalNode(fw, depth + 1);
+            node.setChild(i, inner);
+            depth++;
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                ids = Arrays.copyOf(ids, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+            }
+            nodes[depth] = inner;
+            ids[depth] = child;
+            next[depth] = 0;
+        }
+        return root;
+    }
+
+    private void printNode(Appendable out, boolean lengths, boolean stats, int ref, int level)
+        throws IOException {
+        out.append('\n');
+        indent(out, level);
+        if (ref == FLY) {
+            out.append('E');
+        }
+        else if (isLeaf(ref)) {
+            out.append(decode(ref));
+            if (lengths) {
+                out.append(' ').append(Long.toString(end(ref) - start(ref)));
+            }
+            else if (stats) {
+                long[] count = new long[4];
+                for (long i = start(ref), end = end(ref); i < end; i++) {
+                    count[code(i)]++;
+                }
+                printStats(out, count[0], count[1], count[2], count[3]);
+            }
+        }
+        else {
+            out.append('I');
+        }
+    }
+
+    private int countAll(int node) {
+        int sum = 0;
+        int[] stack = new int[64];
+        int depth = 0;
+        stack[0] = node;
+        while (depth >= 0) {
+            int cur = stack[depth--];
+            sum += 2;
+            for (int i = 0; i < InternalNode.END; i++) {
+                int child = child(cur, i);
+                if (child >= 0) {
+                    depth++;
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth] = child;
+                }
+                else {
+                    sum++;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private void printAll(Appendable out, int node) throws IOException {
+        int[] nodes = new int[64];
+        int[] next = new int[64];
+        int depth = 0;
+        nodes[0] = node;
+        while (depth >= 0) {
+            int cur = nodes[depth];
+            int i = next[depth];
+            if (i < InternalNode.END) {
+                next[depth]++;
+                int child = child(cur, i);
+                if (child == FLY) {
+                    continue;
+                }
+                if (isLeaf(child)) {
+                    out.append("\nsequence: ").append(decode(child));
+                    continue;
+                }
+                depth++;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 0;
+            }
+            else {
+                int end = child(cur, InternalNode.END);
+                if (end != FLY) {
+                    out.append("\nsequence: ").append(decode(end));
+                }
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * @param node - an internal node
+     * @param slot - a slot index, or -1 for no slot
+     * @return the internal node in that slot, leaf(k) for the k-th
+     *         leaf, or FLY
+     */
+    private int child(int node, int slot) {
+        if (slot < 0) {
+            return FLY;
+        }
+        long p = 5L * node + slot;
+        if (!present.get(p)) {
+            return FLY;
+        }
+        int inner = internal.rank(p);
+        if (internal.get(p)) {
+            return inner + 1;
+        }
+        return leaf(present.rank(p) - inner);
+    }
+
+    private static int leaf(int k) {
+        return -2 - k;
+    }
+
+    private static boolean isLeaf(int ref) {
+        return ref < FLY;
+    }
+
+    /**
+     * @return where the leaf's bases start in the pool
+     */
+    private long start(int ref) {
+        int k = -2 - ref;
+        return k == 0 ? 0 : ends.select(k - 1) - (k - 1);
+    }
+
+    /**
+     * @return where the leaf's bases end in the pool
+     */
+    private long end(int ref) {
+        int k = -2 - ref;
+        return ends.select(k) - k;
+    }
+
+    private int code(long i) {
+        return (int) (bases[(int) (i >>> 5)] >>> (2 * (i & 31))) & 3;
+    }
+
+    private boolean leafEquals(int ref, String word) {
+        return end(ref) - start(ref) == word.length() && leafStartsWith(ref, word);
+    }
+
+    private boolean leafStartsWith(int ref, String word) {
+        long start = start(ref);
+        if (word.length() > end(ref) - start) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (code(start + i) != PackedSequence.code(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int ref) {
+        long start = start(ref);
+        char[] chars = new char[(int) (end(ref) - start)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = PackedSequence.base(code(start + i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Walks the leaves below one node in listing order, a node's $
+     * leaf after everything in its A to T slots.
+     */
+    private final class Sequences implements Iterator<PackedSequence> {
+        private int[] nodes = new int[64];
+        private int[] next = new int[64];
+        private int depth = -1;
+        private int pending = FLY;
+
+        Sequences(int ref) {
+            if (isLeaf(ref)) {
+                pending = ref;
+            }
+            else if (ref >= 0) {
+                depth = 0;
+                nodes[0] = ref;
+                advance();
+            }
+        }
+
+        public boolean hasNext() {
+            return pending != FLY;
+        }
+
+        public PackedSequence next() {
+            if (pending == FLY) {
+                throw new NoSuchElementException();
+            }
+            PackedSequence sequence = PackedSequence.of(decode(pending));
+            pending = FLY;
+            advance();
+            return sequence;
+        }
+
+        private void advance() {
+            while (depth >= 0) {
+                int cur = nodes[depth];
+                int i = next[depth]++;
+                if (i > InternalNode.END) {
+                    depth--;
+                    continue;
+                }
+                int child = child(cur, i);
+                if (isLeaf(child)) {
+                    pending = child;
+                    return;
+                }
+                if (child >= 0) {
+                    depth++;
+                    if (depth == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, depth * 2);
+                        next = Arrays.copyOf(next, depth * 2);
+                    }
+                    nodes[depth] = child;
+                    next[depth] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * The leaves' bases as they are added, 2 bits each, 32 to a word.
+     */
+    private static final class Pool {
+        long[] words = new long[16];
+        long size;
+
+        void add(PackedSequence sequence, BitVector.Builder ends) {
+            int length = sequence.length();
+            int need = (int) ((size + length + 31) >>> 5);
+            if (need > words.length) {
+                words = Arrays.copyOf(words, Math.max(need, words.length * 2));
+            }
+            for (int i = 0; i < length; i++, size++) {
+                words[(int) (size >>> 5)] |= (long) sequence.codeAt(i) << (2 * (size & 31));
+            }
+            ends.skip(length);
+            ends.add(true);
+        }
+    }
+}
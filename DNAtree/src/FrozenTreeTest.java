@@ -0,0 +1,166 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrozenTreeTest {
+
+    private static List<String> queries(Random random, int n) {
+        List<String> queries = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            String query = TreeTesting.random(random, 6);
+            queries.add(random.nextBoolean() ? query + "$" : query);
+        }
+        return queries;
+    }
+
+    private static void assertMatches(Tree tree, FrozenTree frozen, List<String> queries) {
+        TreeTesting.assertPrintsMatch(tree, frozen);
+        for (String query : queries) {
+            assertEquals(query, tree.search(query), frozen.search(query));
+        }
+        assertArrayEquals(tree.searchBatch(queries), frozen.searchBatch(queries));
+        assertTrue(frozen.isFrozen());
+    }
+
+    @Test
+    public void testMatchesTree() {
+        Random random = new Random(24);
+        for (int round = 0; round < 20; round++) {
+            Tree tree = new Tree();
+            int n = 1 + random.nextInt(400);
+            for (int i = 0; i < n; i++) {
+                tree.insert(TreeTesting.random(random, 12));
+            }
+            for (int i = 0; i < n / 3; i++) {
+                tree.remove(TreeTesting.random(random, 12));
+            }
+            assertMatches(tree, tree.freeze(), queries(random, 300));
+        }
+    }
+
+    @Test
+    public void testSmallTrees() {
+        Tree tree = new Tree();
+        List<String> queries = Arrays.asList("A", "AC$", "ACGT$", "ACGTA", "T");
+        FrozenTree empty = tree.freeze();
+        assertEquals(tree.print(true, false), empty.print(true, false));
+        assertEquals(tree.search("A"), empty.search("A"));
+        tree.insert("ACGT");
+        assertMatches(tree, tree.freeze(), queries);
+        tree.insert("A");
+        assertMatches(tree, tree.freeze(), queries);
+        tree.remove("ACGT");
+        // The root stays internal, holding one leaf.
+        assertMatches(tree, tree.freeze(), queries);
+    }
+
+    @Test
+    public void testOtherQueriesBuildTheTree() {
+        Random random = new Random(6);
+        Tree tree = new ConcurrentTree();
+        for (int i = 0; i < 500; i++) {
+            tree.insert(TreeTesting.random(random, 10));
+        }
+        FrozenTree frozen = tree.freeze();
+        assertMatches(tree, frozen, queries(random, 50));
+        assertEquals(tree.search("ACN"), frozen.search("ACN"));
+        assertFalse(frozen.isFrozen());
+        assertEquals(tree.print(false, true), frozen.print(false, true));
+        assertArrayEquals(tree.composition("AC"), frozen.composition("AC"));
+        assertEquals(tree.page("G", null, 3, 10), frozen.page("G", null, 3, 10));
+        assertSame(frozen, frozen.freeze());
+        try {
+            frozen.insert("ACGT");
+            fail("frozen trees cannot be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            frozen.remove("ACGT");
+            fail("frozen trees cannot be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSaveAndShapeKeepItFrozen() throws IOException {
+        Random random = new Random(12);
+        for (int n : new int[] {0, 1, 300}) {
+            Tree tree = new Tree();
+            for (int i = 0; i < n; i++) {
+                tree.insert(TreeTesting.random(random, 12));
+            }
+            FrozenTree frozen = tree.freeze();
+            TreeMetrics metrics = new TreeMetrics();
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            metrics.report(expected, tree);
+            metrics.report(actual, frozen);
+            // Past the latency lines, which have nothing recorded.
+            String shape = expected.substring(expected.indexOf("nodes:"));
+            shape = shape.substring(0, shape.indexOf("splits:"));
+            assertTrue(actual.toString(), actual.toString().contains(shape));
+            File file = File.createTempFile("frozen", ".snapshot");
+            try {
+                frozen.save(file.toPath());
+                assertEquals(tree.print(true, false),
+                    MappedTree.open(file.toPath()).print(true, false));
+            } finally {
+                file.delete();
+            }
+            assertTrue(frozen.isFrozen());
+        }
+    }
+
+    @Test
+    public void testSmallerThanTheNodes() {
+        Random random = new Random(1);
+        Tree tree = new Tree();
+        for (int i = 0; i < 20000; i++) {
+            tree.insert(TreeTesting.random(random, 20));
+        }
+        FrozenTree frozen = tree.freeze();
+        // Under 12 bytes per sequence, where a leaf object alone takes more.
+        assertTrue(frozen.bytes() < 12 * 20000);
+        assertEquals(tree.search("GATT"), frozen.search("GATT"));
+    }
+
+    @Test
+    public void testBitVector() {
+        Random random = new Random(7);
+        for (int size : new int[] {0, 1, 63, 64, 65, 511, 512, 513, 5000, 70000}) {
+            BitVector.Builder builder = new BitVector.Builder();
+            boolean[] bits = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                if (random.nextInt(4) == 0) {
+                    builder.skip(1);
+                }
+                else {
+                    bits[i] = random.nextInt(size % 3 == 0 ? 20 : 2) == 0;
+                    builder.add(bits[i]);
+                }
+            }
+            BitVector vector = builder.build();
+            assertEquals(size, vector.size());
+            int ones = 0;
+            for (int i = 0; i < size; i++) {
+                assertEquals(ones, vector.rank(i));
+                assertEquals(bits[i], vector.get(i));
+                if (bits[i]) {
+                    assertEquals(i, vector.select(ones));
+                    ones++;
+                }
+            }
+            assertEquals(ones, vector.rank(size));
+            assertEquals(ones, vector.ones());
+        }
+    }
+}
@@ -1,72 +1,211 @@
+import java.util.Arrays;
 
 public class InternalNode extends Node{
-    
+
+    /**
+     * Child slots are numbered in A, C, G, T, $ order.  The $ slot is
+     * addressed with 'E', like everywhere else in the tree.  The slots
+     * stay as five fields rather than a Node[] so that descending a
+     * level is one pointer load instead of two.
+     */
+    public static final int SLOTS = 5;
+    public static final int END = 4;
+    private static final byte[] INDEX = new byte[128];
+    /**
+     * IUPAC nucleotide codes as bitmasks of the A, C, G and T slots
+     * they stand for; N matches any base.
+     */
+    private static final byte[] MASK = new byte[128];
+
+    static {
+        Arrays.fill(INDEX, (byte) -1);
+        INDEX['A'] = 0;
+        INDEX['C'] = 1;
+        INDEX['G'] = 2;
+        INDEX['T'] = 3;
+        INDEX['E'] = END;
+
+        String codes = "ACGTRYSWKMBDHVN";
+        int[] masks = {1, 2, 4, 8, 5, 10, 6, 9, 12, 3, 14, 13, 11, 7, 15};
+        for (int i = 0; i < masks.length; i++) {
+            MASK[codes.charAt(i)] = (byte) masks[i];
+        }
+    }
+
     private Node A, C, G, T, $;
-    
+    /**
+     * Bit i is set while slot i holds something other than a
+     * FlyweightNode, so counting flyweights needs no instanceof.
+     */
+    private int occupied;
+    /**
+     * Totals of each base over every sequence below this node,
+     * kept up to date by Tree.insert and Tree.remove.
+     */
+    private long countA, countC, countG, countT;
+
     public InternalNode(FlyweightNode fw, int level) {
         A = fw;
         C = fw;
         G = fw;
         T = fw;
         $ = fw;
-        
-        setLevel(level);          
+
+        setLevel(level);
+    }
+
+    /**
+     * Copies a node's children, level and totals, so the copy can be
+     * changed while the original is still being read.
+     *
+     * @param other - the node to copy
+     */
+    public InternalNode(InternalNode other) {
+        A = other.A;
+        C = other.C;
+        G = other.G;
+        T = other.T;
+        $ = other.$;
+        occupied = other.occupied;
+        countA = other.countA;
+        countC = other.countC;
+        countG = other.countG;
+        countT = other.countT;
+        setLevel(other.getLevel());
     }
-    
+
+    /**
+     * @param c - a slot character: A, C, G, T or E
+     * @return the slot index for c, or -1 if c names no slot
+     */
+    public static int index(char c) {
+        return c < INDEX.length ? INDEX[c] : -1;
+    }
+
+    /**
+     * @param c - a nucleotide code, concrete (A, C, G, T) or ambiguous
+     * @return a bitmask with bit i set for each base slot i that c
+     *         matches, or 0 if c is not a nucleotide code
+     */
+    public static int mask(char c) {
+        return c < MASK.length ? MASK[c] : 0;
+    }
+
     public void addNode(Node node, char c) {
-        if (c == 'A') {
-            A = node;
-        }
-        else if (c == 'C') {
-            C = node;
-        }
-        else if (c == 'G') {
-            G = node;
-        }
-        else if (c == 'T') {
-            T = node;
-        }       
-        else if (c == 'E') {
-            $ = node;
+        int i = index(c);
+        if (i >= 0) {
+            setChild(i, node);
         }
     }
+
     public Node getNode(char c) {
-        if (c == 'A') {
-            return A;
+        int i = index(c);
+        if (i < 0) {
+            return null;
         }
-        else if (c == 'C') {
-            return C;
-        }
-        else if (c == 'G') {
-            return G;
-        }
-        else if (c == 'T') {
-            return T;
-        }       
-        else if (c == 'E') {
-            return $;
-        }
-        return null;
+        return getChild(i);
     }
-    
-    public int getTotalFlyNode() {
-        int sum = 0;
-        if (A instanceof FlyweightNode) {
-            sum++;
+
+    /**
+     * @param i - the slot index, 0 to SLOTS - 1
+     * @param node - the new child for that slot
+     */
+    public void setChild(int i, Node node) {
+        switch (i) {
+            case 0:
+                A = node;
+                break;
+            case 1:
+                C = node;
+                break;
+            case 2:
+                G = node;
+                break;
+            case 3:
+                T = node;
+                break;
+            default:
+                $ = node;
+                break;
         }
-        if (C instanceof FlyweightNode) {
-            sum++;
+        if (node instanceof FlyweightNode) {
+            occupied &= ~(1 << i);
         }
-        if (G instanceof FlyweightNode) {
-            sum++;
+        else {
+            occupied |= 1 << i;
         }
-        if (T instanceof FlyweightNode) {
-            sum++;
+    }
+
+    /**
+     * @param i - the slot index, 0 to SLOTS - 1
+     * @return the child in that slot
+     */
+    public Node getChild(int i) {
+        switch (i) {
+            case 0:
+                return A;
+            case 1:
+                return C;
+            case 2:
+                return G;
+            case 3:
+                return T;
+            default:
+                return $;
         }
-        if ($ instanceof FlyweightNode) {
-            sum++;
+    }
+
+    /**
+     * @return a bitmask with bit i set if slot i is not a flyweight
+     */
+    public int getOccupied() {
+        return occupied;
+    }
+
+    /**
+     * @param code - the 2-bit code of a base: 0 A, 1 C, 2 G, 3 T
+     * @return how many times that base occurs below this node
+     */
+    public long getBaseCount(int code) {
+        switch (code) {
+            case 0:
+                return countA;
+            case 1:
+                return countC;
+            case 2:
+                return countG;
+            default:
+                return countT;
         }
-        return sum;
+    }
+
+    /**
+     * Adds or takes away one leaf's bases from the subtree totals.
+     *
+     * @param leaf - the leaf joining or leaving this subtree
+     * @param sign - 1 when it joins, -1 when it leaves
+     */
+    public void addBaseCounts(LeafNode leaf, int sign) {
+        countA += sign * leaf.getBaseCount(0);
+        countC += sign * leaf.getBaseCount(1);
+        countG += sign * leaf.getBaseCount(2);
+        countT += sign * leaf.getBaseCount(3);
+    }
+
+    /**
+     * Adds a whole child subtree's totals to this node's totals.
+     *
+     * @param child - an internal node just placed below this one
+     */
+    public void addBaseCounts(InternalNode child) {
+        countA += child.countA;
+        countC += child.countC;
+        countG += child.countG;
+        countT += child.countT;
+    }
+
+    public int getTotalFlyNode() {
+        return SLOTS - Integer.bitCount(occupied);
     }
 
 }
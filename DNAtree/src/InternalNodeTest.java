@@ -118,6 +118,20 @@ public class InternalNodeTest {
     public void getTotalFlyNode() {
         assertEquals(5, internalNodeObj0.getTotalFlyNode());
         assertEquals(5, internalNodeObj1.getTotalFlyNode());
+        testaddLeaf_ACGTE_addNode();
         assertEquals(0, internalNodeObj3.getTotalFlyNode());
+        internalNodeObj3.addNode(flyweightNodeObj, 'G');
+        assertEquals(1, internalNodeObj3.getTotalFlyNode());
+        assertEquals(0x1b, internalNodeObj3.getOccupied());
+    }
+
+    @Test
+    public void testSlotIndex() {
+        internalNodeObj6.setChild(InternalNode.index('T'), leafNodeObjGT);
+        assertSame(leafNodeObjGT, internalNodeObj6.getNode('T'));
+        assertSame(leafNodeObjGT, internalNodeObj6.getChild(3));
+        assertEquals(InternalNode.END, InternalNode.index('E'));
+        assertEquals(-1, InternalNode.index('$'));
+        assertEquals(-1, InternalNode.index('\u00e9'));
     }
 }
\ No newline at end of file
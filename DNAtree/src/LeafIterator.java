@@ -0,0 +1,183 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lists the leaves below a node in the order search prints them:
+ * the A, C, G and T subtrees, then the $ leaf.  That is the order
+ * of the sequences with the end of a sequence sorting after every
+ * base.  The walk keeps its own stack and only goes as far as the
+ * next leaf on each call, so the first results come back at once
+ * however many sequences match, and stopping early costs nothing.
+ *
+ * The iterator reads the tree as it goes, so a Tree must not be
+ * changed while one is in use; on a ConcurrentTree it walks the
+ * snapshot it started from.
+ */
+public class LeafIterator implements Iterator<LeafNode> {
+    private InternalNode[] stack = new InternalNode[64];
+    private int[] next = new int[64];
+    private int top = -1;
+    private LeafNode pending;
+    private int visited;
+
+    /**
+     * @param node - the root of the subtree to list, which may be a
+     *        single leaf, or null or a FlyweightNode to list nothing
+     */
+    public LeafIterator(Node node) {
+        if (node instanceof LeafNode) {
+            pending = (LeafNode) node;
+        }
+        else if (node instanceof InternalNode) {
+            push((InternalNode) node, 0);
+        }
+    }
+
+    /**
+     * Starts just after a given sequence, as if it had been the last
+     * one returned.  It does not have to be in the tree any more.
+     *
+     * @param node - the root of the subtree to list
+     * @param after - where the previous listing stopped
+     */
+    public LeafIterator(Node node, PackedSequence after) {
+        if (node instanceof LeafNode) {
+            if (compare(((LeafNode) node).getPacked(), after) > 0) {
+                pending = (LeafNode) node;
+            }
+            return;
+        }
+        if (!(node instanceof InternalNode)) {
+            return;
+        }
+        InternalNode cur = (InternalNode) node;
+        while (true) {
+            int level = cur.getLevel();
+            if (cur instanceof CompressedNode && ((CompressedNode) cur).getSkip() > 0) {
+                // The whole subtree falls on one side of after unless
+                // after follows the chain to the branch level.
+                int branch = ((CompressedNode) cur).getBranchLevel();
+                PackedSequence label = ((CompressedNode) cur).anyLeaf().getPacked();
+                for (; level < branch; level++) {
+                    int c = Tree.slot(after, level);
+                    if (c != label.codeAt(level)) {
+                        if (c > label.codeAt(level)) {
+                            return;
+                        }
+                        push(cur, 0);
+                        return;
+                    }
+                }
+            }
+            int c = Tree.slot(after, level);
+            Node child = cur.getChild(c);
+            if (c < InternalNode.END && child instanceof InternalNode) {
+                push(cur, c + 1);
+                cur = (InternalNode) child;
+                continue;
+            }
+            if (c < InternalNode.END && child instanceof LeafNode
+                && compare(((LeafNode) child).getPacked(), after) > 0) {
+                push(cur, c);
+            }
+            else {
+                push(cur, c + 1);
+            }
+            return;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            advance();
+        }
+        return pending != null;
+    }
+
+    @Override
+    public LeafNode next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LeafNode leaf = pending;
+        pending = null;
+        return leaf;
+    }
+
+    /**
+     * Counts the nodes a prefix search visits, the same way
+     * Tree.search does: two for every internal node entered and one
+     * for every A to T slot below it that is not internal.  Once the
+     * iterator is used up from the start of a subtree, this is the
+     * count for the whole subtree.
+     *
+     * @return the nodes visited so far
+     */
+    public int visited() {
+        return visited;
+    }
+
+    /**
+     * Orders sequences the way they are listed: base by base, with a
+     * sequence that ends coming after every one that carries on.
+     *
+     * @param a - a sequence
+     * @param b - another sequence
+     * @return negative, zero or positive as a lists before, with or after b
+     */
+    public static int compare(PackedSequence a, PackedSequence b) {
+        for (int i = 0; ; i++) {
+            int ca = Tree.slot(a, i);
+            int cb = Tree.slot(b, i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+            if (ca == InternalNode.END) {
+                return 0;
+            }
+        }
+    }
+
+    private void advance() {
+        while (top >= 0) {
+            InternalNode cur = stack[top];
+            int i = next[top]++;
+            if (i < InternalNode.END) {
+                Node child = cur.getChild(i);
+                if (child instanceof InternalNode) {
+                    push((InternalNode) child, 0);
+                }
+                else if (child instanceof LeafNode) {
+                    pending = (LeafNode) child;
+                    return;
+                }
+            }
+            else {
+                stack[top--] = null;
+                Node end = i == InternalNode.END ? cur.getChild(InternalNode.END) : null;
+                if (end instanceof LeafNode) {
+                    pending = (LeafNode) end;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void push(InternalNode node, int slot) {
+        top++;
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+            next = Arrays.copyOf(next, top * 2);
+        }
+        stack[top] = node;
+        next[top] = slot;
+        visited += 2;
+        for (int i = 0; i < InternalNode.END; i++) {
+            if (!(node.getChild(i) instanceof InternalNode)) {
+                visited++;
+            }
+        }
+    }
+}
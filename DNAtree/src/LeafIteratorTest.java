@@ -0,0 +1,112 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.*;
+
+public class LeafIteratorTest {
+
+    private static List<String> fill(Tree tree, Random random, int n) {
+        List<String> all = new ArrayList<String>();
+        String[] prefixes = {"", "A", "AC", "ACGTACGT", "G"};
+        for (int k = 0; k < n; k++) {
+            String prefix = prefixes[random.nextInt(prefixes.length)];
+            String seq = TreeTesting.randomSequence(random, prefix, 6);
+            if (tree.insert(seq) >= 0) {
+                all.add(seq);
+            }
+        }
+        return all;
+    }
+
+    private static List<String> listed(String searchOutput) {
+        List<String> found = new ArrayList<String>();
+        for (String line : searchOutput.split("\n")) {
+            if (line.startsWith("sequence: ")) {
+                found.add(line.substring("sequence: ".length()));
+            }
+        }
+        return found;
+    }
+
+    private static List<String> drain(LeafIterator leaves) {
+        List<String> found = new ArrayList<String>();
+        while (leaves.hasNext()) {
+            found.add(leaves.next().getSequence());
+        }
+        return found;
+    }
+
+    @Test
+    public void testMatchesSearchOrder() {
+        Random random = new Random(4);
+        Tree tree = new Tree();
+        CompressedTree compressed = new CompressedTree();
+        for (String seq : fill(tree, random, 400)) {
+            compressed.insert(seq);
+        }
+        for (String prefix : new String[] {"A", "AC", "ACGTAC", "G", "T", "ACGTACGTA"}) {
+            List<String> expected = listed(tree.search(prefix));
+            assertEquals(prefix, expected, drain(tree.iterator(prefix)));
+            assertEquals(prefix, expected, drain(compressed.iterator(prefix)));
+            List<String> streamed = StreamSupport.stream(tree.spliterator(prefix), false)
+                .map(LeafNode::getSequence).collect(Collectors.toList());
+            assertEquals(prefix, expected, streamed);
+        }
+    }
+
+    @Test
+    public void testVisitedMatchesCountAll() {
+        Tree tree = new Tree();
+        fill(tree, new Random(6), 300);
+        Node root = tree.getRoot();
+        LeafIterator leaves = new LeafIterator(root);
+        drain(leaves);
+        assertEquals(Tree.countAll((InternalNode) root), leaves.visited());
+    }
+
+    @Test
+    public void testPagingWithCursor() {
+        Random random = new Random(10);
+        Tree tree = new Tree();
+        CompressedTree compressed = new CompressedTree();
+        for (String seq : fill(tree, random, 500)) {
+            compressed.insert(seq);
+        }
+        for (Tree t : new Tree[] {tree, compressed}) {
+            List<String> all = drain(t.iterator("A"));
+            List<String> paged = new ArrayList<String>();
+            String cursor = null;
+            List<String> page;
+            while (!(page = t.page("A", cursor, 0, 7)).isEmpty()) {
+                paged.addAll(page);
+                cursor = page.get(page.size() - 1);
+            }
+            assertEquals(all, paged);
+            assertEquals(all.subList(3, 8), t.page("A", null, 3, 5));
+        }
+    }
+
+    @Test
+    public void testCursorSurvivesRemoval() {
+        Random random = new Random(12);
+        Tree tree = new Tree();
+        CompressedTree compressed = new CompressedTree();
+        for (String seq : fill(tree, random, 500)) {
+            compressed.insert(seq);
+        }
+        for (Tree t : new Tree[] {tree, compressed}) {
+            List<String> all = drain(t.iterator("AC"));
+            for (int i = 0; i < all.size(); i += 9) {
+                String cursor = all.get(i);
+                assertTrue(t.remove(cursor));
+                assertEquals(cursor, all.subList(i + 1, all.size()), drain(t.iterator("AC", cursor)));
+                t.insert(cursor);
+            }
+        }
+    }
+}
@@ -1,13 +1,53 @@
 
 public class LeafNode extends Node{
-    private String sequence;
+    private PackedSequence sequence;
+    /**
+     * Base counts are worked out once here, so printing stats and
+     * keeping subtree totals never rescans the sequence.  A is not
+     * stored; it is whatever the length leaves over.
+     */
+    private final int countC, countG, countT;
     
     public LeafNode(String sequence, int level) {
+        this(PackedSequence.of(sequence), level);
+    }
+    
+    public LeafNode(PackedSequence sequence, int level) {
         this.sequence = sequence;
+        countC = sequence.count(1);
+        countG = sequence.count(2);
+        countT = sequence.count(3);
         setLevel(level);
     }
     
+    /**
+     * Decodes the stored bases, so this is for output only.
+     * Comparisons should go through getPacked().
+     *
+     * @return the sequence as a String
+     */
     public String getSequence() {
+        return sequence.toString();
+    }
+    
+    public PackedSequence getPacked() {
         return sequence;
     }
+    
+    /**
+     * @param code - the 2-bit code of a base: 0 A, 1 C, 2 G, 3 T
+     * @return how many times that base occurs in the sequence
+     */
+    public int getBaseCount(int code) {
+        switch (code) {
+            case 1:
+                return countC;
+            case 2:
+                return countG;
+            case 3:
+                return countT;
+            default:
+                return sequence.length() - countC - countG - countT;
+        }
+    }
 }
@@ -0,0 +1,574 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+/**
+ * A Tree reloaded from a snapshot file.  The file is memory mapped
+ * and exact searches and print run straight off the mapped bytes, so
+ * opening costs one checksum pass over the file and nothing per node.
+ *
+ * Only those two paths are lazy.  Nodes are not decoded one at a time
+ * on demand: the first insert or remove, pattern or approximate
+ * search, or use of an iterator builds the whole object tree from the
+ * file in one pass, and from then on the tree is an ordinary Tree on
+ * the heap.  The snapshot keeps no base counts, so a node cannot be
+ * decoded without walking its subtree to total them.
+ *
+ * A snapshot is a 16 byte header (magic, version, CRC32 of the body
+ * and body length) followed by the nodes in preorder.  An internal
+ * node is a byte with the high bit set and bit i set for each slot i
+ * that is not a flyweight, a byte with bit i set for each slot i
+ * holding an internal node, then the offset of each of those
+ * children as an int.  A leaf is a zero byte, its length as an int,
+ * then its bases 2 bits each, 4 to a byte.  Levels are not stored,
+ * since every node sits one level below its parent.
+ */
+public class MappedTree extends Tree {
+    private static final int MAGIC = 0x444E4154;
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int INTERNAL = 0x80;
+    private static final int LEAF_BASES = 5;
+    private static final int FLY = -1;
+
+    /**
+     * The snapshot's nodes, or null once the object tree has been
+     * built (or the snapshot held an empty tree).
+     */
+    private ByteBuffer image;
+
+    private MappedTree(ByteBuffer image) {
+        this.image = image.capacity() == 0 ? null : image;
+    }
+
+    /**
+     * Maps a snapshot written by Tree.save.
+     *
+     * @param file - the snapshot
+     * @return a tree serving searches from the mapped file
+     * @throws IOException if the file cannot be read, is not a
+     *         snapshot, or fails its checksum
+     */
+    public static MappedTree open(Path file) throws IOException {
+        ByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a tree snapshot");
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a tree snapshot");
+        }
+        if (map.getInt(12) != map.capacity() - HEADER) {
+            throw new IOException(file + " is truncated");
+        }
+        map.position(HEADER);
+        ByteBuffer body = map.slice();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != map.getInt(8)) {
+            throw new IOException(file + " is corrupt: checksum mismatch");
+        }
+        return new MappedTree(body);
+    }
+
+    /**
+     * Writes a tree in snapshot form.
+     *
+     * @param root - the root of the tree
+     * @param file - the snapshot to write, replaced if it exists
+     * @throws IOException if the file cannot be written, or the tree
+     *         needs more than 2 GB
+     */
+    static void save(Node root, Path file) throws IOException {
+        long size = HEADER + bodySize(root);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("tree too large for one snapshot: " + size + " bytes");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.position(HEADER);
+            ByteBuffer body = map.slice();
+            write(root, body);
+            body.flip();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, (int) crc.getValue());
+            map.putInt(12, (int) size - HEADER);
+            map.force();
+        }
+    }
+
+    /**
+     * @return if searches are still served from the mapped file
+     */
+    public boolean isMapped() {
+        return image != null;
+    }
+
+    @Override
+    Node getRoot() {
+        if (image != null) {
+            materialize();
+        }
+        return super.getRoot();
+    }
+
+    @Override
+    public int insert(PackedSequence sequence) {
+        getRoot();
+        return super.insert(sequence);
+    }
+
+    @Override
+    public boolean remove(PackedSequence sequence) {
+        getRoot();
+        return super.remove(sequence);
+    }
+
+    @Override
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        getRoot();
+        return super.bulkLoad(sequences, pool);
+    }
+
+    /**
+     * Until the object tree is built, prints from the mapped file on
+     * the calling thread and the pool is not used.
+     */
+    @Override
+    public void print(Appendable out, boolean lengths, boolean stats, ForkJoinPool pool)
+        throws IOException {
+        if (image == null) {
+            super.print(out, lengths, stats, pool);
+            return;
+        }
+        printNode(out, lengths, stats, 0, 0);
+        if (isLeaf(0)) {
+            return;
+        }
+        int[] nodes = new int[64];
+        int[] next = new int[64];
+        int top = 0;
+        while (top >= 0) {
+            int i = next[top];
+            if (i == InternalNode.SLOTS) {
+                top--;
+                continue;
+            }
+            next[top]++;
+            int child = child(nodes[top], i);
+            printNode(out, lengths, stats, child, top + 1);
+            if (child != FLY && !isLeaf(child)) {
+                top++;
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    next = Arrays.copyOf(next, top * 2);
+                }
+                nodes[top] = child;
+                next[top] = 0;
+            }
+        }
+    }
+
+    /**
+     * Until the object tree is built, searches the mapped file one
+     * query at a time rather than building it for the batch.
+     */
+    @Override
+    public String[] searchBatch(List<String> queries, int[] visited) {
+        if (image == null) {
+            return super.searchBatch(queries, visited);
+        }
+        return searchEach(queries, visited);
+    }
+
+    /**
+     * Until the object tree is built, searches the mapped file on the
+     * calling thread and the pool is not used.  Pattern queries build
+     * the object tree first.
+     */
+    @Override
+    public void search(Appendable out, String searchWord, ForkJoinPool pool) throws IOException {
+        if (image == null || PatternSearch.isPattern(searchWord)) {
+            super.search(out, searchWord, pool);
+            return;
+        }
+        int visited = 1;
+        boolean isWord = searchWord.charAt(searchWord.length() - 1) == '$';
+        if (isWord) {
+            searchWord = searchWord.substring(0, searchWord.length() - 1);
+        }
+
+        if (isLeaf(0)) {
+            out.append("# of nodes visited: 1");
+            if ((isWord && leafEquals(0, searchWord))
+                || (!isWord && leafStartsWith(0, searchWord))) {
+                out.append("\nsequence: ").append(searchWord);
+            }
+            else {
+                out.append("\nno sequence found");
+            }
+            out.append('\n');
+            return;
+        }
+
+        int count = 0;
+        int next = 0;
+        while (count < searchWord.length()) {
+            int child = child(next, InternalNode.index(searchWord.charAt(count)));
+            if (child == FLY || isLeaf(child)) {
+                break;
+            }
+            next = child;
+            count++;
+            visited++;
+        }
+
+        char pos = count == searchWord.length() ? 'E' : searchWord.charAt(count);
+        int nextNode = child(next, InternalNode.index(pos));
+        boolean leaf = nextNode != FLY && isLeaf(nextNode);
+        String found = null;
+        if (isWord) {
+            if (leaf && leafEquals(nextNode, searchWord)) {
+                found = searchWord;
+            }
+            visited++;
+        }
+        else if (pos != 'E' && leaf && leafStartsWith(nextNode, searchWord)) {
+            found = decode(nextNode);
+            visited++;
+        }
+        else if (pos == 'E') {
+            visited += countAll(next) - 1;
+            out.append("# of nodes visited: ").append(Integer.toString(visited));
+            printAll(out, next);
+            out.append('\n');
+            return;
+        }
+        else {
+            visited++;
+        }
+        out.append("# of nodes visited: ").append(Integer.toString(visited));
+        if (found != null) {
+            out.append("\nsequence: ").append(found);
+        }
+        else {
+            out.append("\nno sequence found");
+        }
+        out.append('\n');
+    }
+
+    private void materialize() {
+        setRoot(build(getFlyweight()));
+        image = null;
+    }
+
+    /**
+     * Builds the object tree from the mapped file in one preorder
+     * pass, totalling base counts as each subtree is finished.
+     *
+     * @param fw - the flyweight to fill empty slots with
+     * @return the root of the new tree, a FlyweightNode if it is empty
+     */
+    Node build(FlyweightNode fw) {
+        if (image == null) {
+            Node root = super.getRoot();
+            return root instanceof FlyweightNode ? fw : root;
+        }
+        if (isLeaf(0)) {
+            return new LeafNode(packed(0), 0);
+        }
+        InternalNode root = new InternalNode(fw, 0);
+        InternalNode[] nodes = new InternalNode[64];
+        int[] records = new int[64];
+        int[] next = new int[64];
+        int top = 0;
+        nodes[0] = root;
+        while (top >= 0) {
+            InternalNode node = nodes[top];
+            int i = next[top]++;
+            if (i == InternalNode.SLOTS) {
+                if (top > 0) {
+                    nodes[top - 1].addBaseCounts(node);
+                }
+                nodes[top--] = null;
+                continue;
+            }
+            int child = child(records[top], i);
+            if (child == FLY) {
+                continue;
+            }
+            if (isLeaf(child)) {
+                LeafNode leaf = new LeafNode(packed(child), top + 1);
+                node.setChild(i, leaf);
+                node.addBaseCounts(leaf, 1);
+                continue;
+            }
+            InternalNode inner = new InternalNode(fw, top + 1);
+            node.setChild(i, inner);
+            top++;
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                records = Arrays.copyOf(records, top * 2);
+                next = Arrays.copyOf(next, top * 2);
+            }
+            nodes[top] = inner;
+            records[top] = child;
+            next[top] = 0;
+        }
+        return root;
+    }
+
+    private static long bodySize(Node root) {
+        if (root instanceof FlyweightNode) {
+            return 0;
+        }
+        long size = 0;
+        Node[] stack = new Node[64];
+        int top = 0;
+        stack[0] = root;
+        while (top >= 0) {
+            Node node = stack[top--];
+            if (node instanceof LeafNode) {
+                size += LEAF_BASES + (((LeafNode) node).getPacked().length() + 3) / 4;
+                continue;
+            }
+            InternalNode internal = (InternalNode) node;
+            size += 2 + 4 * Integer.bitCount(internal.getOccupied());
+            for (int i = 0; i < InternalNode.SLOTS; i++) {
+                Node child = internal.getChild(i);
+                if (!(child instanceof FlyweightNode)) {
+                    top++;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top] = child;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the nodes in preorder, filling in each child's offset in
+     * its parent's record as the child is reached.
+     */
+    private static void write(Node root, ByteBuffer body) {
+        if (root instanceof FlyweightNode) {
+            return;
+        }
+        if (root instanceof LeafNode) {
+            writeLeaf(body, (LeafNode) root);
+            return;
+        }
+        InternalNode[] nodes = new InternalNode[64];
+        int[] records = new int[64];
+        int[] next = new int[64];
+        int top = 0;
+        nodes[0] = (InternalNode) root;
+        records[0] = writeInternal(body, nodes[0]);
+        while (top >= 0) {
+            InternalNode node = nodes[top];
+            int i = next[top]++;
+            if (i == InternalNode.SLOTS) {
+                nodes[top--] = null;
+                continue;
+            }
+            Node child = node.getChild(i);
+            if (child instanceof FlyweightNode) {
+                continue;
+            }
+            int k = Integer.bitCount(node.getOccupied() & ((1 << i) - 1));
+            body.putInt(records[top] + 2 + 4 * k, body.position());
+            if (child instanceof LeafNode) {
+                writeLeaf(body, (LeafNode) child);
+                continue;
+            }
+            top++;
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                records = Arrays.copyOf(records, top * 2);
+                next = Arrays.copyOf(next, top * 2);
+            }
+            nodes[top] = (InternalNode) child;
+            records[top] = writeInternal(body, nodes[top]);
+            next[top] = 0;
+        }
+    }
+
+    private static int writeInternal(ByteBuffer body, InternalNode node) {
+        int record = body.position();
+        int internals = 0;
+        for (int i = 0; i < InternalNode.SLOTS; i++) {
+            if (node.getChild(i) instanceof InternalNode) {
+                internals |= 1 << i;
+            }
+        }
+        body.put((byte) (INTERNAL | node.getOccupied()));
+        body.put((byte) internals);
+        body.position(record + 2 + 4 * Integer.bitCount(node.getOccupied()));
+        return record;
+    }
+
+    private static void writeLeaf(ByteBuffer body, LeafNode leaf) {
+        body.put((byte) 0);
+        body.putInt(leaf.getPacked().length());
+        leaf.getPacked().writeTo(body);
+    }
+
+    private void printNode(Appendable out, boolean lengths, boolean stats, int ref, int level)
+        throws IOException {
+        out.append('\n');
+        indent(out, level);
+        if (ref == FLY) {
+            out.append('E');
+        }
+        else if (isLeaf(ref)) {
+            out.append(decode(ref));
+            if (lengths) {
+                out.append(' ').append(Integer.toString(leafLength(ref)));
+            }
+            else if (stats) {
+                long[] count = new long[4];
+                for (int i = 0; i < leafLength(ref); i++) {
+                    count[leafCode(ref, i)]++;
+                }
+                printStats(out, count[0], count[1], count[2], count[3]);
+            }
+        }
+        else {
+            out.append('I');
+        }
+    }
+
+    private int countAll(int node) {
+        int sum = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[0] = node;
+        while (top >= 0) {
+            int cur = stack[top--];
+            sum += 2;
+            for (int i = 0; i < InternalNode.END; i++) {
+                if (isInternal(cur, i)) {
+                    top++;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top] = child(cur, i);
+                }
+                else {
+                    sum++;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private void printAll(Appendable out, int node) throws IOException {
+        int[] nodes = new int[64];
+        int[] next = new int[64];
+        int top = 0;
+        nodes[0] = node;
+        while (top >= 0) {
+            int cur = nodes[top];
+            int i = next[top];
+            if (i < InternalNode.END) {
+                next[top]++;
+                int child = child(cur, i);
+                if (child == FLY) {
+                    continue;
+                }
+                if (isLeaf(child)) {
+                    out.append("\nsequence: ").append(decode(child));
+                    continue;
+                }
+                top++;
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    next = Arrays.copyOf(next, top * 2);
+                }
+                nodes[top] = child;
+                next[top] = 0;
+            }
+            else {
+                int end = child(cur, InternalNode.END);
+                if (end != FLY) {
+                    out.append("\nsequence: ").append(decode(end));
+                }
+                top--;
+            }
+        }
+    }
+
+    private boolean isLeaf(int ref) {
+        return (image.get(ref) & INTERNAL) == 0;
+    }
+
+    private boolean isInternal(int node, int slot) {
+        return (image.get(node + 1) & (1 << slot)) != 0;
+    }
+
+    /**
+     * @param node - the offset of an internal node
+     * @param slot - a slot index, or -1 for no slot
+     * @return the offset of the child in that slot, or FLY
+     */
+    private int child(int node, int slot) {
+        int occupied = image.get(node) & 0x1F;
+        if (slot < 0 || (occupied & (1 << slot)) == 0) {
+            return FLY;
+        }
+        return image.getInt(node + 2 + 4 * Integer.bitCount(occupied & ((1 << slot) - 1)));
+    }
+
+    private int leafLength(int ref) {
+        return image.getInt(ref + 1);
+    }
+
+    private int leafCode(int ref, int i) {
+        return (image.get(ref + LEAF_BASES + (i >> 2)) >>> (6 - 2 * (i & 3))) & 3;
+    }
+
+    private boolean leafEquals(int ref, String word) {
+        return leafLength(ref) == word.length() && leafStartsWith(ref, word);
+    }
+
+    private boolean leafStartsWith(int ref, String word) {
+        if (word.length() > leafLength(ref)) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (leafCode(ref, i) != PackedSequence.code(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int ref) {
+        char[] chars = new char[leafLength(ref)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = PackedSequence.base(leafCode(ref, i));
+        }
+        return new String(chars);
+    }
+
+    private PackedSequence packed(int ref) {
+        return PackedSequence.readFrom(image, ref + LEAF_BASES, leafLength(ref));
+    }
+}
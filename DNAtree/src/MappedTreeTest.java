@@ -0,0 +1,99 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedTreeTest {
+
+    private static MappedTree reload(Tree tree) throws IOException {
+        Path file = Files.createTempFile("tree", ".snap");
+        file.toFile().deleteOnExit();
+        tree.save(file);
+        return MappedTree.open(file);
+    }
+
+    @Test
+    public void testServesFromImage() throws IOException {
+        Random random = new Random(15);
+        Tree expected = new Tree();
+        List<String> inserted = new ArrayList<String>();
+        String[] prefixes = {"", "A", "AC", "ACGTACGTACGTACGTACGTACGTACGTACGTAC", "T"};
+        for (int op = 0; op < 3000; op++) {
+            String prefix = prefixes[random.nextInt(prefixes.length)];
+            String seq = TreeTesting.randomSequence(random, prefix, 40);
+            if (random.nextInt(4) > 0 || inserted.isEmpty()) {
+                expected.insert(seq);
+                inserted.add(seq);
+            }
+            else {
+                expected.remove(inserted.get(random.nextInt(inserted.size())));
+            }
+        }
+        MappedTree actual = reload(expected);
+        TreeTesting.assertPrintsMatch(expected, actual);
+        for (int q = 0; q < 500; q++) {
+            String query = inserted.get(random.nextInt(inserted.size())) + "G";
+            query = query.substring(0, 1 + random.nextInt(query.length()));
+            if (random.nextBoolean()) {
+                query += "$";
+            }
+            assertEquals(query, expected.search(query), actual.search(query));
+        }
+        assertTrue(actual.isMapped());
+
+        String seq = "GATTACA";
+        assertEquals(expected.insert(seq), actual.insert(seq));
+        assertFalse(actual.isMapped());
+        assertEquals(expected.print(false, true), actual.print(false, true));
+        assertEquals(expected.search("G"), actual.search("G"));
+        assertEquals(expected.remove(seq), actual.remove(seq));
+        assertArrayEquals(expected.composition("A"), actual.composition("A"));
+    }
+
+    @Test
+    public void testSmallTrees() throws IOException {
+        Tree tree = new Tree();
+        MappedTree empty = reload(tree);
+        assertEquals("E", empty.print(false, false));
+        assertEquals("no sequence found\n", empty.search("A"));
+
+        tree.insert("ACGTACGTACGTACGTACGTACGTACGTACGTACGT");
+        MappedTree single = reload(tree);
+        assertEquals(tree.print(true, false), single.print(true, false));
+        assertEquals(tree.search("ACG"), single.search("ACG"));
+        assertEquals(-1, single.insert("ACGTACGTACGTACGTACGTACGTACGTACGTACGT"));
+        assertEquals(1, single.insert("T"));
+    }
+
+    @Test
+    public void testRejectsCorruptSnapshot() throws IOException {
+        Tree tree = new Tree();
+        tree.insert("ACGT");
+        tree.insert("AAAA");
+        Path file = Files.createTempFile("tree", ".snap");
+        file.toFile().deleteOnExit();
+        tree.save(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        try {
+            MappedTree.open(file);
+            fail("corrupt snapshot opened");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        Files.write(file, new byte[] {1, 2, 3});
+        try {
+            MappedTree.open(file);
+            fail("short file opened");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not a tree snapshot"));
+        }
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of inserts and removes, written with group
+ * commit: append only copies an entry into a buffer, and a background
+ * thread writes out and fsyncs everything buffered once per interval,
+ * so one fsync covers however many entries came in meanwhile.  sync
+ * does the same at once for a caller that must know its entries are
+ * on disk.
+ *
+ * Each entry is a CRC32 of the rest of the entry, its log sequence
+ * number (LSN), the operation, the sequence length and the bases
+ * packed 2 bits each.  LSNs go up by one per entry, so a reader can
+ * tell a torn or missing entry from the end of the log.
+ */
+class OperationLog implements Closeable {
+    static final byte INSERT = 0;
+    static final byte REMOVE = 1;
+    /**
+     * crc, lsn, operation and length, ahead of the packed bases.
+     */
+    static final int ENTRY_HEADER = 4 + 8 + 1 + 4;
+
+    private final long syncMillis;
+    private final Object flushLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    private FileChannel channel;
+    /**
+     * Entries appended since the last flush.  A flush swaps it with
+     * writing, so appends carry on while the disk is busy.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+    private long lastLsn;
+    private long durableLsn;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * @param segment - the file to append to, created or emptied
+     * @param lastLsn - the LSN of the last entry already in the log
+     * @param syncMillis - how often buffered entries are written out
+     *        and fsynced
+     * @throws IOException if the file cannot be opened
+     */
+    OperationLog(Path segment, long lastLsn, long syncMillis) throws IOException {
+        this.channel = open(segment);
+        this.lastLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.syncMillis = syncMillis;
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                flushLoop();
+            }
+        }, "operation-log");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Buffers one entry.  It is on disk once the next flush is done.
+     *
+     * @param operation - INSERT or REMOVE
+     * @param sequence - the sequence inserted or removed
+     * @return the entry's LSN
+     * @throws UncheckedIOException if an earlier flush failed
+     */
+    synchronized long append(byte operation, PackedSequence sequence) {
+        if (failure != null) {
+            throw new UncheckedIOException("operation log failed", failure);
+        }
+        int size = ENTRY_HEADER + (sequence.length() + 3) / 4;
+        if (pending.remaining() < size) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                pending.position() + size));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        int start = pending.position();
+        pending.position(start + 4);
+        pending.putLong(++lastLsn);
+        pending.put(operation);
+        pending.putInt(sequence.length());
+        sequence.writeTo(pending);
+        crc.reset();
+        crc.update(pending.array(), start + 4, size - 4);
+        pending.putInt(start, (int) crc.getValue());
+        return lastLsn;
+    }
+
+    /**
+     * @return the LSN of the last entry appended
+     */
+    synchronized long lastLsn() {
+        return lastLsn;
+    }
+
+    /**
+     * @return the LSN of the last entry known to be on disk
+     */
+    synchronized long durableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Writes out and fsyncs everything appended so far.
+     *
+     * @throws IOException if the write or fsync fails
+     */
+    void sync() throws IOException {
+        synchronized (flushLock) {
+            long lsn;
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                lsn = lastLsn;
+            }
+            writing.flip();
+            try {
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                }
+                throw e;
+            } finally {
+                writing.clear();
+            }
+            synchronized (this) {
+                durableLsn = lsn;
+            }
+        }
+    }
+
+    /**
+     * Syncs, then carries on in a new file, so the old ones can be
+     * deleted once a snapshot covers them.
+     *
+     * @param segment - the new file
+     * @throws IOException if the old file cannot be synced or closed,
+     *         or the new one opened
+     */
+    void rotate(Path segment) throws IOException {
+        synchronized (flushLock) {
+            sync();
+            channel.close();
+            channel = open(segment);
+        }
+    }
+
+    /**
+     * Syncs and stops the background thread.
+     *
+     * @throws IOException if the last sync fails
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (flushLock) {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the entries of one log file in order.  In the newest file,
+     * an entry cut short by the end of the file, or a last whole entry
+     * that fails its checksum, is a write torn by a crash: reading
+     * stops there and the file is truncated, so it never stands in
+     * front of later appends.  Any other bad entry is damage a crash
+     * cannot cause, and is reported rather than cut off along with
+     * every good entry after it.  The file is read through the channel
+     * rather than mapped, so nothing maps it when it is truncated.
+     *
+     * @param segment - the file to read
+     * @param newest - whether this is the file being appended to at
+     *        the crash, the only one that can have a torn tail
+     * @param visitor - called with each good entry
+     * @return the LSN of the last good entry, or -1 if there was none
+     * @throws IOException if the file cannot be read, or has a bad
+     *         entry that is not a torn tail
+     */
+    static long read(Path segment, boolean newest, Visitor visitor) throws IOException {
+        long last = -1;
+        long pos = 0;
+        long size;
+        try (FileChannel file = FileChannel.open(segment, StandardOpenOption.READ)) {
+            size = file.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(segment + " is too large");
+            }
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            buf.limit(0);
+            CRC32 check = new CRC32();
+            while (size - pos >= ENTRY_HEADER) {
+                buf = fill(file, buf, ENTRY_HEADER);
+                int length = buf.getInt(buf.position() + 13);
+                if (length < 0) {
+                    throw damaged(segment, pos);
+                }
+                long end = pos + ENTRY_HEADER + (length + 3L) / 4;
+                if (end > size) {
+                    break;
+                }
+                buf = fill(file, buf, (int) (end - pos));
+                int start = buf.position();
+                ByteBuffer entry = buf.duplicate();
+                entry.position(start + 4).limit(start + (int) (end - pos));
+                check.reset();
+                check.update(entry);
+                if ((int) check.getValue() != buf.getInt(start)) {
+                    if (wholeEntryAt(file, end, size)) {
+                        throw damaged(segment, pos);
+                    }
+                    break;
+                }
+                last = buf.getLong(start + 4);
+                visitor.visit(last, buf.get(start + 12),
+                    PackedSequence.readFrom(buf, start + ENTRY_HEADER, length));
+                buf.position(start + (int) (end - pos));
+                pos = end;
+            }
+        }
+        if (pos < size) {
+            if (!newest) {
+                throw damaged(segment, pos);
+            }
+            try (FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                file.truncate(pos);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Makes sure buf has at least need bytes from its position on,
+     * reading more of the file in after what it still holds.
+     *
+     * @return buf, or a bigger buffer if buf cannot hold need bytes
+     */
+    private static ByteBuffer fill(FileChannel file, ByteBuffer buf, int need)
+        throws IOException {
+        if (buf.remaining() >= need) {
+            return buf;
+        }
+        if (buf.capacity() < need) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(need, buf.capacity() * 2));
+            bigger.put(buf);
+            buf = bigger;
+        }
+        else {
+            buf.compact();
+        }
+        while (buf.position() < need) {
+            if (file.read(buf) < 0) {
+                throw new IOException("log file shrank while being read");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @return whether a whole entry fits between pos and the end of the
+     *         file, so an entry before it cannot be the last one written
+     */
+    private static boolean wholeEntryAt(FileChannel file, long pos, long size)
+        throws IOException {
+        if (size - pos < ENTRY_HEADER) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER);
+        while (header.hasRemaining()) {
+            if (file.read(header, pos + header.position()) < 0) {
+                return false;
+            }
+        }
+        int length = header.getInt(13);
+        return length >= 0 && pos + ENTRY_HEADER + (length + 3L) / 4 <= size;
+    }
+
+    private static IOException damaged(Path segment, long pos) {
+        return new IOException("damaged log entry at byte " + pos + " of " + segment);
+    }
+
+    /**
+     * Receives the entries read back from a log.
+     */
+    interface Visitor {
+        /**
+         * @param lsn - the entry's LSN
+         * @param operation - INSERT or REMOVE
+         * @param sequence - the sequence inserted or removed
+         * @throws IOException if the entry cannot be applied
+         */
+        void visit(long lsn, byte operation, PackedSequence sequence) throws IOException;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    wait(syncMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                sync();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private static FileChannel open(Path segment) throws IOException {
+        return FileChannel.open(segment, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,294 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A sequence of A, C, G and T stored 2 bits a base, 32 to a long,
+ * first base in the most significant bits.  With that layout comparing
+ * the words as unsigned numbers gives the same order as comparing the
+ * strings.
+ */
+public class PackedSequence implements Comparable<PackedSequence> {
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final byte[] CODES = new byte[128];
+    private static final int PER_WORD = 32;
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int i = 0; i < BASES.length; i++) {
+            CODES[BASES[i]] = (byte) i;
+        }
+    }
+
+    private final long[] words;
+    private final int length;
+
+    /**
+     * @param words - the packed bases
+     * @param length - the number of bases held in words
+     */
+    PackedSequence(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+    }
+
+    /**
+     * Packs a sequence of A/C/G/T characters.
+     *
+     * @param sequence - the bases to pack
+     * @return the packed sequence
+     * @throws IllegalArgumentException if sequence holds any other character
+     */
+    public static PackedSequence of(CharSequence sequence) {
+        int length = sequence.length();
+        long[] words = new long[wordCount(length)];
+        for (int i = 0; i < length; i++) {
+            int code = code(sequence.charAt(i));
+            if (code < 0) {
+                throw new IllegalArgumentException("invalid base '"
+                    + sequence.charAt(i) + "' in " + sequence);
+            }
+            words[i / PER_WORD] |= (long) code << shift(i);
+        }
+        return new PackedSequence(words, length);
+    }
+
+    /**
+     * @param sequence - a sequence of characters
+     * @return whether every character is one of A, C, G and T, so the
+     *         sequence can be packed
+     */
+    public static boolean isValid(CharSequence sequence) {
+        for (int i = 0; i < sequence.length(); i++) {
+            if (code(sequence.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param base - a character
+     * @return the 2-bit code of the base, or -1 if it is not A/C/G/T
+     */
+    public static int code(char base) {
+        return base < CODES.length ? CODES[base] : -1;
+    }
+
+    /**
+     * @param code - a 2-bit base code
+     * @return the base character for the code
+     */
+    public static char base(int code) {
+        return BASES[code];
+    }
+
+    /**
+     * @return the number of bases in the sequence
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param i - the index of a base
+     * @return the 2-bit code of the base at i
+     */
+    public int codeAt(int i) {
+        return (int) (words[i / PER_WORD] >>> shift(i)) & 3;
+    }
+
+    /**
+     * @param i - the index of a base
+     * @return the base character at i
+     */
+    public char baseAt(int i) {
+        return BASES[codeAt(i)];
+    }
+
+    /**
+     * Counts one kind of base a word at a time: XOR with the code
+     * repeated across the word leaves zero pairs where it matches.
+     *
+     * @param code - the 2-bit code of the base to count
+     * @return how many times that base occurs
+     */
+    public int count(int code) {
+        long pattern = code * 0x5555555555555555L;
+        int sum = 0;
+        for (long word : words) {
+            long x = word ^ pattern;
+            sum += Long.bitCount(~(x | (x >>> 1)) & 0x5555555555555555L);
+        }
+        if (code == 0 && length % PER_WORD != 0) {
+            sum -= PER_WORD - length % PER_WORD;
+        }
+        return sum;
+    }
+
+    /**
+     * Compares against a character sequence base by base
+     * without decoding this sequence.
+     *
+     * @param other - the characters to compare against
+     * @return if other holds exactly the same bases
+     */
+    public boolean contentEquals(CharSequence other) {
+        return other.length() == length && matches(other);
+    }
+
+    /**
+     * @param prefix - the characters to look for
+     * @return if this sequence begins with prefix
+     */
+    public boolean startsWith(CharSequence prefix) {
+        return prefix.length() <= length && matches(prefix);
+    }
+
+    /**
+     * @param prefix - the packed bases to look for
+     * @return if this sequence begins with prefix
+     */
+    public boolean startsWith(PackedSequence prefix) {
+        if (prefix.length > length) {
+            return false;
+        }
+        int full = prefix.length / PER_WORD;
+        for (int w = 0; w < full; w++) {
+            if (words[w] != prefix.words[w]) {
+                return false;
+            }
+        }
+        int rest = prefix.length % PER_WORD;
+        if (rest == 0) {
+            return true;
+        }
+        long mask = -1L << (64 - 2 * rest);
+        return (words[full] & mask) == prefix.words[full];
+    }
+
+    /**
+     * @param other - another sequence
+     * @return how many leading bases the two sequences share
+     */
+    public int sharedPrefix(PackedSequence other) {
+        int n = Math.min(length, other.length);
+        for (int w = 0; w * PER_WORD < n; w++) {
+            long diff = words[w] ^ other.words[w];
+            if (diff != 0) {
+                return Math.min(n, w * PER_WORD + Long.numberOfLeadingZeros(diff) / 2);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes the bases 4 to a byte, first base in the top bits, at the
+     * buffer's position.  The buffer must be big endian.
+     *
+     * @param buf - where the (length + 3) / 4 bytes are written
+     */
+    void writeTo(ByteBuffer buf) {
+        int bytes = (length + 3) / 4;
+        for (int w = 0; w * 8 < bytes; w++) {
+            int n = Math.min(8, bytes - w * 8);
+            if (n == 8) {
+                buf.putLong(words[w]);
+                continue;
+            }
+            for (int b = 0; b < n; b++) {
+                buf.put((byte) (words[w] >>> (56 - 8 * b)));
+            }
+        }
+    }
+
+    /**
+     * Reads bases written by writeTo.
+     *
+     * @param buf - a buffer holding the bytes, in either byte order
+     * @param offset - where the bytes start
+     * @param length - the number of bases
+     * @return the packed sequence
+     */
+    static PackedSequence readFrom(ByteBuffer buf, int offset, int length) {
+        int bytes = (length + 3) / 4;
+        boolean swap = buf.order() != ByteOrder.BIG_ENDIAN;
+        long[] words = new long[wordCount(length)];
+        for (int w = 0; w < words.length; w++) {
+            int n = Math.min(8, bytes - w * 8);
+            if (n == 8) {
+                long word = buf.getLong(offset + 8 * w);
+                words[w] = swap ? Long.reverseBytes(word) : word;
+                continue;
+            }
+            long word = 0;
+            for (int b = 0; b < n; b++) {
+                word |= (buf.get(offset + 8 * w + b) & 0xFFL) << (56 - 8 * b);
+            }
+            words[w] = word;
+        }
+        return new PackedSequence(words, length);
+    }
+
+    /**
+     * @return the bases decoded into a String
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = baseAt(i);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PackedSequence)) {
+            return false;
+        }
+        PackedSequence other = (PackedSequence) o;
+        return length == other.length && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * length + Arrays.hashCode(words);
+    }
+
+    /**
+     * Orders sequences the way String.compareTo orders their bases,
+     * with a sequence sorting before any longer sequence it prefixes.
+     */
+    @Override
+    public int compareTo(PackedSequence other) {
+        int n = Math.min(words.length, other.words.length);
+        for (int w = 0; w < n; w++) {
+            if (words[w] != other.words[w]) {
+                return Long.compareUnsigned(words[w], other.words[w]);
+            }
+        }
+        return Integer.compare(length, other.length);
+    }
+
+    private boolean matches(CharSequence other) {
+        int n = other.length();
+        for (int i = 0; i < n; i++) {
+            if (code(other.charAt(i)) != codeAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int wordCount(int length) {
+        return (length + PER_WORD - 1) / PER_WORD;
+    }
+
+    private static int shift(int i) {
+        return 62 - 2 * (i % PER_WORD);
+    }
+}
@@ -0,0 +1,97 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PackedSequenceTest {
+
+    @Test
+    public void testRoundTrip() {
+        String seq = "ACGTTGCAACGTTGCAACGTTGCAACGTTGCAG";
+        PackedSequence packed = PackedSequence.of(seq);
+        assertEquals(33, packed.length());
+        assertEquals(seq, packed.toString());
+        assertEquals('G', packed.baseAt(32));
+        assertEquals("", PackedSequence.of("").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBase() {
+        PackedSequence.of("ACNT");
+    }
+
+    @Test
+    public void testEqualsAndPrefix() {
+        PackedSequence aa = PackedSequence.of("AA");
+        assertEquals(aa, PackedSequence.of("AA"));
+        assertNotEquals(aa, PackedSequence.of("AAA"));
+        assertEquals(aa.hashCode(), PackedSequence.of("AA").hashCode());
+        assertTrue(aa.contentEquals("AA"));
+        assertFalse(aa.contentEquals("AAA"));
+        assertTrue(aa.startsWith("A"));
+        assertFalse(aa.startsWith("AAA"));
+        assertFalse(aa.startsWith("AN"));
+        assertTrue(PackedSequence.of("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAC")
+            .startsWith(PackedSequence.of("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA")));
+        assertFalse(PackedSequence.of("ACG").startsWith(PackedSequence.of("AG")));
+    }
+
+    @Test
+    public void testCompareToMatchesString() {
+        String[] seqs = {"", "A", "AA", "AAAA", "AC", "ACGT", "T", "TA",
+            "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"};
+        for (String a : seqs) {
+            for (String b : seqs) {
+                assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)),
+                    Integer.signum(PackedSequence.of(a).compareTo(PackedSequence.of(b))));
+            }
+        }
+    }
+
+    @Test
+    public void testSharedPrefix() {
+        String[] seqs = {"", "A", "AA", "AC", "ACGT", "T", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+            "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAC"};
+        for (String a : seqs) {
+            for (String b : seqs) {
+                int shared = 0;
+                while (shared < Math.min(a.length(), b.length())
+                    && a.charAt(shared) == b.charAt(shared)) {
+                    shared++;
+                }
+                assertEquals(a + " vs " + b, shared,
+                    PackedSequence.of(a).sharedPrefix(PackedSequence.of(b)));
+            }
+        }
+    }
+
+    @Test
+    public void testCount() {
+        String seq = "AACGTTTGCAACGTTGCAACGTTGCAACGTTGCAGTA";
+        PackedSequence packed = PackedSequence.of(seq);
+        for (int code = 0; code < 4; code++) {
+            int expected = 0;
+            for (char c : seq.toCharArray()) {
+                if (c == PackedSequence.base(code)) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, packed.count(code));
+        }
+        assertEquals(0, PackedSequence.of("").count(0));
+    }
+
+    @Test
+    public void testReadFromEitherByteOrder() {
+        String seq = "ACGTTGCAACGTTGCAACGTTGCAACGTTGCAGTA";
+        PackedSequence packed = PackedSequence.of(seq);
+        ByteBuffer buf = ByteBuffer.allocate(3 + (seq.length() + 3) / 4);
+        buf.position(3);
+        packed.writeTo(buf);
+        assertEquals(packed, PackedSequence.readFrom(buf, 3, seq.length()));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(packed, PackedSequence.readFrom(buf, 3, seq.length()));
+    }
+}
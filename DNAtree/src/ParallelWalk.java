@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders the print and prefix listings of a Tree on a ForkJoinPool.
+ * The first few levels below the starting node are split into one task
+ * per child slot, and each task renders its subtree into its own buffer.
+ * The buffers are kept in slot order, so writing them out one after
+ * another gives exactly the single threaded output.
+ */
+class ParallelWalk {
+
+    /**
+     * One rendered piece of output: this node's own text, followed
+     * by the pieces for its child slots in order.
+     */
+    static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+        private final int level;
+        private final int split;
+        private final boolean listing;
+        private final boolean lengths;
+        private final boolean stats;
+        private final StringBuilder text = new StringBuilder();
+        private Chunk[] parts;
+        private int visited;
+
+        Chunk(Node node, int level, int split, boolean listing, boolean lengths, boolean stats) {
+            this.node = node;
+            this.level = level;
+            this.split = split;
+            this.listing = listing;
+            this.lengths = lengths;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (listing) {
+                    list();
+                }
+                else {
+                    print();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return the nodes a prefix search visits in this piece
+         */
+        int visited() {
+            return visited;
+        }
+
+        /**
+         * Writes this piece and everything below it, in order.
+         *
+         * @param out - where the output is written
+         * @throws IOException if out fails
+         */
+        void writeTo(Appendable out) throws IOException {
+            out.append(text);
+            if (parts != null) {
+                for (Chunk part : parts) {
+                    part.writeTo(out);
+                }
+            }
+        }
+
+        private void print() throws IOException {
+            if (split == 0 || !(node instanceof InternalNode)) {
+                Tree.print(text, lengths, stats, node, level);
+                return;
+            }
+            Tree.printNode(text, lengths, stats, node, level);
+            InternalNode internal = (InternalNode) node;
+            parts = new Chunk[InternalNode.SLOTS];
+            for (int i = 0; i < parts.length; i++) {
+                Node child = internal.getChild(i);
+                int childLevel = child instanceof FlyweightNode ? level + 1 : child.getLevel();
+                parts[i] = new Chunk(child, childLevel, split - 1, false, lengths, stats);
+            }
+            invokeAll(parts);
+        }
+
+        private void list() throws IOException {
+            if (node instanceof LeafNode) {
+                text.append("\nsequence: ").append(((LeafNode) node).getSequence());
+                return;
+            }
+            if (!(node instanceof InternalNode)) {
+                return;
+            }
+            InternalNode internal = (InternalNode) node;
+            if (split == 0) {
+                visited = Tree.countAll(internal);
+                Tree.printAll(text, internal);
+                return;
+            }
+            visited = 2;
+            parts = new Chunk[InternalNode.SLOTS];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new Chunk(internal.getChild(i), 0, split - 1, true, false, false);
+            }
+            invokeAll(parts);
+            for (int i = 0; i < InternalNode.END; i++) {
+                visited += parts[i].node instanceof InternalNode ? parts[i].visited : 1;
+            }
+        }
+    }
+
+    private ParallelWalk() {
+    }
+
+    /**
+     * Renders the print of a subtree.
+     *
+     * @param pool - the pool to render on
+     * @param root - the first node to print
+     * @param lengths - printed sequence lengths
+     * @param stats - printed sequence statistics
+     * @return the rendered output
+     */
+    static Chunk print(ForkJoinPool pool, Node root, boolean lengths, boolean stats) {
+        Chunk chunk = new Chunk(root, root.getLevel(), splitLevels(pool), false, lengths, stats);
+        pool.invoke(chunk);
+        return chunk;
+    }
+
+    /**
+     * Renders the "sequence:" lines for every sequence below a node,
+     * along with the number of nodes a prefix search visits there.
+     *
+     * @param pool - the pool to render on
+     * @param node - the node the prefix search ended on
+     * @return the rendered output
+     */
+    static Chunk printAll(ForkJoinPool pool, InternalNode node) {
+        Chunk chunk = new Chunk(node, node.getLevel(), splitLevels(pool), true, false, false);
+        pool.invoke(chunk);
+        return chunk;
+    }
+
+    /**
+     * Splits deep enough that there are a few tasks per thread even
+     * though many slots near the root are empty or hold a single leaf.
+     */
+    private static int splitLevels(ForkJoinPool pool) {
+        int levels = 1;
+        long tasks = InternalNode.SLOTS;
+        while (tasks < 4L * pool.getParallelism()) {
+            tasks *= InternalNode.SLOTS;
+            levels++;
+        }
+        return levels;
+    }
+}
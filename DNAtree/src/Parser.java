@@ -0,0 +1,187 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+
+public class Parser {
+    private File file;
+    private Tree tree;
+
+    /**
+     * Creates a parser that will run the commands in the given file
+     * against the given tree.
+     *
+     * @param file - the command file
+     * @param tree - the tree the commands operate on
+     */
+    public Parser(File file, Tree tree) {
+        this.file = file;
+        this.tree = tree;
+    }
+
+    /**
+     * Reads every command in the file and prints the result of each
+     * one to standard output.  With more than one core, reading,
+     * running and writing overlap through a CommandPipeline; on one,
+     * handing commands between its threads only costs time.
+     *
+     * @throws FileNotFoundException if the command file does not exist
+     */
+    public void execute() throws FileNotFoundException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out), 1 << 16));
+        try (CommandReader reader = new CommandReader(
+                new FileInputStream(file).getChannel())) {
+            if (Runtime.getRuntime().availableProcessors() > 1) {
+                new CommandPipeline(tree).execute(reader, out);
+            }
+            else {
+                execute(reader, out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Runs commands from a reader until it is exhausted.
+     *
+     * @param reader - the source of commands
+     * @param out - where command results are written
+     * @throws IOException if reading the commands fails
+     */
+    public void execute(CommandReader reader, PrintWriter out) throws IOException {
+        int verb;
+        while ((verb = reader.next()) != CommandReader.EOF) {
+            execute(verb, reader, out);
+        }
+    }
+
+    /**
+     * Runs the single command the reader is positioned on.
+     *
+     * @param verb - the verb code returned by the reader
+     * @param reader - the reader holding the command's argument
+     * @param out - where the result is written
+     * @throws IOException if writing the result fails
+     */
+    public void execute(int verb, CommandReader reader, PrintWriter out) throws IOException {
+        execute(verb, reader.argument(), out);
+    }
+
+    /**
+     * Runs one command whose argument has already been read.
+     *
+     * @param verb - the verb code, as CommandReader returns it
+     * @param argument - the command's argument, empty if it has none
+     * @param out - where the result is written
+     * @throws IOException if writing the result fails
+     */
+    public void execute(int verb, String argument, PrintWriter out) throws IOException {
+        switch (verb) {
+            case CommandReader.INSERT:
+                if (argument.isEmpty()) {
+                    printMissing(out, "insert");
+                }
+                else if (PackedSequence.isValid(argument)) {
+                    printInserted(out, argument, tree.insert(argument));
+                }
+                else {
+                    printInvalid(out, argument);
+                }
+                break;
+            case CommandReader.REMOVE:
+                if (argument.isEmpty()) {
+                    printMissing(out, "remove");
+                }
+                else {
+                    printRemoved(out, argument, tree.remove(argument));
+                }
+                break;
+            case CommandReader.PRINT:
+                out.print("tree dump:");
+                tree.print(out, argument.equals("lengths"), argument.equals("stats"));
+                out.println();
+                break;
+            case CommandReader.SEARCH:
+                if (argument.isEmpty()) {
+                    printMissing(out, "search");
+                }
+                else {
+                    tree.search(out, argument);
+                }
+                break;
+            case CommandReader.METRICS:
+                if (tree.getMetrics() == null) {
+                    out.println("metrics are off");
+                }
+                else {
+                    out.println("metrics:");
+                    tree.getMetrics().report(out, tree);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes the result of an insert.
+     *
+     * @param out - where the result is written
+     * @param sequence - the sequence inserted
+     * @param level - what insert returned
+     */
+    static void printInserted(PrintWriter out, String sequence, int level) {
+        if (level < 0) {
+            out.println("sequence " + sequence + " already exists");
+        }
+        else {
+            out.println("sequence " + sequence + " inserted at level " + level);
+        }
+    }
+
+    /**
+     * Writes why a sequence with something other than A, C, G and T in
+     * it was not inserted.
+     *
+     * @param out - where the message is written
+     * @param sequence - the sequence given
+     */
+    static void printInvalid(PrintWriter out, String sequence) {
+        out.println("sequence " + sequence + " is invalid");
+    }
+
+    /**
+     * Writes why an insert, remove or search line with nothing after
+     * the verb was not run.
+     *
+     * @param out - where the message is written
+     * @param verb - the command's verb
+     */
+    static void printMissing(PrintWriter out, String verb) {
+        out.println(verb + " needs a sequence");
+    }
+
+    /**
+     * Writes the result of a remove.
+     *
+     * @param out - where the result is written
+     * @param sequence - the sequence removed
+     * @param removed - what remove returned
+     */
+    static void printRemoved(PrintWriter out, String sequence, boolean removed) {
+        if (removed) {
+            out.println("sequence " + sequence + " removed");
+        }
+        else {
+            out.println("sequence " + sequence + " does not exist");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Searches with a query that may hold IUPAC ambiguity codes, such as
+ * N for any base or R for A or G.  Where the query is ambiguous the
+ * walk goes down every child slot in the code's bitmask, so all the
+ * compatible branches are covered in one pass instead of one search
+ * per concrete query.
+ *
+ * Results and visit counts follow search: a query ending in $ must
+ * match a whole sequence, otherwise it matches as a prefix, and every
+ * node looked at counts once.  For a query without ambiguity codes the
+ * output is exactly that of Tree.search.  A compressed chain counts
+ * as one node, or, for a tree that counts chain levels, as every
+ * level it stands for, with the slots the plain tree would look at
+ * on each.
+ */
+class PatternSearch {
+    private final String pattern;
+    private final boolean exact;
+    private final boolean chainLevels;
+    private int visited;
+    /**
+     * Matching leaves, and internal nodes whose whole subtree
+     * matches, in tree order.
+     */
+    private final List<Node> matches = new ArrayList<Node>();
+
+    private PatternSearch(String query, boolean chainLevels) {
+        exact = query.endsWith("$");
+        pattern = exact ? query.substring(0, query.length() - 1) : query;
+        this.chainLevels = chainLevels;
+    }
+
+    /**
+     * @param query - a search query
+     * @return if the query holds any ambiguity code
+     */
+    static boolean isPattern(String query) {
+        for (int i = 0; i < query.length(); i++) {
+            if (Integer.bitCount(InternalNode.mask(query.charAt(i))) > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs a pattern search and writes the results like search does.
+     *
+     * @param out - where the results are written
+     * @param root - the root of the tree to search
+     * @param query - the pattern, ending in $ for whole-sequence matches
+     * @param chainLevels - count every level of a compressed chain
+     * @throws IOException if out fails
+     */
+    static void search(Appendable out, Node root, String query, boolean chainLevels)
+        throws IOException {
+        if (root instanceof FlyweightNode) {
+            out.append("no sequence found\n");
+            return;
+        }
+        PatternSearch search = new PatternSearch(query, chainLevels);
+        search.visited = 1;
+        if (root instanceof LeafNode) {
+            search.checkLeaf((LeafNode) root, 0);
+        }
+        else {
+            search.walk((InternalNode) root);
+        }
+        out.append("# of nodes visited: ").append(Integer.toString(search.visited));
+        if (search.matches.isEmpty()) {
+            out.append("\nno sequence found");
+        }
+        for (Node match : search.matches) {
+            if (match instanceof LeafNode) {
+                out.append("\nsequence: ").append(((LeafNode) match).getSequence());
+            }
+            else {
+                Tree.printAll(out, (InternalNode) match);
+            }
+        }
+        out.append('\n');
+    }
+
+    private void walk(InternalNode root) {
+        InternalNode[] nodes = new InternalNode[64];
+        int[] next = new int[64];
+        int[] branch = new int[64];
+        int top = -1;
+        InternalNode enter = root;
+        while (true) {
+            if (enter != null) {
+                int pos = enter(enter);
+                if (pos >= 0) {
+                    top++;
+                    if (top == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, top * 2);
+                        next = Arrays.copyOf(next, top * 2);
+                        branch = Arrays.copyOf(branch, top * 2);
+                    }
+                    nodes[top] = enter;
+                    next[top] = 0;
+                    branch[top] = pos;
+                }
+                enter = null;
+            }
+            if (top < 0) {
+                return;
+            }
+            int pos = branch[top];
+            int mask = InternalNode.mask(pattern.charAt(pos)) >>> next[top];
+            if (mask == 0) {
+                nodes[top--] = null;
+                continue;
+            }
+            int i = next[top] + Integer.numberOfTrailingZeros(mask);
+            next[top] = i + 1;
+            Node child = nodes[top].getChild(i);
+            visited++;
+            if (child instanceof InternalNode) {
+                enter = (InternalNode) child;
+            }
+            else if (child instanceof LeafNode) {
+                checkLeaf((LeafNode) child, pos + 1);
+            }
+        }
+    }
+
+    /**
+     * Checks a node's chain against the pattern and deals with a
+     * pattern that runs out at the node.
+     *
+     * @param node - the internal node being entered
+     * @return the level whose base picks its child slots, or -1 if
+     *         there is nothing more to do below it
+     */
+    private int enter(InternalNode node) {
+        int level = node.getLevel();
+        int end = node instanceof CompressedNode ? ((CompressedNode) node).getBranchLevel() : level;
+        if (end > level) {
+            PackedSequence label = ((CompressedNode) node).anyLeaf().getPacked();
+            for (int pos = level; pos < end && pos < pattern.length(); pos++) {
+                int mask = InternalNode.mask(pattern.charAt(pos));
+                if (chainLevels) {
+                    // The plain tree's node at this level has only
+                    // flyweights beside the chain's next level.
+                    visited += mask == 0 ? 1 : Integer.bitCount(mask);
+                }
+                if ((mask & (1 << label.codeAt(pos))) == 0) {
+                    if (!chainLevels) {
+                        visited++;
+                    }
+                    return -1;
+                }
+            }
+        }
+        if (end < pattern.length()) {
+            if (InternalNode.mask(pattern.charAt(end)) == 0) {
+                visited++;
+            }
+            return end;
+        }
+        if (exact) {
+            visited++;
+            Node last = end == pattern.length() ? node.getChild(InternalNode.END) : null;
+            if (last instanceof LeafNode) {
+                matches.add(last);
+            }
+        }
+        else if (chainLevels && node instanceof CompressedNode) {
+            // Less the levels of the chain above where the pattern ends.
+            int skipped = Math.min(end, pattern.length()) - level;
+            visited += CompressedTree.countAll((CompressedNode) node, true)
+                - CompressedTree.CHAIN_VISITS * skipped - 1;
+            matches.add(node);
+        }
+        else {
+            visited += Tree.countAll(node) - 1;
+            matches.add(node);
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the bases of a leaf the walk has not already matched.
+     */
+    private void checkLeaf(LeafNode leaf, int from) {
+        PackedSequence sequence = leaf.getPacked();
+        int length = pattern.length();
+        if (sequence.length() < length || (exact && sequence.length() != length)) {
+            return;
+        }
+        for (int pos = from; pos < length; pos++) {
+            if ((InternalNode.mask(pattern.charAt(pos)) & (1 << sequence.codeAt(pos))) == 0) {
+                return;
+            }
+        }
+        matches.add(leaf);
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PatternSearchTest {
+
+    private static final String CODES = "ACGTRYSWKMBDHVN";
+
+    private static boolean matches(String seq, String query) {
+        boolean exact = query.endsWith("$");
+        String pattern = exact ? query.substring(0, query.length() - 1) : query;
+        if (seq.length() < pattern.length() || (exact && seq.length() != pattern.length())) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            int code = PackedSequence.code(seq.charAt(i));
+            if ((InternalNode.mask(pattern.charAt(i)) & (1 << code)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String expected(List<String> all, String query) {
+        List<String> found = new ArrayList<String>();
+        for (String s : all) {
+            if (matches(s, query)) {
+                found.add(s);
+            }
+        }
+        Collections.sort(found, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return LeafIterator.compare(PackedSequence.of(a), PackedSequence.of(b));
+            }
+        });
+        StringBuilder text = new StringBuilder();
+        for (String s : found) {
+            text.append("\nsequence: ").append(s);
+        }
+        return found.isEmpty() ? "\nno sequence found\n" : text.append('\n').toString();
+    }
+
+    private static String body(String result) {
+        return result.substring(result.indexOf('\n'));
+    }
+
+    private static String pattern(Tree tree, String query) throws IOException {
+        StringBuilder out = new StringBuilder();
+        PatternSearch.search(out, tree.getRoot(), query, true);
+        return out.toString();
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(14);
+        Tree tree = new Tree();
+        CompressedTree compressed = new CompressedTree();
+        List<String> all = new ArrayList<String>();
+        for (int n = 0; n < 500; n++) {
+            String seq = (random.nextBoolean() ? "GATTACA" : "") + TreeTesting.random(random, 7);
+            if (tree.insert(seq) >= 0) {
+                compressed.insert(seq);
+                all.add(seq);
+            }
+        }
+        for (int q = 0; q < 200; q++) {
+            StringBuilder query = new StringBuilder();
+            int length = 1 + random.nextInt(9);
+            for (int i = 0; i < length; i++) {
+                query.append(CODES.charAt(random.nextInt(CODES.length())));
+            }
+            if (random.nextBoolean()) {
+                query.append('$');
+            }
+            String text = query.toString();
+            assertEquals(text, expected(all, text), body(tree.search(text)));
+            assertEquals(text, body(tree.search(text)), body(compressed.search(text)));
+        }
+    }
+
+    @Test
+    public void testConcreteQueriesMatchSearch() throws IOException {
+        Random random = new Random(41);
+        Tree tree = new Tree();
+        for (int n = 0; n < 300; n++) {
+            tree.insert(TreeTesting.random(random, 8));
+        }
+        for (int q = 0; q < 200; q++) {
+            String text = TreeTesting.random(random, 9);
+            if (random.nextBoolean()) {
+                text += "$";
+            }
+            assertEquals(text, tree.search(text), pattern(tree, text));
+        }
+    }
+
+    @Test
+    public void testCounts() {
+        Tree tree = new Tree();
+        assertEquals("no sequence found\n", tree.search("NA"));
+        tree.insert("ACGT");
+        tree.insert("AGGT");
+        tree.insert("TTTT");
+        // root, the A and T slots, then the C and G slots below A
+        assertEquals("# of nodes visited: 5\nsequence: ACGT\nsequence: AGGT\n",
+            tree.search("WSG"));
+        // root, its A, C, G and T slots, then the A slot below A
+        assertEquals("# of nodes visited: 6\nno sequence found\n", tree.search("NAAA$"));
+    }
+}
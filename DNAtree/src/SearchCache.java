@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Remembers search results, so a query asked again is answered
+ * without walking the tree or rendering the sequences again.  The
+ * least recently used results are dropped once there are more than
+ * a set number of them or they take more than a set number of
+ * bytes, taking a char as two bytes.  A result bigger than the
+ * whole budget is never kept.
+ *
+ * A tree tells its cache about each insert and remove that changed
+ * it, with the path down to the one child slot the change replaced.
+ * Only the results that looked at that slot are dropped: queries
+ * running through it or below it, and prefix queries above it,
+ * whose listing holds it.  A whole-sequence query above it only
+ * looked at a $ slot and stays.  Every query is kept in a sorted
+ * set as well as in use order, so both kinds are found by range
+ * and by lookup rather than by scanning every entry.
+ *
+ * The methods are synchronized, so a ConcurrentTree's searches can
+ * share one cache.
+ */
+public class SearchCache {
+    private static final int ENTRY_BYTES = 64;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, String> results =
+        new LinkedHashMap<String, String>(16, 0.75f, true);
+    private final TreeSet<String> queries = new TreeSet<String>();
+    private long bytes;
+    /**
+     * Goes up on each invalidation, so a result worked out across one
+     * is not stored.
+     */
+    private long stamp;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxEntries - the most results to keep
+     * @param maxBytes - the most memory the results may take
+     */
+    public SearchCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("cache limits must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Answers a query from the cache, or searches the tree and keeps
+     * the result.
+     *
+     * @param tree - the tree the cache belongs to
+     * @param out - where the result is written
+     * @param query - the keyword to look for
+     * @throws IOException if out fails
+     */
+    void search(Tree tree, Appendable out, String query) throws IOException {
+        String result;
+        long before;
+        synchronized (this) {
+            result = results.get(query);
+            if (result != null) {
+                hits++;
+            }
+            else {
+                misses++;
+            }
+            before = stamp;
+        }
+        if (result != null) {
+            out.append(result);
+            return;
+        }
+        Capture capture = new Capture(out, maxBytes / 2);
+        tree.search(capture, query, null);
+        if (capture.text != null) {
+            put(query, capture.text.toString(), before);
+        }
+    }
+
+    private synchronized void put(String query, String result, long before) {
+        if (before != stamp) {
+            return;
+        }
+        String old = results.put(query, result);
+        if (old != null) {
+            bytes -= size(query, old);
+        }
+        else {
+            queries.add(query);
+        }
+        bytes += size(query, result);
+        Iterator<Map.Entry<String, String>> lru = results.entrySet().iterator();
+        while (results.size() > maxEntries || bytes > maxBytes) {
+            Map.Entry<String, String> eldest = lru.next();
+            bytes -= size(eldest.getKey(), eldest.getValue());
+            queries.remove(eldest.getKey());
+            lru.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the results a change to a tree may have altered.
+     *
+     * @param path - the bases down to the child slot the change
+     *        replaced, the slot's own base last; or the whole sequence
+     *        when it was the $ slot of the node at its end.  null when
+     *        the root itself was replaced.
+     */
+    synchronized void invalidate(String path) {
+        stamp++;
+        if (path == null) {
+            clear();
+            return;
+        }
+        // Queries through or below the slot, $ ones included.
+        NavigableSet<String> below = queries.subSet(path, true, path + Character.MAX_VALUE, false);
+        for (Iterator<String> it = below.iterator(); it.hasNext(); ) {
+            drop(it.next());
+            it.remove();
+        }
+        // Prefix queries above it.
+        for (int i = 0; i < path.length(); i++) {
+            String above = path.substring(0, i);
+            if (queries.remove(above)) {
+                drop(above);
+            }
+        }
+    }
+
+    /**
+     * Drops every result.
+     */
+    synchronized void clear() {
+        stamp++;
+        invalidations += results.size();
+        results.clear();
+        queries.clear();
+        bytes = 0;
+    }
+
+    private void drop(String query) {
+        bytes -= size(query, results.remove(query));
+        invalidations++;
+    }
+
+    private static long size(String query, String result) {
+        return ENTRY_BYTES + 2L * (query.length() + result.length());
+    }
+
+    /**
+     * @return the searches answered from the cache
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the searches that had to walk the tree
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the results dropped to stay within the limits
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the results dropped because the tree changed
+     */
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the results held
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * @return the memory the held results take, by the cache's count
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Writes the counts on one line.
+     *
+     * @param out - where the counts are written
+     * @throws IOException if out fails
+     */
+    public void report(Appendable out) throws IOException {
+        long[] counts;
+        synchronized (this) {
+            counts = new long[] {hits, misses, evictions, invalidations, results.size(), bytes};
+        }
+        out.append("cache: hits ").append(Long.toString(counts[0]))
+            .append(" misses ").append(Long.toString(counts[1]))
+            .append(" evictions ").append(Long.toString(counts[2]))
+            .append(" invalidations ").append(Long.toString(counts[3]))
+            .append(" entries ").append(Long.toString(counts[4]))
+            .append(" bytes ").append(Long.toString(counts[5])).append('\n');
+    }
+
+    /**
+     * Passes a result through to the real output, keeping a copy
+     * until it grows past the limit.
+     */
+    private static final class Capture implements Appendable {
+        private final Appendable out;
+        private final long limit;
+        StringBuilder text = new StringBuilder();
+
+        Capture(Appendable out, long limit) {
+            this.out = out;
+            this.limit = limit;
+        }
+
+        public Appendable append(CharSequence s) throws IOException {
+            out.append(s);
+            if (text != null) {
+                text.append(s);
+                check();
+            }
+            return this;
+        }
+
+        public Appendable append(CharSequence s, int start, int end) throws IOException {
+            out.append(s, start, end);
+            if (text != null) {
+                text.append(s, start, end);
+                check();
+            }
+            return this;
+        }
+
+        public Appendable append(char c) throws IOException {
+            out.append(c);
+            if (text != null) {
+                text.append(c);
+                check();
+            }
+            return this;
+        }
+
+        private void check() {
+            if (text.length() > limit) {
+                text = null;
+            }
+        }
+    }
+}
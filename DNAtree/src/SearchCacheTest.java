@@ -0,0 +1,147 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SearchCacheTest {
+
+    private static void compare(Random random, Tree expected, Tree cached, int ops) {
+        for (int op = 0; op < ops; op++) {
+            String seq = TreeTesting.random(random, 6);
+            switch (random.nextInt(6)) {
+                case 0:
+                    assertEquals(expected.insert(seq), cached.insert(seq));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(seq), cached.remove(seq));
+                    break;
+                default:
+                    // Few distinct queries, so most of them hit.
+                    String query = seq.substring(0, Math.min(3, seq.length()));
+                    if (random.nextBoolean()) {
+                        query += "$";
+                    }
+                    assertEquals(query, expected.search(query), cached.search(query));
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSearch() {
+        Random random = new Random(20);
+        Tree expected = new Tree();
+        Tree cached = new Tree();
+        SearchCache cache = new SearchCache(1000, 1 << 20);
+        cached.setSearchCache(cache);
+        compare(random, expected, cached, 20000);
+        assertTrue(cache.hits() > 0);
+        assertTrue(cache.invalidations() > 0);
+        assertEquals(0, cache.evictions());
+        assertEquals(expected.search("N"), cached.search("N"));
+    }
+
+    @Test
+    public void testConcurrentTree() {
+        Random random = new Random(2);
+        Tree expected = new Tree();
+        Tree cached = new ConcurrentTree();
+        cached.setSearchCache(new SearchCache(8, 1 << 20));
+        compare(random, expected, cached, 10000);
+    }
+
+    @Test
+    public void testInvalidatesOnlyTheChangedSlot() {
+        Tree tree = new Tree();
+        SearchCache cache = new SearchCache(100, 1 << 20);
+        tree.setSearchCache(cache);
+        tree.insert("ACGT");
+        tree.insert("ACCA");
+        tree.insert("GGG");
+        String[] queries = {"A", "AC", "ACG", "ACGT$", "AC$", "ACC", "G", "T$"};
+        for (String query : queries) {
+            tree.search(query);
+        }
+        assertEquals(queries.length, cache.size());
+        // Splits the ACGT leaf in slot ACG.
+        tree.insert("ACGA");
+        assertEquals(4, cache.invalidations());
+        for (String query : new String[] {"AC$", "ACC", "G", "T$"}) {
+            tree.search(query);
+        }
+        assertEquals(4, cache.hits());
+        // The root's G slot.
+        tree.remove("GGG");
+        assertEquals(5, cache.invalidations());
+        assertEquals(3, cache.size());
+        assertTrue(tree.remove("ACGA"));
+        assertTrue(tree.remove("ACGT"));
+        assertTrue(tree.remove("ACCA"));
+        // Only the root's T slot was never touched.
+        assertEquals(1, cache.size());
+        tree.setSearchCache(null);
+        String fresh = tree.search("T$");
+        tree.setSearchCache(cache);
+        assertEquals(fresh, tree.search("T$"));
+        assertEquals(5, cache.hits());
+    }
+
+    @Test
+    public void testSlotWordsAreNotCached() {
+        Tree expected = new Tree();
+        Tree cached = new Tree();
+        SearchCache cache = new SearchCache(100, 1 << 20);
+        cached.setSearchCache(cache);
+        for (String seq : new String[] {"AAAA", "ACGT", "CCCC"}) {
+            expected.insert(seq);
+            cached.insert(seq);
+        }
+        assertEquals(expected.search("AE"), cached.search("AE"));
+        assertEquals(0, cache.size());
+        // Under A, but does not start with AE.
+        expected.insert("ACCA");
+        cached.insert("ACCA");
+        assertEquals(expected.search("AE"), cached.search("AE"));
+    }
+
+    @Test
+    public void testEviction() {
+        Tree tree = new Tree();
+        for (String seq : new String[] {"AAAA", "CCCC", "GGGG", "TTTT"}) {
+            tree.insert(seq);
+        }
+        SearchCache cache = new SearchCache(2, 1 << 20);
+        tree.setSearchCache(cache);
+        tree.search("A");
+        tree.search("C");
+        tree.search("A");
+        tree.search("G");
+        assertEquals(1, cache.evictions());
+        tree.search("A");
+        tree.search("C");
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.size());
+
+        SearchCache small = new SearchCache(100, 200);
+        tree.setSearchCache(small);
+        tree.search("A");
+        tree.search("C");
+        assertEquals(1, small.size());
+        assertEquals(1, small.evictions());
+        assertTrue(small.bytes() <= 200);
+        tree.setSearchCache(new SearchCache(100, 10));
+        assertEquals("# of nodes visited: 2\nsequence: AAAA\n", tree.search("A"));
+        assertEquals(0, tree.getSearchCache().size());
+    }
+
+    @Test
+    public void testBulkLoadClears() {
+        for (Tree tree : new Tree[] {new Tree(), new ConcurrentTree()}) {
+            tree.setSearchCache(new SearchCache(10, 1 << 20));
+            assertEquals("no sequence found\n", tree.search("A"));
+            tree.bulkLoad(java.util.Arrays.asList("ACGT", "AGGT"));
+            assertEquals("# of nodes visited: 3\nsequence: ACGT\n", tree.search("AC"));
+        }
+    }
+}
@@ -0,0 +1,967 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A Tree split into independent shards by the first bases of each
+ * sequence.  Each shard is a ConcurrentTree holding the sequences
+ * under one prefix, changed by one task at a time, so inserts and
+ * removes under different prefixes run at once without sharing a
+ * lock.  The shards' tasks run on one pool with a thread per
+ * processor, started as they are needed, so a tree with many shards
+ * does not keep a thread for each.  Sequences shorter than their
+ * shard's prefix are kept above the shards.
+ *
+ * Above the shards are a few levels of nodes that make the whole
+ * exactly the tree a plain Tree would hold: each shard's node for
+ * its prefix is linked in where that prefix is, and a prefix with
+ * only one sequence under it gets that leaf at the right level
+ * instead.  After a change, the shard's task rebuilds just the
+ * nodes from its prefix up to the root, reading every other child
+ * from the root as it stands, and swaps the new root in with a
+ * compare-and-set.  If another shard got a root in first, it
+ * builds again from that one.  No lock is shared between shards,
+ * and levels, searches, prints and visit counts are all those of
+ * the plain tree, read from whichever root is in.
+ *
+ * submitInsert and submitRemove queue a change on its shard and
+ * return at once, so one stream of commands keeps every shard busy.
+ * A shard runs its changes in the order they came, and an insert
+ * whose level depends on what is under other prefixes first waits
+ * for every change queued before it, so the results are those of
+ * making the changes one at a time.  That wait only covers shards
+ * with changes still queued.  insert and remove wait for their own
+ * change only.
+ *
+ * A prefix search that ends above the shards collects each shard's
+ * part as a task on that shard at once and joins them in order.
+ * Shards that take far more than their share of the changes are
+ * split on a longer prefix; see rebalance.
+ */
+public class ShardedTree extends Tree implements Closeable {
+    /**
+     * The longest prefix a shard is split down to.
+     */
+    static final int MAX_DEPTH = 12;
+    /**
+     * The longest prefix a tree can start sharded by.  Deeper shards
+     * only come from splitting hot ones.
+     */
+    static final int MAX_START_DEPTH = 8;
+    /**
+     * How many changes go by between looks for hot shards.
+     */
+    static final long REBALANCE_EVERY = 1 << 16;
+    /**
+     * A shard is hot with this many times the average changes.
+     */
+    static final int HOT_FACTOR = 4;
+    /**
+     * Shards smaller than this are not worth splitting.
+     */
+    static final long MIN_SPLIT = 1024;
+    private static final String BASES = "ACGT";
+
+    private final FlyweightNode fw;
+    /**
+     * Changes take the read side and splits the write side, so the
+     * routes stay put while a change is being queued.
+     */
+    private final ReentrantReadWriteLock routing = new ReentrantReadWriteLock();
+    private final Route top;
+    /**
+     * Like Tree's, the root stays an internal node once it has been
+     * one, however many sequences are removed.  Nodes below the root
+     * are only there while at least two sequences are under them.
+     */
+    private final AtomicReference<Node> root;
+    private final AtomicLong changes = new AtomicLong();
+    /**
+     * Runs every shard's tasks.
+     */
+    private final ExecutorService pool;
+    /**
+     * The shards that may have tasks queued; see drain.
+     */
+    private final Set<Shard> busy = ConcurrentHashMap.<Shard>newKeySet();
+
+    /**
+     * @param k - the length of the prefixes the tree starts sharded
+     *        by, giving 4^k shards
+     */
+    public ShardedTree(int k) {
+        if (k < 1 || k > MAX_START_DEPTH) {
+            throw new IllegalArgumentException("shard prefix length must be 1 to "
+                + MAX_START_DEPTH);
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "shard-" + threads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        fw = getFlyweight();
+        root = new AtomicReference<Node>(fw);
+        top = routes("", k);
+    }
+
+    /**
+     * Where the sequences under one prefix are kept: either a shard,
+     * or a route for each base below it.  The sequence equal to the
+     * prefix of a route above the shards is only in the root's tree.
+     */
+    private static final class Route {
+        final String prefix;
+        Route[] children;
+        Shard shard;
+
+        Route(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * One shard's tree and the tasks queued on it, which run one at a
+     * time, in the order they came, on a thread from the pool.  size
+     * is only changed by those tasks, before removes counts the remove
+     * done.
+     */
+    private final class Shard {
+        final ConcurrentTree tree = new ConcurrentTree();
+        final AtomicLong changes = new AtomicLong();
+        /**
+         * Removes queued and not yet made.
+         */
+        final AtomicInteger removes = new AtomicInteger();
+        /**
+         * Tasks queued and not yet finished.
+         */
+        final AtomicInteger queued = new AtomicInteger();
+        volatile long size;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        /**
+         * Whether a pool thread is running this shard's tasks.
+         */
+        private boolean running;
+
+        /**
+         * Queues a task behind the ones already queued.
+         *
+         * @throws RejectedExecutionException once the tree is closed
+         */
+        <T> Future<T> submit(Callable<T> task) {
+            FutureTask<T> future = new FutureTask<T>(task);
+            queued.incrementAndGet();
+            busy.add(this);
+            synchronized (this) {
+                tasks.add(future);
+                if (running) {
+                    return future;
+                }
+                running = true;
+            }
+            try {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        runQueued();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    tasks.clear();
+                    running = false;
+                }
+                queued.set(0);
+                throw e;
+            }
+            return future;
+        }
+
+        private void runQueued() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } finally {
+                    queued.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * What a change puts at the end of its path, worked out from what
+     * is there in the root it is building on.
+     */
+    private interface Change {
+        /**
+         * @param old - what the root has at the end of the path
+         * @return the node to put there instead, or null to leave the
+         *         root as it is
+         */
+        Node apply(Node old);
+    }
+
+    private Route routes(String prefix, int depth) {
+        Route route = new Route(prefix);
+        if (depth == 0) {
+            route.shard = new Shard();
+            return route;
+        }
+        route.children = new Route[BASES.length()];
+        for (int i = 0; i < route.children.length; i++) {
+            route.children[i] = routes(prefix + BASES.charAt(i), depth - 1);
+        }
+        return route;
+    }
+
+    @Override
+    Node getRoot() {
+        return root.get();
+    }
+
+    /**
+     * @return how many shards the tree is split into
+     */
+    public int shards() {
+        routing.readLock().lock();
+        try {
+            return shardRoutes(top, new ArrayList<Route>()).size();
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    @Override
+    boolean countsSplits() {
+        return false;
+    }
+
+    /**
+     * Inserts a sequence and waits for it to be in.
+     */
+    @Override
+    public int insert(PackedSequence sequence) {
+        return await(submitInsert(sequence));
+    }
+
+    /**
+     * Removes a sequence and waits for it to be out.
+     */
+    @Override
+    public boolean remove(PackedSequence sequence) {
+        return await(submitRemove(sequence));
+    }
+
+    /**
+     * Queues an insert on the sequence's shard without waiting for it.
+     * An insert that would leave its shard with one sequence gets its
+     * level from the prefixes around it, so it first waits for every
+     * change already queued, as does a sequence shorter than its
+     * shard's prefix, which is put in on this thread.
+     *
+     * @param sequence - the new DNA sequence to insert
+     * @return the level of the new node, or -1 if it was already there
+     */
+    public Future<Integer> submitInsert(final PackedSequence sequence) {
+        Future<Integer> level;
+        routing.readLock().lock();
+        try {
+            final List<Route> path = path(sequence);
+            final Shard shard = path.get(path.size() - 1).shard;
+            Callable<Integer> insert = new Callable<Integer>() {
+                public Integer call() {
+                    if (shard.tree.insert(sequence) < 0) {
+                        return -1;
+                    }
+                    shard.size++;
+                    return level(publish(path, shard), sequence);
+                }
+            };
+            if (shard != null) {
+                shard.changes.incrementAndGet();
+            }
+            if (shard != null && shard.size - shard.removes.get() > 0) {
+                level = shard.submit(insert);
+            }
+            else {
+                drain();
+                level = CompletableFuture.completedFuture(shard == null
+                    ? insertAbove(path, sequence) : await(shard.submit(insert)));
+            }
+        } finally {
+            routing.readLock().unlock();
+        }
+        changed();
+        return level;
+    }
+
+    /**
+     * Queues a remove on the sequence's shard without waiting for it.
+     * Whether a sequence is there only depends on its shard, so this
+     * never waits; a sequence shorter than its shard's prefix is taken
+     * out on this thread.
+     *
+     * @param sequence - the DNA sequence to be removed
+     * @return if the removal was successful
+     */
+    public Future<Boolean> submitRemove(final PackedSequence sequence) {
+        Future<Boolean> removed;
+        routing.readLock().lock();
+        try {
+            final List<Route> path = path(sequence);
+            final Shard shard = path.get(path.size() - 1).shard;
+            if (shard == null) {
+                removed = CompletableFuture.completedFuture(removeAbove(path));
+            }
+            else {
+                shard.changes.incrementAndGet();
+                shard.removes.incrementAndGet();
+                removed = shard.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        try {
+                            if (!shard.tree.remove(sequence)) {
+                                return false;
+                            }
+                            shard.size--;
+                            publish(path, shard);
+                            return true;
+                        } finally {
+                            shard.removes.decrementAndGet();
+                        }
+                    }
+                });
+            }
+        } finally {
+            routing.readLock().unlock();
+        }
+        changed();
+        return removed;
+    }
+
+    /**
+     * Waits until every change queued before this call has been made.
+     */
+    public void flush() {
+        routing.readLock().lock();
+        try {
+            drain();
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    /**
+     * Shards are changed from the root of their own trees.
+     *
+     * @throws UnsupportedOperationException always; use remove(PackedSequence)
+     */
+    @Override
+    public boolean remove(PackedSequence sequence, InternalNode node) {
+        throw new UnsupportedOperationException("remove from the root instead");
+    }
+
+    /**
+     * Into an empty tree, bulk loads every shard at once, each in a
+     * task of its own.  Otherwise inserts one by one.
+     */
+    @Override
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        if (!(root.get() instanceof FlyweightNode)) {
+            return insertEach(sequences);
+        }
+        List<PackedSequence> packed = new ArrayList<PackedSequence>();
+        for (String sequence : sequences) {
+            packed.add(PackedSequence.of(sequence));
+        }
+        int[] levels = new int[packed.size()];
+        routing.writeLock().lock();
+        try {
+            final List<Route> shardRoutes = shardRoutes(top, new ArrayList<Route>());
+            Map<Route, Integer> shardOf = new HashMap<Route, Integer>();
+            List<List<String>> loads = new ArrayList<List<String>>();
+            List<List<Integer>> indexes = new ArrayList<List<Integer>>();
+            for (int i = 0; i < shardRoutes.size(); i++) {
+                shardOf.put(shardRoutes.get(i), i);
+                loads.add(new ArrayList<String>());
+                indexes.add(new ArrayList<Integer>());
+            }
+            List<Integer> shorter = new ArrayList<Integer>();
+            for (int i = 0; i < levels.length; i++) {
+                List<Route> path = path(packed.get(i));
+                Route last = path.get(path.size() - 1);
+                if (last.shard != null) {
+                    int shard = shardOf.get(last);
+                    loads.get(shard).add(packed.get(i).toString());
+                    indexes.get(shard).add(i);
+                }
+                else {
+                    shorter.add(i);
+                }
+            }
+            final int[][] shardLevels = new int[shardRoutes.size()][];
+            List<Future<Integer>> loaded = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < shardRoutes.size(); i++) {
+                final int shard = i;
+                final List<String> load = loads.get(i);
+                final Shard target = shardRoutes.get(i).shard;
+                loaded.add(target.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        shardLevels[shard] = target.tree.bulkLoad(load);
+                        for (int level : shardLevels[shard]) {
+                            if (level >= 0) {
+                                target.size++;
+                            }
+                        }
+                        return 0;
+                    }
+                }));
+            }
+            for (int i = 0; i < shardRoutes.size(); i++) {
+                await(loaded.get(i));
+                Route route = shardRoutes.get(i);
+                publish(path(PackedSequence.of(route.prefix)), route.shard);
+            }
+            for (int at : shorter) {
+                if (insertAbove(path(packed.get(at)), packed.get(at)) < 0) {
+                    levels[at] = -1;
+                }
+            }
+            // Nothing is changing now, so the levels can be read off
+            // the finished tree.
+            Node finished = root.get();
+            for (int i = 0; i < shardRoutes.size(); i++) {
+                List<Integer> index = indexes.get(i);
+                for (int j = 0; j < index.size(); j++) {
+                    int at = index.get(j);
+                    levels[at] = shardLevels[i][j] < 0 ? -1 : level(finished, packed.get(at));
+                }
+            }
+            for (int at : shorter) {
+                if (levels[at] >= 0) {
+                    levels[at] = level(finished, packed.get(at));
+                }
+            }
+        } finally {
+            routing.writeLock().unlock();
+        }
+        return levels;
+    }
+
+    /**
+     * Collects a prefix search that ends above the shards from every
+     * shard below it at once.  Anything else searches like Tree.
+     */
+    @Override
+    public void search(Appendable out, String searchWord, ForkJoinPool pool) throws IOException {
+        routing.readLock().lock();
+        try {
+            Node node = root.get();
+            Route route = top;
+            if (searchWord.isEmpty() || searchWord.endsWith("$")
+                || PatternSearch.isPattern(searchWord)) {
+                node = null;
+            }
+            for (int i = 0; i < searchWord.length() && node instanceof InternalNode; i++) {
+                int c = BASES.indexOf(searchWord.charAt(i));
+                if (c < 0 || route.shard != null) {
+                    node = null;
+                    break;
+                }
+                node = ((InternalNode) node).getChild(c);
+                route = route.children[c];
+            }
+            if (!(node instanceof InternalNode) || route.shard != null) {
+                super.search(out, searchWord, pool);
+                return;
+            }
+            List<Object> parts = new ArrayList<Object>();
+            int visited = gather((InternalNode) node, route, parts);
+            for (Object part : parts) {
+                if (part instanceof Future) {
+                    visited += listing(part).visited;
+                }
+            }
+            out.append("# of nodes visited: ")
+                .append(Integer.toString(searchWord.length() + visited));
+            for (Object part : parts) {
+                out.append(part instanceof Future ? listing(part).text : (String) part);
+            }
+            out.append('\n');
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits any shard that took more than HOT_FACTOR times the
+     * average number of changes since the last look into a shard for
+     * each base below its prefix, and starts the counts again.  This
+     * runs by itself every REBALANCE_EVERY changes.
+     *
+     * @return how many shards were split
+     */
+    public int rebalance() {
+        routing.writeLock().lock();
+        try {
+            List<Route> shardRoutes = shardRoutes(top, new ArrayList<Route>());
+            long total = 0;
+            for (Route route : shardRoutes) {
+                total += route.shard.changes.get();
+            }
+            long hot = HOT_FACTOR * total / shardRoutes.size();
+            int split = 0;
+            for (Route route : shardRoutes) {
+                if (route.shard.changes.get() > hot && route.shard.size >= MIN_SPLIT
+                    && route.prefix.length() < MAX_DEPTH) {
+                    split(route);
+                    split++;
+                }
+                else {
+                    route.shard.changes.set(0);
+                }
+            }
+            return split;
+        } finally {
+            routing.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Splits the shard for a prefix into one for each base below it.
+     *
+     * @param prefix - a shard's prefix
+     * @return false if no shard has that prefix
+     */
+    boolean split(String prefix) {
+        routing.writeLock().lock();
+        try {
+            List<Route> path = path(PackedSequence.of(prefix));
+            Route route = path.get(path.size() - 1);
+            if (route.shard == null || !route.prefix.equals(prefix)) {
+                return false;
+            }
+            split(route);
+            return true;
+        } finally {
+            routing.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops the shards' threads once the changes queued are made.
+     */
+    @Override
+    public void close() {
+        routing.writeLock().lock();
+        try {
+            if (!pool.isShutdown()) {
+                drain();
+                pool.shutdown();
+            }
+        } finally {
+            routing.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the routes from the top down to the one holding sequence
+     */
+    private List<Route> path(PackedSequence sequence) {
+        List<Route> path = new ArrayList<Route>();
+        Route route = top;
+        path.add(route);
+        for (int i = 0; route.shard == null && i < sequence.length(); i++) {
+            route = route.children[sequence.codeAt(i)];
+            path.add(route);
+        }
+        return path;
+    }
+
+    private static List<Route> shardRoutes(Route route, List<Route> found) {
+        if (route.shard != null) {
+            found.add(route);
+            return found;
+        }
+        for (Route child : route.children) {
+            shardRoutes(child, found);
+        }
+        return found;
+    }
+
+    /**
+     * Waits until every shard has made the changes queued on it so
+     * far.  Only the shards in busy are looked at, and one found idle
+     * is taken out; a shard is put in before its task is queued, so
+     * one that gets a task meanwhile is seen again below and left in.
+     * Called holding the routing lock.
+     */
+    private void drain() {
+        List<Future<?>> done = new ArrayList<Future<?>>();
+        for (Shard shard : busy) {
+            if (shard.queued.get() == 0) {
+                busy.remove(shard);
+                if (shard.queued.get() == 0) {
+                    continue;
+                }
+                busy.add(shard);
+            }
+            done.add(shard.submit(new Callable<Object>() {
+                public Object call() {
+                    // Only here to be waited for.
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : done) {
+            await(future);
+        }
+    }
+
+    /**
+     * Puts in a sequence equal to the prefix at the end of its path,
+     * above the shards.
+     *
+     * @return its level, or -1 if it was there already
+     */
+    private int insertAbove(List<Route> path, final PackedSequence sequence) {
+        final int depth = path.size() - 1;
+        Node published = publish(path, new Change() {
+            public Node apply(Node old) {
+                if (childOf(old, depth, InternalNode.END) instanceof LeafNode) {
+                    return null;
+                }
+                return combine(old, depth, InternalNode.END, new LeafNode(sequence, depth + 1));
+            }
+        });
+        return published == null ? -1 : level(published, sequence);
+    }
+
+    /**
+     * Takes out the sequence equal to the prefix at the end of its
+     * path, above the shards.
+     *
+     * @return if it was there
+     */
+    private boolean removeAbove(List<Route> path) {
+        final int depth = path.size() - 1;
+        return publish(path, new Change() {
+            public Node apply(Node old) {
+                if (!(childOf(old, depth, InternalNode.END) instanceof LeafNode)) {
+                    return null;
+                }
+                return combine(old, depth, InternalNode.END, fw);
+            }
+        }) != null;
+    }
+
+    /**
+     * Puts what a shard now holds at its prefix into the root.  Called
+     * in one of the shard's tasks, or while nothing else changes it.
+     *
+     * @return the root published
+     */
+    private Node publish(List<Route> path, Shard shard) {
+        final Node node = slot(shard.tree.getRoot(), path.get(path.size() - 1).prefix, shard.size);
+        return publish(path, new Change() {
+            public Node apply(Node old) {
+                return node;
+            }
+        });
+    }
+
+    /**
+     * Builds a new root from the one in now, with the end of path
+     * changed and each node above it rebuilt, and swaps it in.  Every
+     * other child comes from the root it started from, so if another
+     * change got in first this starts again from that one.
+     *
+     * @return the root published, or null if the change left it as
+     *         it was
+     */
+    private Node publish(List<Route> path, Change change) {
+        Node[] nodes = new Node[path.size()];
+        while (true) {
+            Node current = root.get();
+            nodes[0] = current;
+            for (int i = 1; i < nodes.length; i++) {
+                nodes[i] = childOf(nodes[i - 1], i - 1, BASES.indexOf(path.get(i).prefix.charAt(i - 1)));
+            }
+            Node node = change.apply(nodes[nodes.length - 1]);
+            if (node == null) {
+                return null;
+            }
+            for (int i = nodes.length - 2; i >= 0; i--) {
+                node = combine(nodes[i], i, BASES.indexOf(path.get(i + 1).prefix.charAt(i)), node);
+            }
+            if (root.compareAndSet(current, node)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * @param node - what the tree has at a prefix
+     * @param depth - the prefix's length
+     * @param c - a child slot
+     * @return what the tree has at the prefix one base longer, or at
+     *         the $ slot for the sequence equal to the prefix: a leaf
+     *         lifted to the prefix is put back down a level
+     */
+    private Node childOf(Node node, int depth, int c) {
+        if (node instanceof InternalNode) {
+            return ((InternalNode) node).getChild(c);
+        }
+        if (node instanceof LeafNode) {
+            PackedSequence sequence = ((LeafNode) node).getPacked();
+            if (slot(sequence, depth) == c) {
+                return new LeafNode(sequence, depth + 1);
+            }
+        }
+        return fw;
+    }
+
+    /**
+     * Builds what the tree holds at a prefix from what it held there
+     * before, with one child slot replaced: an internal node if at
+     * least two sequences are under it, a leaf lifted to the prefix if
+     * one is, and the flyweight if none is.  The root stays internal
+     * once it has been.
+     *
+     * @param old - what the tree held at the prefix
+     * @param depth - the prefix's length
+     * @param c - the slot to replace
+     * @param child - what goes in that slot
+     */
+    private Node combine(Node old, int depth, int c, Node child) {
+        Node[] children = new Node[InternalNode.SLOTS];
+        boolean internal = depth == 0 && old instanceof InternalNode;
+        LeafNode single = null;
+        int leaves = 0;
+        for (int i = 0; i < children.length; i++) {
+            children[i] = i == c ? child : childOf(old, depth, i);
+            if (children[i] instanceof InternalNode) {
+                internal = true;
+            }
+            else if (children[i] instanceof LeafNode) {
+                single = (LeafNode) children[i];
+                leaves++;
+            }
+        }
+        if (!internal && leaves < 2) {
+            return single == null ? fw : new LeafNode(single.getPacked(), depth);
+        }
+        InternalNode node = new InternalNode(fw, depth);
+        for (int i = 0; i < children.length; i++) {
+            node.setChild(i, children[i]);
+            if (children[i] instanceof LeafNode) {
+                node.addBaseCounts((LeafNode) children[i], 1);
+            }
+            else if (children[i] instanceof InternalNode) {
+                node.addBaseCounts((InternalNode) children[i]);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @param node - the root of a shard's tree
+     * @param prefix - the shard's prefix
+     * @param size - the sequences in the shard
+     * @return what the shard has at its prefix: below the root's chain
+     *         down to it if there are several sequences, or its one
+     *         leaf moved up to the prefix
+     */
+    private Node slot(Node node, String prefix, long size) {
+        if (size == 0) {
+            return fw;
+        }
+        if (size == 1) {
+            return new LeafNode(new LeafIterator(node).next().getPacked(), prefix.length());
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            node = ((InternalNode) node).getNode(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * @return the level of a sequence's leaf in a root's tree
+     */
+    private static int level(Node node, PackedSequence sequence) {
+        while (node instanceof InternalNode) {
+            node = ((InternalNode) node).getChild(slot(sequence, node.getLevel()));
+        }
+        return node.getLevel();
+    }
+
+    /**
+     * Lists a node above the shards as a prefix search does: its own
+     * leaves in order, with each internal child that is a shard's
+     * listed by a task on that shard meanwhile.
+     *
+     * @param node - the node to list
+     * @param route - the route at node
+     * @param parts - gets the listing, Strings and Futures in order
+     * @return the nodes visited, leaving out the shards' parts
+     */
+    private int gather(InternalNode node, Route route, List<Object> parts) {
+        int visited = 2;
+        for (int i = 0; i < InternalNode.END; i++) {
+            Node child = node.getChild(i);
+            Route below = route.children[i];
+            if (!(child instanceof InternalNode)) {
+                visited++;
+                if (child instanceof LeafNode) {
+                    parts.add("\nsequence: " + ((LeafNode) child).getSequence());
+                }
+            }
+            else if (below.shard == null) {
+                visited += gather((InternalNode) child, below, parts);
+            }
+            else {
+                final InternalNode subtree = (InternalNode) child;
+                parts.add(below.shard.submit(new Callable<Listing>() {
+                    public Listing call() {
+                        StringBuilder text = new StringBuilder();
+                        LeafIterator leaves = new LeafIterator(subtree);
+                        while (leaves.hasNext()) {
+                            text.append("\nsequence: ").append(leaves.next().getSequence());
+                        }
+                        return new Listing(leaves.visited(), text.toString());
+                    }
+                }));
+            }
+        }
+        Node end = node.getChild(InternalNode.END);
+        if (end instanceof LeafNode) {
+            parts.add("\nsequence: " + ((LeafNode) end).getSequence());
+        }
+        return visited;
+    }
+
+    /**
+     * One shard's part of a prefix listing.
+     */
+    private static final class Listing {
+        final int visited;
+        final String text;
+
+        Listing(int visited, String text) {
+            this.visited = visited;
+            this.text = text;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Listing listing(Object part) {
+        return await((Future<Listing>) part);
+    }
+
+    /**
+     * Splits a shard route into a shard for each base below it, once
+     * the changes queued on it are made.  The tree itself holds the
+     * same sequences before and after, so the root is left as it is;
+     * the sequence equal to the prefix, if any, was already in it and
+     * stays above the new shards.
+     */
+    private void split(Route route) {
+        final Shard old = route.shard;
+        List<String> all = await(old.submit(new Callable<List<String>>() {
+            public List<String> call() {
+                List<String> all = new ArrayList<String>();
+                LeafIterator leaves = new LeafIterator(old.tree.getRoot());
+                while (leaves.hasNext()) {
+                    all.add(leaves.next().getSequence());
+                }
+                return all;
+            }
+        }));
+        busy.remove(old);
+        int level = route.prefix.length();
+        Route[] children = new Route[BASES.length()];
+        List<Future<Integer>> loaded = new ArrayList<Future<Integer>>();
+        List<List<String>> loads = new ArrayList<List<String>>();
+        for (int i = 0; i < children.length; i++) {
+            children[i] = routes(route.prefix + BASES.charAt(i), 0);
+            loads.add(new ArrayList<String>());
+        }
+        for (String sequence : all) {
+            if (sequence.length() > level) {
+                loads.get(BASES.indexOf(sequence.charAt(level))).add(sequence);
+            }
+        }
+        for (int i = 0; i < children.length; i++) {
+            final Shard shard = children[i].shard;
+            final List<String> load = loads.get(i);
+            loaded.add(shard.submit(new Callable<Integer>() {
+                public Integer call() {
+                    shard.tree.bulkLoad(load);
+                    shard.size = load.size();
+                    return 0;
+                }
+            }));
+        }
+        for (Future<Integer> future : loaded) {
+            await(future);
+        }
+        route.children = children;
+        route.shard = null;
+    }
+
+    /**
+     * Counts a change, and looks for hot shards every so often.
+     */
+    private void changed() {
+        if (changes.incrementAndGet() % REBALANCE_EVERY == 0) {
+            rebalance();
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for a shard", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardedTreeTest {
+
+    private static void compare(Random random, Tree expected, ShardedTree sharded, int ops) {
+        TreeTesting.assertSameAnswers(random, expected, sharded,
+            new String[] {"", "A", "AC", "ACGT", "G"}, 7, ops, 500);
+    }
+
+    @Test
+    public void testMatchesTree() {
+        for (int k = 1; k <= 3; k++) {
+            Random random = new Random(21 + k);
+            Tree expected = new Tree();
+            ShardedTree sharded = new ShardedTree(k);
+            assertEquals(1 << (2 * k), sharded.shards());
+            compare(random, expected, sharded, 6000);
+            for (String query : new String[] {"A", "C", "GT", "N", "AR$", "X"}) {
+                assertEquals(query, expected.search(query), sharded.search(query));
+            }
+            sharded.close();
+        }
+    }
+
+    private static int shardThreads() {
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("shard-")) {
+                threads++;
+            }
+        }
+        return threads;
+    }
+
+    @Test(timeout = 60000)
+    public void testManyShards() {
+        for (int k = 5; k <= ShardedTree.MAX_START_DEPTH; k += 3) {
+            Random random = new Random(40 + k);
+            Tree expected = new Tree();
+            int before = shardThreads();
+            ShardedTree sharded = new ShardedTree(k);
+            assertEquals(1 << (2 * k), sharded.shards());
+            // Most inserts land in an empty shard and wait on the rest.
+            compare(random, expected, sharded, 3000);
+            assertTrue(shardThreads() - before <= Runtime.getRuntime().availableProcessors());
+            sharded.close();
+        }
+        try {
+            new ShardedTree(ShardedTree.MAX_START_DEPTH + 1);
+            fail("too many shards accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("shard prefix length must be 1 to " + ShardedTree.MAX_START_DEPTH,
+                e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSmallTrees() {
+        Tree expected = new Tree();
+        ShardedTree sharded = new ShardedTree(2);
+        assertEquals(expected.search("A"), sharded.search("A"));
+        TreeTesting.assertPrintsMatch(expected, sharded);
+        for (String seq : new String[] {"A", "ACGT", "AC", "A", "T", "ACGA"}) {
+            assertEquals(seq, expected.insert(seq), sharded.insert(seq));
+            TreeTesting.assertPrintsMatch(expected, sharded);
+            assertEquals(expected.search("A"), sharded.search("A"));
+        }
+        for (String seq : new String[] {"ACGT", "A", "A", "ACGA", "T", "AC"}) {
+            assertEquals(seq, expected.remove(seq), sharded.remove(seq));
+            TreeTesting.assertPrintsMatch(expected, sharded);
+        }
+        sharded.close();
+    }
+
+    @Test
+    public void testSubmitMatchesTree() throws Exception {
+        for (int k = 1; k <= 2; k++) {
+            Random random = new Random(31 + k);
+            Tree expected = new Tree();
+            ShardedTree sharded = new ShardedTree(k);
+            List<Future<?>> submitted = new ArrayList<Future<?>>();
+            List<Object> results = new ArrayList<Object>();
+            for (int op = 0; op < 6000; op++) {
+                String seq = TreeTesting.random(random, 6);
+                if (random.nextInt(3) == 0) {
+                    submitted.add(sharded.submitRemove(PackedSequence.of(seq)));
+                    results.add(expected.remove(seq));
+                }
+                else {
+                    submitted.add(sharded.submitInsert(PackedSequence.of(seq)));
+                    results.add(expected.insert(seq));
+                }
+                if (op % 1000 == 999) {
+                    sharded.flush();
+                    TreeTesting.assertPrintsMatch(expected, sharded);
+                }
+            }
+            for (int i = 0; i < submitted.size(); i++) {
+                assertEquals(String.valueOf(i), results.get(i), submitted.get(i).get());
+            }
+            sharded.flush();
+            TreeTesting.assertPrintsMatch(expected, sharded);
+            sharded.close();
+        }
+    }
+
+    @Test
+    public void testSplit() {
+        Random random = new Random(4);
+        Tree expected = new Tree();
+        ShardedTree sharded = new ShardedTree(1);
+        compare(random, expected, sharded, 2000);
+        expected.insert("A");
+        sharded.insert("A");
+        assertTrue(sharded.split("A"));
+        assertFalse(sharded.split("A"));
+        assertTrue(sharded.split("AC"));
+        assertFalse(sharded.split("GA"));
+        assertEquals(10, sharded.shards());
+        TreeTesting.assertPrintsMatch(expected, sharded);
+        compare(random, expected, sharded, 2000);
+        sharded.close();
+    }
+
+    @Test
+    public void testRebalance() {
+        Random random = new Random(6);
+        Tree expected = new Tree();
+        ShardedTree sharded = new ShardedTree(2);
+        for (int i = 0; i < 3000; i++) {
+            String seq = (i % 20 == 0 ? "C" : "AC") + TreeTesting.random(random, 12);
+            assertEquals(seq, expected.insert(seq), sharded.insert(seq));
+        }
+        assertEquals(1, sharded.rebalance());
+        assertEquals(19, sharded.shards());
+        TreeTesting.assertPrintsMatch(expected, sharded);
+        assertEquals(0, sharded.rebalance());
+        compare(random, expected, sharded, 2000);
+        sharded.close();
+    }
+
+    @Test
+    public void testBulkLoad() {
+        Random random = new Random(9);
+        List<String> sequences = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            sequences.add(TreeTesting.random(random, 9));
+        }
+        Tree expected = new Tree();
+        ShardedTree sharded = new ShardedTree(2);
+        assertArrayEquals(expected.bulkLoad(sequences), sharded.bulkLoad(sequences));
+        TreeTesting.assertPrintsMatch(expected, sharded);
+        assertArrayEquals(expected.bulkLoad(Arrays.asList("AC", "GGGG")),
+            sharded.bulkLoad(Arrays.asList("AC", "GGGG")));
+        compare(random, expected, sharded, 2000);
+        sharded.close();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        final ShardedTree sharded = new ShardedTree(2);
+        final List<String> sequences = new ArrayList<String>();
+        Random random = new Random(12);
+        for (int i = 0; i < 8000; i++) {
+            sequences.add(TreeTesting.random(random, 10));
+        }
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            final int first = t;
+            writers.execute(new Runnable() {
+                public void run() {
+                    for (int i = first; i < sequences.size(); i += 4) {
+                        sharded.insert(sequences.get(i));
+                        if (i % 3 == 0) {
+                            sharded.search(sequences.get(i).substring(0, 1));
+                        }
+                    }
+                }
+            });
+        }
+        writers.shutdown();
+        assertTrue(writers.awaitTermination(1, TimeUnit.MINUTES));
+        Tree expected = new Tree();
+        expected.bulkLoad(sequences);
+        TreeTesting.assertPrintsMatch(expected, sharded);
+        assertEquals(expected.search("C"), sharded.search("C"));
+        sharded.close();
+    }
+}
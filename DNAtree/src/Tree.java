@@ -1,3 +1,14 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+
 
 public class Tree {
     /**
@@ -7,8 +18,19 @@ public class Tree {
      */
     private Node root;
     private FlyweightNode fw;
-    private char[] chars = {'A', 'C', 'G', 'T', 'E'};
-    private int visitedCount;
+    private static final String PADDING = "                                                                ";
+    /**
+     * Reusable stack of the internal nodes (and the slots taken out of
+     * them) on the current root-to-leaf path, so long sequences don't
+     * recurse once per level.
+     */
+    private InternalNode[] path = new InternalNode[64];
+    private int[] pathSlots = new int[64];
+    /**
+     * Where operations are timed and counted, or null to skip it.
+     */
+    private TreeMetrics metrics;
+    private SearchCache cache;
     /**
      * Basic constructor for the DNATree class.  Creates a new
      * FlyweightNode by default and make Node type root
@@ -18,6 +40,90 @@ public class Tree {
         fw = new FlyweightNode();
         root = fw;        
     }
+    /**
+     * Searches, prints and composition read the root through here
+     * once, so a subclass can hand them a consistent snapshot.
+     *
+     * @return the root node, a FlyweightNode when the tree is empty
+     */
+    Node getRoot() {
+        return root;
+    }
+    /**
+     * Replaces the whole tree with one built elsewhere.
+     *
+     * @param root - the new root, using this tree's flyweight
+     */
+    void setRoot(Node root) {
+        this.root = root;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+    /**
+     * Starts or stops recording into a set of metrics.  Timing covers
+     * insert, remove, search and print called with Strings or an
+     * Appendable, whichever kind of tree this is; splits and collapses
+     * are counted by the object tree's own insert and remove, and only
+     * reported for trees that use them (see countsSplits).
+     *
+     * @param metrics - where to record, or null to stop recording
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = metrics;
+    }
+    /**
+     * @return the metrics being recorded into, or null
+     */
+    public TreeMetrics getMetrics() {
+        return metrics;
+    }
+    /**
+     * @return whether insert and remove count leaf splits and node
+     *         collapses into the metrics, which a subclass with its own
+     *         insert and remove does not
+     */
+    boolean countsSplits() {
+        return true;
+    }
+    /**
+     * @return whether searches count a compressed node as every level
+     *         it stands for, so visit counts are those of the plain
+     *         tree, rather than once
+     */
+    boolean countsChainLevels() {
+        return true;
+    }
+    /**
+     * @return the node counts and leaf depths of the tree, for the
+     *         metrics report
+     */
+    TreeMetrics.Shape shape() {
+        return new TreeMetrics.Shape(getRoot());
+    }
+    /**
+     * Puts a cache in front of search, or takes it away.  Like the
+     * metrics it covers insert, remove and search called with Strings
+     * or an Appendable; a change made through a PackedSequence does not
+     * reach the cache.
+     *
+     * @param cache - the cache to use, empty, or null for none
+     */
+    public void setSearchCache(SearchCache cache) {
+        this.cache = cache;
+    }
+    /**
+     * @return the cache in front of search, or null
+     */
+    public SearchCache getSearchCache() {
+        return cache;
+    }
+    /**
+     * @return the flyweight shared by every empty slot
+     */
+    FlyweightNode getFlyweight() {
+        return fw;
+    }
     /**
      * Inserts a sequence into the tree.
      * The method will try to find the closest node for the sequence to live at
@@ -25,8 +131,81 @@ public class Tree {
      *
      * @param sequence - the new DNA sequence to insert
      * @return the level of the new node, or -1 if unsuccessful
+     * @throws IllegalArgumentException if the sequence holds anything
+     *         but A, C, G and T
      */
     public int insert(String sequence) {
+        return insert(sequence, PackedSequence.of(sequence));
+    }
+    /**
+     * Inserts a sequence that was packed beforehand, such as by a
+     * parsing thread, counting and invalidating like insert(String).
+     *
+     * @param sequence - the new DNA sequence to insert
+     * @param packed - the same sequence, packed
+     * @return the level of the new node, or -1 if unsuccessful
+     */
+    public int insert(String sequence, PackedSequence packed) {
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return insertAndInvalidate(sequence, packed);
+        }
+        long start = System.nanoTime();
+        int level = insertAndInvalidate(sequence, packed);
+        m.record(TreeMetrics.INSERT, System.nanoTime() - start);
+        return level;
+    }
+    /**
+     * Inserts, then drops the cached searches the insert changed.
+     * The slot it changes is found before, since a split moves the
+     * leaf that was there further down.  This holds the tree's lock
+     * so that a ConcurrentTree writer cannot get in between.
+     */
+    private int insertAndInvalidate(String sequence, PackedSequence packed) {
+        SearchCache c = cache;
+        if (c == null) {
+            return insert(packed);
+        }
+        synchronized (this) {
+            String path = changedSlot(sequence);
+            int level = insert(packed);
+            if (level >= 0) {
+                c.invalidate(path);
+            }
+            return level;
+        }
+    }
+    /**
+     * Finds the child slot an insert or remove of a sequence replaces:
+     * the one the sequence goes to below the deepest internal node on
+     * its path.  Everything above it is left as it was.
+     *
+     * @param sequence - the sequence inserted or removed
+     * @return the bases down to the slot, the slot's own base last, or
+     *         the whole sequence when the slot is the $ slot at its
+     *         end; null when the root is not an internal node
+     */
+    private String changedSlot(String sequence) {
+        Node node = getRoot();
+        if (!(node instanceof InternalNode)) {
+            return null;
+        }
+        for (int depth = 0; depth < sequence.length(); depth++) {
+            Node child = ((InternalNode) node).getNode(sequence.charAt(depth));
+            if (!(child instanceof InternalNode)) {
+                return sequence.substring(0, depth + 1);
+            }
+            node = child;
+        }
+        return sequence;
+    }
+    /**
+     * Inserts an already packed sequence into the tree.
+     *
+     * @param sequence - the new DNA sequence to insert
+     * @return the level of the new node, or -1 if unsuccessful
+     */
+    public int insert(PackedSequence sequence) {
         
         if (root instanceof FlyweightNode) {
             root = new LeafNode(sequence, 0);
@@ -35,55 +214,139 @@ public class Tree {
         
         if (root instanceof LeafNode) {
               
-            if (((LeafNode) root).getSequence().equals(sequence)) {
+            if (((LeafNode) root).getPacked().equals(sequence)) {
                 return -1;
             }
             
             InternalNode cur = new InternalNode(fw,0);
-            cur.addNode(root, ((LeafNode) root).getSequence().charAt(0));
+            if (metrics != null) {
+                metrics.split();
+            }
+            cur.setChild(slot(((LeafNode) root).getPacked(), 0), root);
+            cur.addBaseCounts((LeafNode) root, 1);
             root.setLevel(1);
             root = cur;
         }
         return insert(sequence, (InternalNode) root);
     }
     /**
-     * Helper method for insert(). Will check the
-     * next child in the sequence and determine
-     * what to do with the new sequence.
+     * Helper method for insert(). Walks down from the given node one
+     * level at a time, splitting any leaf that sits where the new
+     * sequence needs to go, until it reaches an empty slot.
      *
      * @param sequence - the new DNA sequence to insert
      * @param node - the internal node parent in question
      * @return the level of the new node, -1 if unsuccessful
      */
-    private int insert(String sequence, InternalNode node) {
+    private int insert(PackedSequence sequence, InternalNode node) {
         
-        char pos;
-        if (node.getLevel() < sequence.length()){
-            pos = sequence.charAt(node.getLevel());
-        } else {
-            pos = 'E';
+        int depth = 0;
+        while (true) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                pathSlots = Arrays.copyOf(pathSlots, depth * 2);
+            }
+            path[depth++] = node;
+            int pos = slot(sequence, node.getLevel());
+            Node cur = node.getChild(pos);
+            
+            if (cur instanceof FlyweightNode) { 
+                LeafNode leaf = new LeafNode(sequence, node.getLevel() + 1);
+                node.setChild(pos, leaf);
+                addBaseCounts(leaf, depth, 1);
+                clearPath(depth);
+                return node.getLevel() + 1;
+            }
+            
+            if (cur instanceof LeafNode) {            
+                if (((LeafNode) cur).getPacked().equals(sequence)) {
+                    clearPath(depth);
+                    return -1;
+                }
+                
+                InternalNode tmp = new InternalNode(fw, cur.getLevel());
+                if (metrics != null) {
+                    metrics.split();
+                }
+                tmp.setChild(slot(((LeafNode)cur).getPacked(), cur.getLevel()), cur);
+                tmp.addBaseCounts((LeafNode) cur, 1);
+                cur.setLevel(cur.getLevel() + 1);
+                node.setChild(pos, tmp);
+                cur = tmp;
+            }
+            
+            node = (InternalNode) cur;
         }
-        Node cur = node.getNode(pos);
-        
-        if (cur instanceof FlyweightNode) { 
-            node.addNode(new LeafNode(sequence, node.getLevel() + 1), pos);
-            return node.getLevel() + 1;
+    }
+    /**
+     * Loads many sequences at once.  On an empty tree this sorts them
+     * and builds every node once, bottom-up, instead of descending from
+     * the root and splitting leaves for each one; the result is the
+     * same tree repeated inserts would give.  On a tree that already
+     * holds sequences it falls back to inserting them one at a time.
+     *
+     * @param sequences - the sequences to load, sorted or not
+     * @return the level of each sequence in input order, -1 for each
+     *         one that was already present.  From an empty tree these
+     *         are the final levels, which can be deeper than what the
+     *         equivalent insert returned at the time.
+     */
+    public int[] bulkLoad(Iterable<String> sequences) {
+        return bulkLoad(sequences, null);
+    }
+    /**
+     * Loads many sequences at once, packing, sorting and building the
+     * subtrees under the root concurrently on a pool.
+     *
+     * @param sequences - the sequences to load, sorted or not
+     * @param pool - the pool to build on, or null to build on this thread
+     * @return the level of each sequence in input order, -1 for each
+     *         one that was already present
+     */
+    public int[] bulkLoad(Iterable<String> sequences, ForkJoinPool pool) {
+        if (!(root instanceof FlyweightNode)) {
+            return insertEach(sequences);
         }
-        
-        if (cur instanceof LeafNode) {            
-            if (((LeafNode) cur).getSequence().equals(sequence)) {
-                return -1;
+        BulkLoader loader = new BulkLoader(fw, sequences, pool);
+        setRoot(loader.build(pool));
+        return loader.levels();
+    }
+    /**
+     * Inserts sequences one by one, collecting the levels.
+     *
+     * @param sequences - the sequences to insert
+     * @return the level of each sequence in input order
+     */
+    int[] insertEach(Iterable<String> sequences) {
+        int[] levels = new int[16];
+        int n = 0;
+        for (String sequence : sequences) {
+            if (n == levels.length) {
+                levels = Arrays.copyOf(levels, n * 2);
             }
-            
-            InternalNode tmp = new InternalNode(fw, cur.getLevel());
-            tmp.addNode(cur, ((LeafNode)cur).getSequence().charAt(cur.getLevel()));
-            cur.setLevel(cur.getLevel() + 1);
-            node.addNode(tmp, sequence.charAt(node.getLevel()));
-            cur = tmp;
+            levels[n++] = insert(sequence);
         }
-        
-        return insert(sequence,(InternalNode) cur);
-        
+        return Arrays.copyOf(levels, n);
+    }
+    /**
+     * Writes the tree to a snapshot file, which MappedTree.open maps
+     * back in without replaying a single insert.
+     *
+     * @param file - the snapshot to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        MappedTree.save(getRoot(), file);
+    }
+    /**
+     * Makes a read-only copy of the tree for search-only use, encoded
+     * without node objects; see FrozenTree.  This tree is left as it
+     * was and can still be changed.
+     *
+     * @return the frozen copy
+     */
+    public FrozenTree freeze() {
+        return FrozenTree.freeze(getRoot());
     }
     /**
      * Removes the given sequence from the tree
@@ -93,15 +356,63 @@ public class Tree {
      * the removed Leaf Node if needed.
      *
      * @param sequence - the DNA sequence to be removed
-     * @return if the removal was successful
+     * @return if the removal was successful; false for a sequence
+     *         holding anything but A, C, G and T, which can never have
+     *         been inserted
      */
     public boolean remove(String sequence) {
+        if (!PackedSequence.isValid(sequence)) {
+            return false;
+        }
+        return remove(sequence, PackedSequence.of(sequence));
+    }
+    /**
+     * Removes a sequence that was packed beforehand, counting and
+     * invalidating like remove(String).
+     *
+     * @param sequence - the DNA sequence to be removed
+     * @param packed - the same sequence, packed
+     * @return if the removal was successful
+     */
+    public boolean remove(String sequence, PackedSequence packed) {
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return removeAndInvalidate(sequence, packed);
+        }
+        long start = System.nanoTime();
+        boolean removed = removeAndInvalidate(sequence, packed);
+        m.record(TreeMetrics.REMOVE, System.nanoTime() - start);
+        return removed;
+    }
+    /**
+     * Removes, then drops the cached searches the remove changed.
+     * The slot it changes is found after, where the collapse stopped.
+     */
+    private boolean removeAndInvalidate(String sequence, PackedSequence packed) {
+        SearchCache c = cache;
+        if (c == null) {
+            return remove(packed);
+        }
+        synchronized (this) {
+            boolean removed = remove(packed);
+            if (removed) {
+                c.invalidate(changedSlot(sequence));
+            }
+            return removed;
+        }
+    }
+    /**
+     * Removes an already packed sequence from the tree.
+     *
+     * @param sequence - the DNA sequence to be removed
+     * @return if the removal was successful
+     */
+    public boolean remove(PackedSequence sequence) {
         if (root instanceof FlyweightNode) {
             return false;
         }
         if (root instanceof LeafNode) {
-                root = fw;
-                if (((LeafNode)root).getSequence().equals(sequence)) {
+                if (((LeafNode)root).getPacked().equals(sequence)) {
                     root = fw;
                     return true;
                 }
@@ -110,47 +421,254 @@ public class Tree {
         return remove(sequence,(InternalNode)root);
     }
     /**
-     * Recursive helper method to find and remove a
-     * given sequence from the tree.  First, determines
-     * the location of the nearest parent node, then
-     * removes the sequence if found.
+     * Helper method to find and remove a given sequence from
+     * the tree.  First walks down to the nearest parent node,
+     * remembering the path in a reusable stack, then removes
+     * the sequence if found.  Walking the path back up, any
+     * node left with a single leaf and four flyweights is
+     * replaced by that leaf, one level higher.
      *
      * @param sequence - the sequence to be removed
      * @param node - the internal node in question
      * @return whether or not the remove was successful
      */
-    public boolean remove(String sequence, InternalNode node) {
+    public boolean remove(PackedSequence sequence, InternalNode node) {
         
-        char c = 'E';
-        if (node.getLevel() < sequence.length()) {
-            c = sequence.charAt(node.getLevel());
-        }
-        Node next = node.getNode(c);
-        if (next instanceof FlyweightNode) {
-            return false;
-        }
-        if (next instanceof LeafNode) {
-            if (((LeafNode)next).getSequence().equals(sequence)) {
-                node.addNode(fw, c);
-                return true;
+        int depth = 0;
+        while (true) {
+            int c = slot(sequence, node.getLevel());
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                pathSlots = Arrays.copyOf(pathSlots, depth * 2);
             }
-            return false;
+            path[depth] = node;
+            pathSlots[depth] = c;
+            depth++;
+            Node next = node.getChild(c);
+            if (next instanceof FlyweightNode) {
+                clearPath(depth);
+                return false;
+            }
+            if (next instanceof LeafNode) {
+                if (!((LeafNode)next).getPacked().equals(sequence)) {
+                    clearPath(depth);
+                    return false;
+                }
+                node.setChild(c, fw);
+                addBaseCounts((LeafNode) next, depth, -1);
+                break;
+            }
+            node = (InternalNode) next;
         }
-        if (remove(sequence, (InternalNode) next)) {
-            if (((InternalNode)next).getTotalFlyNode() == 4) {
-                for (char cur : chars) {
-                    Node child = ((InternalNode)next).getNode(cur);
+        for (int j = depth - 1; j > 0; j--) {
+            InternalNode next = path[j];
+            if (next.getTotalFlyNode() == 4) {
+                for (int cur = 0; cur < InternalNode.SLOTS; cur++) {
+                    Node child = next.getChild(cur);
                     if (child instanceof LeafNode) {
                         child.setLevel(child.getLevel()-1);
-                        node.addNode(child, c);
-                        return true;
+                        path[j - 1].setChild(pathSlots[j - 1], child);
+                        if (metrics != null) {
+                            metrics.collapse();
+                        }
+                        break;
                     }
                 }
             }
-            return true;
+            path[j] = null;
         }
+        path[0] = null;
         return true;
     }
+    /**
+     * Adds or takes away a leaf's bases from the subtree totals of
+     * every node on the current path.
+     *
+     * @param leaf - the leaf being inserted or removed
+     * @param depth - the number of nodes on the path
+     * @param sign - 1 for an insert, -1 for a remove
+     */
+    private void addBaseCounts(LeafNode leaf, int depth, int sign) {
+        for (int i = 0; i < depth; i++) {
+            path[i].addBaseCounts(leaf, sign);
+        }
+    }
+    /**
+     * Drops the path stack's references so removed nodes can be
+     * collected.
+     *
+     * @param depth - the number of nodes on the path
+     */
+    private void clearPath(int depth) {
+        Arrays.fill(path, 0, depth, null);
+    }
+    /**
+     * Adds up the bases of every sequence that starts with prefix.
+     * Each internal node keeps totals for its subtree, so this only
+     * walks down the prefix, never over the matching sequences.
+     *
+     * @param prefix - the prefix to total
+     * @return the number of A, C, G and T bases, all zero if no
+     *         sequence starts with prefix
+     */
+    public long[] composition(String prefix) {
+        long[] count = new long[4];
+        Node cur = findPrefix(prefix);
+        if (cur instanceof InternalNode) {
+            for (int i = 0; i < count.length; i++) {
+                count[i] = ((InternalNode) cur).getBaseCount(i);
+            }
+        }
+        else if (cur instanceof LeafNode && ((LeafNode) cur).getPacked().startsWith(prefix)) {
+            for (int i = 0; i < count.length; i++) {
+                count[i] = ((LeafNode) cur).getBaseCount(i);
+            }
+        }
+        return count;
+    }
+    /**
+     * Walks down the prefix as far as internal nodes go.
+     *
+     * @param prefix - the prefix to look for
+     * @return an internal node below which every sequence starts with
+     *         prefix, a leaf that may or may not start with it, or
+     *         null or a FlyweightNode if no sequence does
+     */
+    Node findPrefix(String prefix) {
+        Node cur = getRoot();
+        int level = 0;
+        while (cur instanceof InternalNode && level < prefix.length()) {
+            cur = ((InternalNode) cur).getNode(prefix.charAt(level));
+            level++;
+        }
+        return cur;
+    }
+    /**
+     * Lists the sequences starting with prefix lazily, in the order a
+     * prefix search prints them.
+     *
+     * @param prefix - the prefix to look for
+     * @return an iterator over the matching leaves
+     */
+    public LeafIterator iterator(String prefix) {
+        return iterator(prefix, null);
+    }
+    /**
+     * Lists the sequences starting with prefix that come after a
+     * cursor, which is the last sequence an earlier listing returned.
+     * The cursor stays valid even if that sequence has been removed.
+     *
+     * @param prefix - the prefix to look for
+     * @param cursor - the last sequence already seen, or null to start
+     *        from the beginning
+     * @return an iterator over the matching leaves after cursor
+     */
+    public LeafIterator iterator(String prefix, String cursor) {
+        Node start = findPrefix(prefix);
+        if (start instanceof LeafNode && !((LeafNode) start).getPacked().startsWith(prefix)) {
+            start = null;
+        }
+        if (cursor == null) {
+            return new LeafIterator(start);
+        }
+        return new LeafIterator(start, PackedSequence.of(cursor));
+    }
+    /**
+     * Lists the sequences starting with prefix, in listing order, for
+     * a DeltaTree merging several trees.
+     *
+     * @param prefix - the prefix to look for
+     * @return an iterator over the matching sequences
+     */
+    Iterator<PackedSequence> sequences(String prefix) {
+        final LeafIterator leaves = iterator(prefix);
+        return new Iterator<PackedSequence>() {
+            public boolean hasNext() {
+                return leaves.hasNext();
+            }
+
+            public PackedSequence next() {
+                return leaves.next().getPacked();
+            }
+        };
+    }
+    /**
+     * @param sequence - the sequence to look for
+     * @return if the tree holds exactly that sequence
+     */
+    boolean contains(PackedSequence sequence) {
+        Node cur = getRoot();
+        int level = 0;
+        while (cur instanceof InternalNode) {
+            cur = ((InternalNode) cur).getChild(slot(sequence, level));
+            level++;
+        }
+        return cur instanceof LeafNode && ((LeafNode) cur).getPacked().equals(sequence);
+    }
+    /**
+     * @param sequence - the sequence to look for
+     * @return the most leading bases sequence shares with one of the
+     *         tree's sequences, itself included, or 0 if none
+     */
+    int reach(PackedSequence sequence) {
+        Node cur = getRoot();
+        int level = 0;
+        while (cur instanceof InternalNode) {
+            Node child = ((InternalNode) cur).getChild(slot(sequence, level));
+            if (child instanceof FlyweightNode) {
+                return level;
+            }
+            cur = child;
+            level++;
+        }
+        if (cur instanceof LeafNode) {
+            return sequence.sharedPrefix(((LeafNode) cur).getPacked());
+        }
+        return 0;
+    }
+    /**
+     * @param prefix - the prefix to look for
+     * @return an ordered spliterator over the matching leaves
+     */
+    public Spliterator<LeafNode> spliterator(String prefix) {
+        return Spliterators.spliteratorUnknownSize(iterator(prefix),
+            Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+    /**
+     * Returns one page of the sequences starting with prefix.  Pass the
+     * last sequence of a page as the cursor to get the page after it.
+     *
+     * @param prefix - the prefix to look for
+     * @param cursor - the last sequence of the previous page, or null
+     * @param offset - how many matches after cursor to skip
+     * @param limit - the most sequences to return
+     * @return up to limit matching sequences
+     */
+    public List<String> page(String prefix, String cursor, int offset, int limit) {
+        LeafIterator leaves = iterator(prefix, cursor);
+        for (int i = 0; i < offset && leaves.hasNext(); i++) {
+            leaves.next();
+        }
+        List<String> page = new ArrayList<String>();
+        while (page.size() < limit && leaves.hasNext()) {
+            page.add(leaves.next().getSequence());
+        }
+        return page;
+    }
+    /**
+     * Finds which child slot a sequence descends through at a level.
+     *
+     * @param sequence - the sequence being placed
+     * @param level - the level of the internal node
+     * @return the slot index of the base at that level,
+     *         or the $ slot past the end
+     */
+    static int slot(PackedSequence sequence, int level) {
+        if (level < sequence.length()) {
+            return sequence.codeAt(level);
+        }
+        return InternalNode.END;
+    }
     /**
      * Method to print out various things about a tree.  Will always
      * give the basic structure via indentation and I/E/sequences.
@@ -162,23 +680,69 @@ public class Tree {
      * @return the print for the entire tree
      */
     public String print(boolean lengths, boolean stats) {
-        if (root instanceof FlyweightNode) {
-            return "E";
+        StringBuilder result = new StringBuilder();
+        try {
+            print(result, lengths, stats);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result.toString();
+    }
+    /**
+     * Streams the print for the entire tree to out, so a large
+     * dump never has to be held in memory.
+     *
+     * @param out - where the print is written
+     * @param lengths - printed sequence lengths
+     * @param stats - printed sequence statistics
+     * @throws IOException if out fails
+     */
+    public void print(Appendable out, boolean lengths, boolean stats) throws IOException {
+        TreeMetrics m = metrics;
+        if (m == null) {
+            print(out, lengths, stats, null);
+            return;
+        }
+        long start = System.nanoTime();
+        print(out, lengths, stats, null);
+        m.record(TreeMetrics.PRINT, System.nanoTime() - start);
+    }
+    /**
+     * Prints the entire tree, rendering the subtrees near the root
+     * concurrently on a pool.  The output is the same as the single
+     * threaded print, but is held in memory until every subtree is done.
+     *
+     * @param out - where the print is written
+     * @param lengths - printed sequence lengths
+     * @param stats - printed sequence statistics
+     * @param pool - the pool to render on, or null to stream on this thread
+     * @throws IOException if out fails
+     */
+    public void print(Appendable out, boolean lengths, boolean stats, ForkJoinPool pool)
+        throws IOException {
+        Node top = getRoot();
+        if (top instanceof FlyweightNode) {
+            out.append("E");
+            return;
+        }
+        if (pool == null) {
+            print(out, lengths, stats, top, top.getLevel());
+        }
+        else {
+            ParallelWalk.print(pool, top, lengths, stats).writeTo(out);
         }
-        return print(lengths,stats,root,null);
     }
     /**
-     * Helper for print method.  Recursively
-     * preorder-traverse all the nodes to print them.
+     * Helper for print method.  Prints a node and everything
+     * below it.
      *
      * @param lengths - printed sequence lengths
      * @param stats - printed sequence statistics
      * @param cur - the current node to print
+     * @param parent - the parent of cur, used to place a FlyweightNode
      * @return the print for this node and any children
      */
     public String print(boolean lengths, boolean stats, Node cur, Node parent) {
-        String result = "\n";
-        
         int level;
         if (cur instanceof FlyweightNode) {
             level = parent.getLevel() + 1;
@@ -186,55 +750,149 @@ public class Tree {
         else {
             level = cur.getLevel();
         }
-        
-        for (int i = 0; i < level; i++) {
-            result += " ";
+        StringBuilder result = new StringBuilder();
+        try {
+            print(result, lengths, stats, cur, level);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result.toString();
+    }
+    /**
+     * Preorder-traverses the nodes below cur with an explicit
+     * stack and writes one line per node.
+     *
+     * @param out - where the print is written
+     * @param lengths - printed sequence lengths
+     * @param stats - printed sequence statistics
+     * @param cur - the first node to print
+     * @param level - the level cur is printed at
+     * @throws IOException if out fails
+     */
+    static void print(Appendable out, boolean lengths, boolean stats, Node cur, int level)
+        throws IOException {
+        printNode(out, lengths, stats, cur, level);
+        if (!(cur instanceof InternalNode)) {
+            return;
+        }
+        InternalNode[] stack = new InternalNode[64];
+        int[] next = new int[64];
+        int top = 0;
+        stack[0] = (InternalNode) cur;
+        while (top >= 0) {
+            InternalNode node = stack[top];
+            int i = next[top];
+            if (i == InternalNode.SLOTS) {
+                stack[top] = null;
+                next[top--] = 0;
+                continue;
+            }
+            next[top]++;
+            Node child = node.getChild(i);
+            int childLevel = child instanceof FlyweightNode ? node.getLevel() + 1 : child.getLevel();
+            printNode(out, lengths, stats, child, childLevel);
+            if (child instanceof InternalNode) {
+                top++;
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                    next = Arrays.copyOf(next, top * 2);
+                }
+                stack[top] = (InternalNode) child;
+            }
         }
+    }
+    /**
+     * Writes the line for one node: its indentation, then E, I or
+     * the sequence with any requested extras.
+     *
+     * @param out - where the line is written
+     * @param lengths - printed sequence lengths
+     * @param stats - printed sequence statistics
+     * @param cur - the node to print
+     * @param level - the level cur is printed at
+     * @throws IOException if out fails
+     */
+    static void printNode(Appendable out, boolean lengths, boolean stats, Node cur, int level)
+        throws IOException {
+        out.append('\n');
+        indent(out, level);
         
         if (cur instanceof FlyweightNode) {
-            result += "E";
+            out.append('E');
         }
         else if (cur instanceof LeafNode) {
-            result += ((LeafNode)cur).getSequence();
-            
+            LeafNode leaf = (LeafNode) cur;
+            out.append(leaf.getSequence());
             if (lengths) {
-                result += " " + ((LeafNode)cur).getSequence().length();
+                out.append(' ').append(Integer.toString(leaf.getPacked().length()));
             }
             else if (stats) {
-                int[] count = {0, 0, 0, 0};
-                String[] propotions = new String[4];
-                char[] curWord = ((LeafNode)cur).getSequence().toCharArray();
-                for (int i = 0; i < curWord.length;i++) {
-                    char w = curWord[i];
-                    if (w == 'A') {
-                        count[0]++;
-                    }
-                    else if (w == 'C') {
-                        count[1]++;
-                    }
-                    else if (w == 'G') {
-                        count[2]++;
-                    }
-                    else if (w == 'T') {
-                        count[3]++;
-                    }
-                }
-                
-                for (int i = 0; i < 4; i++) {
-                    propotions[i] = String.format("%.2f",100.0 * count[i] / curWord.length);
-                }
-                result += " A:" +propotions[0] + " C:" + propotions[1] + " G:" + propotions[2] + " T:" + propotions[3];
+                printStats(out, leaf.getBaseCount(0), leaf.getBaseCount(1),
+                    leaf.getBaseCount(2), leaf.getBaseCount(3));
             }
         }
         else if (cur instanceof InternalNode) {
-            result += "I";
-            for (char c : chars) {
-                result += print(lengths, stats, ((InternalNode)cur).getNode(c), cur);
-            }
-            
+            out.append('I');
+        }
+    }
+    /**
+     * Writes the letter statistics printed after a sequence,
+     * e.g. " A:50.00 C:0.00 G:0.00 T:50.00".
+     *
+     * @param out - where the statistics are written
+     * @param a - the number of A bases
+     * @param c - the number of C bases
+     * @param g - the number of G bases
+     * @param t - the number of T bases
+     * @throws IOException if out fails
+     */
+    static void printStats(Appendable out, long a, long c, long g, long t) throws IOException {
+        long length = a + c + g + t;
+        out.append(" A:");
+        printPercent(out, a, length);
+        out.append(" C:");
+        printPercent(out, c, length);
+        out.append(" G:");
+        printPercent(out, g, length);
+        out.append(" T:");
+        printPercent(out, t, length);
+    }
+    /**
+     * Writes 100 * count / total to two decimal places, rounding
+     * half up like "%.2f" does, using only integer arithmetic.
+     *
+     * @param out - where the percentage is written
+     * @param count - the part
+     * @param total - the whole
+     * @throws IOException if out fails
+     */
+    static void printPercent(Appendable out, long count, long total) throws IOException {
+        if (total == 0) {
+            out.append("NaN");
+            return;
+        }
+        long hundredths = (count * 20000 + total) / (2 * total);
+        out.append(Long.toString(hundredths / 100)).append('.');
+        if (hundredths % 100 < 10) {
+            out.append('0');
+        }
+        out.append(Long.toString(hundredths % 100));
+    }
+    /**
+     * Writes the indentation for a level, two spaces per level,
+     * out of one shared buffer of spaces.
+     *
+     * @param out - where the indentation is written
+     * @param level - the level being printed
+     * @throws IOException if out fails
+     */
+    static void indent(Appendable out, int level) throws IOException {
+        int n = 2 * level;
+        while (n > 0) {
+            int chunk = Math.min(n, PADDING.length());
+            out.append(PADDING, 0, chunk);
+            n -= chunk;
         }
-        
-        return result;
     }
     /**
      * 2 types of patterns: (1) prefix search (2) exact matching
@@ -243,15 +901,80 @@ public class Tree {
      *
      * @param searchWord - the keyword to look for
      * @return the number of nodes visited and search results
+     * @throws IllegalArgumentException if searchWord is empty
      */
     public String search(String searchWord) {
+        StringBuilder result = new StringBuilder();
+        try {
+            search(result, searchWord);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result.toString();
+    }
+    /**
+     * Streams the search results to out.  A prefix search counts
+     * the nodes below the prefix first, so the count can be written
+     * ahead of the sequences without holding them in memory.
+     *
+     * @param out - where the results are written
+     * @param searchWord - the keyword to look for
+     * @throws IOException if out fails
+     * @throws IllegalArgumentException if searchWord is empty
+     */
+    public void search(Appendable out, String searchWord) throws IOException {
+        if (searchWord.isEmpty()) {
+            throw new IllegalArgumentException("empty search word");
+        }
+        TreeMetrics m = metrics;
+        if (m == null) {
+            searchCached(out, searchWord);
+            return;
+        }
+        long start = System.nanoTime();
+        searchCached(out, searchWord);
+        m.record(TreeMetrics.SEARCH, System.nanoTime() - start);
+    }
+    /**
+     * Goes through the cache, if there is one.  Only words of plain
+     * bases, with or without a closing $, do.  Patterns, and words
+     * with an E for the $ slot, reach sequences that do not start
+     * with them, so the cache could not tell when they change.
+     */
+    private void searchCached(Appendable out, String searchWord) throws IOException {
+        SearchCache c = cache;
+        int end = searchWord.length() - (searchWord.endsWith("$") ? 1 : 0);
+        if (c == null || !PackedSequence.isValid(searchWord.subSequence(0, end))) {
+            search(out, searchWord, null);
+            return;
+        }
+        c.search(this, out, searchWord);
+    }
+    /**
+     * Streams the search results to out.  A query holding IUPAC
+     * ambiguity codes, such as N or R, goes down every branch each code
+     * allows; see PatternSearch.  When a prefix search ends
+     * on an internal node, the sequences below it are collected
+     * concurrently on the pool and written in the usual order.
+     *
+     * @param out - where the results are written
+     * @param searchWord - the keyword to look for
+     * @param pool - the pool to collect on, or null to stream on this thread
+     * @throws IOException if out fails
+     */
+    public void search(Appendable out, String searchWord, ForkJoinPool pool) throws IOException {
         
-        if (root instanceof FlyweightNode) {
-            return "no sequence found";
+        Node top = getRoot();
+        if (top instanceof FlyweightNode) {
+            out.append("no sequence found\n");
+            return;
+        }
+        if (PatternSearch.isPattern(searchWord)) {
+            PatternSearch.search(out, top, searchWord, countsChainLevels());
+            return;
         }
         
-        String result = "\n";
-        visitedCount = 1;
+        int visited = 1;
         boolean isWord = false;
         
         if (searchWord.charAt(searchWord.length()-1) == '$') {
@@ -261,92 +984,229 @@ public class Tree {
             isWord = false;
         }
         
-        if (root instanceof LeafNode) {
-            String rootSeq = ((LeafNode)root).getSequence();
-            if ( (isWord && rootSeq.equals(searchWord)) ||(!isWord && rootSeq.substring(0,searchWord.length()).equals(searchWord))) {
-                result += "sequence: " + searchWord;
+        if (top instanceof LeafNode) {
+            PackedSequence rootSeq = ((LeafNode)top).getPacked();
+            printVisited(out, visited);
+            if ( (isWord && rootSeq.contentEquals(searchWord)) ||(!isWord && rootSeq.startsWith(searchWord))) {
+                out.append("\nsequence: ").append(searchWord);
             }
             else {
-                result += "no sequence found";
+                out.append("\nno sequence found");
             }
         }
         
-        else if (root instanceof InternalNode) {
+        else if (top instanceof InternalNode) {
             int count = 0;
-            InternalNode next = (InternalNode) root;
+            InternalNode next = (InternalNode) top;
             while(count < searchWord.length()) {
-                if (next.getNode(searchWord.charAt(count)) instanceof InternalNode) {
-                        next = (InternalNode)next.getNode(searchWord.charAt(count));
+                Node child = next.getNode(searchWord.charAt(count));
+                if (child instanceof InternalNode) {
+                        next = (InternalNode)child;
                 } else {
                     break;
                 }
                 count++;
-                visitedCount++;
+                visited++;
             }
             
-            char pos;
+            finish(out, next, searchWord, count, isWord, visited, pool);
             
-            if (count == searchWord.length()) {
-                pos = 'E';
+        }
+        out.append('\n');
+    }
+    /**
+     * Runs many searches at once.  The queries are sorted and the tree
+     * is walked once, going down each prefix the queries share a single
+     * time; see BatchSearch.
+     *
+     * @param queries - the keywords to look for
+     * @return the result of each query in query order, exactly as
+     *         search gives it
+     * @throws IllegalArgumentException if any query is empty
+     */
+    public String[] searchBatch(List<String> queries) {
+        return searchBatch(queries, null);
+    }
+    /**
+     * Runs many searches at once, also giving each one's visit count.
+     *
+     * @param queries - the keywords to look for
+     * @param visited - filled with the nodes each query visited, or
+     *        null; at least as long as queries
+     * @return the result of each query in query order, exactly as
+     *         search gives it
+     * @throws IllegalArgumentException if any query is empty
+     */
+    public String[] searchBatch(List<String> queries, int[] visited) {
+        return BatchSearch.search(this, queries, visited);
+    }
+    /**
+     * Runs searches one by one, for trees that do not keep their
+     * nodes as objects.
+     *
+     * @param queries - the keywords to look for
+     * @param visited - filled with the visit counts, or null
+     * @return the result of each query in query order
+     */
+    String[] searchEach(List<String> queries, int[] visited) {
+        String[] results = new String[queries.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = search(queries.get(i));
+            if (visited != null) {
+                visited[i] = BatchSearch.visits(results[i]);
+            }
+        }
+        return results;
+    }
+    /**
+     * Writes the result of a search that has gone down to the deepest
+     * internal node on its path: the visit count, then the sequence
+     * found, every sequence below the node, or "no sequence found".
+     *
+     * @param out - where the result is written
+     * @param next - the deepest internal node the search reached
+     * @param searchWord - the query, without any trailing $
+     * @param count - how many bases of the query led to next
+     * @param isWord - if the query asked for a whole sequence
+     * @param visited - the nodes visited on the way to next
+     * @param pool - the pool to collect a prefix match on, or null
+     * @return the nodes visited by the whole search
+     * @throws IOException if out fails
+     */
+    static int finish(Appendable out, InternalNode next, String searchWord, int count,
+        boolean isWord, int visited, ForkJoinPool pool) throws IOException {
+        char pos;
+        
+        if (count == searchWord.length()) {
+            pos = 'E';
+        } else {
+            pos = searchWord.charAt(count);
+        }
+        
+        Node nextNode = next.getNode(pos);
+        if (isWord) {
+            visited++;
+            printVisited(out, visited);
+            if (nextNode instanceof LeafNode && ((LeafNode)nextNode).getPacked().contentEquals(searchWord)) {
+                out.append("\nsequence: ").append(searchWord);
             } else {
-                pos = searchWord.charAt(count);
+                out.append("\nno sequence found");
             }
-            
-            Node nextNode = next.getNode(pos);
-            if (isWord) {
-                if (nextNode instanceof LeafNode && ((LeafNode)nextNode).getSequence().equals(searchWord)) {
-                    result += "sequence: " + searchWord;
-                } else {
-                    result += "no sequence found";
-                }
-                visitedCount++;
+        }
+        else {
+            if (pos != 'E' && nextNode instanceof LeafNode && ((LeafNode)nextNode).getPacked().startsWith(searchWord)) {
+                visited++;
+                printVisited(out, visited);
+                out.append("\nsequence: ").append(((LeafNode)nextNode).getSequence());
+            }
+            else if (pos == 'E' && pool != null) {
+                ParallelWalk.Chunk all = ParallelWalk.printAll(pool, next);
+                visited += all.visited() - 1;
+                printVisited(out, visited);
+                all.writeTo(out);
+            }
+            else if (pos == 'E') {
+                visited += countAll(next) - 1;
+                printVisited(out, visited);
+                printAll(out, next);
             }
             else {
-                if (pos != 'E' && nextNode instanceof LeafNode && ((LeafNode)nextNode).getSequence().substring(0, searchWord.length()).equals(searchWord)) {
-                    result += "sequence: " + ((LeafNode)nextNode).getSequence();
-                    visitedCount++;
-                }
-                else if (pos == 'E') {
-                    result += printAll((InternalNode)next);
-                    visitedCount--;
-                    result = result.substring(0, result.length() - 1);
-                }
-                else {
-                    result += "no sequence found";
-                    visitedCount++;
-                }
+                visited++;
+                printVisited(out, visited);
+                out.append("\nno sequence found");
             }
-            
         }
-        return "# of nodes visited: " + visitedCount + result + "\n";
+        return visited;
     }
     /**
-     * Helper method to print all the nodes in a tree.
+     * Finds every sequence of the same length as query that differs
+     * from it in at most k bases.
      *
-     * @param node - the root of the tree
-     * @return an output string for all the sequences
+     * @param query - the bases to match
+     * @param k - the most mismatches allowed
+     * @return the number of nodes visited and the matches
      */
-    private String printAll(InternalNode node) {
-        visitedCount++;
-        String result = "";
-        
-        for (int i = 0; i < 4; i++) {
-            if (node.getNode(chars[i]) instanceof LeafNode) {
-                result += "Sequence: " + ((LeafNode)node.getNode(chars[i])).getSequence() + "\n";
-                visitedCount++;
-            }
-            else if (node.getNode(chars[i]) instanceof InternalNode) {
-                result += printAll((InternalNode)node.getNode(chars[i]));
-            }else {
-                visitedCount++;
-            }
+    public String searchHamming(String query, int k) {
+        StringBuilder result = new StringBuilder();
+        try {
+            searchHamming(result, query, k);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        
-        if (node.getNode('E') instanceof LeafNode) {
-            result += "Sequence: " + ((LeafNode)node.getNode('E')).getSequence() + "\n";
+        return result.toString();
+    }
+    /**
+     * Streams the matches within Hamming distance k of query to out,
+     * in the same format as search.
+     *
+     * @param out - where the results are written
+     * @param query - the bases to match
+     * @param k - the most mismatches allowed
+     * @throws IOException if out fails
+     */
+    public void searchHamming(Appendable out, String query, int k) throws IOException {
+        new ApproximateSearch(query, k, false, countsChainLevels()).run(out, getRoot());
+    }
+    /**
+     * Finds every sequence at most k insertions, deletions or
+     * substitutions away from query.
+     *
+     * @param query - the bases to match
+     * @param k - the most edits allowed
+     * @return the number of nodes visited and the matches
+     */
+    public String searchEdit(String query, int k) {
+        StringBuilder result = new StringBuilder();
+        try {
+            searchEdit(result, query, k);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result.toString();
+    }
+    /**
+     * Streams the matches within edit distance k of query to out,
+     * in the same format as search.
+     *
+     * @param out - where the results are written
+     * @param query - the bases to match
+     * @param k - the most edits allowed
+     * @throws IOException if out fails
+     */
+    public void searchEdit(Appendable out, String query, int k) throws IOException {
+        new ApproximateSearch(query, k, true, countsChainLevels()).run(out, getRoot());
+    }
+    private static void printVisited(Appendable out, int visited) throws IOException {
+        out.append("# of nodes visited: ").append(Integer.toString(visited));
+    }
+    /**
+     * Counts the nodes a prefix search visits below a node: the
+     * node itself, every child slot, and the same again for each
+     * internal child.
+     *
+     * @param node - the root of the subtree
+     * @return the number of nodes visited
+     */
+    static int countAll(InternalNode node) {
+        LeafIterator leaves = new LeafIterator(node);
+        while (leaves.hasNext()) {
+            leaves.next();
+        }
+        return leaves.visited();
+    }
+    /**
+     * Helper method to print all the sequences below a node,
+     * each on its own line.
+     *
+     * @param out - where the sequences are written
+     * @param node - the root of the tree
+     * @throws IOException if out fails
+     */
+    static void printAll(Appendable out, InternalNode node) throws IOException {
+        LeafIterator leaves = new LeafIterator(node);
+        while (leaves.hasNext()) {
+            out.append("\nsequence: ").append(leaves.next().getSequence());
         }
-        visitedCount++;
-        return result;
     }
 
 }
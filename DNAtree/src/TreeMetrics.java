@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms for each kind of operation, and counts of the
+ * nodes insert splits and remove collapses.  A tree only records
+ * into one after setMetrics, and without one its operations skip
+ * the clock reads and counting entirely.
+ *
+ * The shape of the tree (node counts, depths, how many slots are
+ * flyweights) is not tracked as it changes but worked out by a walk
+ * when a report is asked for, so it costs nothing in between.
+ */
+public class TreeMetrics {
+    public static final int INSERT = 0;
+    public static final int REMOVE = 1;
+    public static final int SEARCH = 2;
+    public static final int PRINT = 3;
+    private static final String[] NAMES = {"insert", "remove", "search", "print"};
+
+    private final LatencyHistogram[] latency = new LatencyHistogram[NAMES.length];
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder collapses = new LongAdder();
+
+    public TreeMetrics() {
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param operation - INSERT, REMOVE, SEARCH or PRINT
+     * @param nanos - how long one call took
+     */
+    public void record(int operation, long nanos) {
+        latency[operation].record(nanos);
+    }
+
+    /**
+     * @param operation - INSERT, REMOVE, SEARCH or PRINT
+     * @return the latencies recorded for that operation
+     */
+    public LatencyHistogram latency(int operation) {
+        return latency[operation];
+    }
+
+    /**
+     * Counts a leaf split into a new internal node by an insert.
+     */
+    public void split() {
+        splits.increment();
+    }
+
+    /**
+     * Counts an internal node replaced by its last leaf on a remove.
+     */
+    public void collapse() {
+        collapses.increment();
+    }
+
+    /**
+     * @return the number of leaves split by inserts
+     */
+    public long splits() {
+        return splits.sum();
+    }
+
+    /**
+     * @return the number of nodes collapsed by removes
+     */
+    public long collapses() {
+        return collapses.sum();
+    }
+
+    /**
+     * Writes every operation's count and latency percentiles, then the
+     * shape of the tree, one line each, with the split and collapse
+     * counts if the tree keeps them, the search cache's counts if
+     * the tree has one, and how its layers stand if it is a DeltaTree.
+     *
+     * @param out - where the report is written
+     * @param tree - the tree to measure the shape of
+     * @throws IOException if out fails
+     */
+    public void report(Appendable out, Tree tree) throws IOException {
+        for (int i = 0; i < NAMES.length; i++) {
+            LatencyHistogram h = latency[i];
+            out.append(NAMES[i]).append(": count ").append(Long.toString(h.count()))
+                .append(" p50 ").append(Long.toString(h.percentile(50)))
+                .append(" p99 ").append(Long.toString(h.percentile(99)))
+                .append(" p99.9 ").append(Long.toString(h.percentile(99.9)))
+                .append(" max ").append(Long.toString(h.max())).append(" ns\n");
+        }
+        Shape shape = tree.shape();
+        out.append("nodes: internal ").append(Long.toString(shape.internals))
+            .append(" leaf ").append(Long.toString(shape.leaves)).append('\n');
+        double average = shape.depthSum / (double) Math.max(1, shape.leaves);
+        out.append("depth: max ").append(Integer.toString(shape.maxDepth))
+            .append(String.format(" average %.2f", average)).append('\n');
+        out.append("flyweight slots: ");
+        Tree.printPercent(out, shape.flyweights, Math.max(1, InternalNode.SLOTS * shape.internals));
+        out.append("%\n");
+        if (tree.countsSplits()) {
+            out.append("splits: ").append(Long.toString(splits()))
+                .append(" collapses: ").append(Long.toString(collapses())).append('\n');
+        }
+        if (tree.getSearchCache() != null) {
+            tree.getSearchCache().report(out);
+        }
+        if (tree instanceof DeltaTree) {
+            ((DeltaTree) tree).report(out);
+        }
+    }
+
+    /**
+     * Node counts and leaf depths from one walk over a tree.  A leaf's
+     * depth is its level, so chains in a CompressedTree count in full.
+     */
+    static final class Shape {
+        long internals;
+        long leaves;
+        long flyweights;
+        long depthSum;
+        int maxDepth;
+
+        Shape() {
+        }
+
+        Shape(Node root) {
+            if (root instanceof LeafNode) {
+                leaves = 1;
+                return;
+            }
+            if (!(root instanceof InternalNode)) {
+                return;
+            }
+            InternalNode[] stack = new InternalNode[64];
+            int top = 0;
+            stack[0] = (InternalNode) root;
+            while (top >= 0) {
+                InternalNode node = stack[top];
+                stack[top--] = null;
+                internals++;
+                flyweights += node.getTotalFlyNode();
+                for (int i = 0; i < InternalNode.SLOTS; i++) {
+                    Node child = node.getChild(i);
+                    if (child instanceof InternalNode) {
+                        top++;
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top] = (InternalNode) child;
+                    }
+                    else if (child instanceof LeafNode) {
+                        leaves++;
+                        depthSum += child.getLevel();
+                        maxDepth = Math.max(maxDepth, child.getLevel());
+                    }
+                }
+            }
+        }
+    }
+}
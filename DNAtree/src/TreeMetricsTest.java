@@ -0,0 +1,88 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TreeMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(50));
+        assertEquals(0, h.max());
+        for (long v = 1; v <= 1000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(1000, h.count());
+        // within the 1/32 bucket width of the exact value
+        assertEquals(500000, h.percentile(50), 500000 / 32.0);
+        assertEquals(990000, h.percentile(99), 990000 / 32.0);
+        assertEquals(1000000, h.max(), 1000000 / 32.0);
+        assertTrue(h.max() >= 1000000);
+        h.record(7);
+        assertEquals(7, h.percentile(0));
+        h.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.max());
+    }
+
+    @Test
+    public void testCountsSplitsAndCollapses() {
+        Tree tree = new Tree();
+        tree.insert("ACGT");
+        assertNull(tree.getMetrics());
+        TreeMetrics metrics = new TreeMetrics();
+        tree.setMetrics(metrics);
+        // the root leaf ACGT splits at levels 0, 1, 2 and 3
+        tree.insert("ACGA");
+        tree.insert("ACGA");
+        assertEquals(4, metrics.splits());
+        assertEquals(2, metrics.latency(TreeMetrics.INSERT).count());
+        // ACGT is left alone and moves back up to the root's A slot
+        assertTrue(tree.remove("ACGA"));
+        assertFalse(tree.remove("TTTT"));
+        assertEquals(3, metrics.collapses());
+        assertEquals(2, metrics.latency(TreeMetrics.REMOVE).count());
+        tree.search("A");
+        tree.print(true, false);
+        assertEquals(1, metrics.latency(TreeMetrics.SEARCH).count());
+        assertEquals(1, metrics.latency(TreeMetrics.PRINT).count());
+
+        tree.setMetrics(null);
+        tree.insert("GGGG");
+        assertEquals(2, metrics.latency(TreeMetrics.INSERT).count());
+    }
+
+    @Test
+    public void testReportsShape() throws Exception {
+        Tree tree = new Tree();
+        TreeMetrics metrics = new TreeMetrics();
+        tree.setMetrics(metrics);
+        tree.insert("AAAA");
+        tree.insert("AAAC");
+        tree.insert("ACGT");
+        tree.remove("AAAC");
+        StringBuilder out = new StringBuilder();
+        metrics.report(out, tree);
+        String report = out.toString();
+        assertTrue(report, report.contains("insert: count 3 "));
+        assertTrue(report, report.contains("nodes: internal 2 leaf 2\n"));
+        assertTrue(report, report.contains("depth: max 2 average 2.00\n"));
+        assertTrue(report, report.contains("flyweight slots: 70.00%\n"));
+        assertTrue(report, report.contains("splits: 4 collapses: 2\n"));
+    }
+
+    @Test
+    public void testOmitsSplitsWhereNotCounted() throws Exception {
+        for (Tree tree : new Tree[] {new ArenaTree(), new ConcurrentTree()}) {
+            TreeMetrics metrics = new TreeMetrics();
+            tree.setMetrics(metrics);
+            tree.insert("AAAA");
+            tree.insert("AAAC");
+            tree.remove("AAAC");
+            StringBuilder out = new StringBuilder();
+            metrics.report(out, tree);
+            String report = out.toString();
+            assertTrue(report, report.contains("insert: count 2 "));
+            assertFalse(report, report.contains("splits:"));
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TreeTest {
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        java.util.Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void testLevelsAndCollapse() {
+        Tree tree = new Tree();
+        assertEquals(0, tree.insert("ACGT"));
+        assertEquals(2, tree.insert("AAAA"));
+        assertEquals(3, tree.insert("AA"));
+        assertEquals(4, tree.insert("AAACCCCGGTGAAAACGTA"));
+        assertEquals(-1, tree.insert("AA"));
+        assertTrue(tree.remove("AAAA"));
+        assertFalse(tree.remove("AAAA"));
+        assertFalse(tree.remove("AAAT"));
+        // AAACCCCGGTGAAAACGTA is now the only child left under AAA,
+        // so it moves up to where AAAA's parent was
+        assertEquals("# of nodes visited: 4\nsequence: AAACCCCGGTGAAAACGTA\n",
+            tree.search("AAACCCCGGTGAAAACGTA$"));
+        assertTrue(tree.remove("ACGT"));
+        assertTrue(tree.remove("AA"));
+        assertTrue(tree.remove("AAACCCCGGTGAAAACGTA"));
+        assertEquals("\nI\n  E\n  E\n  E\n  E\n  E", tree.print(false, false));
+    }
+
+    @Test
+    public void testBadBases() {
+        Tree tree = new Tree();
+        assertEquals(0, tree.insert("ACGT"));
+        assertFalse(tree.remove("ACNT"));
+        assertFalse(tree.remove("acgt"));
+        try {
+            tree.insert("ACNT");
+            fail("N is not a base");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("ACNT"));
+        }
+        assertTrue(tree.remove("ACGT"));
+    }
+
+    @Test
+    public void testEmptySequenceSplitsIntoEndSlot() {
+        Tree tree = new Tree();
+        assertEquals(0, tree.insert(""));
+        assertEquals(1, tree.insert("A"));
+        assertEquals(2, tree.insert("AC"));
+        assertEquals("\nI\n  I\n    E\n    AC\n    E\n    E\n    A\n  E\n  E\n  E\n  ",
+            tree.print(false, false));
+    }
+
+    @Test
+    public void testVeryLongSharedPrefix() {
+        int length = 150000;
+        String prefix = repeat('A', length);
+        Tree tree = new Tree();
+        assertEquals(0, tree.insert(prefix + "C"));
+        assertEquals(length + 1, tree.insert(prefix + "G"));
+        assertEquals(length + 1, tree.insert(prefix + "T"));
+        assertEquals(length + 1, tree.insert(prefix));
+        String found = tree.search(prefix.substring(0, 10));
+        assertTrue(found.startsWith("# of nodes visited: "));
+        assertTrue(found.endsWith("sequence: " + prefix + "\n"));
+        assertTrue(tree.remove(prefix + "G"));
+        assertTrue(tree.remove(prefix + "T"));
+        assertTrue(tree.remove(prefix));
+        assertEquals("# of nodes visited: 2\nsequence: " + prefix + "C\n",
+            tree.search(prefix + "C$"));
+    }
+
+    @Test
+    public void testStreamingPrintOfDeepTree() throws java.io.IOException {
+        int length = 3000;
+        String prefix = repeat('C', length);
+        Tree tree = new Tree();
+        tree.insert(prefix + "A");
+        tree.insert(prefix + "T");
+        final long[] chars = new long[1];
+        Appendable counter = new Appendable() {
+            public Appendable append(CharSequence csq) {
+                chars[0] += csq.length();
+                return this;
+            }
+            public Appendable append(CharSequence csq, int start, int end) {
+                chars[0] += end - start;
+                return this;
+            }
+            public Appendable append(char c) {
+                chars[0]++;
+                return this;
+            }
+        };
+        tree.print(counter, true, false);
+        String dump = tree.print(true, false);
+        assertEquals(dump.length(), chars[0]);
+        assertTrue(dump.contains("\n" + repeat(' ', 2 * (length + 1)) + prefix + "T " + (length + 1)
+            + "\n" + repeat(' ', 2 * (length + 1)) + "E"));
+        assertEquals(tree.print(false, false, tree.getRoot(), null), tree.print(false, false));
+    }
+
+    @Test
+    public void testPercentMatchesFormat() throws java.io.IOException {
+        for (int length = 0; length < 200; length++) {
+            for (int count = 0; count <= length; count++) {
+                StringBuilder out = new StringBuilder();
+                Tree.printPercent(out, count, length);
+                assertEquals(String.format("%.2f", 100.0 * count / length), out.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testCompositionTracksInsertAndRemove() {
+        java.util.Random random = new java.util.Random(11);
+        java.util.List<String> live = new java.util.ArrayList<String>();
+        Tree tree = new Tree();
+        for (int op = 0; op < 3000; op++) {
+            String s = TreeTesting.randomSequence(random, random.nextBoolean() ? "AC" : "", 7);
+            if (random.nextInt(3) > 0) {
+                if (tree.insert(s) >= 0) {
+                    live.add(s);
+                }
+            }
+            else if (tree.remove(s)) {
+                live.remove(s);
+            }
+            String prefix = s.substring(0, Math.min(s.length(), random.nextInt(4)));
+            long[] expected = new long[4];
+            for (String l : live) {
+                if (l.startsWith(prefix)) {
+                    for (int i = 0; i < l.length(); i++) {
+                        expected[PackedSequence.code(l.charAt(i))]++;
+                    }
+                }
+            }
+            assertArrayEquals(prefix, expected, tree.composition(prefix));
+        }
+    }
+
+    @Test
+    public void testBulkLoadMatchesRepeatedInsert() {
+        java.util.Random random = new java.util.Random(5);
+        for (int round = 0; round < 40; round++) {
+            java.util.List<String> input = new java.util.ArrayList<String>();
+            int n = random.nextInt(60);
+            for (int k = 0; k < n; k++) {
+                String prefix = random.nextBoolean() ? "GATTA" : "";
+                input.add(TreeTesting.randomSequence(random, prefix, 6));
+            }
+            if (round % 2 == 0) {
+                java.util.Collections.sort(input);
+            }
+            Tree expected = new Tree();
+            int[] levels = new int[input.size()];
+            for (int k = 0; k < levels.length; k++) {
+                levels[k] = expected.insert(input.get(k));
+            }
+            for (int k = 0; k < levels.length; k++) {
+                if (levels[k] >= 0) {
+                    levels[k] = levelOf(expected, input.get(k));
+                }
+            }
+            Tree loaded = new Tree();
+            assertArrayEquals(levels, loaded.bulkLoad(input));
+            assertEquals(expected.print(true, true), loaded.print(true, true));
+            for (String prefix : new String[] {"G", "GATTA", "C", "TA"}) {
+                assertEquals(expected.search(prefix + "$"), loaded.search(prefix + "$"));
+                assertEquals(expected.search(prefix), loaded.search(prefix));
+            }
+            if (!input.isEmpty()) {
+                assertTrue(loaded.remove(input.get(0)));
+                assertTrue(expected.remove(input.get(0)));
+                assertEquals(expected.print(false, true), loaded.print(false, true));
+            }
+        }
+    }
+
+    private static int levelOf(Tree tree, String sequence) {
+        PackedSequence packed = PackedSequence.of(sequence);
+        Node node = tree.getRoot();
+        while (node instanceof InternalNode) {
+            node = ((InternalNode) node).getChild(Tree.slot(packed, node.getLevel()));
+        }
+        return node.getLevel();
+    }
+
+    @Test
+    public void testBulkLoadIntoNonEmptyTree() {
+        Tree tree = new Tree();
+        tree.insert("ACGT");
+        int[] levels = tree.bulkLoad(java.util.Arrays.asList("AAAA", "ACGT", "ACGTT"));
+        assertArrayEquals(new int[] {2, -1, 5}, levels);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws java.io.IOException {
+        java.util.Random random = new java.util.Random(9);
+        java.util.List<String> input = new java.util.ArrayList<String>();
+        String shared = repeat('C', 300);
+        for (int k = 0; k < 40000; k++) {
+            input.add((k % 3 == 0 ? shared : "") + TreeTesting.random(random, 12));
+        }
+        input.add(input.get(17));
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            Tree sequential = new Tree();
+            Tree parallel = new Tree();
+            assertArrayEquals(sequential.bulkLoad(input), parallel.bulkLoad(input, pool));
+            assertEquals(-1, parallel.bulkLoad(input.subList(input.size() - 1, input.size()), pool)[0]);
+
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            sequential.print(expected, false, true);
+            parallel.print(actual, false, true, pool);
+            assertEquals(expected.toString(), actual.toString());
+
+            for (String prefix : new String[] {"A", "CC", shared, "GT", "T$"}) {
+                expected.setLength(0);
+                actual.setLength(0);
+                sequential.search(expected, prefix);
+                parallel.search(actual, prefix, pool);
+                assertEquals(expected.toString(), actual.toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Random sequences and the checks the tests share for holding one
+ * kind of tree up against another, most often a plain Tree.  Compiled
+ * with the tests only.
+ */
+final class TreeTesting {
+    private static final String BASES = "ACGT";
+
+    private TreeTesting() {
+    }
+
+    /**
+     * @param random - the source of bases
+     * @param max - the longest sequence to make
+     * @return a sequence of 1 to max random bases
+     */
+    static String random(Random random, int max) {
+        StringBuilder seq = new StringBuilder();
+        int length = 1 + random.nextInt(max);
+        for (int i = 0; i < length; i++) {
+            seq.append(BASES.charAt(random.nextInt(4)));
+        }
+        return seq.toString();
+    }
+
+    /**
+     * @param random - the source of bases
+     * @param prefix - what the sequence starts with
+     * @param max - one more than the most bases to add
+     * @return prefix followed by 0 to max - 1 random bases
+     */
+    static String randomSequence(Random random, String prefix, int max) {
+        StringBuilder seq = new StringBuilder(prefix);
+        int length = random.nextInt(max);
+        for (int i = 0; i < length; i++) {
+            seq.append(BASES.charAt(random.nextInt(4)));
+        }
+        return seq.toString();
+    }
+
+    /**
+     * Checks all three kinds of print match.
+     *
+     * @param expected - the tree to match
+     * @param actual - the tree under test
+     */
+    static void assertPrintsMatch(Tree expected, Tree actual) {
+        assertEquals(expected.print(false, false), actual.print(false, false));
+        assertEquals(expected.print(true, false), actual.print(true, false));
+        assertEquals(expected.print(false, true), actual.print(false, true));
+    }
+
+    /**
+     * Makes the same random inserts, removes and searches on both trees
+     * and checks every result matches.  Half the ops insert, three in
+     * ten remove, half the time something inserted before, and the rest
+     * search part of a sequence as a prefix, as a whole word and one
+     * base past it, and total its bases.  The prints are compared every
+     * printEvery ops and at the end.
+     *
+     * @param random - the source of ops and sequences
+     * @param expected - the tree to match
+     * @param actual - the tree under test
+     * @param prefixes - what sequences start with, one picked per op
+     * @param max - one more than the most bases added after a prefix
+     * @param ops - how many ops to make
+     * @param printEvery - how many ops go by between print checks
+     */
+    static void assertSameAnswers(Random random, Tree expected, Tree actual,
+        String[] prefixes, int max, int ops, int printEvery) {
+        List<String> inserted = new ArrayList<String>();
+        for (int op = 0; op < ops; op++) {
+            String seq = randomSequence(random, prefixes[random.nextInt(prefixes.length)],
+                max);
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                assertEquals(seq, expected.insert(seq), actual.insert(seq));
+                inserted.add(seq);
+            }
+            else if (kind < 8) {
+                if (!inserted.isEmpty() && random.nextBoolean()) {
+                    seq = inserted.get(random.nextInt(inserted.size()));
+                }
+                assertEquals(seq, expected.remove(seq), actual.remove(seq));
+            }
+            else {
+                String word = seq.isEmpty() ? "G"
+                    : seq.substring(0, 1 + random.nextInt(seq.length()));
+                String past = word + BASES.charAt(random.nextInt(4));
+                assertEquals(word, expected.search(word), actual.search(word));
+                assertEquals(word, expected.search(word + "$"), actual.search(word + "$"));
+                assertEquals(past, expected.search(past), actual.search(past));
+                assertArrayEquals(word, expected.composition(word), actual.composition(word));
+            }
+            if (op % printEvery == printEvery - 1) {
+                assertPrintsMatch(expected, actual);
+            }
+        }
+        assertPrintsMatch(expected, actual);
+    }
+}
@@ -0,0 +1,108 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times Hamming and edit-distance searches for reads carrying up to k
+ * errors against a brute-force Hamming scan of every sequence.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar ApproximateSearchBenchmark -p k=1,2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ApproximateSearchBenchmark {
+    private static final MethodHandle HAMMING = Trees.method("Tree", "searchHamming",
+        String.class, String.class, int.class);
+    private static final MethodHandle EDIT = Trees.method("Tree", "searchEdit",
+        String.class, String.class, int.class);
+
+    @Param({"0", "1", "2", "3"})
+    public int k;
+    @Param({"1000000"})
+    public int size;
+    @Param({"32"})
+    public int length;
+
+    private String[] sequences;
+    private String[] reads;
+    private Object tree;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        sequences = Datasets.reads(size, length, length, 42);
+        tree = Trees.newTree();
+        Trees.bulkLoad(tree, Arrays.asList(sequences));
+        Random random = new Random(7);
+        reads = new String[256];
+        for (int q = 0; q < reads.length; q++) {
+            char[] read = sequences[random.nextInt(size)].toCharArray();
+            for (int e = 0; e < k; e++) {
+                read[random.nextInt(read.length)] = "ACGT".charAt(random.nextInt(4));
+            }
+            reads[q] = new String(read);
+        }
+    }
+
+    private String nextRead() {
+        next = (next + 1) & (reads.length - 1);
+        return reads[next];
+    }
+
+    @Benchmark
+    public String hamming() throws Throwable {
+        return (String) HAMMING.invokeExact(tree, nextRead(), k);
+    }
+
+    @Benchmark
+    public String edit() throws Throwable {
+        return (String) EDIT.invokeExact(tree, nextRead(), k);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long scan() {
+        String read = nextRead();
+        long found = 0;
+        for (String sequence : sequences) {
+            if (withinHamming(sequence, read, k)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static boolean withinHamming(String a, String b, int k) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        int d = 0;
+        for (int i = 0; i < a.length() && d <= k; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                d++;
+            }
+        }
+        return d <= k;
+    }
+}
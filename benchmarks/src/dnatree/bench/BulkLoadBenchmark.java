@@ -0,0 +1,107 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares building a tree with one insert per sequence against
+ * Tree.bulkLoad, from both shuffled and sorted input and on the common
+ * ForkJoinPool, and then the single threaded print of the result
+ * against the parallel one.  shared puts a common prefix of that many
+ * bases in front of every sequence.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar BulkLoadBenchmark -p shared=0,20
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkLoadBenchmark {
+    private static final MethodHandle BULK_LOAD_PARALLEL = Trees.method("Tree", "bulkLoad",
+        int[].class, Iterable.class, ForkJoinPool.class);
+    private static final MethodHandle PRINT_PARALLEL = Trees.method("Tree", "print",
+        void.class, Appendable.class, boolean.class, boolean.class, ForkJoinPool.class);
+
+    @Param({"1000000"})
+    public int size;
+    @Param({"40"})
+    public int length;
+    @Param({"0"})
+    public int shared;
+
+    private List<String> shuffled;
+    private List<String> sorted;
+    private Object tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Random random = new Random(42);
+        String prefix = Datasets.bases(random, shared);
+        shuffled = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            shuffled.add(prefix + Datasets.bases(random, 1 + random.nextInt(length)));
+        }
+        sorted = new ArrayList<String>(shuffled);
+        Collections.sort(sorted);
+        tree = Trees.newTree();
+        Trees.bulkLoad(tree, shuffled);
+    }
+
+    @Benchmark
+    public Object insertShuffled() {
+        Object built = Trees.newTree();
+        for (String sequence : shuffled) {
+            Trees.insert(built, sequence);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public int[] bulkLoadShuffled() {
+        return Trees.bulkLoad(Trees.newTree(), shuffled);
+    }
+
+    @Benchmark
+    public int[] bulkLoadSorted() {
+        return Trees.bulkLoad(Trees.newTree(), sorted);
+    }
+
+    @Benchmark
+    public int[] bulkLoadParallel() throws Throwable {
+        return (int[]) BULK_LOAD_PARALLEL.invokeExact(Trees.newTree(), (Iterable<?>) shuffled,
+            ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public String print() {
+        return Trees.print(tree, false, true);
+    }
+
+    @Benchmark
+    public StringBuilder printParallel() throws Throwable {
+        StringBuilder out = new StringBuilder();
+        PRINT_PARALLEL.invokeExact(tree, (Appendable) out, false, true, ForkJoinPool.commonPool());
+        return out;
+    }
+}
@@ -0,0 +1,98 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures search throughput on a ConcurrentTree while one writer
+ * keeps inserting and removing sequences.  main runs it for 1 up to
+ * 64 readers.  A single count can also be set with -tg, which takes
+ * the readers' count first, as JMH orders a group's methods by name.
+ *
+ * Run the sweep with:
+ *   java -cp benchmarks/target/benchmarks.jar dnatree.bench.ConcurrentSearchBenchmark
+ * or one reader count with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar ConcurrentSearchBenchmark -tg 8,1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ConcurrentSearchBenchmark {
+    private static final MethodHandle NEW_CONCURRENT = Trees.constructor("ConcurrentTree");
+
+    @Param({"1000000"})
+    public int size;
+
+    private String[] exact;
+    private Object tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        String[] sequences = Datasets.reads(size, 8, 39, 42);
+        exact = new String[sequences.length];
+        for (int i = 0; i < exact.length; i++) {
+            exact[i] = sequences[i] + "$";
+        }
+        tree = (Object) NEW_CONCURRENT.invokeExact();
+        Trees.bulkLoad(tree, Arrays.asList(sequences));
+    }
+
+    /**
+     * Each thread's own random source.
+     */
+    @State(Scope.Thread)
+    public static class Source {
+        final Random random = new Random(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Group("searchWhileWriting")
+    @GroupThreads(1)
+    public boolean write(Source source) {
+        String sequence = Datasets.bases(source.random, 8 + source.random.nextInt(32));
+        Trees.insert(tree, sequence);
+        return Trees.remove(tree, sequence);
+    }
+
+    @Benchmark
+    @Group("searchWhileWriting")
+    @GroupThreads(4)
+    public String search(Source source) {
+        return Trees.search(tree, exact[source.random.nextInt(exact.length)]);
+    }
+
+    /**
+     * Runs the benchmark with one writer and 1, 2, 4, ... 64 readers.
+     */
+    public static void main(String[] args) throws RunnerException {
+        for (int readers = 1; readers <= 64; readers *= 2) {
+            new Runner(new OptionsBuilder()
+                .include(ConcurrentSearchBenchmark.class.getName())
+                .threadGroups(readers, 1)
+                .build()).run();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package dnatree.bench;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic sequence sets.  Every set is distinct sequences in
+ * random order, generated from a fixed seed so runs compare.
+ */
+final class Datasets {
+    static final String UNIFORM = "uniform";
+    static final String SHARED_PREFIX = "shared-prefix";
+    static final String LONG_READ = "long-read";
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private Datasets() {
+    }
+
+    /**
+     * @param name - UNIFORM, SHARED_PREFIX or LONG_READ
+     * @param size - the number of sequences
+     * @param readLength - the mean length of a short read
+     * @param longReadLength - the mean length of a long read
+     * @return the sequences
+     */
+    static String[] generate(String name, int size, int readLength, int longReadLength) {
+        Random random = new Random(42);
+        Set<String> sequences = new LinkedHashSet<String>();
+        String[] stems = new String[16];
+        for (int i = 0; i < stems.length; i++) {
+            stems[i] = bases(random, 3 * readLength / 4);
+        }
+        int tail = Math.max(readLength / 4,
+            2 + (int) Math.ceil(Math.log(size) / Math.log(4)));
+        long attempts = 0;
+        while (sequences.size() < size) {
+            if (++attempts > 20L * size) {
+                throw new IllegalArgumentException("reads too short for " + size
+                    + " distinct sequences");
+            }
+            switch (name) {
+                case UNIFORM:
+                    sequences.add(bases(random, vary(random, readLength)));
+                    break;
+                case SHARED_PREFIX:
+                    // A handful of long shared stems, so the paths are
+                    // deep chains that only branch near the leaves.
+                    sequences.add(stems[random.nextInt(stems.length)]
+                        + bases(random, 1 + random.nextInt(tail)));
+                    break;
+                case LONG_READ:
+                    sequences.add(bases(random, vary(random, longReadLength)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown dataset " + name);
+            }
+        }
+        return sequences.toArray(new String[0]);
+    }
+
+    /**
+     * Random reads with lengths spread evenly over a range.  Unlike
+     * generate's sets, these may repeat.
+     *
+     * @param size - the number of sequences
+     * @param minLength - the shortest length
+     * @param maxLength - the longest length
+     * @param seed - the random seed
+     * @return the sequences
+     */
+    static String[] reads(int size, int minLength, int maxLength, long seed) {
+        Random random = new Random(seed);
+        String[] sequences = new String[size];
+        for (int i = 0; i < size; i++) {
+            sequences[i] = bases(random, minLength + random.nextInt(maxLength - minLength + 1));
+        }
+        return sequences;
+    }
+
+    /**
+     * @return a length within a quarter either side of mean, at least 1
+     */
+    private static int vary(Random random, int mean) {
+        int spread = Math.max(1, mean / 2);
+        return Math.max(1, mean - spread / 2 + random.nextInt(spread));
+    }
+
+    static String bases(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = BASES[random.nextInt(4)];
+        }
+        return new String(chars);
+    }
+}
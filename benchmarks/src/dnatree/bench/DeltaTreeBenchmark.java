@@ -0,0 +1,167 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times a burst of inserts and removes into a large Tree against the
+ * same burst into a DeltaTree holding the same sequences, and exact
+ * searches on each once the burst is in.  After a DeltaTree trial its
+ * merge report is printed.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar DeltaTreeBenchmark -p maxDelta=1024,4096
+ */
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeltaTreeBenchmark {
+    private static final MethodHandle NEW_DELTA = Trees.constructor("DeltaTree",
+        int.class, int.class, int.class, boolean.class);
+    private static final MethodHandle MERGE = Trees.method("DeltaTree", "merge", void.class);
+    private static final MethodHandle REPORT = Trees.method("DeltaTree", "report", void.class,
+        Appendable.class);
+    private static final MethodHandle CLOSE = Trees.method("DeltaTree", "close", void.class);
+
+    /**
+     * The sequences, and how each tree is built.
+     */
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"tree", "delta"})
+        public String kind;
+        @Param({"500000"})
+        public int base;
+        @Param({"200000"})
+        public int burst;
+        @Param({"4096"})
+        public int maxDelta;
+        @Param({"2"})
+        public int maxSealed;
+        @Param({"8"})
+        public int ratio;
+        @Param({"false"})
+        public boolean freeze;
+
+        String[] sequences;
+        String[] queries;
+        /**
+         * A tree with the burst in, for the searches.
+         */
+        Object searched;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            sequences = Datasets.reads(base + burst, 8, 31, 42);
+            Random random = new Random(7);
+            queries = new String[4096];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = sequences[random.nextInt(sequences.length)] + "$";
+            }
+            searched = load();
+            write(searched);
+            if (kind.equals("delta")) {
+                MERGE.invokeExact(searched);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Throwable {
+            if (kind.equals("delta")) {
+                StringBuilder report = new StringBuilder();
+                REPORT.invokeExact(searched, (Appendable) report);
+                System.out.print(report);
+                CLOSE.invokeExact(searched);
+            }
+        }
+
+        /**
+         * @return a new tree of the kind holding the base sequences,
+         *         a DeltaTree's merged down to its base
+         */
+        Object load() throws Throwable {
+            Object tree = kind.equals("delta")
+                ? (Object) NEW_DELTA.invokeExact(maxDelta, maxSealed, ratio, freeze)
+                : Trees.newTree();
+            Trees.bulkLoad(tree, Arrays.asList(sequences).subList(0, base));
+            if (kind.equals("delta")) {
+                MERGE.invokeExact(tree);
+            }
+            return tree;
+        }
+
+        /**
+         * Inserts the burst, removing an older sequence every fourth.
+         */
+        void write(Object tree) {
+            for (int i = base; i < sequences.length; i++) {
+                Trees.insert(tree, sequences[i]);
+                if (i % 4 == 0) {
+                    Trees.remove(tree, sequences[i - base / 2]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A tree of the base sequences for each burst.
+     */
+    @State(Scope.Thread)
+    public static class Loaded {
+        Object tree;
+
+        @Setup(Level.Iteration)
+        public void setUp(Data data) throws Throwable {
+            tree = data.load();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(Data data) throws Throwable {
+            if (data.kind.equals("delta")) {
+                CLOSE.invokeExact(tree);
+            }
+        }
+    }
+
+    /**
+     * Walks through the queries one per call.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object burst(Data data, Loaded loaded) {
+        data.write(loaded.tree);
+        return loaded.tree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public String searchExact(Data data, Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (data.queries.length - 1);
+        return Trees.search(data.searched, data.queries[cursor.next]);
+    }
+}
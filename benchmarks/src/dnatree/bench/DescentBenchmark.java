@@ -0,0 +1,217 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures descending from the root to a leaf, comparing
+ * InternalNode's table-indexed slots with the if/else chain over five
+ * named fields it replaced (kept here as ChainNode) and with a separate
+ * slot array (ArrayNode), which costs an extra pointer load.  Each
+ * layout is a copy of the same tree made in the same depth-first
+ * order, and each runs in its own fork, since allocation order and
+ * GC placement swamp the differences when they share a heap.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar DescentBenchmark -p shared=0,24
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DescentBenchmark {
+    private static final Class<?> INTERNAL = Trees.type("InternalNode");
+    private static final MethodHandle ROOT = Trees.method("Tree", "getRoot", "Node");
+    private static final MethodHandle NEW_FLYWEIGHT = Trees.constructor("FlyweightNode");
+    private static final MethodHandle NEW_INTERNAL = Trees.constructor("InternalNode",
+        "FlyweightNode", int.class);
+    private static final MethodHandle GET_NODE = Trees.method("InternalNode", "getNode",
+        "Node", char.class);
+    private static final MethodHandle GET_CHILD = Trees.method("InternalNode", "getChild",
+        "Node", int.class);
+    private static final MethodHandle SET_CHILD = Trees.method("InternalNode", "setChild",
+        void.class, int.class, "Node");
+    private static final MethodHandle LEVEL = Trees.method("Node", "getLevel", int.class);
+    private static final MethodHandle INDEX = Trees.staticMethod("InternalNode", "index",
+        int.class, char.class);
+    private static final int SLOTS = 5;
+    private static final char[] SLOT_CHARS = {'A', 'C', 'G', 'T', 'E'};
+
+    /**
+     * The previous InternalNode layout, kept only as a baseline.
+     */
+    static final class ChainNode {
+        private Object A, C, G, T, $;
+
+        Object getNode(char c) {
+            if (c == 'A') {
+                return A;
+            }
+            else if (c == 'C') {
+                return C;
+            }
+            else if (c == 'G') {
+                return G;
+            }
+            else if (c == 'T') {
+                return T;
+            }
+            else if (c == 'E') {
+                return $;
+            }
+            return null;
+        }
+
+        void addNode(Object node, char c) {
+            if (c == 'A') {
+                A = node;
+            }
+            else if (c == 'C') {
+                C = node;
+            }
+            else if (c == 'G') {
+                G = node;
+            }
+            else if (c == 'T') {
+                T = node;
+            }
+            else if (c == 'E') {
+                $ = node;
+            }
+        }
+    }
+
+    /**
+     * Children in a separate array, the layout InternalNode avoids.
+     */
+    static final class ArrayNode {
+        final Object[] children = new Object[SLOTS];
+    }
+
+    @Param({"slots", "chain", "array"})
+    public String layout;
+    @Param({"4000000"})
+    public int count;
+    @Param({"0"})
+    public int shared;
+
+    private String[] queries;
+    private Object root;
+    /**
+     * 0, 1 or 2 for the slots, chain or array layout, so that telling
+     * them apart costs no string compare.
+     */
+    private int kind;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Random random = new Random(7);
+        String prefix = Datasets.bases(random, shared);
+        queries = new String[count];
+        Object tree = Trees.newTree();
+        for (int i = 0; i < count; i++) {
+            queries[i] = prefix + Datasets.bases(random, 40);
+            Trees.insert(tree, queries[i]);
+        }
+        Object treeRoot = (Object) ROOT.invokeExact(tree);
+        kind = layout.equals("slots") ? 0 : layout.equals("chain") ? 1 : 2;
+        if (kind == 0) {
+            root = toSlots(treeRoot, (Object) NEW_FLYWEIGHT.invokeExact());
+        }
+        else if (kind == 1) {
+            root = toChain(treeRoot);
+        }
+        else {
+            root = toArray(treeRoot);
+        }
+        tree = null;
+        treeRoot = null;
+        System.gc();
+    }
+
+    private String nextQuery() {
+        if (++next == queries.length) {
+            next = 0;
+        }
+        return queries[next];
+    }
+
+    @Benchmark
+    public Object descend() throws Throwable {
+        String q = nextQuery();
+        Object cur = root;
+        int level = 0;
+        if (kind == 0) {
+            while (INTERNAL.isInstance(cur)) {
+                char c = level < q.length() ? q.charAt(level) : 'E';
+                cur = (Object) GET_NODE.invokeExact(cur, c);
+                level++;
+            }
+        }
+        else if (kind == 1) {
+            while (cur instanceof ChainNode) {
+                char c = level < q.length() ? q.charAt(level) : 'E';
+                cur = ((ChainNode) cur).getNode(c);
+                level++;
+            }
+        }
+        else {
+            while (cur instanceof ArrayNode) {
+                char c = level < q.length() ? q.charAt(level) : 'E';
+                cur = ((ArrayNode) cur).children[(int) INDEX.invokeExact(c)];
+                level++;
+            }
+        }
+        return cur;
+    }
+
+    private static Object toSlots(Object node, Object fw) throws Throwable {
+        if (!INTERNAL.isInstance(node)) {
+            return node;
+        }
+        Object copy = (Object) NEW_INTERNAL.invokeExact(fw, (int) LEVEL.invokeExact(node));
+        for (int i = 0; i < SLOTS; i++) {
+            SET_CHILD.invokeExact(copy, i, toSlots((Object) GET_CHILD.invokeExact(node, i), fw));
+        }
+        return copy;
+    }
+
+    private static Object toChain(Object node) throws Throwable {
+        if (!INTERNAL.isInstance(node)) {
+            return node;
+        }
+        ChainNode copy = new ChainNode();
+        for (int i = 0; i < SLOTS; i++) {
+            copy.addNode(toChain((Object) GET_CHILD.invokeExact(node, i)), SLOT_CHARS[i]);
+        }
+        return copy;
+    }
+
+    private static Object toArray(Object node) throws Throwable {
+        if (!INTERNAL.isInstance(node)) {
+            return node;
+        }
+        ArrayNode copy = new ArrayNode();
+        for (int i = 0; i < SLOTS; i++) {
+            copy.children[i] = toArray((Object) GET_CHILD.invokeExact(node, i));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,89 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times logged inserts and removes on a DurableTree for a few group
+ * commit intervals, up to the last of them reaching the disk.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar DurableTreeBenchmark -p operations=4000000
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurableTreeBenchmark {
+    private static final MethodHandle OPEN = Trees.staticMethod("DurableTree", "open",
+        "DurableTree", Path.class, long.class);
+    private static final MethodHandle SYNC = Trees.method("DurableTree", "sync", void.class);
+    private static final MethodHandle CLOSE = Trees.method("DurableTree", "close", void.class);
+
+    /**
+     * Milliseconds between group commits.
+     */
+    @Param({"1", "10", "100"})
+    public long interval;
+    @Param({"1000000"})
+    public int operations;
+
+    private String[] sequences;
+    private Path dir;
+    private Object tree;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        sequences = Datasets.reads(operations, 8, 39, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws Throwable {
+        dir = Files.createTempDirectory("tree");
+        tree = (Object) OPEN.invokeExact(dir, interval);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws Throwable {
+        CLOSE.invokeExact(tree);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public Object write() throws Throwable {
+        for (int i = 0; i < operations; i++) {
+            if (i % 4 == 3) {
+                Trees.remove(tree, sequences[i - 1]);
+            }
+            else {
+                Trees.insert(tree, sequences[i]);
+            }
+        }
+        SYNC.invokeExact(tree);
+        return tree;
+    }
+}
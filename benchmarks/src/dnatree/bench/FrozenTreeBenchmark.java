@@ -0,0 +1,97 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a Tree with its frozen copy: exact and prefix search times,
+ * and, printed once per trial, the heap each one holds.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar FrozenTreeBenchmark -p size=4000000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrozenTreeBenchmark {
+    private static final MethodHandle FREEZE = Trees.method("Tree", "freeze", "FrozenTree");
+    private static final MethodHandle BYTES = Trees.method("FrozenTree", "bytes", long.class);
+
+    @Param({"tree", "frozen"})
+    public String kind;
+    @Param({"1000000"})
+    public int size;
+    @Param({"40"})
+    public int maxLength;
+
+    private Object tree;
+    private String[] exact;
+    private String[] prefixes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        String[] sequences = Datasets.reads(size, 8, maxLength, 42);
+        Random random = new Random(7);
+        exact = new String[4096];
+        prefixes = new String[exact.length];
+        for (int i = 0; i < exact.length; i++) {
+            exact[i] = sequences[random.nextInt(size)] + "$";
+            prefixes[i] = sequences[random.nextInt(size)].substring(0, 8);
+        }
+        long before = usedHeap();
+        Object loaded = Trees.newTree();
+        Trees.bulkLoad(loaded, Arrays.asList(sequences));
+        long treeBytes = usedHeap() - before;
+        if (kind.equals("frozen")) {
+            before = usedHeap();
+            tree = (Object) FREEZE.invokeExact(loaded);
+            long frozenBytes = usedHeap() - before;
+            loaded = null;
+            System.out.printf("%n%d sequences: tree %d MB, frozen %d MB (%d MB by its own count)%n",
+                size, treeBytes >> 20, frozenBytes >> 20, (long) BYTES.invokeExact(tree) >> 20);
+        }
+        else {
+            tree = loaded;
+            System.out.printf("%n%d sequences: tree %d MB%n", size, treeBytes >> 20);
+        }
+    }
+
+    @Benchmark
+    public String searchExact() {
+        next = (next + 1) & (exact.length - 1);
+        return Trees.search(tree, exact[next]);
+    }
+
+    @Benchmark
+    public String searchPrefix() {
+        next = (next + 1) & (prefixes.length - 1);
+        return Trees.search(tree, prefixes[next]);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,126 @@
+package dnatree.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times tokenizing a generated command file with CommandReader against
+ * the Scanner based tokenizing it replaced.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar ParserBenchmark -p megabytes=2048
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+    private static final String[] VERBS = {"insert", "remove", "search", "print"};
+    private static final int EOF = -1;
+    private static final MethodHandle NEW_READER = Trees.constructor("CommandReader",
+        FileChannel.class);
+    private static final MethodHandle NEXT = Trees.method("CommandReader", "next", int.class);
+    private static final MethodHandle ARGUMENT_LENGTH = Trees.method("CommandReader",
+        "argumentLength", int.class);
+    private static final MethodHandle CLOSE = Trees.method("CommandReader", "close", void.class);
+
+    @Param({"256"})
+    public long megabytes;
+    @Param({"150"})
+    public int maxLength;
+
+    private File input;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        input = File.createTempFile("dnatree-bench", ".txt");
+        Random random = new Random(42);
+        long bytes = megabytes << 20;
+        long written = 0;
+        byte[] bases = {'A', 'C', 'G', 'T'};
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(input), 1 << 20)) {
+            while (written < bytes) {
+                String verb = VERBS[random.nextInt(VERBS.length)];
+                byte[] line = new byte[verb.length() + maxLength + 16];
+                int n = 0;
+                for (int i = 0; i < verb.length(); i++) {
+                    line[n++] = (byte) verb.charAt(i);
+                }
+                int padding = 1 + random.nextInt(12);
+                for (int i = 0; i < padding; i++) {
+                    line[n++] = ' ';
+                }
+                if (verb.equals("print")) {
+                    n -= padding;
+                }
+                else {
+                    int length = 1 + random.nextInt(maxLength);
+                    for (int i = 0; i < length; i++) {
+                        line[n++] = bases[random.nextInt(4)];
+                    }
+                }
+                line[n++] = '\n';
+                out.write(line, 0, n);
+                written += n;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        input.delete();
+    }
+
+    @Benchmark
+    public long commandReader() throws Throwable {
+        long checksum = 0;
+        Object reader = (Object) NEW_READER.invokeExact(new FileInputStream(input).getChannel());
+        try {
+            int verb;
+            while ((verb = (int) NEXT.invokeExact(reader)) != EOF) {
+                checksum += verb + (int) ARGUMENT_LENGTH.invokeExact(reader);
+            }
+        } finally {
+            CLOSE.invokeExact(reader);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long scanner() throws IOException {
+        long checksum = 0;
+        try (Scanner scanner = new Scanner(input)) {
+            while (scanner.hasNext()) {
+                String verb = scanner.next();
+                String rest = scanner.nextLine().trim();
+                checksum += verb.length() + rest.length();
+            }
+        }
+        return checksum;
+    }
+}
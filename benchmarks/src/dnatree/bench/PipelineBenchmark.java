@@ -0,0 +1,132 @@
+package dnatree.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times running a command file in sequence, as Parser.execute(reader,
+ * out) does, against running it through a CommandPipeline, on a Tree
+ * or on a ShardedTree with the given shard prefix length.  The output
+ * goes to a file, so writing it costs real I/O.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar PipelineBenchmark -p commands=4000000
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+    private static final MethodHandle NEW_TREE = Trees.constructor("Tree");
+    private static final MethodHandle NEW_SHARDED = Trees.constructor("ShardedTree", int.class);
+    private static final MethodHandle CLOSE_SHARDED = Trees.method("ShardedTree", "close",
+        void.class);
+    private static final MethodHandle NEW_READER = Trees.constructor("CommandReader",
+        FileChannel.class);
+    private static final MethodHandle CLOSE_READER = Trees.method("CommandReader", "close",
+        void.class);
+    private static final MethodHandle NEW_PARSER = Trees.constructor("Parser", File.class, "Tree");
+    private static final MethodHandle PARSE = Trees.method("Parser", "execute", void.class,
+        "CommandReader", PrintWriter.class);
+    private static final MethodHandle NEW_PIPELINE = Trees.constructor("CommandPipeline", "Tree");
+    private static final MethodHandle PIPE = Trees.method("CommandPipeline", "execute",
+        void.class, "CommandReader", PrintWriter.class);
+
+    @Param({"sequential", "pipelined"})
+    public String mode;
+    /**
+     * The shard prefix length for a ShardedTree, or 0 for a Tree.
+     */
+    @Param({"0", "2"})
+    public int k;
+    @Param({"1000000"})
+    public int commands;
+    @Param({"250000"})
+    public int printEvery;
+
+    private File input;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        input = File.createTempFile("dnatree-pipeline", ".txt");
+        output = File.createTempFile("dnatree-pipeline", ".out");
+        Random random = new Random(42);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(input), 1 << 20)) {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < commands; i++) {
+                line.setLength(0);
+                if (i % printEvery == printEvery - 1) {
+                    line.append("print lengths");
+                }
+                else {
+                    int kind = random.nextInt(10);
+                    line.append(kind < 6 ? "insert " : kind < 8 ? "remove " : "search ");
+                    line.append(Datasets.bases(random, 8 + random.nextInt(24)));
+                    if (kind >= 8) {
+                        line.append('$');
+                    }
+                }
+                line.append('\n');
+                out.write(line.toString().getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        input.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    public long run() throws Throwable {
+        Object tree = k == 0 ? (Object) NEW_TREE.invokeExact() : (Object) NEW_SHARDED.invokeExact(k);
+        Object reader = (Object) NEW_READER.invokeExact(new FileInputStream(input).getChannel());
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output), StandardCharsets.ISO_8859_1), 1 << 16));
+            if (mode.equals("pipelined")) {
+                PIPE.invokeExact((Object) NEW_PIPELINE.invokeExact(tree), reader, out);
+            }
+            else {
+                PARSE.invokeExact((Object) NEW_PARSER.invokeExact((File) null, tree), reader, out);
+            }
+            out.close();
+        } finally {
+            CLOSE_READER.invokeExact(reader);
+            if (k > 0) {
+                CLOSE_SHARDED.invokeExact(tree);
+            }
+        }
+        return output.length();
+    }
+}
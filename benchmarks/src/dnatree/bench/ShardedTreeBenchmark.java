@@ -0,0 +1,115 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times a burst of inserts and removes into a loaded ShardedTree for
+ * each shard prefix length k, next to a ConcurrentTree (k = 0), whose
+ * writes all go one at a time.  One thread submits the writes without
+ * waiting, the way the command pipeline does, and the time runs until
+ * every shard has made them, so with a core per shard it falls as k
+ * grows.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar ShardedTreeBenchmark -p k=0,2,3
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedTreeBenchmark {
+    private static final MethodHandle NEW_SHARDED = Trees.constructor("ShardedTree", int.class);
+    private static final MethodHandle NEW_CONCURRENT = Trees.constructor("ConcurrentTree");
+    private static final MethodHandle PACK = Trees.staticMethod("PackedSequence", "of",
+        "PackedSequence", CharSequence.class);
+    private static final MethodHandle INSERT = Trees.method("Tree", "insert",
+        int.class, "PackedSequence");
+    private static final MethodHandle REMOVE = Trees.method("Tree", "remove",
+        boolean.class, "PackedSequence");
+    private static final MethodHandle SUBMIT_INSERT = Trees.method("ShardedTree",
+        "submitInsert", Future.class, "PackedSequence");
+    private static final MethodHandle SUBMIT_REMOVE = Trees.method("ShardedTree",
+        "submitRemove", Future.class, "PackedSequence");
+    private static final MethodHandle FLUSH = Trees.method("ShardedTree", "flush", void.class);
+    private static final MethodHandle CLOSE = Trees.method("ShardedTree", "close", void.class);
+
+    /**
+     * The shard prefix length, giving 4^k shards; 0 for a ConcurrentTree.
+     */
+    @Param({"0", "1", "2", "3"})
+    public int k;
+    @Param({"1000000"})
+    public int size;
+    /**
+     * Sequences each inserted then removed, so twice as many writes.
+     */
+    @Param({"1000000"})
+    public int writes;
+
+    private String[] loaded;
+    private Object[] changes;
+    private Object tree;
+
+    @Setup(Level.Trial)
+    public void generate() throws Throwable {
+        loaded = Datasets.reads(size, 8, 39, 42);
+        String[] sequences = Datasets.reads(writes, 8, 39, 43);
+        changes = new Object[sequences.length];
+        for (int i = 0; i < changes.length; i++) {
+            changes[i] = (Object) PACK.invokeExact((CharSequence) sequences[i]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void load() throws Throwable {
+        tree = k == 0 ? (Object) NEW_CONCURRENT.invokeExact() : (Object) NEW_SHARDED.invokeExact(k);
+        Trees.bulkLoad(tree, Arrays.asList(loaded));
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws Throwable {
+        if (k > 0) {
+            CLOSE.invokeExact(tree);
+        }
+    }
+
+    @Benchmark
+    public Object write() throws Throwable {
+        if (k == 0) {
+            long levels = 0;
+            for (Object sequence : changes) {
+                levels += (int) INSERT.invokeExact(tree, sequence);
+                if ((boolean) REMOVE.invokeExact(tree, sequence)) {
+                    levels++;
+                }
+            }
+            return levels;
+        }
+        Future<?> last = null;
+        for (Object sequence : changes) {
+            last = (Future<?>) SUBMIT_INSERT.invokeExact(tree, sequence);
+            last = (Future<?>) SUBMIT_REMOVE.invokeExact(tree, sequence);
+        }
+        FLUSH.invokeExact(tree);
+        return last;
+    }
+}
@@ -0,0 +1,98 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares rebuilding a tree by inserting every sequence with
+ * reloading it from a snapshot: saving one, opening the mapped file,
+ * opening it and answering the first search off it, and opening it and
+ * building the object tree with a first insert.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar SnapshotBenchmark -p size=4000000
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    private static final MethodHandle SAVE = Trees.method("Tree", "save", void.class, Path.class);
+    private static final MethodHandle OPEN = Trees.staticMethod("MappedTree", "open",
+        "MappedTree", Path.class);
+
+    @Param({"1000000"})
+    public int size;
+
+    private String[] sequences;
+    private String query;
+    private Object tree;
+    private Path file;
+    private Path saved;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        sequences = Datasets.reads(size, 8, 39, 42);
+        query = sequences[size / 2] + "$";
+        tree = insertAll();
+        file = Files.createTempFile("tree", ".snap");
+        saved = Files.createTempFile("tree", ".snap");
+        SAVE.invokeExact(tree, file);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        Files.delete(file);
+        Files.delete(saved);
+    }
+
+    @Benchmark
+    public Object insertAll() {
+        Object built = Trees.newTree();
+        for (String sequence : sequences) {
+            Trees.insert(built, sequence);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public Path save() throws Throwable {
+        SAVE.invokeExact(tree, saved);
+        return saved;
+    }
+
+    @Benchmark
+    public Object open() throws Throwable {
+        return (Object) OPEN.invokeExact(file);
+    }
+
+    @Benchmark
+    public String firstSearch() throws Throwable {
+        return Trees.search((Object) OPEN.invokeExact(file), query);
+    }
+
+    @Benchmark
+    public Object materialize() throws Throwable {
+        Object mapped = (Object) OPEN.invokeExact(file);
+        Trees.insert(mapped, "A");
+        return mapped;
+    }
+}
@@ -0,0 +1,199 @@
+package dnatree.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times Tree.insert, remove, search and print over the synthetic
+ * datasets.  Searches are timed one query at a time, and a batch of
+ * them both through searchBatch and one search after another.  insert, remove
+ * and print are timed over a whole tree: insert builds one from empty,
+ * remove takes one apart again in a different order, so every collapse
+ * case is hit, and the prints dump it.
+ *
+ * Run with, for example:
+ *   java -jar benchmarks/target/benchmarks.jar -p size=1000000 -rf json -rff results.json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeBenchmark {
+    /**
+     * The sequences, shared by every benchmark for one set of params.
+     */
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({Datasets.UNIFORM, Datasets.SHARED_PREFIX, Datasets.LONG_READ})
+        public String dataset;
+        @Param({"100000"})
+        public int size;
+        @Param({"32"})
+        public int readLength;
+        @Param({"1000"})
+        public int longReadLength;
+        @Param({"1000"})
+        public int batchSize;
+
+        String[] sequences;
+        /**
+         * The same sequences shuffled, for removing in another order
+         * and for queries that do not follow the insert order.
+         */
+        String[] shuffled;
+        String[] exact;
+        String[] prefixes;
+        /**
+         * Exact and prefix queries mixed, for the batch benchmarks.
+         */
+        List<String> batch;
+        Object tree;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            sequences = Datasets.generate(dataset, size, readLength, longReadLength);
+            shuffled = sequences.clone();
+            Random random = new Random(7);
+            for (int i = shuffled.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                String tmp = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = tmp;
+            }
+            exact = new String[shuffled.length];
+            prefixes = new String[shuffled.length];
+            for (int i = 0; i < shuffled.length; i++) {
+                exact[i] = shuffled[i] + "$";
+                prefixes[i] = shuffled[i].substring(0, (shuffled[i].length() + 1) / 2);
+            }
+            batch = new ArrayList<String>();
+            for (int i = 0; i < Math.min(batchSize, shuffled.length); i++) {
+                batch.add(i % 2 == 0 ? exact[i] : prefixes[i]);
+            }
+            tree = Trees.newTree();
+            for (String sequence : sequences) {
+                Trees.insert(tree, sequence);
+            }
+        }
+    }
+
+    /**
+     * A fully loaded tree for each remove invocation.
+     */
+    @State(Scope.Thread)
+    public static class Loaded {
+        Object tree;
+
+        @Setup(Level.Invocation)
+        public void setUp(Data data) {
+            tree = Trees.newTree();
+            for (String sequence : data.sequences) {
+                Trees.insert(tree, sequence);
+            }
+        }
+    }
+
+    /**
+     * Walks through the queries one per call.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next(int size) {
+            if (++next == size) {
+                next = 0;
+            }
+            return next;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public Object insert(Data data) {
+        Object tree = Trees.newTree();
+        for (String sequence : data.sequences) {
+            Trees.insert(tree, sequence);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public Object remove(Data data, Loaded loaded) {
+        for (String sequence : data.shuffled) {
+            Trees.remove(loaded.tree, sequence);
+        }
+        return loaded.tree;
+    }
+
+    @Benchmark
+    public String searchExact(Data data, Cursor cursor) {
+        return Trees.search(data.tree, data.exact[cursor.next(data.size)]);
+    }
+
+    @Benchmark
+    public String searchPrefix(Data data, Cursor cursor) {
+        return Trees.search(data.tree, data.prefixes[cursor.next(data.size)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String[] searchBatch(Data data) {
+        return Trees.searchBatch(data.tree, data.batch);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String[] searchEach(Data data) {
+        String[] results = new String[data.batch.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = Trees.search(data.tree, data.batch.get(i));
+        }
+        return results;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public String print(Data data) {
+        return Trees.print(data.tree, false, false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public String printLengths(Data data) {
+        return Trees.print(data.tree, true, false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public String printStats(Data data) {
+        return Trees.print(data.tree, false, true);
+    }
+}
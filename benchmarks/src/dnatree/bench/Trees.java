@@ -0,0 +1,197 @@
+package dnatree.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Calls into Tree.  The tree classes live in the default package,
+ * which code in a named package cannot name, and JMH will not generate
+ * benchmarks outside one, so the calls go through method handles.
+ * They are static final, so the JIT inlines them like direct calls.
+ * The other benchmarks find their own handles with method,
+ * staticMethod and constructor.
+ */
+final class Trees {
+    private static final MethodHandle NEW;
+    private static final MethodHandle INSERT;
+    private static final MethodHandle REMOVE;
+    private static final MethodHandle SEARCH;
+    private static final MethodHandle PRINT;
+    private static final MethodHandle SEARCH_BATCH;
+    private static final MethodHandle BULK_LOAD;
+
+    static {
+        NEW = constructor("Tree");
+        INSERT = method("Tree", "insert", int.class, String.class);
+        REMOVE = method("Tree", "remove", boolean.class, String.class);
+        SEARCH = method("Tree", "search", String.class, String.class);
+        PRINT = method("Tree", "print", String.class, boolean.class, boolean.class);
+        SEARCH_BATCH = method("Tree", "searchBatch", String[].class, List.class);
+        BULK_LOAD = method("Tree", "bulkLoad", int[].class, Iterable.class);
+    }
+
+    private Trees() {
+    }
+
+    static Object newTree() {
+        try {
+            return (Object) NEW.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int insert(Object tree, String sequence) {
+        try {
+            return (int) INSERT.invokeExact(tree, sequence);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean remove(Object tree, String sequence) {
+        try {
+            return (boolean) REMOVE.invokeExact(tree, sequence);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String search(Object tree, String query) {
+        try {
+            return (String) SEARCH.invokeExact(tree, query);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String[] searchBatch(Object tree, List<String> queries) {
+        try {
+            return (String[]) SEARCH_BATCH.invokeExact(tree, queries);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int[] bulkLoad(Object tree, Iterable<String> sequences) {
+        try {
+            return (int[]) BULK_LOAD.invokeExact(tree, (Iterable<?>) sequences);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String print(Object tree, boolean lengths, boolean stats) {
+        try {
+            return (String) PRINT.invokeExact(tree, lengths, stats);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @param name - a class of the tree's, in the default package
+     */
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a method of one of the tree's classes, package-private ones
+     * too.  The receiver and every parameter or result of a class from
+     * the default package become Object, so callers here can
+     * invokeExact it.
+     *
+     * @param type - the class declaring the method
+     * @param name - the method
+     * @param returns - its result: a Class, or the name of one from
+     *        the default package
+     * @param params - its parameters, given like returns
+     */
+    static MethodHandle method(String type, String name, Object returns, Object... params) {
+        try {
+            Class<?> owner = type(type);
+            MethodType real = MethodType.methodType(resolve(returns), resolveAll(params));
+            return lookup(owner).findVirtual(owner, name, real).asType(erase(real)
+                .insertParameterTypes(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Like method, for a static method.
+     */
+    static MethodHandle staticMethod(String type, String name, Object returns,
+        Object... params) {
+        try {
+            Class<?> owner = type(type);
+            MethodType real = MethodType.methodType(resolve(returns), resolveAll(params));
+            return lookup(owner).findStatic(owner, name, real).asType(erase(real));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Like method, for a constructor; the handle returns Object.
+     */
+    static MethodHandle constructor(String type, Object... params) {
+        try {
+            Class<?> owner = type(type);
+            MethodType real = MethodType.methodType(void.class, resolveAll(params));
+            return lookup(owner).findConstructor(owner, real).asType(erase(real)
+                .changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+    }
+
+    /**
+     * @param types - each a Class, or the name of a default-package one
+     */
+    private static Class<?>[] resolveAll(Object[] types) {
+        Class<?>[] resolved = new Class<?>[types.length];
+        for (int i = 0; i < types.length; i++) {
+            resolved[i] = resolve(types[i]);
+        }
+        return resolved;
+    }
+
+    private static Class<?> resolve(Object type) {
+        return type instanceof String ? type((String) type) : (Class<?>) type;
+    }
+
+    private static MethodType erase(MethodType type) {
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty()
+                && !type.parameterType(i).isPrimitive()) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (type.returnType().getPackageName().isEmpty() && !type.returnType().isPrimitive()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return type;
+    }
+
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+}